@@ -24,8 +24,14 @@ package com.mayabot.nlp.collection.ahocorasick;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.function.BiConsumer;
@@ -69,6 +75,13 @@ public class AhoCorasickDoubleArrayTrie<V> {
      */
     int[] keylength;
 
+    /**
+     * save保存的二进制文件的格式版本，格式有变化时修改
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x41434454;
+
     AhoCorasickDoubleArrayTrie() {
 
     }
@@ -97,6 +110,158 @@ public class AhoCorasickDoubleArrayTrie<V> {
         return x;
     }
 
+    /**
+     * 保存为二进制文件，可以用load快速读取。
+     * 数组按原样整块写出，output只保存非空的部分，value由encoder编码为字符串后连续保存在一个字符数组中
+     *
+     * @param file    文件
+     * @param encoder value的编码方法，不能返回null
+     * @throws IOException
+     */
+    public void save(File file, Function<V, String> encoder) throws IOException {
+        int outputCount = 0;
+        int outputLength = 0;
+        for (int[] hits : output) {
+            if (hits != null) {
+                outputCount++;
+                outputLength += hits.length;
+            }
+        }
+        int[] outputState = new int[outputCount];
+        int[] outputOffset = new int[outputCount + 1];
+        int[] outputData = new int[outputLength];
+        for (int state = 0, k = 0; state < output.length; state++) {
+            int[] hits = output[state];
+            if (hits != null) {
+                outputState[k] = state;
+                System.arraycopy(hits, 0, outputData, outputOffset[k], hits.length);
+                outputOffset[k + 1] = outputOffset[k] + hits.length;
+                k++;
+            }
+        }
+
+        int[] valueOffset = new int[values.size() + 1];
+        StringBuilder valueChars = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            valueChars.append(encoder.apply(values.get(i)));
+            valueOffset[i + 1] = valueChars.length();
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            buffer.putInt(output.length);
+
+            writeInts(channel, buffer, base);
+            writeInts(channel, buffer, check);
+            writeInts(channel, buffer, fail);
+            writeInts(channel, buffer, keylength);
+            writeInts(channel, buffer, outputState);
+            writeInts(channel, buffer, outputOffset);
+            writeInts(channel, buffer, outputData);
+            writeInts(channel, buffer, valueOffset);
+
+            flush(channel, buffer, 4);
+            buffer.putInt(valueChars.length());
+            for (int i = 0; i < valueChars.length(); i++) {
+                flush(channel, buffer, 2);
+                buffer.putChar(valueChars.charAt(i));
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * 读取save保存的文件。文件整体映射到内存，数组用IntBuffer整块复制，不逐个解析
+     *
+     * @param file    文件
+     * @param decoder value的解码方法
+     * @return 自动机
+     * @throws IOException 文件不完整或者格式版本不一致
+     */
+    public static <T> AhoCorasickDoubleArrayTrie<T> load(File file, Function<String, T> decoder) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a AhoCorasickDoubleArrayTrie file");
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(file + " format version " + version + ", expect " + FORMAT_VERSION);
+            }
+
+            AhoCorasickDoubleArrayTrie<T> trie = new AhoCorasickDoubleArrayTrie<>();
+            try {
+                int outputSize = buffer.getInt();
+                trie.base = readInts(buffer);
+                trie.check = readInts(buffer);
+                trie.fail = readInts(buffer);
+                trie.keylength = readInts(buffer);
+
+                int[] outputState = readInts(buffer);
+                int[] outputOffset = readInts(buffer);
+                int[] outputData = readInts(buffer);
+                trie.output = new int[outputSize][];
+                for (int k = 0; k < outputState.length; k++) {
+                    trie.output[outputState[k]] = Arrays.copyOfRange(outputData, outputOffset[k], outputOffset[k + 1]);
+                }
+
+                int[] valueOffset = readInts(buffer);
+                char[] valueChars = new char[buffer.getInt()];
+                buffer.asCharBuffer().get(valueChars);
+
+                int valueSize = valueOffset.length - 1;
+                trie.values = new ArrayList<>(valueSize);
+                for (int i = 0; i < valueSize; i++) {
+                    trie.values.add(decoder.apply(
+                            new String(valueChars, valueOffset[i], valueOffset[i + 1] - valueOffset[i])));
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException(file + " is incomplete", e);
+            }
+            return trie;
+        }
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] array) throws IOException {
+        flush(channel, buffer, 4);
+        buffer.putInt(array.length);
+        int from = 0;
+        while (from < array.length) {
+            flush(channel, buffer, 4);
+            int n = Math.min(array.length - from, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(array, from, n);
+            buffer.position(buffer.position() + n * 4);
+            from += n;
+        }
+    }
+
+    /**
+     * buffer剩余空间不足bytes时，把已有的内容写入channel
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer) {
+        int[] array = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(array);
+        buffer.position(buffer.position() + array.length * 4);
+        return array;
+    }
+
     /**
      * 匹配母文本
      *
@@ -179,6 +344,51 @@ public class AhoCorasickDoubleArrayTrie<V> {
         }
     }
 
+    /**
+     * 不重叠匹配，只输出选中的模式串，按起点从左到右依次调用processor。
+     * <p>
+     * 从每个起点沿success转移往下走，不需要failure转移，也不需要记录每个位置的候选。
+     * 选中一个模式串后从它的结尾继续，否则从下一个字符继续。
+     *
+     * @param text      文本
+     * @param kind      匹配方式
+     * @param processor 处理器
+     */
+    public void parseText(char[] text, MatchKind kind, IHit<V> processor) {
+        final boolean longest = kind == MatchKind.LEFTMOST_LONGEST;
+
+        int begin = 0;
+        while (begin < text.length) {
+            int b = base[0];
+            int end = -1;
+            int index = -1;
+
+            for (int i = begin; i < text.length; i++) {
+                int p = b + text[i] + 1;
+                if (p >= check.length || check[p] != b) {
+                    break;
+                }
+                int n = base[p];
+                if (check[n] == n && base[n] < 0) {
+                    // 一个词的终止，词尾用结束符的子节点表示
+                    end = i + 1;
+                    index = -base[n] - 1;
+                    if (!longest) {
+                        break;
+                    }
+                }
+                b = n;
+            }
+
+            if (index >= 0) {
+                processor.hit(begin, end, values.get(index));
+                begin = end;
+            } else {
+                begin++;
+            }
+        }
+    }
+
     /**
      * 获取值
      *
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.collection.ahocorasick;
+
+import com.mayabot.nlp.MynlpEnv;
+import com.mayabot.nlp.logging.InternalLogger;
+import com.mayabot.nlp.logging.InternalLoggerFactory;
+import com.mayabot.nlp.resources.NlpResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * AhoCorasick自动机的二进制缓存。
+ * <p>
+ * 从文本词典构建自动机比较慢，构建好的自动机保存在cacheDir下的 {name}_{sourceVersion}.ac 文件中，
+ * 下次启动时直接映射读取。sourceVersion由调用方根据词典内容计算，词典变化后自然使用新的缓存文件。
+ * 没有配置cacheDir时每次都从文本构建。
+ *
+ * @author jimichan
+ */
+public class AhoCorasickDoubleArrayTrieCache {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(AhoCorasickDoubleArrayTrieCache.class);
+
+    /**
+     * 计算词典内容的版本。
+     * 只用来发现词典的变化，用CRC32而不是md5，几MB的词典只需要几毫秒，不会拖慢启动
+     *
+     * @param salt      其他影响缓存内容的信息，例如value的编码方式
+     * @param resources 词典资源，null会被忽略
+     * @return 版本字符串
+     */
+    public static String sourceVersion(String salt, NlpResource... resources) {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        crc.update(salt.getBytes(StandardCharsets.UTF_8));
+        for (NlpResource resource : resources) {
+            if (resource == null) {
+                continue;
+            }
+            try (InputStream in = resource.openInputStream()) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, n);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * 从缓存读取自动机，缓存不存在或者损坏时从source构建，并写入缓存
+     *
+     * @param env           环境，提供缓存目录
+     * @param name          缓存的名称
+     * @param sourceVersion 词典内容的版本，一般由sourceVersion方法计算
+     * @param source        读取词典
+     * @param encoder       value编码为字符串
+     * @param decoder       字符串解码为value
+     * @return 自动机
+     */
+    public static <V> AhoCorasickDoubleArrayTrie<V> restore(MynlpEnv env, String name, String sourceVersion,
+                                                            Supplier<TreeMap<String, V>> source,
+                                                            Function<V, String> encoder,
+                                                            Function<String, V> decoder) {
+        File cacheDir = env.getCacheDir();
+        File cache = cacheDir == null ? null : new File(cacheDir, name + "_" + sourceVersion + ".ac");
+
+        if (cache != null && cache.exists() && cache.canRead()) {
+            try {
+                long t1 = System.currentTimeMillis();
+                AhoCorasickDoubleArrayTrie<V> trie = AhoCorasickDoubleArrayTrie.load(cache, decoder);
+                long t2 = System.currentTimeMillis();
+                logger.info(cache.getName() + " restore from cache file success, use time " + (t2 - t1) + " ms");
+                return trie;
+            } catch (Exception e) {
+                logger.warn("restore from cache " + cache.getAbsolutePath(), e);
+            }
+        }
+
+        long t1 = System.currentTimeMillis();
+        AhoCorasickDoubleArrayTrie<V> trie = new AhoCoraickDoubleArrayTrieBuilder<V>().build(source.get());
+        long t2 = System.currentTimeMillis();
+        logger.info(name + " build from data source, use time " + (t2 - t1) + " ms");
+
+        if (cache != null) {
+            // 先写临时文件再改名，其他进程不会读到写了一半的缓存
+            File temp = new File(cacheDir, cache.getName() + "." + System.nanoTime() + ".tmp");
+            try {
+                cacheDir.mkdirs();
+                trie.save(temp, encoder);
+                Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                logger.info("save cache file " + cache.getName() + " success, use time "
+                        + (System.currentTimeMillis() - t2) + " ms");
+            } catch (Exception e) {
+                logger.warn("save cache " + cache.getAbsolutePath(), e);
+                temp.delete();
+            }
+        }
+
+        return trie;
+    }
+}
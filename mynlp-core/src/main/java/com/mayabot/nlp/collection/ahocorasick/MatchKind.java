@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.collection.ahocorasick;
+
+/**
+ * 不重叠匹配的方式。
+ * 两种方式都从最左边的起点开始选择，选中的模式串之后的文本继续匹配，互相之间不重叠。
+ *
+ * @author jimichan
+ */
+public enum MatchKind {
+
+    /**
+     * 同一个起点选择最长的模式串，也就是正向最大匹配
+     */
+    LEFTMOST_LONGEST,
+
+    /**
+     * 同一个起点选择下标最小的模式串。key是有序的，所以就是最短的那个
+     */
+    LEFTMOST_FIRST
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.collection.bintrie;
+
+import com.google.common.collect.Lists;
+import com.mayabot.nlp.collection.utils.CharObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 根据子节点数量选择存储方式的TrieNode。
+ * <p>
+ * 绝大部分节点只有几个子节点，使用有序的字符数组二分查找，不需要访问每个子节点对象；子节点多了以后改用CharObjectHashMap；
+ * 如果子节点的字符分布得比较密集，使用以最小字符为起点的数组直接下标访问。
+ *
+ * @param <T>
+ * @author jimichan
+ */
+public class AdaptiveTrieNode<T> extends AbstractTrieNode<T> {
+
+    /**
+     * 有序数组最多保存的子节点数量
+     */
+    static final int SORTED_MAX = 64;
+
+    /**
+     * 字符范围不超过子节点数量的这个倍数时使用直接下标数组
+     */
+    static final int DENSE_FACTOR = 4;
+
+    private static final byte KIND_SORTED = 0;
+    private static final byte KIND_HASH = 1;
+    private static final byte KIND_DENSE = 2;
+
+    private byte kind = KIND_SORTED;
+
+    /**
+     * KIND_SORTED时是有序数组，KIND_DENSE时是从denseBase开始的下标数组
+     */
+    private AdaptiveTrieNode<T>[] array;
+
+    /**
+     * KIND_SORTED时和array对应的有序字符
+     */
+    private char[] chars;
+
+    private CharObjectHashMap<AdaptiveTrieNode<T>> map;
+
+    private char denseBase;
+
+    private int count;
+
+    private char min = Character.MAX_VALUE;
+    private char max = Character.MIN_VALUE;
+
+    AdaptiveTrieNode(char _char, byte status, T value) {
+        super(_char);
+        this.status = status;
+        this.value = value;
+    }
+
+    @Override
+    public List<AbstractTrieNode<T>> getChildren() {
+        if (count == 0) {
+            return null;
+        }
+        if (kind == KIND_HASH) {
+            return Lists.newArrayList(map.values());
+        }
+        List<AbstractTrieNode<T>> list = new ArrayList<>(count);
+        for (AdaptiveTrieNode<T> e : array) {
+            if (e != null) {
+                list.add(e);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 插入子节点
+     *
+     * @param c
+     * @return
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public BinTrieNode<T> addChildNode(BinTrieNode<T> c) {
+        AdaptiveTrieNode<T> child = (AdaptiveTrieNode<T>) c;
+
+        AdaptiveTrieNode<T> branch = findChild(child._char);
+        if (branch != null) {
+            switch (child.status) {
+                case Status_Null:
+                    branch.status = Status_Begin;
+                    break;
+                case Status_Begin:
+                    if (branch.status == Status_End) {
+                        branch.status = Status_Continue;
+                    }
+                    break;
+                case Status_End:
+                    if (branch.status != Status_End) {
+                        branch.status = Status_Continue;
+                    }
+                    branch.value = child.value;
+            }
+            return branch;
+        }
+
+        count++;
+        min = (char) Math.min(min, child._char);
+        max = (char) Math.max(max, child._char);
+
+        switch (kind) {
+            case KIND_SORTED:
+                if (count <= SORTED_MAX) {
+                    insertSorted(child);
+                } else {
+                    convert(child);
+                }
+                break;
+            case KIND_HASH:
+                if (isDense()) {
+                    convert(child);
+                } else {
+                    map.put(child._char, child);
+                }
+                break;
+            default:
+                int index = child._char - denseBase;
+                if (index >= 0 && index < array.length) {
+                    array[index] = child;
+                } else {
+                    convert(child);
+                }
+        }
+        return child;
+    }
+
+    private boolean isDense() {
+        return max - min + 1 <= count * DENSE_FACTOR;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void insertSorted(AdaptiveTrieNode<T> child) {
+        if (array == null) {
+            array = new AdaptiveTrieNode[]{child};
+            chars = new char[]{child._char};
+            return;
+        }
+        int insert = -(Arrays.binarySearch(chars, child._char) + 1);
+        int n = chars.length;
+
+        AdaptiveTrieNode<T>[] newArray = new AdaptiveTrieNode[n + 1];
+        System.arraycopy(array, 0, newArray, 0, insert);
+        System.arraycopy(array, insert, newArray, insert + 1, n - insert);
+        newArray[insert] = child;
+        array = newArray;
+
+        char[] newChars = new char[n + 1];
+        System.arraycopy(chars, 0, newChars, 0, insert);
+        System.arraycopy(chars, insert, newChars, insert + 1, n - insert);
+        newChars[insert] = child._char;
+        chars = newChars;
+    }
+
+    /**
+     * 按照当前的数量和字符范围重新选择存储方式，count、min、max已经包含了新节点
+     */
+    @SuppressWarnings("unchecked")
+    private void convert(AdaptiveTrieNode<T> child) {
+        List<AbstractTrieNode<T>> all = getChildren();
+        if (all == null) {
+            all = new ArrayList<>(1);
+        }
+        all.add(child);
+        chars = null;
+
+        if (isDense()) {
+            // 词典一般按顺序插入，多留一半空间，避免每插入一个字符就重新分配
+            int span = max - min + 1;
+            array = new AdaptiveTrieNode[Math.min(span + span / 2, Character.MAX_VALUE + 1 - min)];
+            denseBase = min;
+            for (AbstractTrieNode<T> node : all) {
+                array[node._char - min] = (AdaptiveTrieNode<T>) node;
+            }
+            map = null;
+            kind = KIND_DENSE;
+        } else {
+            map = new CharObjectHashMap<>(count * 2);
+            for (AbstractTrieNode<T> node : all) {
+                map.put(node._char, (AdaptiveTrieNode<T>) node);
+            }
+            array = null;
+            kind = KIND_HASH;
+        }
+    }
+
+    /**
+     * 查找子节点
+     *
+     * @param c
+     * @return
+     */
+    @Override
+    public AdaptiveTrieNode<T> findChild(char c) {
+        switch (kind) {
+            case KIND_SORTED:
+                if (chars == null) {
+                    return null;
+                }
+                int i = Arrays.binarySearch(chars, c);
+                return i < 0 ? null : array[i];
+            case KIND_HASH:
+                return map.get(c);
+            default:
+                int index = c - denseBase;
+                return index >= 0 && index < array.length ? array[index] : null;
+        }
+    }
+
+    /**
+     * 测试是否包含
+     *
+     * @param c
+     * @return
+     */
+    @Override
+    public boolean contains(char c) {
+        return findChild(c) != null;
+    }
+}
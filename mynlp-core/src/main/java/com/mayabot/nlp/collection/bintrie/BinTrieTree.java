@@ -33,6 +33,8 @@ import static com.mayabot.nlp.collection.bintrie.AbstractTrieNode.*;
  * TireTree 实现。 如果为smart模式，那么首字也是二分法查找。子节点的数字如果大于阀值，那么使用65536的数组
  * <p>
  * 第一次改造为了简单，使用专用的charMap来实现smart tree的行为。smart的树的节点，如果超过一定数量，该用65536的数组
+ * <p>
+ * smart模式下首字绝大部分是CJK基本区的汉字，这个区间的首字使用直接下标的数组，其他字符仍然使用charMap
  *
  * @param <T>
  * @author jimichan
@@ -46,9 +48,17 @@ public class BinTrieTree<T> implements Trie<T>, BinTrieNode<T> {
 
     static final int max_width = 65536;
 
+    static final char CJK_BEGIN = '\u4e00';
+    static final char CJK_END = '\u9fff';
+
     private AbstractTrieNode<T>[] children;
     private CharObjectMap<AbstractTrieNode<T>> childrenMap;
 
+    /**
+     * smart模式下CJK首字的直接下标数组，第一次插入CJK首字时才创建
+     */
+    private AbstractTrieNode<T>[] cjkChildren;
+
     //boolean frezz = false;// 是否冻结
 
     TrieNodeFactory<T> nodeFactory = ArrayTrieNode::new;
@@ -66,6 +76,7 @@ public class BinTrieTree<T> implements Trie<T>, BinTrieNode<T> {
     public void reset() {
         if (rootChildUseMap) {
             childrenMap = new CharObjectHashMap<>(500);
+            cjkChildren = null;
         } else {
             children = new AbstractTrieNode[max_width];
         }
@@ -78,7 +89,15 @@ public class BinTrieTree<T> implements Trie<T>, BinTrieNode<T> {
      */
     public int rootChildCount() {
         if (childrenMap != null) {
-            return childrenMap.size();
+            int c = childrenMap.size();
+            if (cjkChildren != null) {
+                for (Object o : cjkChildren) {
+                    if (o != null) {
+                        c++;
+                    }
+                }
+            }
+            return c;
         } else {
             int c = 0;
             for (Object o : children) {
@@ -269,7 +288,7 @@ public class BinTrieTree<T> implements Trie<T>, BinTrieNode<T> {
 //			for (CharObjectCursor<AbstractTrieNode<T>> c : childrenMap) {
 //				stack.push(c.value);
 //			}
-            for (AbstractTrieNode<T> node : childrenMap.values()) {
+            for (AbstractTrieNode<T> node : rootChildren()) {
                 stack.push(node);
             }
         } else {
@@ -351,7 +370,7 @@ public class BinTrieTree<T> implements Trie<T>, BinTrieNode<T> {
             this.holder = holder;
             // 初始化堆栈
             if (childrenMap != null) {
-                for (AbstractTrieNode<T> node : childrenMap.values()) {
+                for (AbstractTrieNode<T> node : rootChildren()) {
                     stack.push(node);
                 }
 
@@ -435,13 +454,47 @@ public class BinTrieTree<T> implements Trie<T>, BinTrieNode<T> {
 
     @Override
     public boolean contains(char c) {
-        if (rootChildUseMap) {
-            return childrenMap.containsKey(c);
+        return findChild(c) != null;
+    }
+
+    /**
+     * smart模式下的首字节点
+     */
+    private AbstractTrieNode<T> rootGet(char c) {
+        if (c >= CJK_BEGIN && c <= CJK_END) {
+            return cjkChildren == null ? null : cjkChildren[c - CJK_BEGIN];
+        }
+        return childrenMap.get(c);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rootPut(AbstractTrieNode<T> node) {
+        char c = node._char;
+        if (c >= CJK_BEGIN && c <= CJK_END) {
+            if (cjkChildren == null) {
+                cjkChildren = new AbstractTrieNode[CJK_END - CJK_BEGIN + 1];
+            }
+            cjkChildren[c - CJK_BEGIN] = node;
         } else {
-            return this.children[c] != null;
+            childrenMap.put(c, node);
         }
     }
 
+    /**
+     * smart模式下的全部首字节点
+     */
+    private List<AbstractTrieNode<T>> rootChildren() {
+        List<AbstractTrieNode<T>> list = new ArrayList<>(childrenMap.values());
+        if (cjkChildren != null) {
+            for (AbstractTrieNode<T> x : cjkChildren) {
+                if (x != null) {
+                    list.add(x);
+                }
+            }
+        }
+        return list;
+    }
+
     @Override
     public BinTrieNode<T> addChildNode(BinTrieNode<T> n) {
 
@@ -449,9 +502,9 @@ public class BinTrieTree<T> implements Trie<T>, BinTrieNode<T> {
 
         AbstractTrieNode<T> oldNode = null;
         if (rootChildUseMap) {
-            oldNode = this.childrenMap.get(node._char);
+            oldNode = rootGet(node._char);
             if (oldNode == null) {
-                this.childrenMap.put(node._char, node);
+                rootPut(node);
                 oldNode = node;
             }
         } else {
@@ -481,11 +534,8 @@ public class BinTrieTree<T> implements Trie<T>, BinTrieNode<T> {
     @Override
     public AbstractTrieNode<T> findChild(char c) {
         if (rootChildUseMap) {
-            return childrenMap.get(c);
+            return rootGet(c);
         } else {
-            if (c > max_width) {
-                return null;
-            }
             return this.children[c];
         }
     }
@@ -505,8 +555,20 @@ public class BinTrieTree<T> implements Trie<T>, BinTrieNode<T> {
         return 0;
     }
 
+    /**
+     * smart模式下的首字节点，包括CJK首字
+     *
+     * @return 非smart模式返回null
+     */
     public CharObjectMap<AbstractTrieNode<T>> getChildrenMap() {
-        return childrenMap;
+        if (childrenMap == null || cjkChildren == null) {
+            return childrenMap;
+        }
+        CharObjectHashMap<AbstractTrieNode<T>> map = new CharObjectHashMap<>(childrenMap.size() * 2);
+        for (AbstractTrieNode<T> node : rootChildren()) {
+            map.put(node._char, node);
+        }
+        return map;
     }
 
     public interface TrieNodeFactory<T> {
@@ -26,7 +26,12 @@ public enum BinTrieTreeBuilder {
     bigArray(false, ArrayTrieNode::new),
     bigHash(false, ArrayTrieNode::new),
     miniArray(true, ArrayTrieNode::new),
-    miniHash(true, HashTrieNode::new);
+    miniHash(true, HashTrieNode::new),
+
+    /**
+     * 首字CJK使用直接下标数组，子节点根据数量选择有序数组、hash或者直接下标数组
+     */
+    adaptive(true, AdaptiveTrieNode::new);
 
 
     private boolean rootUseMap;
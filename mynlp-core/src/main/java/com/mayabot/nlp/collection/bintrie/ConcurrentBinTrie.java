@@ -0,0 +1,315 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.collection.bintrie;
+
+import com.mayabot.nlp.collection.Trie;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * 读操作无锁的并发Trie树，适合少量、频繁变化的词。
+ * <p>
+ * 每个节点的子节点是有序的char数组和对应的节点数组，保存在一个不可变对象里面，
+ * 写操作复制这个对象后整体替换，读操作通过二分查找访问子节点，不需要加锁，
+ * 总是看到某个完整的版本。写操作之间使用synchronized串行化。
+ * <p>
+ * 和BinTrieTree不同，put和remove可以和get、Matcher同时进行，可以作为在线更新的词典。
+ * 节点实现了BinTrieNode，BinTrieTree的两个Matcher可以直接使用。
+ *
+ * @param <T> 值类型
+ * @author jimichan
+ */
+public class ConcurrentBinTrie<T> implements Trie<T> {
+
+    private final Node<T> root = new Node<>((char) 0);
+
+    private volatile int size = 0;
+
+    /**
+     * 匹配结果的回调
+     */
+    public interface EntryConsumer<T> {
+        void accept(int offset, int length, T value);
+    }
+
+    public synchronized void put(String key, T value) {
+        if (key.isEmpty() || value == null) {
+            return;
+        }
+        Node<T> node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.childOrCreate(key.charAt(i));
+        }
+        if (node.value == null) {
+            size++;
+        }
+        node.value = value;
+    }
+
+    /**
+     * 删除一个key。清空值，并且摘掉已经没有值和子节点的节点
+     */
+    public synchronized boolean remove(String key) {
+        if (key.isEmpty()) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        Node<T>[] path = new Node[key.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < key.length(); i++) {
+            path[i + 1] = path[i].child(key.charAt(i));
+            if (path[i + 1] == null) {
+                return false;
+            }
+        }
+        Node<T> node = path[key.length()];
+        if (node.value == null) {
+            return false;
+        }
+        node.value = null;
+        size--;
+
+        // 正在读取被摘掉节点的线程仍然可以读完，只是看不到之后的更新
+        for (int i = key.length(); i > 0; i--) {
+            Node<T> n = path[i];
+            if (n.value != null || n.children.chars.length > 0) {
+                break;
+            }
+            path[i - 1].removeChild(key.charAt(i - 1));
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public T get(char[] key) {
+        return get(key, 0, key.length);
+    }
+
+    @Override
+    public T get(CharSequence key) {
+        Node<T> node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i));
+        }
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public T get(char[] text, int offset, int length) {
+        Node<T> node = root;
+        for (int i = offset; i < offset + length && node != null; i++) {
+            node = node.child(text[i]);
+        }
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * 正向最大匹配，和BinTrieTree.newForwardMatcher的行为一致
+     *
+     * @param text
+     * @return
+     */
+    public TrieTreeMatcher<T> newForwardMatcher(String text) {
+        return new TrieTreeForwardMaxMatcher<>(root, text);
+    }
+
+    /**
+     * 全部匹配，和BinTrieTree.newAllMatcher的行为一致
+     *
+     * @param text
+     * @return
+     */
+    public TrieTreeMatcher<T> newAllMatcher(String text) {
+        return new TrieTreeAllMatcher<>(root, text);
+    }
+
+    /**
+     * 查找以offset开始的所有词，按长度从短到长回调
+     */
+    public void match(char[] text, int offset, EntryConsumer<T> consumer) {
+        Node<T> node = root;
+        for (int i = offset; i < text.length; i++) {
+            node = node.child(text[i]);
+            if (node == null) {
+                return;
+            }
+            T value = node.value;
+            if (value != null) {
+                consumer.accept(offset, i - offset + 1, value);
+            }
+        }
+    }
+
+    /**
+     * @return 有值的key数量
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 遍历所有的key和值，遍历期间的写操作不一定可见
+     */
+    public void forEach(BiConsumer<String, T> consumer) {
+        forEach(root, new StringBuilder(), consumer);
+    }
+
+    private void forEach(Node<T> node, StringBuilder path, BiConsumer<String, T> consumer) {
+        T value = node.value;
+        if (value != null && path.length() > 0) {
+            consumer.accept(path.toString(), value);
+        }
+        Children<T> children = node.children;
+        for (int i = 0; i < children.chars.length; i++) {
+            path.append(children.chars[i]);
+            forEach(children.nodes[i], path, consumer);
+            path.setLength(path.length() - 1);
+        }
+    }
+
+    /**
+     * 不可变的子节点集合
+     */
+    private static final class Children<T> {
+
+        @SuppressWarnings("rawtypes")
+        static final Children EMPTY = new Children<>(new char[0], new Node[0]);
+
+        final char[] chars;
+
+        final Node<T>[] nodes;
+
+        Children(char[] chars, Node<T>[] nodes) {
+            this.chars = chars;
+            this.nodes = nodes;
+        }
+    }
+
+    private static final class Node<T> implements BinTrieNode<T> {
+
+        final char c;
+
+        @SuppressWarnings("unchecked")
+        volatile Children<T> children = Children.EMPTY;
+
+        volatile T value;
+
+        Node(char c) {
+            this.c = c;
+        }
+
+        Node<T> child(char c) {
+            Children<T> children = this.children;
+            int index = Arrays.binarySearch(children.chars, c);
+            return index >= 0 ? children.nodes[index] : null;
+        }
+
+        @Override
+        public BinTrieNode<T> findChild(char c) {
+            return child(c);
+        }
+
+        @Override
+        public byte getStatus() {
+            if (value == null) {
+                return AbstractTrieNode.Status_Begin;
+            }
+            return children.chars.length == 0 ? AbstractTrieNode.Status_End : AbstractTrieNode.Status_Continue;
+        }
+
+        @Override
+        public T getValue() {
+            return value;
+        }
+
+        @Override
+        public int compareTo(char c) {
+            return this.c - c;
+        }
+
+        @Override
+        public boolean contains(char c) {
+            return child(c) != null;
+        }
+
+        @Override
+        public BinTrieNode<T> addChildNode(BinTrieNode<T> nodeToInsert) {
+            throw new UnsupportedOperationException("use ConcurrentBinTrie.put");
+        }
+
+        /**
+         * 只在写锁中调用
+         */
+        void removeChild(char c) {
+            Children<T> children = this.children;
+            int index = Arrays.binarySearch(children.chars, c);
+            if (index < 0) {
+                return;
+            }
+            int n = children.chars.length;
+
+            char[] chars = new char[n - 1];
+            System.arraycopy(children.chars, 0, chars, 0, index);
+            System.arraycopy(children.chars, index + 1, chars, index, n - index - 1);
+
+            @SuppressWarnings("unchecked")
+            Node<T>[] nodes = new Node[n - 1];
+            System.arraycopy(children.nodes, 0, nodes, 0, index);
+            System.arraycopy(children.nodes, index + 1, nodes, index, n - index - 1);
+
+            this.children = new Children<>(chars, nodes);
+        }
+
+        /**
+         * 只在写锁中调用
+         */
+        Node<T> childOrCreate(char c) {
+            Children<T> children = this.children;
+            int index = Arrays.binarySearch(children.chars, c);
+            if (index >= 0) {
+                return children.nodes[index];
+            }
+
+            int insert = -index - 1;
+            int n = children.chars.length;
+
+            char[] chars = new char[n + 1];
+            System.arraycopy(children.chars, 0, chars, 0, insert);
+            System.arraycopy(children.chars, insert, chars, insert + 1, n - insert);
+            chars[insert] = c;
+
+            @SuppressWarnings("unchecked")
+            Node<T>[] nodes = new Node[n + 1];
+            System.arraycopy(children.nodes, 0, nodes, 0, insert);
+            System.arraycopy(children.nodes, insert, nodes, insert + 1, n - insert);
+            Node<T> node = new Node<>(c);
+            nodes[insert] = node;
+
+            this.children = new Children<>(chars, nodes);
+            return node;
+        }
+    }
+}
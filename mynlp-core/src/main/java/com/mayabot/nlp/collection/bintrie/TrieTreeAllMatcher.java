@@ -30,7 +30,7 @@ public class TrieTreeAllMatcher<T> implements TrieTreeMatcher<T> {
 
     private static final String EMPTY_STRING = "";
 
-    private final BinTrieTree<T> tree;
+    private final BinTrieNode<T> tree;
 
     private int offset;
     private int root = 0;
@@ -45,7 +45,7 @@ public class TrieTreeAllMatcher<T> implements TrieTreeMatcher<T> {
 
     private final int len;
 
-    TrieTreeAllMatcher(BinTrieTree<T> tree, String content) {
+    TrieTreeAllMatcher(BinTrieNode<T> tree, String content) {
         this.text = content;
         this.tree = tree;
         this.branch = tree;
@@ -30,7 +30,7 @@ public class TrieTreeForwardMaxMatcher<T> implements TrieTreeMatcher<T> {
 
     private static final String EMPTY_STRING = "";
 
-    private final BinTrieTree<T> tree;
+    private final BinTrieNode<T> tree;
 
     private int offset;
     private int root = 0;
@@ -45,7 +45,7 @@ public class TrieTreeForwardMaxMatcher<T> implements TrieTreeMatcher<T> {
 
     private T param;
 
-    TrieTreeForwardMaxMatcher(BinTrieTree<T> tree, String content) {
+    TrieTreeForwardMaxMatcher(BinTrieNode<T> tree, String content) {
         this.text = content;
         this.tree = tree;
         this.branch = tree;
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.collection.dat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.mayabot.nlp.utils.DataInOutputUtils.readIntArray;
+import static com.mayabot.nlp.utils.DataInOutputUtils.writeIntArray;
+
+/**
+ * 紧凑的双数组Trie树，查询接口和DoubleArrayTrie相同，key的下标也相同。
+ * <p>
+ * 和DoubleArrayTrie的区别：
+ * 1. 字符重新编码。按出现次数从高到低给字符分配 1,2,3... 的编码，转移时使用编码代替UTF-16的值，
+ * 常用字的编码很小而且连续，双数组更加紧密，也不再需要在末尾预留65536个位置。
+ * 2. 尾部压缩。只属于一个key的后缀不再占用双数组的节点，而是保存在tail数组中。
+ * 叶子节点的base为 -x-1，x为偶数时 x/2 就是key的下标；
+ * x为奇数时 x/2 指向tail中的一条记录：[后缀长度, 后缀的编码..., key下标高16位, key下标低16位]。
+ * <p>
+ * 适合只读的大词典和特征集合，构建比DoubleArrayTrie慢，不支持按状态逐字符转移(transition/output)。
+ *
+ * @author jimichan
+ */
+public class CompactDoubleArrayTrie {
+
+    /**
+     * 字符到编码，0表示不在字母表中
+     */
+    private char[] codes;
+
+    /**
+     * 编码到字符，下标0不用
+     */
+    private char[] alphabet;
+
+    private int[] base;
+    private int[] check;
+    private char[] tail;
+
+    private int size;
+
+    public CompactDoubleArrayTrie(List<String> sortedKeys) {
+        this.size = sortedKeys.size();
+
+        buildAlphabet(sortedKeys);
+
+        // 按编码后的字典序排列
+        final int n = sortedKeys.size();
+        String[] mapped = new String[n];
+        for (int i = 0; i < n; i++) {
+            mapped[i] = encode(sortedKeys.get(i));
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> mapped[a].compareTo(mapped[b]));
+
+        // 每个key只保留和相邻key区分开的最短前缀，剩下的部分放到tail
+        List<String> trimmed = new ArrayList<>(n);
+        int[] leaf = new int[n];
+        StringBuilder tailBuilder = new StringBuilder();
+        for (int k = 0; k < n; k++) {
+            String key = mapped[order[k]];
+            int lcp = 0;
+            if (k > 0) {
+                lcp = commonPrefix(mapped[order[k - 1]], key);
+            }
+            if (k + 1 < n) {
+                lcp = Math.max(lcp, commonPrefix(key, mapped[order[k + 1]]));
+            }
+            int keep = Math.min(key.length(), lcp + 1);
+            trimmed.add(key.substring(0, keep));
+
+            int id = order[k];
+            if (keep == key.length()) {
+                leaf[k] = id * 2;
+            } else {
+                leaf[k] = tailBuilder.length() * 2 + 1;
+                tailBuilder.append((char) (key.length() - keep));
+                tailBuilder.append(key, keep, key.length());
+                tailBuilder.append((char) (id >>> 16));
+                tailBuilder.append((char) (id & 0xFFFF));
+            }
+        }
+
+        DoubleArrayMaker maker = new DoubleArrayMaker(trimmed).setDense(true);
+        maker.build();
+
+        int[] base = maker.getBase();
+        int[] check = maker.getCheck();
+
+        // 叶子节点改为key的下标或者tail中的记录
+        int maxUsed = 0;
+        for (int p = 0; p < check.length; p++) {
+            if (check[p] != 0) {
+                maxUsed = p;
+                if (base[p] < 0) {
+                    base[p] = -leaf[-base[p] - 1] - 1;
+                }
+            }
+        }
+
+        // 最大的转移位置不超过 maxUsed + 字母表大小 + 1
+        int length = maxUsed + alphabet.length + 1;
+        this.base = Arrays.copyOf(base, length);
+        this.check = Arrays.copyOf(check, length);
+        this.tail = tailBuilder.toString().toCharArray();
+    }
+
+    public CompactDoubleArrayTrie(DataInput in) throws IOException {
+        size = in.readInt();
+        alphabet = readChars(in);
+        initCodes();
+        base = readIntArray(in);
+        check = readIntArray(in);
+        tail = readChars(in);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        writeChars(alphabet, out);
+        writeIntArray(base, out);
+        writeIntArray(check, out);
+        writeChars(tail, out);
+    }
+
+    private static char[] readChars(DataInput in) throws IOException {
+        char[] chars = new char[in.readInt()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.readChar();
+        }
+        return chars;
+    }
+
+    private static void writeChars(char[] chars, DataOutput out) throws IOException {
+        out.writeInt(chars.length);
+        for (char c : chars) {
+            out.writeChar(c);
+        }
+    }
+
+    /**
+     * 按出现次数从高到低分配编码
+     */
+    private void buildAlphabet(List<String> keys) {
+        int[] freq = new int[65536];
+        for (String key : keys) {
+            for (int i = 0; i < key.length(); i++) {
+                freq[key.charAt(i)]++;
+            }
+        }
+
+        int count = 0;
+        long[] ranked = new long[65536];
+        for (int c = 0; c < 65536; c++) {
+            if (freq[c] > 0) {
+                ranked[count++] = ((long) (Integer.MAX_VALUE - freq[c]) << 16) | c;
+            }
+        }
+        Arrays.sort(ranked, 0, count);
+
+        alphabet = new char[count + 1];
+        for (int i = 0; i < count; i++) {
+            alphabet[i + 1] = (char) (ranked[i] & 0xFFFF);
+        }
+        initCodes();
+    }
+
+    private void initCodes() {
+        codes = new char[65536];
+        for (int i = 1; i < alphabet.length; i++) {
+            codes[alphabet[i]] = (char) i;
+        }
+    }
+
+    private String encode(String key) {
+        char[] chars = new char[key.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = codes[key.charAt(i)];
+        }
+        return new String(chars);
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 树叶子节点个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return base、check、tail和编码表占用的字节数
+     */
+    public long memoryBytes() {
+        return base.length * 4L + check.length * 4L + tail.length * 2L + codes.length * 2L + alphabet.length * 2L;
+    }
+
+    /**
+     * @return 节点b的词尾，偶数为key下标的2倍，奇数指向tail中的记录，-1表示b不是词尾
+     */
+    private int record(int b) {
+        int n = base[b];
+        if (n < 0 && check[b] == b) {
+            return -n - 1;
+        }
+        return -1;
+    }
+
+    private static boolean hasTail(int x) {
+        return (x & 1) == 1;
+    }
+
+    private int recordIndex(int x) {
+        if (!hasTail(x)) {
+            return x >>> 1;
+        }
+        int t = x >>> 1;
+        int end = t + 1 + tail[t];
+        return (tail[end] << 16) | tail[end + 1];
+    }
+
+    private int tailLength(int x) {
+        return hasTail(x) ? tail[x >>> 1] : 0;
+    }
+
+    /**
+     * text从from开始是否是记录x的后缀
+     */
+    private boolean matchTail(int x, CharSequence text, int from, int to) {
+        int t = x >>> 1;
+        int length = tail[t];
+        if (to - from < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (codes[text.charAt(from + i)] != tail[t + 1 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchTail(int x, char[] text, int from, int to) {
+        int t = x >>> 1;
+        int length = tail[t];
+        if (to - from < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (codes[text[from + i]] != tail[t + 1 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 转移，-1表示不存在
+     */
+    private int step(int b, char c) {
+        int code = codes[c];
+        if (code == 0) {
+            return -1;
+        }
+        int p = b + code + 1;
+        return check[p] == b ? base[p] : -1;
+    }
+
+    /**
+     * 精确匹配
+     *
+     * @param key 键
+     * @return key的下标，-1表示不存在
+     */
+    public int indexOf(CharSequence key) {
+        final int len = key.length();
+        int b = base[0];
+        for (int i = 0; i < len; i++) {
+            int x = record(b);
+            if (x >= 0 && hasTail(x)) {
+                return tailLength(x) == len - i && matchTail(x, key, i, len) ? recordIndex(x) : -1;
+            }
+            b = step(b, key.charAt(i));
+            if (b < 0) {
+                return -1;
+            }
+        }
+        int x = record(b);
+        return x >= 0 && !hasTail(x) ? recordIndex(x) : -1;
+    }
+
+    /**
+     * 精确查询
+     *
+     * @param chars 键的char数组
+     * @param pos   char数组的起始位置
+     * @param len   键的长度
+     * @return key的下标，-1表示不存在
+     */
+    public int indexOf(char[] chars, int pos, int len) {
+        final int to = pos + len;
+        int b = base[0];
+        for (int i = pos; i < to; i++) {
+            int x = record(b);
+            if (x >= 0 && hasTail(x)) {
+                return tailLength(x) == to - i && matchTail(x, chars, i, to) ? recordIndex(x) : -1;
+            }
+            b = step(b, chars[i]);
+            if (b < 0) {
+                return -1;
+            }
+        }
+        int x = record(b);
+        return x >= 0 && !hasTail(x) ? recordIndex(x) : -1;
+    }
+
+    public boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * 前缀查询，返回text从offset开始的所有key的下标，按长度从短到长
+     */
+    public List<Integer> commonPrefixSearch(char[] text, int offset) {
+        List<Integer> result = new ArrayList<>();
+        Matcher matcher = new Matcher(text, offset, offset + 1);
+        while (matcher.next()) {
+            result.add(matcher.getIndex());
+        }
+        return result;
+    }
+
+    public List<Integer> commonPrefixSearch(String text) {
+        return commonPrefixSearch(text.toCharArray(), 0);
+    }
+
+    /**
+     * 多匹配，和DATMatcher一样按起点、再按长度从短到长输出所有命中的key
+     */
+    public Matcher matcher(char[] text, int offset) {
+        return new Matcher(text, offset, text.length);
+    }
+
+    public Matcher matcher(String text) {
+        return matcher(text.toCharArray(), 0);
+    }
+
+    public final class Matcher {
+
+        private final char[] text;
+
+        /**
+         * 起点的上限(不包含)
+         */
+        private final int beginLimit;
+
+        private int begin;
+
+        /**
+         * 下一个要转移的字符
+         */
+        private int i;
+
+        /**
+         * 当前节点，-1表示这个起点已经结束
+         */
+        private int b;
+
+        /**
+         * 当前节点的词尾是否已经检查过
+         */
+        private boolean checked;
+
+        private int length;
+
+        private int index;
+
+        Matcher(char[] text, int offset, int beginLimit) {
+            this.text = text;
+            this.beginLimit = Math.min(beginLimit, text.length);
+            this.begin = offset;
+            this.i = offset;
+            this.b = base[0];
+        }
+
+        public boolean next() {
+            while (begin < beginLimit) {
+                if (b >= 0) {
+                    if (!checked) {
+                        checked = true;
+                        int x = i > begin ? record(b) : -1;
+                        if (x >= 0) {
+                            if (!hasTail(x)) {
+                                length = i - begin;
+                                index = recordIndex(x);
+                                return true;
+                            }
+                            // 带后缀的词尾没有其他子节点
+                            b = -1;
+                            if (matchTail(x, text, i, text.length)) {
+                                length = i - begin + tailLength(x);
+                                index = recordIndex(x);
+                                return true;
+                            }
+                            continue;
+                        }
+                    }
+                    if (i < text.length) {
+                        b = step(b, text[i]);
+                        if (b >= 0) {
+                            i++;
+                            checked = false;
+                            continue;
+                        }
+                    } else {
+                        b = -1;
+                    }
+                    continue;
+                }
+
+                begin++;
+                i = begin;
+                b = base[0];
+                checked = false;
+            }
+            return false;
+        }
+
+        public int getBegin() {
+            return begin;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+    }
+}
@@ -7,9 +7,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * 给定一个已经排序的StringList，构造DAT所需要的双数组
+ * <p>
+ * 空闲位置的查找使用check的占用位图，一次跳过连续占用的位置，而不是逐个检查check数组。
+ * 某个兄弟节点的位置冲突时，直接跳到这个兄弟节点下一个可用的位置，中间的位置必然冲突。
+ * 兄弟节点很多的节点(例如首字之后的第二个字)从上一个这样的节点的位置开始查找，
+ * 避免每次都从头扫描前面已经很密集的区域。
+ * <p>
+ * 设置parallelism大于1时并行构建：按首字把key分成若干段，每段在独立的数组中构建，
+ * 完成后依次平移到全局数组中。平移时base和check同时加上偏移量，
+ * 每段的起点保证大于之前所有段使用的位置，所以不同父节点的base不会重复。
+ * 并行构建的数组比串行构建的稍大(每段多出不超过65536个位置)。
  */
 public class DoubleArrayMaker {
 
@@ -18,6 +30,21 @@ public class DoubleArrayMaker {
     static final int default_capacity = 1024 * 1024; // 4M
     static final int leastAddSize = 1024 * 1024; // 4M
 
+    /**
+     * key的数量超过这个值时，DoubleArrayTrie默认使用并行构建
+     */
+    public static final int PARALLEL_THRESHOLD = 1000000;
+
+    /**
+     * 兄弟节点数量达到这个值时，使用单独的查找起点
+     */
+    static final int WIDE_SIBLINGS = 8;
+
+    /**
+     * 下一个大节点从上一个大节点之前这么多的位置开始查找，留给附近的空洞
+     */
+    static final int WIDE_LAG = 4096;
+
     /**
      * 数组的大小
      */
@@ -33,18 +60,28 @@ public class DoubleArrayMaker {
 
     private BitSet used;
 
+    /**
+     * check不为0的位置
+     */
+    private BitSet filled;
+
+    private int parallelism = 1;
+
+    private int wideSiblings = WIDE_SIBLINGS;
+
     private List<String> data;
 
     private int dataSize;
     private int progress = 0;
     private int nextCheckPos;
+    private int nextWidePos;
     private int error_;
 
 //    private boolean verbose = true;
 
 
     public DoubleArrayMaker(List<String> key) {
-        this(key, default_capacity);
+        this(key, initCapacity(key.size()));
     }
 
     public DoubleArrayMaker(List<String> key, int initCapacity) {
@@ -52,6 +89,7 @@ public class DoubleArrayMaker {
         check = new int[initCapacity];
         base = new int[initCapacity];
         used = new BitSet(initCapacity);
+        filled = new BitSet(initCapacity);
 
         data = key;
         dataSize = key.size();
@@ -71,6 +109,37 @@ public class DoubleArrayMaker {
         return base;
     }
 
+    /**
+     * 设置并行构建的线程数，1表示串行构建
+     *
+     * @param parallelism 线程数
+     * @return self
+     */
+    public DoubleArrayMaker setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * 设置为true时，兄弟节点很多的节点也从nextCheckPos开始查找空闲位置。
+     * 构建慢一些，但数组更紧凑，适合对内存敏感的场景
+     *
+     * @param dense 是否优先紧凑
+     * @return self
+     */
+    public DoubleArrayMaker setDense(boolean dense) {
+        this.wideSiblings = dense ? Integer.MAX_VALUE : WIDE_SIBLINGS;
+        return this;
+    }
+
+    /**
+     * 按key的数量预估数组大小。节点数一般是key数量的2到3倍，不足时按1.5倍扩容
+     */
+    static int initCapacity(int keyCount) {
+        long capacity = keyCount * 3L + 65536;
+        return (int) Math.max(default_capacity, Math.min(capacity, Integer.MAX_VALUE - 65536 * 2));
+    }
+
     /**
      * 唯一的构建方法
      * 构建完成后，调用getBase，getCheck返回结果
@@ -88,7 +157,11 @@ public class DoubleArrayMaker {
         fetch(root_node, siblings);
         long t1 = System.currentTimeMillis();
         //if (verbose) System.out.print("DAT build Process 0%");
-        insert(siblings);
+        if (parallelism > 1 && !siblings.isEmpty()) {
+            parallelInsert(siblings);
+        } else {
+            insert(siblings);
+        }
         long t2 = System.currentTimeMillis();
 //        if (verbose) {
 //            System.out.print("\rDAT build Process 100% use time " + (t2 - t1) + "ms");
@@ -96,6 +169,7 @@ public class DoubleArrayMaker {
 //        }
         logger.info("DAT double array build use time " + (t2 - t1) + " ms");
         used = null;
+        filled = null;
         data = null;
 
         for (int i = size; i < array_capacity; i++) {
@@ -119,15 +193,21 @@ public class DoubleArrayMaker {
             return 0;
         }
 
+        // 兄弟节点很多时很难放进前面已经很密集的区域，从上一个大节点的位置开始查找，
+        // 不会每次都重新扫描一遍前面的空洞，也不会移动nextCheckPos
+        final boolean wide = siblings.size() >= wideSiblings;
+
         int begin = 0;
-        int pos = Math.max(siblings.get(0).code + 1, nextCheckPos) - 1;
+        int pos = Math.max(siblings.get(0).code + 1, wide ? Math.max(nextCheckPos, nextWidePos) : nextCheckPos) - 1;
         int nonzero_num = 0;
-        boolean first = false;
+        boolean first = wide;
 
         if (array_capacity <= pos) {
             resize(pos + 1);
         }
 
+        final int start = pos;
+
         // 此循环体的目标是找出满足base[begin + a1...an] == 0的n个空闲空间,a1...an是siblings中的n个节点
         final int firstSiblingCode = siblings.get(0).code;
         final int lastSiblingCode = siblings.get(siblings.size() - 1).code;
@@ -136,16 +216,14 @@ public class DoubleArrayMaker {
 
         outer:
         while (true) {
-            int posPlus = ++pos;
+            // 跳过连续占用的位置
+            pos = filled.nextClearBit(pos + 1);
 
             if (array_capacity <= pos) {
-                if (posPlus > array_capacity) resize(posPlus);
+                resize(pos + 1);
             }
 
-            if (check[pos] != 0) {
-                nonzero_num++;
-                continue;
-            } else if (first == false) {
+            if (first == false) {
                 nextCheckPos = pos;
                 first = true;
             }
@@ -157,11 +235,15 @@ public class DoubleArrayMaker {
             }
 
             if (used.get(begin)) {
+                pos = used.nextClearBit(begin) + firstSiblingCode - 1;
                 continue;
             }
 
             for (int i = 1; i < siblingsSize; i++) {
-                if (check[begin + siblings.get(i).code] != 0) {
+                final int code = siblings.get(i).code;
+                if (filled.get(begin + code)) {
+                    // 在这个兄弟节点重新可用之前，所有的begin都会冲突
+                    pos = filled.nextClearBit(begin + code) - code + firstSiblingCode - 1;
                     continue outer;
                 }
             }
@@ -169,6 +251,15 @@ public class DoubleArrayMaker {
             break;
         }
 
+        if (wide) {
+            nextWidePos = pos - WIDE_LAG;
+        }
+
+        // 查找过程中遇到的已占用位置数量
+        if (!wide && pos - start - 1 >= 0.95 * (pos - nextCheckPos + 1)) {
+            nonzero_num = filled.get(start + 1, pos).cardinality();
+        }
+
         // 间，如果已占用的空间在90%以上，下次插入节点时，直接从 pos 位置处开始查找
         if (1.0 * nonzero_num / (pos - nextCheckPos + 1) >= 0.95) {
             nextCheckPos = pos; // 从位置 next_check_pos 开始到 pos
@@ -181,6 +272,7 @@ public class DoubleArrayMaker {
 
         for (Node s : siblings) {
             check[begin + s.code] = begin;
+            filled.set(begin + s.code);
         }
 
         for (int i = 0; i < siblings.size(); i++) {
@@ -207,6 +299,126 @@ public class DoubleArrayMaker {
     }
 
 
+    /**
+     * 并行构建。根节点的base固定为1，第一层节点直接放在 1 + code 的位置，
+     * 第一层节点的子树按key的数量分成若干段，每段单独构建后平移到全局数组
+     *
+     * @param siblings 第一层节点
+     */
+    private void parallelInsert(List<Node> siblings) {
+        final int begin = 1;
+        final int lastCode = siblings.get(siblings.size() - 1).code;
+        resize(begin + lastCode + 1);
+        for (Node s : siblings) {
+            check[begin + s.code] = begin;
+        }
+        used.set(begin);
+        size = begin + lastCode + 1;
+
+        // 按key的数量均匀分段
+        int segmentCount = Math.min(siblings.size(), parallelism * 2);
+        int[] bounds = new int[segmentCount + 1];
+        int segment = 1;
+        for (int i = 0; i < siblings.size() && segment < segmentCount; i++) {
+            if (siblings.get(i).right >= (long) dataSize * segment / segmentCount) {
+                bounds[segment++] = i + 1;
+            }
+        }
+        while (segment <= segmentCount) {
+            bounds[segment++] = siblings.size();
+        }
+
+        DoubleArrayMaker[] makers = new DoubleArrayMaker[segmentCount];
+        int[][] bases = new int[segmentCount][];
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, segmentCount).parallel().forEach(k -> {
+                List<Node> nodes = siblings.subList(bounds[k], bounds[k + 1]);
+                int keyCount = nodes.isEmpty() ? 0 : nodes.get(nodes.size() - 1).right - nodes.get(0).left;
+                DoubleArrayMaker maker = new DoubleArrayMaker(data, initCapacity(keyCount));
+                maker.dataSize = dataSize;
+                maker.wideSiblings = wideSiblings;
+                bases[k] = maker.insertSubtrees(nodes);
+                makers[k] = maker;
+            })).get();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int k = 0; k < segmentCount; k++) {
+            DoubleArrayMaker maker = makers[k];
+            if (maker.error_ < 0) {
+                error_ = maker.error_;
+            }
+            int offset = relocate(maker);
+            List<Node> nodes = siblings.subList(bounds[k], bounds[k + 1]);
+            for (int i = 0; i < nodes.size(); i++) {
+                int h = bases[k][i];
+                base[begin + nodes.get(i).code] = h > 0 ? h + offset : h;
+            }
+        }
+    }
+
+    /**
+     * 在当前(独立的)数组中构建这些第一层节点的子树
+     *
+     * @return 每个节点的base，叶子节点为负数
+     */
+    private int[] insertSubtrees(List<Node> nodes) {
+        int[] result = new int[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            List<Node> children = new ArrayList<Node>();
+            if (fetch(node, children) == 0) {
+                result[i] = -node.left - 1;
+            } else {
+                result[i] = insert(children);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把一段独立构建的数组平移到当前数组的末尾
+     *
+     * @return 偏移量
+     */
+    private int relocate(DoubleArrayMaker maker) {
+        int[] localBase = maker.base;
+        int[] localCheck = maker.check;
+        int localSize = maker.size;
+
+        // 平移后最小的base等于当前的size，大于之前所有使用过的位置
+        int minBegin = Integer.MAX_VALUE;
+        int minSlot = Integer.MAX_VALUE;
+        for (int i = 0; i < localSize; i++) {
+            if (localCheck[i] != 0) {
+                minBegin = Math.min(minBegin, localCheck[i]);
+                minSlot = Math.min(minSlot, i);
+            }
+        }
+        if (minSlot == Integer.MAX_VALUE) {
+            return 0;
+        }
+
+        int offset = size - minBegin;
+        resize(offset + localSize);
+
+        for (int i = minSlot; i < localSize; i++) {
+            int c = localCheck[i];
+            if (c != 0) {
+                int b = localBase[i];
+                check[i + offset] = c + offset;
+                base[i + offset] = b > 0 ? b + offset : b;
+            }
+        }
+        size = Math.max(size, offset + localSize);
+        return offset;
+    }
+
     /**
      * 获取直接相连的子节点
      *
@@ -271,8 +483,11 @@ public class DoubleArrayMaker {
             return;
         }
 
-        // at least add 4M
-        new_capacity = Math.max(new_capacity, array_capacity + leastAddSize);
+        // at least add 4M，大数组按1.5倍扩容，避免反复复制
+        new_capacity = Math.max(new_capacity, array_capacity + Math.max(leastAddSize, array_capacity >> 1));
+        if (new_capacity < 0) {
+            new_capacity = Integer.MAX_VALUE - 65536 * 2;
+        }
 
         base = Arrays.copyOf(base, new_capacity);
         check = Arrays.copyOf(check, new_capacity);
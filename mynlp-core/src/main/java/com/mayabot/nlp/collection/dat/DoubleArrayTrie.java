@@ -42,6 +42,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.ObjIntConsumer;
 
 import static com.mayabot.nlp.utils.DataInOutputUtils.readIntArray;
 import static com.mayabot.nlp.utils.DataInOutputUtils.writeIntArray;
@@ -66,8 +67,23 @@ public class DoubleArrayTrie {
         this(Lists.newArrayList(set));
     }
 
+    /**
+     * key的数量超过 DoubleArrayMaker.PARALLEL_THRESHOLD 时并行构建
+     *
+     * @param sortedKeys 排序后的key
+     */
     public DoubleArrayTrie(List<String> sortedKeys) {
+        this(sortedKeys, sortedKeys.size() >= DoubleArrayMaker.PARALLEL_THRESHOLD ?
+                Runtime.getRuntime().availableProcessors() : 1);
+    }
+
+    /**
+     * @param sortedKeys  排序后的key
+     * @param parallelism 构建的线程数，1为串行构建
+     */
+    public DoubleArrayTrie(List<String> sortedKeys, int parallelism) {
         DoubleArrayMaker datDoubleArrayMaker = new DoubleArrayMaker(sortedKeys);
+        datDoubleArrayMaker.setParallelism(parallelism);
         datDoubleArrayMaker.build();
 
         size = sortedKeys.size();
@@ -256,19 +272,31 @@ public class DoubleArrayTrie {
     }
 
 
+    /**
+     * 根节点的状态，配合transition和output可以逐字符查询，不需要拼接出完整的key
+     *
+     * @return 根节点状态
+     */
+    public int rootState() {
+        return base[0];
+    }
+
     /**
      * 转移状态
      *
-     * @param c
-     * @param from
-     * @return
+     * @param c    字符
+     * @param from 起点状态，负数表示起点不存在
+     * @return 转移后的状态，-1表示不存在这个转移
      */
-    private int transition(char c, int from) {
+    public int transition(char c, int from) {
+        if (from < 0) {
+            return -1;
+        }
         int b = from;
         int p;
 
         p = b + (int) (c) + 1;
-        if (b == check[p]) {
+        if (p < check.length && b == check[p]) {
             b = base[p];
         } else {
             return -1;
@@ -282,15 +310,18 @@ public class DoubleArrayTrie {
      *
      * @param path 路径
      * @param from 起点（根起点为base[0]=1）
-     * @return 转移后的状态（双数组下标）
+     * @return 转移后的状态（双数组下标），-1表示不存在这个转移
      */
-    private int transition(String path, int from) {
+    public int transition(CharSequence path, int from) {
         int b = from;
         int p;
 
         for (int i = 0; i < path.length(); ++i) {
+            if (b < 0) {
+                return -1;
+            }
             p = b + (int) (path.charAt(i)) + 1;
-            if (b == check[p]) {
+            if (p < check.length && b == check[p]) {
                 b = base[p];
             } else {
                 return -1;
@@ -342,6 +373,69 @@ public class DoubleArrayTrie {
     }
 
 
+    /**
+     * 从双数组中还原所有的key，按照字典序回调。
+     * 适用于只有DAT文件、没有原始key列表的情况（例如模型转换和压缩）。
+     *
+     * @param consumer 回调 key 和它的下标
+     */
+    public void forEachKey(ObjIntConsumer<String> consumer) {
+        final int n = check.length;
+
+        // 按照check值（也就是父节点的base）对所有被占用的位置做计数排序，
+        // 同一个父节点下的位置是按照字符编码递增的，所以DFS得到的就是字典序
+        int[] start = new int[n + 1];
+        for (int p = 1; p < n; p++) {
+            int c = check[p];
+            if (c > 0) {
+                start[c + 1]++;
+            }
+        }
+        for (int i = 1; i <= n; i++) {
+            start[i] += start[i - 1];
+        }
+
+        int[] children = new int[start[n]];
+        int[] cursor = Arrays.copyOf(start, n);
+        for (int p = 1; p < n; p++) {
+            int c = check[p];
+            if (c > 0) {
+                children[cursor[c]++] = p;
+            }
+        }
+        cursor = null;
+
+        visit(base[0], start, children, new StringBuilder(), consumer);
+    }
+
+    private void visit(int b, int[] start, int[] children, StringBuilder path, ObjIntConsumer<String> consumer) {
+        for (int i = start[b]; i < start[b + 1]; i++) {
+            int p = children[i];
+            int code = p - b;
+            if (code == 0) {
+                int n = base[p];
+                if (n < 0) {
+                    consumer.accept(path.toString(), -n - 1);
+                }
+            } else {
+                path.append((char) (code - 1));
+                visit(base[p], start, children, path, consumer);
+                path.setLength(path.length() - 1);
+            }
+        }
+    }
+
+    /**
+     * 还原所有的key，list的下标就是key的下标
+     *
+     * @return key列表
+     */
+    public List<String> keys() {
+        String[] keys = new String[size];
+        forEachKey((key, index) -> keys[index] = key);
+        return Arrays.asList(keys);
+    }
+
     public int getNonzeroSize() {
         int result = 0;
         for (int i = 0; i < check.length; ++i) {
@@ -162,6 +162,13 @@ public class DoubleArrayTrieMap<T> implements Trie<T> {
     }
 
 
+    /**
+     * @return 按字典序排列的全部key
+     */
+    public List<String> keys() {
+        return dat.keys();
+    }
+
     /**
      * 树叶子节点个数
      *
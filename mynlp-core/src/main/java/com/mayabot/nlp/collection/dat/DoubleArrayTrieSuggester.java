@@ -0,0 +1,274 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.collection.dat;
+
+import com.mayabot.nlp.common.IntArrayBuilder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.mayabot.nlp.utils.DataInOutputUtils.readIntArray;
+import static com.mayabot.nlp.utils.DataInOutputUtils.writeIntArray;
+
+/**
+ * 基于双数组Trie的前缀补全，返回以某个前缀开头、频率最高的K个key。
+ * <p>
+ * key是排序的，所以每个节点下面的key的下标是连续的一段。构建时自底向上合并子节点的结果，
+ * 为每个节点算好频率最高的K个key，保存在一个int数组里面。
+ * 查询时沿着前缀转移到节点，直接读出这个节点的记录，不需要遍历子树，复杂度是O(prefix + K)。
+ * <p>
+ * 自己不成词并且只有一个子节点的节点，结果和子节点完全一样，直接共用子节点的记录。
+ *
+ * @author jimichan
+ */
+public class DoubleArrayTrieSuggester {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final DoubleArrayTrie trie;
+
+    private final int k;
+
+    /**
+     * 按照状态（双数组下标）索引，这个节点的记录在data中的位置，-1表示不是节点
+     */
+    private final int[] nodeRecord;
+
+    /**
+     * 连续存放的记录，每个记录的格式是 [数量, key下标...]，key按照频率从高到低排列
+     */
+    private final int[] data;
+
+    private final int[] frequency;
+
+    /**
+     * 所有的key连续存放在keyChars中，第i个key是 [keyOffset[i], keyOffset[i+1])
+     */
+    private final char[] keyChars;
+
+    private final int[] keyOffset;
+
+    /**
+     * @param sortedKeys 排序、不重复的key
+     * @param frequency  每个key的频率，和key的下标对应
+     * @param k          每个前缀最多保留的结果数量
+     */
+    public DoubleArrayTrieSuggester(List<String> sortedKeys, int[] frequency, int k) {
+        if (sortedKeys.size() != frequency.length) {
+            throw new IllegalArgumentException("keys size " + sortedKeys.size()
+                    + " not equals frequency length " + frequency.length);
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be > 0");
+        }
+
+        this.trie = new DoubleArrayTrie(sortedKeys);
+        this.k = k;
+        this.frequency = frequency;
+
+        int total = 0;
+        for (String key : sortedKeys) {
+            total += key.length();
+        }
+        keyChars = new char[total];
+        keyOffset = new int[sortedKeys.size() + 1];
+        int offset = 0;
+        for (int i = 0; i < sortedKeys.size(); i++) {
+            String key = sortedKeys.get(i);
+            key.getChars(0, key.length(), keyChars, offset);
+            offset += key.length();
+            keyOffset[i + 1] = offset;
+        }
+
+        nodeRecord = new int[trie.check.length];
+        Arrays.fill(nodeRecord, -1);
+
+        IntArrayBuilder builder = new IntArrayBuilder(sortedKeys.size() * 2);
+        if (!sortedKeys.isEmpty()) {
+            build(sortedKeys, 0, sortedKeys.size(), 0, trie.rootState(), builder);
+        }
+        data = builder.toArray();
+    }
+
+    public DoubleArrayTrieSuggester(DataInput in) throws IOException {
+        trie = new DoubleArrayTrie(in);
+        k = in.readInt();
+        nodeRecord = readIntArray(in);
+        data = readIntArray(in);
+        frequency = readIntArray(in);
+        keyOffset = readIntArray(in);
+        keyChars = new char[in.readInt()];
+        for (int i = 0; i < keyChars.length; i++) {
+            keyChars[i] = in.readChar();
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        trie.write(out);
+        out.writeInt(k);
+        writeIntArray(nodeRecord, out);
+        writeIntArray(data, out);
+        writeIntArray(frequency, out);
+        writeIntArray(keyOffset, out);
+        out.writeInt(keyChars.length);
+        for (char c : keyChars) {
+            out.writeChar(c);
+        }
+    }
+
+    /**
+     * 构建[lo,hi)这些key组成的节点，它们有相同的长度为depth的前缀
+     *
+     * @return 节点记录在data中的位置
+     */
+    private int build(List<String> keys, int lo, int hi, int depth, int state, IntArrayBuilder builder) {
+        // key是排序的，和前缀相同的key一定排在第一个
+        int own = -1;
+        if (keys.get(lo).length() == depth) {
+            own = lo++;
+        }
+
+        IntArrayBuilder childRecords = new IntArrayBuilder(4);
+        int i = lo;
+        while (i < hi) {
+            char c = keys.get(i).charAt(depth);
+            int j = i + 1;
+            while (j < hi && keys.get(j).charAt(depth) == c) {
+                j++;
+            }
+            childRecords.add(build(keys, i, j, depth + 1, trie.transition(c, state), builder));
+            i = j;
+        }
+
+        if (own == -1 && childRecords.size() == 1) {
+            nodeRecord[state] = childRecords.buffer[0];
+            return nodeRecord[state];
+        }
+
+        // 插入排序维护前K个，候选最多是 1 + K * 子节点数
+        int[] top = new int[k];
+        int count = 0;
+        if (own >= 0) {
+            top[count++] = own;
+        }
+        for (int c = 0; c < childRecords.size(); c++) {
+            int record = childRecords.buffer[c];
+            int n = builder.buffer[record];
+            for (int x = 0; x < n; x++) {
+                int id = builder.buffer[record + 1 + x];
+                if (count == k && !better(id, top[k - 1])) {
+                    // 子节点的记录是有序的，后面的不会更好
+                    break;
+                }
+                int p = count < k ? count++ : k - 1;
+                while (p > 0 && better(id, top[p - 1])) {
+                    top[p] = top[p - 1];
+                    p--;
+                }
+                top[p] = id;
+            }
+        }
+
+        int record = builder.size();
+        builder.add(count);
+        for (int x = 0; x < count; x++) {
+            builder.add(top[x]);
+        }
+        nodeRecord[state] = record;
+        return record;
+    }
+
+    /**
+     * 频率高的在前，频率相同时下标小的（字典序在前）在前
+     */
+    private boolean better(int a, int b) {
+        return frequency[a] > frequency[b] || (frequency[a] == frequency[b] && a < b);
+    }
+
+    /**
+     * 以prefix开头、频率最高的K个key的下标
+     *
+     * @param prefix 前缀，空字符串返回全部key中频率最高的
+     * @return key的下标，按照频率从高到低
+     */
+    public int[] suggestIndex(CharSequence prefix) {
+        int record = record(prefix);
+        if (record < 0) {
+            return EMPTY;
+        }
+        return Arrays.copyOfRange(data, record + 1, record + 1 + data[record]);
+    }
+
+    public List<String> suggest(CharSequence prefix) {
+        return suggest(prefix, k);
+    }
+
+    /**
+     * @param prefix 前缀
+     * @param limit  最多返回的数量，超过K时只返回K个
+     * @return 以prefix开头、频率最高的key
+     */
+    public List<String> suggest(CharSequence prefix, int limit) {
+        int record = record(prefix);
+        if (record < 0) {
+            return new ArrayList<>(0);
+        }
+        int n = Math.min(limit, data[record]);
+        List<String> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(key(data[record + 1 + i]));
+        }
+        return result;
+    }
+
+    private int record(CharSequence prefix) {
+        if (data.length == 0) {
+            return -1;
+        }
+        int state = trie.transition(prefix, trie.rootState());
+        if (state < 0 || state >= nodeRecord.length) {
+            return -1;
+        }
+        return nodeRecord[state];
+    }
+
+    public String key(int index) {
+        return new String(keyChars, keyOffset[index], keyOffset[index + 1] - keyOffset[index]);
+    }
+
+    public int frequency(int index) {
+        return frequency[index];
+    }
+
+    public int indexOf(CharSequence key) {
+        return trie.indexOf(key);
+    }
+
+    /**
+     * @return 每个前缀最多保留的结果数量
+     */
+    public int getK() {
+        return k;
+    }
+
+    public int size() {
+        return trie.size();
+    }
+}
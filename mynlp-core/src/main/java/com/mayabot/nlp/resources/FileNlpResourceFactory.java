@@ -65,6 +65,11 @@ public class FileNlpResourceFactory implements NlpResourceFactory {
             return new CharSourceLineReader(charSource);
         }
 
+        @Override
+        public long lastModified() {
+            return file.exists() ? file.lastModified() : -1;
+        }
+
         @Override
         public String toString() {
             return file.getAbsolutePath();
@@ -34,6 +34,15 @@ public interface NlpResource {
 
     CharSourceLineReader openLineReader() throws IOException;
 
+    /**
+     * 资源的最后修改时间，用于检测资源是否变化
+     *
+     * @return 毫秒时间戳，-1表示无法获取
+     */
+    default long lastModified() {
+        return -1;
+    }
+
     /**
      * 有很多实现办法。要么对文件或数据进行计算，还有他同名文件 abc.txt 对应一个文件 abc.txt.hash 进行记录
      *
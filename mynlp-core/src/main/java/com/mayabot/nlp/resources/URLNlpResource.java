@@ -23,6 +23,7 @@ import com.mayabot.nlp.logging.InternalLogger;
 import com.mayabot.nlp.logging.InternalLoggerFactory;
 import com.mayabot.nlp.utils.CharSourceLineReader;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -59,6 +60,22 @@ public class URLNlpResource implements NlpResource {
         return new CharSourceLineReader(charSource);
     }
 
+    /**
+     * 只有file协议的URL可以获取修改时间，jar中的资源不会变化
+     */
+    @Override
+    public long lastModified() {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                File file = new File(url.toURI());
+                return file.exists() ? file.lastModified() : -1;
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public String toString() {
         return url.toString();
@@ -0,0 +1,141 @@
+package com.mayabot.nlp.collection.ahocorasick;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.mayabot.nlp.MynlpEnv;
+import com.mayabot.nlp.Settings;
+import com.mayabot.nlp.resources.FileNlpResourceFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Function;
+
+public class AhoCorasickDoubleArrayTrieCacheTest {
+
+    private File dir;
+
+    private MynlpEnv env;
+
+    private TreeMap<String, String> map;
+
+    private int buildCount;
+
+    @Before
+    public void setUp() {
+        dir = Files.createTempDir();
+        env = new MynlpEnv(dir, dir, ImmutableList.of(new FileNlpResourceFactory(dir)), Settings.createEmpty());
+
+        map = new TreeMap<>();
+        Random random = new Random(9);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder key = new StringBuilder();
+            int len = 1 + random.nextInt(5);
+            for (int j = 0; j < len; j++) {
+                key.append((char) ('一' + random.nextInt(300)));
+            }
+            map.put(key.toString(), "v" + i + (i % 7 == 0 ? "" : "|" + key));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(dir);
+    }
+
+    private AhoCorasickDoubleArrayTrie<String> restore() {
+        return AhoCorasickDoubleArrayTrieCache.restore(env, "test", "v1", () -> {
+            buildCount++;
+            return map;
+        }, Function.identity(), Function.identity());
+    }
+
+    private File cacheFile() {
+        return new File(dir, "test_v1.ac");
+    }
+
+    private String text() {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(13);
+        for (int i = 0; i < 5000; i++) {
+            sb.append((char) ('一' + random.nextInt(320)));
+        }
+        return sb.toString();
+    }
+
+    private static List<String> hits(AhoCorasickDoubleArrayTrie<String> trie, String text) {
+        List<String> list = new ArrayList<>();
+        for (Hit<String> hit : trie.parseText(text)) {
+            list.add(hit.toString());
+        }
+        for (MatchKind kind : MatchKind.values()) {
+            trie.parseText(text.toCharArray(), kind, (begin, end, value) -> list.add(kind + ":" + begin + ":" + end + ":" + value));
+        }
+        return list;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        AhoCorasickDoubleArrayTrie<String> built = restore();
+        Assert.assertEquals(1, buildCount);
+        Assert.assertTrue(cacheFile().exists());
+
+        AhoCorasickDoubleArrayTrie<String> restored = restore();
+        Assert.assertEquals(1, buildCount);
+
+        String text = text();
+        List<String> expected = hits(built, text);
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, hits(restored, text));
+
+        Assert.assertEquals(built.size(), restored.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            Assert.assertEquals(entry.getValue(), restored.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testCorruptCache() throws IOException {
+        String text = text();
+        List<String> expected = hits(restore(), text);
+        byte[] bytes = Files.toByteArray(cacheFile());
+
+        // 截断的文件
+        Files.write(Arrays.copyOf(bytes, bytes.length / 2), cacheFile());
+        Assert.assertEquals(expected, hits(restore(), text));
+        Assert.assertEquals(2, buildCount);
+
+        // 重建以后缓存被重新写入
+        Assert.assertArrayEquals(bytes, Files.toByteArray(cacheFile()));
+        Assert.assertEquals(expected, hits(restore(), text));
+        Assert.assertEquals(2, buildCount);
+
+        // 内容损坏的文件
+        byte[] garbage = bytes.clone();
+        for (int i = 0; i < 64; i++) {
+            garbage[i] = (byte) (i * 31 + 7);
+        }
+        Files.write(garbage, cacheFile());
+        Assert.assertEquals(expected, hits(restore(), text));
+        Assert.assertEquals(3, buildCount);
+
+        // 空文件
+        Files.write(new byte[0], cacheFile());
+        Assert.assertEquals(expected, hits(restore(), text));
+        Assert.assertEquals(4, buildCount);
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,93 @@
+package com.mayabot.nlp.collection.ahocorasick;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * 用暴力匹配检查LEFTMOST_LONGEST和LEFTMOST_FIRST
+ */
+public class AhoCorasickMatchKindTest {
+
+    private static String randomString(Random random, int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        int len = 1 + random.nextInt(maxLength);
+        for (int i = 0; i < len; i++) {
+            // 小字母表，让模式串之间有很多公共前缀
+            sb.append((char) ('a' + random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 从每个起点检查所有模式串，选中后从它的结尾继续
+     */
+    private static List<String> bruteForce(TreeMap<String, String> map, String text, MatchKind kind) {
+        List<String> result = new ArrayList<>();
+        int begin = 0;
+        while (begin < text.length()) {
+            String selected = null;
+            for (String key : map.keySet()) {
+                if (text.startsWith(key, begin)) {
+                    if (selected == null) {
+                        selected = key;
+                    } else if (kind == MatchKind.LEFTMOST_LONGEST && key.length() > selected.length()) {
+                        selected = key;
+                    }
+                }
+            }
+            if (selected != null) {
+                result.add(begin + ":" + (begin + selected.length()) + ":" + map.get(selected));
+                begin += selected.length();
+            } else {
+                begin++;
+            }
+        }
+        return result;
+    }
+
+    private static List<String> parse(AhoCorasickDoubleArrayTrie<String> trie, String text, MatchKind kind) {
+        List<String> result = new ArrayList<>();
+        trie.parseText(text.toCharArray(), kind, (begin, end, value) -> result.add(begin + ":" + end + ":" + value));
+        return result;
+    }
+
+    @Test
+    public void testSameAsBruteForce() {
+        Random random = new Random(5);
+        for (int round = 0; round < 300; round++) {
+            TreeMap<String, String> map = new TreeMap<>();
+            int size = 1 + random.nextInt(30);
+            for (int i = 0; i < size; i++) {
+                String key = randomString(random, 6);
+                map.put(key, key.toUpperCase());
+            }
+            AhoCorasickDoubleArrayTrie<String> trie = new AhoCoraickDoubleArrayTrieBuilder<String>().build(map);
+
+            for (int i = 0; i < 20; i++) {
+                String text = randomString(random, 40) + "xyz" + randomString(random, 10);
+                for (MatchKind kind : MatchKind.values()) {
+                    Assert.assertEquals(kind + " " + map.keySet() + " " + text,
+                            bruteForce(map, text, kind), parse(trie, text, kind));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLongestAndFirst() {
+        TreeMap<String, String> map = new TreeMap<>();
+        for (String key : new String[]{"中华", "中华人民共和国", "人民", "共和国", "成立"}) {
+            map.put(key, key);
+        }
+        AhoCorasickDoubleArrayTrie<String> trie = new AhoCoraickDoubleArrayTrieBuilder<String>().build(map);
+
+        String text = "中华人民共和国成立了";
+        Assert.assertEquals("[0:7:中华人民共和国, 7:9:成立]", parse(trie, text, MatchKind.LEFTMOST_LONGEST).toString());
+        Assert.assertEquals("[0:2:中华, 2:4:人民, 4:7:共和国, 7:9:成立]", parse(trie, text, MatchKind.LEFTMOST_FIRST).toString());
+    }
+}
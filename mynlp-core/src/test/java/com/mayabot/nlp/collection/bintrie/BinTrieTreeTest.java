@@ -0,0 +1,156 @@
+package com.mayabot.nlp.collection.bintrie;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.*;
+
+public class BinTrieTreeTest {
+
+    @Test
+    public void testSameForAllBuilders() {
+        List<String> keys = ConcurrentBinTrieTest.randomKeys(50000, 42);
+        // 子节点很多的分支，分别是连续的字符和分散的字符
+        for (int i = 0; i < 300; i++) {
+            keys.add("\u3007" + (char) ('\u4e00' + i));
+            keys.add("\u3008" + (char) ('\u4e00' + i * 67));
+        }
+        String text = ConcurrentBinTrieTest.text(keys, 5000) + ConcurrentBinTrieTest.text(keys.subList(50000, 50600), 600);
+
+        BinTrieTree<Integer> expect = build(BinTrieTreeBuilder.bigArray, keys);
+
+        for (BinTrieTreeBuilder builder : BinTrieTreeBuilder.values()) {
+            BinTrieTree<Integer> tree = build(builder, keys);
+
+            for (int i = 0; i < keys.size(); i++) {
+                Assert.assertEquals(Integer.valueOf(i), tree.get(keys.get(i)));
+                Assert.assertNull(tree.get(keys.get(i) + "\u0001"));
+            }
+            Assert.assertEquals(expect.rootChildCount(), tree.rootChildCount());
+
+            Set<String> all = new HashSet<>();
+            Iterator<String> ite = tree.keys();
+            while (ite.hasNext()) {
+                all.add(ite.next());
+            }
+            Assert.assertEquals(new HashSet<>(keys), all);
+
+            assertSameMatch(expect.newForwardMatcher(text), tree.newForwardMatcher(text));
+            assertSameMatch(expect.newAllMatcher(text), tree.newAllMatcher(text));
+        }
+    }
+
+    /**
+     * 首字CJK直接下标数组的边界，和AdaptiveTrieNode在有序数组、hash、直接下标数组之间的切换，
+     * 结果都要和原来的65536数组根节点的树一致，删除一半的词以后也一致
+     */
+    @Test
+    public void testDenseRootAndAdaptiveNodes() {
+        List<String> keys = new ArrayList<>();
+        for (char first : new char[]{'a', '.', '\u3007', '\u4dff', '\u4e00', '\u4e01', '\u7000', '\u9ffe', '\u9fff', '\ua000', '\uffff'}) {
+            keys.add(String.valueOf(first));
+            keys.add(first + "\u4e00");
+            keys.add(first + "a.b");
+        }
+        for (int i = 0; i < 400; i++) {
+            // 连续的子节点，超过SORTED_MAX以后变成直接下标数组
+            keys.add("\u4e2d" + (char) ('\u5000' + i));
+            // 分散的子节点，变成hash
+            keys.add("\u4e2e" + (char) ('\u4e00' + i * 37));
+            // 正好在SORTED_MAX附近
+            if (i <= AdaptiveTrieNode.SORTED_MAX) {
+                keys.add("\u4e2f" + (char) ('\u6000' + i * 3));
+            }
+        }
+        Collections.shuffle(keys, new Random(17));
+
+        Random random = new Random(23);
+        StringBuilder sb = new StringBuilder(ConcurrentBinTrieTest.text(keys, 3000));
+        for (int i = 0; i < 3000; i++) {
+            sb.insert(random.nextInt(sb.length()), keys.get(random.nextInt(keys.size())).charAt(0));
+        }
+        String text = sb.toString();
+
+        BinTrieTree<Integer> expect = build(BinTrieTreeBuilder.bigArray, keys);
+        for (BinTrieTreeBuilder builder : new BinTrieTreeBuilder[]{
+                BinTrieTreeBuilder.miniArray, BinTrieTreeBuilder.miniHash, BinTrieTreeBuilder.adaptive}) {
+            BinTrieTree<Integer> tree = build(builder, keys);
+            assertSameTree(expect, tree, keys, text);
+
+            BinTrieTree<Integer> removed = build(BinTrieTreeBuilder.bigArray, keys);
+            for (int i = 0; i < keys.size(); i += 2) {
+                tree.remove(keys.get(i));
+                removed.remove(keys.get(i));
+            }
+            assertSameTree(removed, tree, keys, text);
+            // 根节点的addChildNode不处理Status_Null，单字的词删除不掉，这里只检查多字的词
+            for (int i = 0; i < keys.size(); i++) {
+                if (keys.get(i).length() == 1) {
+                    continue;
+                }
+                Assert.assertEquals(builder + " " + keys.get(i), i % 2 == 0 ? null : Integer.valueOf(i), tree.get(keys.get(i)));
+            }
+        }
+    }
+
+    private static void assertSameTree(BinTrieTree<Integer> expect, BinTrieTree<Integer> tree, List<String> keys, String text) {
+        for (String key : keys) {
+            Assert.assertEquals(key, expect.get(key), tree.get(key));
+            Assert.assertEquals(key, expect.get(key + "\u4e00"), tree.get(key + "\u4e00"));
+            Assert.assertEquals(key, expect.get(key.substring(0, key.length() - 1) + '\u9fff'),
+                    tree.get(key.substring(0, key.length() - 1) + '\u9fff'));
+        }
+        assertSameMatch(expect.newForwardMatcher(text), tree.newForwardMatcher(text));
+        assertSameMatch(expect.newAllMatcher(text), tree.newAllMatcher(text));
+    }
+
+    /**
+     * 不同的节点实现下两种Matcher的速度，只用于手工对比
+     */
+    @Ignore
+    @Test
+    public void testMatcherSpeed() {
+        List<String> keys = ConcurrentBinTrieTest.randomKeys(200000, 42);
+        String text = ConcurrentBinTrieTest.text(keys, 50000);
+
+        for (BinTrieTreeBuilder builder : BinTrieTreeBuilder.values()) {
+            BinTrieTree<Integer> tree = build(builder, keys);
+
+            long forward = Long.MAX_VALUE;
+            long all = Long.MAX_VALUE;
+            for (int r = 0; r < 10; r++) {
+                long t1 = System.nanoTime();
+                TrieTreeMatcher<Integer> m1 = tree.newForwardMatcher(text);
+                while (m1.next() != null) {
+                }
+                long t2 = System.nanoTime();
+                TrieTreeMatcher<Integer> m2 = tree.newAllMatcher(text);
+                while (m2.next() != null) {
+                }
+                long t3 = System.nanoTime();
+                forward = Math.min(forward, t2 - t1);
+                all = Math.min(all, t3 - t2);
+            }
+            System.out.println(builder + " forward " + forward / 1000 + " us, all " + all / 1000 + " us");
+        }
+    }
+
+    private static BinTrieTree<Integer> build(BinTrieTreeBuilder builder, List<String> keys) {
+        BinTrieTree<Integer> tree = builder.build();
+        for (int i = 0; i < keys.size(); i++) {
+            tree.put(keys.get(i), i);
+        }
+        return tree;
+    }
+
+    private static void assertSameMatch(TrieTreeMatcher<Integer> m1, TrieTreeMatcher<Integer> m2) {
+        String word;
+        while ((word = m1.next()) != null) {
+            Assert.assertEquals(word, m2.next());
+            Assert.assertEquals(m1.getOffset(), m2.getOffset());
+            Assert.assertEquals(m1.getParams(), m2.getParams());
+        }
+        Assert.assertNull(m2.next());
+    }
+}
@@ -0,0 +1,240 @@
+package com.mayabot.nlp.collection.bintrie;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentBinTrieTest {
+
+    @Test
+    public void testSameAsBinTrieTree() {
+        List<String> keys = randomKeys(20000, 42);
+
+        BinTrieTree<Integer> tree = BinTrieTreeBuilder._default.build();
+        ConcurrentBinTrie<Integer> trie = new ConcurrentBinTrie<>();
+        for (int i = 0; i < keys.size(); i++) {
+            tree.put(keys.get(i), i);
+            trie.put(keys.get(i), i);
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            Assert.assertEquals(tree.get(key), trie.get(key));
+            Assert.assertEquals(tree.get(key.toCharArray()), trie.get(key.toCharArray()));
+            Assert.assertTrue(trie.containsKey(key));
+        }
+
+        String text = text(keys, 2000);
+        assertSameMatch(tree.newForwardMatcher(text), trie.newForwardMatcher(text));
+        assertSameMatch(tree.newAllMatcher(text), trie.newAllMatcher(text));
+
+        BinTrieTree<Integer> rest = BinTrieTreeBuilder._default.build();
+        for (int i = 0; i < keys.size(); i++) {
+            if (i % 2 == 0) {
+                Assert.assertTrue(trie.remove(keys.get(i)));
+            } else {
+                rest.put(keys.get(i), i);
+            }
+        }
+        Assert.assertEquals(keys.size() / 2, trie.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Assert.assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), trie.get(keys.get(i)));
+        }
+        assertSameMatch(rest.newForwardMatcher(text), trie.newForwardMatcher(text));
+        assertSameMatch(rest.newAllMatcher(text), trie.newAllMatcher(text));
+
+        for (String key : keys) {
+            trie.remove(key);
+        }
+        Assert.assertTrue(trie.isEmpty());
+        Assert.assertNull(trie.newForwardMatcher(text).next());
+    }
+
+    /**
+     * 一个线程不停的增删变化的词，多个线程同时读取。
+     * 稳定的词必须一直能读到，变化的词要么读不到，要么读到正确的值
+     */
+    @Test
+    public void testStress() throws Exception {
+        List<String> stable = randomKeys(5000, 1);
+        List<String> volatileKeys = randomKeys(5000, 2);
+        volatileKeys.removeAll(stable);
+
+        ConcurrentBinTrie<String> trie = new ConcurrentBinTrie<>();
+        for (String key : stable) {
+            trie.put(key, key);
+        }
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        int readers = 3;
+        CountDownLatch done = new CountDownLatch(readers + 1);
+
+        Thread writer = new Thread(() -> {
+            try {
+                Random random = new Random(3);
+                while (!stop.get()) {
+                    String key = volatileKeys.get(random.nextInt(volatileKeys.size()));
+                    if (random.nextBoolean()) {
+                        trie.put(key, key);
+                    } else {
+                        trie.remove(key);
+                    }
+                }
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            } finally {
+                done.countDown();
+            }
+        });
+        writer.start();
+
+        for (int r = 0; r < readers; r++) {
+            int seed = r;
+            new Thread(() -> {
+                try {
+                    Random random = new Random(seed);
+                    while (!stop.get()) {
+                        String key = stable.get(random.nextInt(stable.size()));
+                        Assert.assertEquals(key, trie.get(key));
+
+                        String other = volatileKeys.get(random.nextInt(volatileKeys.size()));
+                        String value = trie.get(other);
+                        Assert.assertTrue(value == null || value.equals(other));
+
+                        TrieTreeMatcher<String> matcher = trie.newForwardMatcher(key + other);
+                        String word;
+                        while ((word = matcher.next()) != null) {
+                            String params = matcher.getParams();
+                            Assert.assertTrue(params == null || params.equals(word));
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        Thread.sleep(1500);
+        stop.set(true);
+        done.await();
+
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        for (String key : stable) {
+            Assert.assertEquals(key, trie.get(key));
+        }
+    }
+
+    /**
+     * 读吞吐量，分别在没有写和有一个线程持续写的时候测量。
+     * 只输出结果，需要时手动运行
+     */
+    @Ignore
+    @Test
+    public void testReadThroughput() throws Exception {
+        List<String> keys = randomKeys(50000, 5);
+        ConcurrentBinTrie<Integer> trie = new ConcurrentBinTrie<>();
+        for (int i = 0; i < keys.size(); i++) {
+            trie.put(keys.get(i), i);
+        }
+        List<String> updates = randomKeys(5000, 6);
+
+        long quiet = readThroughput(trie, keys, null);
+        long busy = readThroughput(trie, keys, updates);
+
+        System.out.println("ConcurrentBinTrie get " + quiet + " ops/s, "
+                + busy + " ops/s with concurrent writes");
+    }
+
+    private long readThroughput(ConcurrentBinTrie<Integer> trie, List<String> keys, List<String> updates)
+            throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean(false);
+        List<Thread> threads = new ArrayList<>();
+        if (updates != null) {
+            threads.add(new Thread(() -> {
+                Random random = new Random(7);
+                while (!stop.get()) {
+                    String key = updates.get(random.nextInt(updates.size()));
+                    if (random.nextBoolean()) {
+                        trie.put(key, -1);
+                    } else {
+                        trie.remove(key);
+                    }
+                }
+            }));
+        }
+
+        AtomicLong count = new AtomicLong();
+        for (int r = 0; r < 2; r++) {
+            threads.add(new Thread(() -> {
+                long n = 0;
+                int i = 0;
+                while (!stop.get()) {
+                    trie.get(keys.get(i));
+                    i = i + 1 == keys.size() ? 0 : i + 1;
+                    n++;
+                }
+                count.addAndGet(n);
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        long t1 = System.nanoTime();
+        Thread.sleep(1000);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long t2 = System.nanoTime();
+        return count.get() * 1000_000_000L / (t2 - t1);
+    }
+
+    static List<String> randomKeys(int count, long seed) {
+        Random random = new Random(seed);
+        TreeSet<String> set = new TreeSet<>();
+        while (set.size() < count) {
+            int length = 1 + random.nextInt(6);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                if (random.nextInt(10) < 7) {
+                    sb.append((char) (0x4e00 + random.nextInt(3000)));
+                } else {
+                    sb.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            set.add(sb.toString());
+        }
+        return new ArrayList<>(set);
+    }
+
+    static String text(List<String> keys, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(keys.get(i * 7 % keys.size()));
+        }
+        return sb.toString();
+    }
+
+    private static void assertSameMatch(TrieTreeMatcher<Integer> m1, TrieTreeMatcher<Integer> m2) {
+        String word;
+        while ((word = m1.next()) != null) {
+            Assert.assertEquals(word, m2.next());
+            Assert.assertEquals(m1.getOffset(), m2.getOffset());
+            Assert.assertEquals(m1.getParams(), m2.getParams());
+        }
+        Assert.assertNull(m2.next());
+    }
+}
@@ -0,0 +1,62 @@
+package com.mayabot.nlp.collection.dat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.List;
+
+public class CompactDoubleArrayTrieTest {
+
+    @Test
+    public void testSameAsDoubleArrayTrie() throws IOException {
+        List<String> keys = DATDoubleArrayMakerTest.randomKeys(50000, 42);
+
+        DoubleArrayTrie dat = new DoubleArrayTrie(keys);
+        CompactDoubleArrayTrie compact = new CompactDoubleArrayTrie(keys);
+
+        Assert.assertEquals(keys.size(), compact.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Assert.assertEquals(i, compact.indexOf(keys.get(i)));
+        }
+
+        for (String key : DATDoubleArrayMakerTest.randomKeys(5000, 7)) {
+            Assert.assertEquals(dat.indexOf(key), compact.indexOf(key));
+            String prefix = key.substring(0, key.length() - 1);
+            Assert.assertEquals(dat.indexOf(prefix), compact.indexOf(prefix));
+            Assert.assertEquals(dat.indexOf(key + "的"), compact.indexOf(key + "的"));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(keys.get(i * 23));
+        }
+        String text = sb.toString();
+
+        DATMatcher m1 = dat.matcher(text);
+        CompactDoubleArrayTrie.Matcher m2 = compact.matcher(text);
+        while (m1.next()) {
+            Assert.assertTrue(m2.next());
+            Assert.assertEquals(m1.getBegin(), m2.getBegin());
+            Assert.assertEquals(m1.getLength(), m2.getLength());
+            Assert.assertEquals(m1.getIndex(), m2.getIndex());
+        }
+        Assert.assertFalse(m2.next());
+
+        for (int i = 0; i < text.length(); i += 13) {
+            Assert.assertEquals(dat.commonPrefixSearch(text.toCharArray(), i, 0, 0),
+                    compact.commonPrefixSearch(text.toCharArray(), i));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compact.write(new DataOutputStream(out));
+        CompactDoubleArrayTrie read = new CompactDoubleArrayTrie(
+                new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+        for (int i = 0; i < keys.size(); i += 7) {
+            Assert.assertEquals(i, read.indexOf(keys.get(i)));
+        }
+
+        System.out.println("DAT " + (dat.base.length + dat.check.length) * 4L
+                + " bytes, compact " + compact.memoryBytes() + " bytes");
+    }
+}
@@ -1,8 +1,12 @@
 package com.mayabot.nlp.collection.dat;
 
 import com.google.common.collect.Sets;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.TreeSet;
 
 public class DATDoubleArrayMakerTest {
@@ -14,4 +18,42 @@ public class DATDoubleArrayMakerTest {
 
 
     }
+
+    static List<String> randomKeys(int count, long seed) {
+        Random random = new Random(seed);
+        TreeSet<String> set = new TreeSet<>();
+        while (set.size() < count) {
+            int length = 1 + random.nextInt(6);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                if (random.nextInt(10) < 7) {
+                    sb.append((char) (0x4e00 + random.nextInt(3000)));
+                } else {
+                    sb.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            set.add(sb.toString());
+        }
+        return new ArrayList<>(set);
+    }
+
+    @Test
+    public void testParallel() {
+        List<String> keys = randomKeys(50000, 42);
+
+        DoubleArrayTrie serial = new DoubleArrayTrie(keys, 1);
+        DoubleArrayTrie parallel = new DoubleArrayTrie(keys, 4);
+
+        for (int i = 0; i < keys.size(); i++) {
+            Assert.assertEquals(i, serial.indexOf(keys.get(i)));
+            Assert.assertEquals(i, parallel.indexOf(keys.get(i)));
+        }
+
+        // 不是key的前缀和随机字符串
+        for (String key : randomKeys(5000, 7)) {
+            Assert.assertEquals(serial.indexOf(key), parallel.indexOf(key));
+            String prefix = key.substring(0, key.length() - 1);
+            Assert.assertEquals(serial.indexOf(prefix), parallel.indexOf(prefix));
+        }
+    }
 }
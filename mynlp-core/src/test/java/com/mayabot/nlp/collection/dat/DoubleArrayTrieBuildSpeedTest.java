@@ -1,7 +1,89 @@
 package com.mayabot.nlp.collection.dat;
 
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class DoubleArrayTrieBuildSpeedTest {
 
+    /**
+     * 直接按照base/check的定义查找，不经过DoubleArrayTrie的方法
+     */
+    private static int walk(int[] base, int[] check, String key) {
+        int b = base[0];
+        for (int i = 0; i < key.length(); i++) {
+            int p = b + key.charAt(i) + 1;
+            if (p >= check.length || check[p] != b) {
+                return -1;
+            }
+            b = base[p];
+        }
+        return check[b] == b && base[b] < 0 ? -base[b] - 1 : -1;
+    }
+
+    /**
+     * 加快以后的构建，串行和并行的base/check都要和key的下标一一对应，
+     * 不是key的前缀和其他字符串查不到，前缀查询和逐个比较的结果一样
+     */
+    @Test
+    public void testSameLookups() {
+        List<String> keys = DATDoubleArrayMakerTest.randomKeys(50000, 1);
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            index.put(keys.get(i), i);
+        }
+        List<String> others = DATDoubleArrayMakerTest.randomKeys(5000, 3);
+
+        for (int parallelism : new int[]{1, 4}) {
+            DoubleArrayTrie dat = new DoubleArrayTrie(keys, parallelism);
+
+            for (int i = 0; i < keys.size(); i++) {
+                Assert.assertEquals(i, walk(dat.base, dat.check, keys.get(i)));
+                Assert.assertEquals(i, dat.indexOf(keys.get(i)));
+            }
+
+            for (String key : others) {
+                String prefix = key.substring(0, key.length() - 1);
+                for (String s : new String[]{key, prefix, key + "\u4e00"}) {
+                    int expected = index.getOrDefault(s, -1);
+                    Assert.assertEquals(s, expected, walk(dat.base, dat.check, s));
+                    Assert.assertEquals(s, expected, dat.indexOf(s));
+                }
+
+                List<Integer> prefixes = new ArrayList<>();
+                for (int i = 1; i <= key.length(); i++) {
+                    Integer id = index.get(key.substring(0, i));
+                    if (id != null) {
+                        prefixes.add(id);
+                    }
+                }
+                Assert.assertEquals(key, prefixes, dat.commonPrefixSearch(key));
+            }
+        }
+    }
+
+    /**
+     * 串行和并行构建的耗时，key的数量可以调大到百万、千万级别观察，只用于手工对比
+     */
+    @Ignore
+    @Test
+    public void testBuildSpeed() {
+        List<String> keys = DATDoubleArrayMakerTest.randomKeys(200000, 1);
+
+        for (int parallelism : new int[]{1, 2, 4}) {
+            long t1 = System.currentTimeMillis();
+            DoubleArrayTrie dat = new DoubleArrayTrie(keys, parallelism);
+            long t2 = System.currentTimeMillis();
+            System.out.println("Build " + keys.size() + " keys, parallelism " + parallelism
+                    + " use time " + (t2 - t1) + " ms, array length " + dat.base.length);
+        }
+    }
+
 //    @Test
 //    public void test() throws IOException {
 //        File file = new File("../data/CoreNatureDictionary.txt");
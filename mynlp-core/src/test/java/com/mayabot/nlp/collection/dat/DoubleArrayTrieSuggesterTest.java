@@ -0,0 +1,64 @@
+package com.mayabot.nlp.collection.dat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DoubleArrayTrieSuggesterTest {
+
+    @Test
+    public void testSameAsScan() throws IOException {
+        List<String> keys = DATDoubleArrayMakerTest.randomKeys(50000, 42);
+        Random random = new Random(1);
+        int[] freq = new int[keys.size()];
+        for (int i = 0; i < freq.length; i++) {
+            freq[i] = random.nextInt(1000);
+        }
+
+        DoubleArrayTrieSuggester suggester = new DoubleArrayTrieSuggester(keys, freq, 10);
+
+        List<String> prefixes = new ArrayList<>();
+        prefixes.add("");
+        for (int i = 0; i < keys.size(); i += 97) {
+            String key = keys.get(i);
+            for (int len = 1; len <= key.length(); len++) {
+                prefixes.add(key.substring(0, len));
+            }
+            prefixes.add(key + "\u0001");
+        }
+
+        for (String prefix : prefixes) {
+            Assert.assertArrayEquals(prefix, scan(keys, freq, prefix, 10), suggester.suggestIndex(prefix));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        suggester.write(new DataOutputStream(out));
+        DoubleArrayTrieSuggester read = new DoubleArrayTrieSuggester(
+                new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+        for (String prefix : prefixes) {
+            Assert.assertEquals(suggester.suggest(prefix), read.suggest(prefix));
+        }
+
+        String prefix = keys.get(300).substring(0, 1);
+        List<String> three = suggester.suggest(prefix, 3);
+        Assert.assertEquals(3, three.size());
+        for (int i = 0; i < three.size(); i++) {
+            Assert.assertEquals(keys.get(scan(keys, freq, prefix, 3)[i]), three.get(i));
+        }
+    }
+
+    private static int[] scan(List<String> keys, int[] freq, String prefix, int k) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (keys.get(i).startsWith(prefix)) {
+                ids.add(i);
+            }
+        }
+        ids.sort((a, b) -> freq[a] != freq[b] ? Integer.compare(freq[b], freq[a]) : Integer.compare(a, b));
+        return ids.subList(0, Math.min(k, ids.size())).stream().mapToInt(Integer::intValue).toArray();
+    }
+}
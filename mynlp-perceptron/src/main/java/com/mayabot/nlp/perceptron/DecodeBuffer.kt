@@ -0,0 +1,70 @@
+package com.mayabot.nlp.perceptron
+
+import com.carrotsearch.hppc.IntArrayList
+
+/**
+ * 解码时复用的缓冲区，避免每个句子都重新分配特征向量、标签数组、临时数组和拼接特征的StringBuilder。
+ *
+ * 不是线程安全的，一般通过ThreadLocal每个线程持有一个。
+ * 句子长度超过 MAX_POOL_SIZE 时，超出部分的特征向量不再缓存，避免超长文本长期占用内存。
+ *
+ * @author jimichan
+ */
+class DecodeBuffer {
+
+    private val pool = ArrayList<IntArrayList>()
+
+    private val featureList = ArrayList<IntArrayList>()
+
+    private var labels = IntArray(64)
+
+    private var ints = IntArray(256)
+
+    val stringBuilder = StringBuilder()
+
+    /**
+     * 返回长度为size的特征向量列表，每个向量都已经清空。
+     * 返回的列表在下一次调用前有效。
+     */
+    fun features(size: Int): List<IntArrayList> {
+        val cached = Math.min(size, MAX_POOL_SIZE)
+        while (pool.size < cached) {
+            pool.add(IntArrayList(16))
+        }
+
+        featureList.clear()
+        for (i in 0 until cached) {
+            val vector = pool[i]
+            vector.elementsCount = 0
+            featureList.add(vector)
+        }
+        for (i in cached until size) {
+            featureList.add(IntArrayList(16))
+        }
+        return featureList
+    }
+
+    /**
+     * 返回长度不小于size的标签数组，只有前size个位置有意义
+     */
+    fun labels(size: Int): IntArray {
+        if (labels.size < size) {
+            labels = IntArray(Math.max(size, labels.size * 2))
+        }
+        return labels
+    }
+
+    /**
+     * 返回长度不小于size的临时整数数组，例如批量抽取的特征ID
+     */
+    fun ints(size: Int): IntArray {
+        if (ints.size < size) {
+            ints = IntArray(Math.max(size, ints.size * 2))
+        }
+        return ints
+    }
+
+    companion object {
+        const val MAX_POOL_SIZE = 4096
+    }
+}
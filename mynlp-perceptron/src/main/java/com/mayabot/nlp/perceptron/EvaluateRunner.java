@@ -1,8 +1,44 @@
 package com.mayabot.nlp.perceptron;
 
+import com.mayabot.nlp.logging.InternalLogger;
+import com.mayabot.nlp.logging.InternalLoggerFactory;
+
 /**
  * 感知机评估逻辑
  */
 public interface EvaluateRunner {
     void run(int iter, Perceptron perceptron);
+
+    /**
+     * 带有本轮训练统计信息的评估，默认忽略统计信息
+     */
+    default void run(IterationStat stat, Perceptron perceptron) {
+        run(stat.getIter(), perceptron);
+    }
+
+    /**
+     * 对比不同集束宽度的准确率和速度。
+     * 准确率由runner自己输出，这里通过日志输出每个宽度的评估耗时。评估完成后恢复原来的宽度
+     *
+     * @param beamSizes 要对比的宽度，0表示精确的viterbi
+     * @return 每个宽度的评估耗时(ms)，和beamSizes一一对应
+     */
+    static long[] beamReport(EvaluateRunner runner, BasePerceptronModel model, int... beamSizes) {
+        InternalLogger logger = InternalLoggerFactory.getInstance(EvaluateRunner.class);
+        long[] times = new long[beamSizes.length];
+        int old = model.getBeamSize();
+        try {
+            for (int i = 0; i < beamSizes.length; i++) {
+                int beam = beamSizes[i];
+                model.setBeamSize(beam);
+                long t1 = System.currentTimeMillis();
+                runner.run(0, model);
+                times[i] = System.currentTimeMillis() - t1;
+                logger.info("Beam size " + (beam == 0 ? "exact" : beam) + " use time " + times[i] + " ms");
+            }
+        } finally {
+            model.setBeamSize(old);
+        }
+        return times;
+    }
 }
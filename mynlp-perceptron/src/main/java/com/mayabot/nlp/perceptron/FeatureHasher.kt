@@ -0,0 +1,166 @@
+package com.mayabot.nlp.perceptron
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.InputStream
+
+/**
+ * 哈希特征空间。
+ *
+ * 不再把特征拼接为字符串去查询FeatureSet，而是直接计算 (模板ID, 字/词) 的64位哈希值，
+ * 然后映射到固定大小的权重表中。
+ *
+ * 和FeatureSet保持一致，前 labelCount+1 个位置留给转移特征使用，
+ * 哈希特征的ID从 labelCount+1 开始。
+ *
+ * @param labelCount 标签的数量
+ * @param bucketBits 权重表大小为 2^bucketBits
+ *
+ * @author jimichan
+ */
+class FeatureHasher(val labelCount: Int, val bucketBits: Int) {
+
+    init {
+        if (bucketBits < 4 || bucketBits > 26) {
+            throw IllegalArgumentException("bucketBits 必须介于 4 和 26 之间")
+        }
+    }
+
+    private val shift = 64 - bucketBits
+
+    private val reserved = labelCount + 1
+
+    /**
+     * 哈希桶的数量
+     */
+    val bucketSize = 1 shl bucketBits
+
+    /**
+     * 特征空间的大小(包含转移特征占用的位置)
+     */
+    fun size() = reserved + bucketSize
+
+    /**
+     * 把64位哈希值映射为特征ID
+     */
+    fun featureId(hash: Long): Int {
+        return reserved + (mix(hash) ushr shift).toInt()
+    }
+
+    fun save(file: File) {
+        file.outputStream().buffered().use {
+            val out = DataOutputStream(it)
+            out.writeInt(MAGIC)
+            out.writeInt(labelCount)
+            out.writeInt(bucketBits)
+            out.flush()
+        }
+    }
+
+    companion object {
+
+        private const val MAGIC = 0x48415348
+
+        private const val SEED = -0x61c8864680b583ebL
+
+        private const val PRIME = 0x100000001b3L
+
+        @JvmStatic
+        fun read(input: InputStream): FeatureHasher {
+            return input.use {
+                val din = DataInputStream(it)
+                if (din.readInt() != MAGIC) {
+                    throw IllegalArgumentException("不是哈希特征模型的描述文件")
+                }
+                val labelCount = din.readInt()
+                val bucketBits = din.readInt()
+                FeatureHasher(labelCount, bucketBits)
+            }
+        }
+
+        /**
+         * 单个字符的特征
+         */
+        @JvmStatic
+        fun hash(template: Int, c1: Char): Long {
+            return (begin(template) xor c1.toLong()) * PRIME
+        }
+
+        /**
+         * 两个字符组合的特征
+         */
+        @JvmStatic
+        fun hash(template: Int, c1: Char, c2: Char): Long {
+            var h = (begin(template) xor c1.toLong()) * PRIME
+            h = (h xor c2.toLong()) * PRIME
+            return h
+        }
+
+        /**
+         * 三个字符组合的特征
+         */
+        @JvmStatic
+        fun hash(template: Int, c1: Char, c2: Char, c3: Char): Long {
+            var h = (begin(template) xor c1.toLong()) * PRIME
+            h = (h xor c2.toLong()) * PRIME
+            h = (h xor c3.toLong()) * PRIME
+            return h
+        }
+
+        /**
+         * 一个词的特征
+         */
+        @JvmStatic
+        fun hash(template: Int, word: CharSequence): Long {
+            return append(begin(template), word)
+        }
+
+        /**
+         * 两个词组合的特征
+         */
+        @JvmStatic
+        fun hash(template: Int, word1: CharSequence, word2: CharSequence): Long {
+            return append(append(begin(template), word1), word2)
+        }
+
+        /**
+         * char数组中的一个片段作为特征
+         */
+        @JvmStatic
+        fun hash(template: Int, chars: CharArray, offset: Int, length: Int): Long {
+            var h = begin(template)
+            for (i in offset until offset + length) {
+                h = (h xor chars[i].toLong()) * PRIME
+            }
+            // 长度也参与计算，区分 "ab"+"c" 和 "a"+"bc"
+            return (h xor (length.toLong() shl 32)) * PRIME
+        }
+
+        private fun begin(template: Int): Long {
+            return (SEED xor template.toLong()) * PRIME
+        }
+
+        private fun append(hash: Long, word: CharSequence): Long {
+            var h = hash
+            val len = word.length
+            for (i in 0 until len) {
+                h = (h xor word[i].toLong()) * PRIME
+            }
+            return (h xor (len.toLong() shl 32)) * PRIME
+        }
+
+        /**
+         * murmur3 的 fmix64，让高位充分混合
+         */
+        private fun mix(hash: Long): Long {
+            var h = hash
+            h = h xor (h ushr 33)
+            h *= -0xae502812aa7333L
+            h = h xor (h ushr 33)
+            h *= -0x3b314601e57a13adL
+            h = h xor (h ushr 33)
+            return h
+        }
+    }
+}
@@ -5,6 +5,8 @@ import java.io.DataInputStream
 import java.io.DataOutputStream
 import java.io.File
 import java.io.InputStream
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * 特征集。主要功能是查询feature对应的Id.
@@ -15,10 +17,12 @@ class FeatureSet(
         var keys: List<String>?
 ) {
 
-    //预留的多一点，就不会有hash冲突
-    var extMap = HashMap<String, Int>(1000)
+    /**
+     * 在线学习时新增的特征。并发安全，解码线程可以同时读取
+     */
+    var extMap = ConcurrentHashMap<String, Int>(1000)
 
-    var nextId = dat.size()
+    private val nextId = AtomicInteger(dat.size())
 
     // 要搞两种模式，一个是训练的时候，就不动了一个是工作模式
 
@@ -53,13 +57,35 @@ class FeatureSet(
         }
     }
 
+    /**
+     * DAT根节点的状态。
+     * 配合transition和output可以逐字符查询特征，不需要拼接特征字符串。
+     * 在线学习新增的特征不在DAT中，extMap不为空时还需要用featureId查询。
+     */
+    fun rootState() = dat.rootState()
+
+    /**
+     * @return 转移后的状态，-1表示没有以此为前缀的特征
+     */
+    fun transition(state: Int, c: Char) = dat.transition(c, state)
+
+    fun transition(state: Int, path: CharSequence) = dat.transition(path, state)
+
+    /**
+     * @return 状态对应的特征ID，-1表示不是一个完整的特征
+     */
+    fun output(state: Int) = dat.output(state)
+
+    /**
+     * 为新特征分配ID，已经存在的特征返回原来的ID。线程安全
+     */
     fun newExtId(feature: String): Int {
-        if (dat.indexOf(feature) < 0 && !extMap.containsKey(feature)) {
-            extMap[feature] = nextId++
-            return extMap[feature]!!
+        val id = dat.indexOf(feature)
+        if (id >= 0) {
+            return id
         }
 
-        return featureId(feature)
+        return extMap.computeIfAbsent(feature) { nextId.getAndIncrement() }
     }
 
 
@@ -69,6 +95,49 @@ class FeatureSet(
      */
     fun size() = dat.size() + extMap.size
 
+    /**
+     * 遍历所有的特征和ID，包括在线学习时新增的特征。
+     * 没有key列表时从DAT中还原。
+     */
+    fun forEachKey(action: (String, Int) -> Unit) {
+        val keys = this.keys
+        if (keys != null) {
+            keys.forEachIndexed { index, key -> action(key, index) }
+        } else {
+            dat.forEachKey { key, index -> action(key, index) }
+        }
+        extMap.forEach { key, id -> action(key, id) }
+    }
+
+    /**
+     * 按照字典序遍历所有的特征和ID，包括在线学习时新增的特征。
+     * DAT中的特征本身是有序的，新增特征排序后和它们归并。
+     */
+    fun forEachSortedKey(action: (String, Int) -> Unit) {
+        val ext = extMap.entries.map { it.key to it.value }.sortedBy { it.first }
+        var p = 0
+
+        val consume = { key: String, id: Int ->
+            while (p < ext.size && ext[p].first < key) {
+                action(ext[p].first, ext[p].second)
+                p++
+            }
+            action(key, id)
+        }
+
+        val keys = this.keys
+        if (keys != null) {
+            keys.forEachIndexed { index, key -> consume(key, index) }
+        } else {
+            dat.forEachKey { key, index -> consume(key, index) }
+        }
+
+        while (p < ext.size) {
+            action(ext[p].first, ext[p].second)
+            p++
+        }
+    }
+
     /**
      * 保存到文件
      */
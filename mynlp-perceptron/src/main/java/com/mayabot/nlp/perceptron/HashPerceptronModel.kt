@@ -0,0 +1,187 @@
+package com.mayabot.nlp.perceptron
+
+import com.mayabot.nlp.logging.InternalLoggerFactory
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.InputStream
+import java.util.*
+import java.util.function.ToLongFunction
+
+/**
+ * 哈希特征的感知机模型。
+ *
+ * 特征ID由FeatureHasher直接计算，不需要构造特征字符串，也没有FeatureSet。
+ * 权重表的大小是固定的，在线学习时也不需要扩容。
+ * featureSet()返回null，需要FeatureSet的地方（例如在线学习登记新特征）应该先判断是不是HashPerceptronModel。
+ *
+ * 保存的目录中包含 parameter.bin 和 hash.bin 两个文件。
+ *
+ * @author jimichan
+ */
+class HashPerceptronModel(
+        val hasher: FeatureHasher,
+        parameter: FloatArray
+) : BasePerceptronModel(hasher.labelCount, parameter) {
+
+    constructor(hasher: FeatureHasher) : this(hasher, FloatArray(hasher.size() * hasher.labelCount))
+
+    init {
+        if (parameter.size != hasher.size() * labelCount) {
+            throw IllegalArgumentException("参数大小和哈希特征空间不一致")
+        }
+    }
+
+    /**
+     * 哈希特征没有特征集合
+     */
+    override fun featureSet(): FeatureSet? = null
+
+    /**
+     * 权重表大小固定，不需要扩容
+     */
+    override fun makeSureParameter(featureId: Int) {
+    }
+
+    /**
+     * 模型压缩。
+     *
+     * 权重表的大小由哈希空间决定，不能删除行，所以把得分低的桶清零，效果等同于删除这些特征。
+     * 得分是各标签权重绝对值之和，转移特征保留。
+     *
+     * @param ratio 压缩比，如0.2，那么就是清零0.2的桶
+     * @param threshold 得分小于threshold的桶一定被清零
+     */
+    override fun compress(ratio: Double, threshold: Double) {
+        if (ratio < 0 || ratio >= 1) {
+            throw IllegalArgumentException("压缩比必须介于 0 和 1 之间")
+        }
+
+        val parameter = Arrays.copyOf(this.parameter, this.parameter.size)
+        val featureCount = parameter.size / labelCount
+        val reserved = labelCount + 1
+
+        val scores = FloatArray(featureCount)
+        for (id in reserved until featureCount) {
+            var s = 0f
+            for (i in id * labelCount until id * labelCount + labelCount) {
+                s += Math.abs(parameter[i])
+            }
+            scores[id] = s
+        }
+
+        // 空桶不参与比例的计算
+        val used = scores.filter { it > 0 }.toFloatArray()
+        val k = (ratio * used.size).toInt()
+        var bound = -1f
+        if (k > 0) {
+            Arrays.sort(used)
+            bound = used[k - 1]
+        }
+
+        var removed = 0
+        for (id in reserved until featureCount) {
+            if (scores[id] > 0 && (scores[id] < threshold || scores[id] <= bound)) {
+                Arrays.fill(parameter, id * labelCount, id * labelCount + labelCount, 0f)
+                removed++
+            }
+        }
+
+        // 整体替换，并发的解码不会看到清零了一半的参数
+        this.parameter = parameter
+
+        logger.info("hash model compress, clear $removed of ${used.size} buckets")
+    }
+
+    override fun save(dir: File) {
+        dir.mkdirs()
+        File(dir, "parameter.bin").outputStream().buffered().use {
+            val dout = DataOutputStream(it)
+            dout.writeInt(labelCount)
+            dout.writeInt(parameter.size)
+            parameter.forEach { w -> dout.writeFloat(w) }
+
+            dout.flush()
+        }
+
+        hasher.save(File(dir, "hash.bin"))
+    }
+
+    companion object {
+
+        private val logger = InternalLoggerFactory.getInstance(HashPerceptronModel::class.java)
+
+        @JvmStatic
+        fun load(dir: File): HashPerceptronModel {
+            return load(File(dir, "parameter.bin").inputStream().buffered(),
+                    File(dir, "hash.bin").inputStream().buffered())
+        }
+
+        @JvmStatic
+        fun load(parameterBin: InputStream, hashBin: InputStream): HashPerceptronModel {
+            val hasher = FeatureHasher.read(hashBin)
+
+            var parameter = FloatArray(0)
+            parameterBin.use { x ->
+                val input = DataInputStream(x)
+                val labelCount = input.readInt()
+                if (labelCount != hasher.labelCount) {
+                    throw IllegalArgumentException("parameter.bin 和 hash.bin 的标签数量不一致")
+                }
+
+                val pSize = input.readInt()
+                parameter = FloatArray(pSize)
+                for (i in 0 until pSize) {
+                    parameter[i] = input.readFloat()
+                }
+            }
+
+            return HashPerceptronModel(hasher, parameter)
+        }
+
+        /**
+         * 把基于DAT FeatureSet的模型转换为哈希特征模型。
+         *
+         * 转移特征直接复制；其他特征通过featureHash计算出哈希值，
+         * 落到同一个桶里面的特征权重相加。
+         *
+         * @param model 原始模型，FeatureSet中没有key列表时从DAT中还原
+         * @param bucketBits 权重表大小为 2^bucketBits
+         * @param featureHash 特征字符串到哈希值的函数，必须和解码时抽取特征的方式一致。
+         *                    返回 Long.MIN_VALUE 表示丢弃这个特征
+         */
+        @JvmStatic
+        fun convert(model: PerceptronModel, bucketBits: Int, featureHash: ToLongFunction<String>): HashPerceptronModel {
+            val featureSet = model.featureSet()
+            val labelCount = model.labelCount
+            val hasher = FeatureHasher(labelCount, bucketBits)
+            val parameter = FloatArray(hasher.size() * labelCount)
+            val source = model.parameter
+
+            // 转移特征
+            System.arraycopy(source, 0, parameter, 0, (labelCount + 1) * labelCount)
+
+            var dropped = 0
+            featureSet.forEachKey { key, id ->
+                if (id > labelCount) {
+                    val hash = featureHash.applyAsLong(key)
+                    if (hash == Long.MIN_VALUE) {
+                        dropped++
+                    } else {
+                        val to = hasher.featureId(hash) * labelCount
+                        val from = id * labelCount
+                        for (i in 0 until labelCount) {
+                            parameter[to + i] += source[from + i]
+                        }
+                    }
+                }
+            }
+
+            if (dropped > 0) {
+                logger.info("convert to hash model, dropped $dropped features")
+            }
+
+            return HashPerceptronModel(hasher, parameter)
+        }
+    }
+}
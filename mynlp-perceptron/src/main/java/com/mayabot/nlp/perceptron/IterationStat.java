@@ -0,0 +1,95 @@
+package com.mayabot.nlp.perceptron;
+
+/**
+ * 一轮训练迭代的统计信息，包含吞吐量和训练集上的准确率
+ */
+public class IterationStat {
+
+    private final int iter;
+
+    private final int maxIter;
+
+    /**
+     * 训练的句子数量
+     */
+    private final int samples;
+
+    /**
+     * 训练的标签(字)数量
+     */
+    private final long tokens;
+
+    /**
+     * 解码正确的标签数量
+     */
+    private final long correct;
+
+    /**
+     * 耗时，毫秒
+     */
+    private final long useTime;
+
+    private final int threadNumber;
+
+    public IterationStat(int iter, int maxIter, int samples, long tokens, long correct, long useTime, int threadNumber) {
+        this.iter = iter;
+        this.maxIter = maxIter;
+        this.samples = samples;
+        this.tokens = tokens;
+        this.correct = correct;
+        this.useTime = useTime;
+        this.threadNumber = threadNumber;
+    }
+
+    public int getIter() {
+        return iter;
+    }
+
+    /**
+     * 总的迭代轮数，iter == maxIter 时为最后一轮
+     */
+    public int getMaxIter() {
+        return maxIter;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public long getTokens() {
+        return tokens;
+    }
+
+    public long getCorrect() {
+        return correct;
+    }
+
+    public long getUseTime() {
+        return useTime;
+    }
+
+    public int getThreadNumber() {
+        return threadNumber;
+    }
+
+    public double samplesPerSecond() {
+        return samples * 1000.0 / Math.max(1, useTime);
+    }
+
+    public double tokensPerSecond() {
+        return tokens * 1000.0 / Math.max(1, useTime);
+    }
+
+    /**
+     * 训练过程中(参数更新前)解码的准确率
+     */
+    public double trainAccuracy() {
+        return tokens == 0 ? 0 : correct * 100.0 / tokens;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("iter %d/%d, threads %d, use %d ms, %.1f samples/s, %.1f tokens/s, train accuracy %.2f",
+                iter, maxIter, threadNumber, useTime, samplesPerSecond(), tokensPerSecond(), trainAccuracy());
+    }
+}
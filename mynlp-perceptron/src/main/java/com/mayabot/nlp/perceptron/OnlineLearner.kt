@@ -0,0 +1,140 @@
+package com.mayabot.nlp.perceptron
+
+import com.mayabot.nlp.logging.InternalLoggerFactory
+import java.io.Closeable
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * 后台在线学习线程。
+ *
+ * 业务线程把纠正后的样例放入队列后立即返回，后台线程按批次转换为TrainSample，
+ * 通过写时复制更新模型参数。解码线程不会被阻塞，也不会看到更新了一半的参数。
+ *
+ * @param model 感知机模型
+ * @param queueSize 队列长度，队列满时新的样例被丢弃
+ * @param batchSize 每次替换参数前最多学习的样例数量
+ * @param toSample 把样例转换为TrainSample，在后台线程中执行，返回null表示忽略
+ *
+ * 转换或者更新参数出错的样例被丢弃，记录日志并计入failedCount
+ *
+ * @author jimichan
+ */
+class OnlineLearner<T> @JvmOverloads constructor(
+        private val model: Perceptron,
+        queueSize: Int = 10000,
+        private val batchSize: Int = 64,
+        private val toSample: (T) -> TrainSample?) : Closeable {
+
+    private val queue = LinkedBlockingQueue<T>(queueSize)
+
+    private val lock = ReentrantLock()
+
+    private val finishedCondition = lock.newCondition()
+
+    /**
+     * 已经放入队列的数量
+     */
+    private var submitted = 0L
+
+    /**
+     * 已经处理完成的数量
+     */
+    private var finished = 0L
+
+    private val failed = AtomicLong()
+
+    /**
+     * 转换或者更新参数出错而被丢弃的样例数量
+     */
+    val failedCount: Long
+        get() = failed.get()
+
+    @Volatile
+    private var running = true
+
+    private val thread = Thread({ loop() }, "perceptron-online-learner")
+
+    init {
+        thread.isDaemon = true
+        thread.start()
+    }
+
+    /**
+     * 提交一个样例，不阻塞
+     * @return false 表示队列已满或者已经关闭，样例被丢弃
+     */
+    fun offer(item: T): Boolean {
+        if (!running) {
+            return false
+        }
+        lock.withLock {
+            if (!queue.offer(item)) {
+                return false
+            }
+            submitted++
+        }
+        return true
+    }
+
+    /**
+     * 等待已经提交的样例全部学习完成
+     */
+    fun flush() {
+        lock.withLock {
+            val target = submitted
+            while (finished < target && thread.isAlive) {
+                finishedCondition.await(100, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    /**
+     * 学习完队列中剩余的样例后停止后台线程
+     */
+    override fun close() {
+        running = false
+        thread.join()
+    }
+
+    private fun loop() {
+        val batch = ArrayList<T>(batchSize)
+        val samples = ArrayList<TrainSample>(batchSize)
+        while (running || queue.isNotEmpty()) {
+            val first = queue.poll(100, TimeUnit.MILLISECONDS) ?: continue
+            batch += first
+            queue.drainTo(batch, batchSize - 1)
+
+            batch.forEach { item ->
+                try {
+                    toSample(item)?.let { samples += it }
+                } catch (e: Exception) {
+                    failed.incrementAndGet()
+                    logger.warn("Online learn ignore $item", e)
+                }
+            }
+            if (samples.isNotEmpty()) {
+                try {
+                    model.updateCopyOnWrite(samples)
+                } catch (e: Exception) {
+                    failed.addAndGet(samples.size.toLong())
+                    logger.error("Online learn update error", e)
+                }
+            }
+
+            lock.withLock {
+                finished += batch.size
+                finishedCondition.signalAll()
+            }
+            batch.clear()
+            samples.clear()
+        }
+    }
+
+    companion object {
+        private val logger = InternalLoggerFactory.getInstance(OnlineLearner::class.java)
+    }
+}
@@ -0,0 +1,122 @@
+package com.mayabot.nlp.perceptron
+
+import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 多线程批量评估。
+ *
+ * 模型在评估期间是只读的，所有线程共享同一个模型。测试样本按批次分配给线程，
+ * 每个线程使用自己的计数器，全部完成后合并。
+ *
+ * @author jimichan
+ */
+object ParallelEvaluator {
+
+    /**
+     * 默认使用的线程数
+     */
+    @JvmStatic
+    val defaultThreadNumber = Runtime.getRuntime().availableProcessors()
+
+    private const val BATCH_SIZE = 256
+
+    /**
+     * @param samples 测试样本
+     * @param threadNumber 线程数
+     * @param newCounter 创建一个空的计数器
+     * @param evaluate 评估一个样本，结果累加到计数器中
+     * @param merge 把第二个计数器合并到第一个中
+     * @return 合并后的计数器
+     */
+    @JvmStatic
+    fun <S, C> evaluate(samples: List<S>,
+                        threadNumber: Int,
+                        newCounter: () -> C,
+                        evaluate: (S, C) -> Unit,
+                        merge: (C, C) -> Unit): C {
+
+        val result = newCounter()
+
+        if (threadNumber <= 1 || samples.size <= BATCH_SIZE) {
+            samples.forEach { evaluate(it, result) }
+            return result
+        }
+
+        val cursor = AtomicInteger(0)
+        val done = AtomicInteger(0)
+
+        val executor = Executors.newFixedThreadPool(threadNumber)
+        try {
+            val futures = (0 until threadNumber).map {
+                executor.submit<C> {
+                    val counter = newCounter()
+                    while (true) {
+                        val from = cursor.getAndAdd(BATCH_SIZE)
+                        if (from >= samples.size) {
+                            break
+                        }
+                        val to = Math.min(from + BATCH_SIZE, samples.size)
+                        for (i in from until to) {
+                            evaluate(samples[i], counter)
+                        }
+
+                        val count = done.addAndGet(to - from)
+                        if (count / 2000 != (count - to + from) / 2000) {
+                            System.out.print("\rEvaluating ${"%.2f".format(count * 100.0 / samples.size)}%")
+                        }
+                    }
+                    counter
+                }
+            }
+            futures.forEach { merge(result, it.get()) }
+        } finally {
+            executor.shutdownNow()
+        }
+
+        return result
+    }
+
+    /**
+     * 按比例随机抽样，seed固定时每次抽到相同的样本，不同迭代之间的结果可以比较
+     * @param ratio 抽样比例，大于等于1时返回原列表
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun <S> subsample(samples: List<S>, ratio: Double, seed: Long = 0): List<S> {
+        if (ratio >= 1.0) {
+            return samples
+        }
+        val random = Random(seed)
+        return samples.filter { random.nextDouble() < ratio }
+    }
+}
+
+/**
+ * 中间迭代只使用部分验证集的评估器，最后一轮迭代使用完整的验证集
+ *
+ * @param samples 验证集
+ * @param ratio 中间迭代时的抽样比例
+ * @param evaluate 在给定的验证集上评估模型
+ */
+class SubsampleEvaluateRunner<S>(
+        private val samples: List<S>,
+        private val ratio: Double,
+        private val evaluate: (List<S>, Perceptron) -> Unit) : EvaluateRunner {
+
+    private val subsample = ParallelEvaluator.subsample(samples, ratio)
+
+    override fun run(iter: Int, perceptron: Perceptron) {
+        evaluate(samples, perceptron)
+    }
+
+    override fun run(stat: IterationStat, perceptron: Perceptron) {
+        if (stat.iter < stat.maxIter && subsample.size < samples.size) {
+            println("Evaluate on ${subsample.size}/${samples.size} samples")
+            evaluate(subsample, perceptron)
+        } else {
+            evaluate(samples, perceptron)
+        }
+    }
+}
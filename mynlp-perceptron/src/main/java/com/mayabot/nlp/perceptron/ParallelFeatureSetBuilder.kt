@@ -0,0 +1,262 @@
+package com.mayabot.nlp.perceptron
+
+import com.carrotsearch.hppc.IntArrayList
+import com.carrotsearch.hppc.ObjectIntHashMap
+import com.mayabot.nlp.collection.dat.DoubleArrayTrie
+import java.io.File
+import java.util.*
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicReference
+import java.util.function.Consumer
+
+/**
+ * 多线程的特征集合构建器。
+ *
+ * 1. 读取线程把语料按批次放入有界队列，多个工作线程抽取特征，在线程本地计数，
+ *    本地计数达到一定数量后合并到按哈希分片的全局计数器中，每个分片一把锁。
+ * 2. 构建时去掉频次低于 minFrequency 的特征，每个分片各自排序，
+ *    再多路归并为一个有序列表，直接用于构建DAT。
+ *
+ * 单个分片的特征数超过 maxKeysPerShard 时，会删除当前最低频的特征(近似计数)，
+ * 这样内存有上限，代价是低频特征的计数可能偏小。
+ *
+ * @param labelCount 标签数量，预留转移特征的位置
+ * @param threadNumber 抽取特征的线程数
+ * @param maxKeysPerShard 每个分片最多保留的特征数量
+ *
+ * @author jimichan
+ */
+class ParallelFeatureSetBuilder @JvmOverloads constructor(
+        private val labelCount: Int,
+        private val threadNumber: Int = Runtime.getRuntime().availableProcessors(),
+        private val maxKeysPerShard: Int = 8_000_000) {
+
+    private class Shard {
+        var counter = ObjectIntHashMap<String>()
+
+        /**
+         * 已经删除的特征的最大频次
+         */
+        var pruneLevel = 0
+    }
+
+    private val shards = Array(SHARD_COUNT) { Shard() }
+
+    /**
+     * 统计语料文件中的特征
+     * @param extractor 把一行语料的特征输出到Consumer中，需要是线程安全的
+     */
+    fun count(files: List<File>, extractor: (String, Consumer<String>) -> Unit) {
+        files.forEach { file ->
+            println(file.absolutePath)
+            file.useLines { lines -> count(lines, extractor) }
+        }
+    }
+
+    /**
+     * 统计语料中的特征。在调用线程中读取语料，在工作线程中抽取特征。
+     * @param extractor 把一行语料的特征输出到Consumer中，需要是线程安全的
+     */
+    fun count(lines: Sequence<String>, extractor: (String, Consumer<String>) -> Unit) {
+        val queue = ArrayBlockingQueue<List<String>>(threadNumber * 4)
+        val error = AtomicReference<Throwable>()
+        val executor = Executors.newFixedThreadPool(threadNumber)
+        val latch = CountDownLatch(threadNumber)
+
+        for (s in 0 until threadNumber) {
+            executor.submit {
+                val local = ObjectIntHashMap<String>()
+                val fit = Consumer<String> { local.addTo(it, 1) }
+                try {
+                    while (true) {
+                        val batch = queue.take()
+                        if (batch === END) {
+                            break
+                        }
+                        // 出错以后继续消费队列，避免读取线程阻塞
+                        if (error.get() != null) {
+                            continue
+                        }
+                        try {
+                            batch.forEach { extractor(it, fit) }
+                            if (local.size() >= LOCAL_FLUSH_SIZE) {
+                                flush(local)
+                            }
+                        } catch (e: Throwable) {
+                            error.compareAndSet(null, e)
+                        }
+                    }
+                    if (error.get() == null) {
+                        flush(local)
+                    }
+                } finally {
+                    latch.countDown()
+                }
+            }
+        }
+
+        try {
+            var batch = ArrayList<String>(BATCH_SIZE)
+            lines.forEach { line ->
+                if (line.isNotBlank()) {
+                    batch.add(line)
+                    if (batch.size == BATCH_SIZE) {
+                        queue.put(batch)
+                        batch = ArrayList(BATCH_SIZE)
+                    }
+                }
+            }
+            if (batch.isNotEmpty()) {
+                queue.put(batch)
+            }
+        } finally {
+            for (s in 0 until threadNumber) {
+                queue.put(END)
+            }
+            latch.await()
+            executor.shutdownNow()
+        }
+
+        error.get()?.let { throw RuntimeException(it) }
+    }
+
+    /**
+     * 把线程本地计数合并到全局分片中，每个分片只加一次锁
+     */
+    private fun flush(local: ObjectIntHashMap<String>) {
+        val keys = Array(SHARD_COUNT) { ArrayList<String>() }
+        val counts = Array(SHARD_COUNT) { IntArrayList() }
+        for (c in local) {
+            val s = shardOf(c.key)
+            keys[s].add(c.key)
+            counts[s].add(c.value)
+        }
+        local.clear()
+
+        for (s in 0 until SHARD_COUNT) {
+            val list = keys[s]
+            if (list.isEmpty()) {
+                continue
+            }
+            val shard = shards[s]
+            val count = counts[s]
+            synchronized(shard) {
+                val counter = shard.counter
+                for (i in 0 until list.size) {
+                    counter.addTo(list[i], count[i])
+                }
+                if (counter.size() > maxKeysPerShard) {
+                    prune(shard)
+                }
+            }
+        }
+    }
+
+    /**
+     * 逐步提高删除的频次，直到分片缩小到上限的一半
+     */
+    private fun prune(shard: Shard) {
+        while (shard.counter.size() > maxKeysPerShard / 2) {
+            shard.pruneLevel++
+            val next = ObjectIntHashMap<String>(shard.counter.size())
+            for (c in shard.counter) {
+                if (c.value > shard.pruneLevel) {
+                    next.put(c.key, c.value)
+                }
+            }
+            shard.counter = next
+        }
+    }
+
+    /**
+     * 构建FeatureSet
+     * @param minFrequency 出现次数少于minFrequency的特征被删除
+     */
+    @JvmOverloads
+    fun build(minFrequency: Int = 1): FeatureSet {
+        val t1 = System.currentTimeMillis()
+
+        // 每个分片各自过滤和排序
+        val runs = arrayOfNulls<Array<String>>(SHARD_COUNT + 1)
+        val executor = Executors.newFixedThreadPool(threadNumber)
+        try {
+            val futures = (0 until SHARD_COUNT).map { s ->
+                executor.submit {
+                    val shard = shards[s]
+                    val list = ArrayList<String>(shard.counter.size())
+                    for (c in shard.counter) {
+                        if (c.value >= minFrequency) {
+                            list.add(c.key)
+                        }
+                    }
+                    val array = list.toTypedArray()
+                    Arrays.sort(array)
+                    runs[s] = array
+                    shard.counter = ObjectIntHashMap()
+                }
+            }
+            futures.forEach { it.get() }
+        } finally {
+            executor.shutdownNow()
+        }
+
+        // Hanlp需要从 0=< <= labelCount 上站位 占用labelCount+1个位置
+        runs[SHARD_COUNT] = Array(labelCount + 1) { "\u0000\u0001BL=$it" }.apply { Arrays.sort(this) }
+
+        val list = merge(runs.requireNoNulls())
+
+        println("Feature count ${list.size}, min frequency $minFrequency, merge use ${System.currentTimeMillis() - t1} ms")
+
+        return FeatureSet(DoubleArrayTrie(list), list)
+    }
+
+    /**
+     * 多路归并有序的分片，结果是有序且无重复的
+     */
+    private fun merge(runs: Array<Array<String>>): List<String> {
+        val size = runs.sumBy { it.size }
+        val result = ArrayList<String>(size)
+
+        val position = IntArray(runs.size)
+        val heap = PriorityQueue<Int>(runs.size, Comparator { a, b ->
+            runs[a][position[a]].compareTo(runs[b][position[b]])
+        })
+        for (i in runs.indices) {
+            if (runs[i].isNotEmpty()) {
+                heap.add(i)
+            }
+        }
+
+        while (heap.isNotEmpty()) {
+            val r = heap.poll()
+            val key = runs[r][position[r]++]
+            // 不同分片中的key不会重复，转移特征可能和语料中的特征重复
+            if (result.isEmpty() || result[result.size - 1] != key) {
+                result.add(key)
+            }
+            if (position[r] < runs[r].size) {
+                heap.add(r)
+            }
+        }
+
+        return result
+    }
+
+    companion object {
+
+        private const val SHARD_COUNT = 64
+
+        private const val BATCH_SIZE = 512
+
+        private const val LOCAL_FLUSH_SIZE = 1 shl 16
+
+        private val END = ArrayList<String>()
+
+        private fun shardOf(key: String): Int {
+            val h = key.hashCode()
+            return (h xor (h ushr 16)) and (SHARD_COUNT - 1)
+        }
+    }
+}
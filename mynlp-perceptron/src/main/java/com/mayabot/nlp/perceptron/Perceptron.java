@@ -36,10 +36,25 @@ public interface Perceptron {
     /**
      * 特征集合
      *
-     * @return 特征集合
+     * @return 特征集合，哈希特征的模型没有特征集合，返回null
      */
     FeatureSet featureSet();
 
+    /**
+     * 需要特征集合的地方调用
+     *
+     * @return 特征集合
+     * @throws UnsupportedOperationException 模型没有特征集合
+     */
+    default FeatureSet requireFeatureSet() {
+        FeatureSet featureSet = featureSet();
+        if (featureSet == null) {
+            throw new UnsupportedOperationException(getClass().getSimpleName()
+                    + " has no feature set, a PerceptronModel is required");
+        }
+        return featureSet;
+    }
+
 
     void makeSureParameter(int featureId);
 
@@ -50,6 +65,14 @@ public interface Perceptron {
      */
     void update(TrainSample data);
 
+    /**
+     * 线程安全的在线学习。在参数副本上更新，完成后原子地替换参数，
+     * 并发的解码不会看到更新了一半的参数。
+     *
+     * @param samples 样例
+     */
+    void updateCopyOnWrite(List<TrainSample> samples);
+
     /**
      * 压缩
      * @param ratio 压缩比，0.1表示压缩去掉10%的特征
@@ -2,13 +2,19 @@ package com.mayabot.nlp.perceptron
 
 import com.carrotsearch.hppc.IntArrayList
 import com.mayabot.nlp.collection.dat.DoubleArrayTrie
+import com.mayabot.nlp.logging.InternalLoggerFactory
 import java.io.DataInputStream
 import java.io.DataOutputStream
 import java.io.File
 import java.io.InputStream
 import java.util.*
 import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import java.util.stream.IntStream
 import kotlin.math.max
 
 /**
@@ -24,23 +30,22 @@ class TrainSample(
 class Labels(val goldFeature: IntArray, val predFeature: IntArray)
 
 /**
- * 感知机模型
+ * 感知机模型的参数部分，包含训练更新和解码。
+ * 特征ID如何产生由子类决定。
  */
-open class PerceptronModel(
-        private var featureSet: FeatureSet,
-        protected val labelCount: Int,
-        var parameter: FloatArray
+abstract class BasePerceptronModel(
+        val labelCount: Int,
+        @Volatile var parameter: FloatArray
 ) : Perceptron {
 
     private val MaxScore = Integer.MIN_VALUE.toDouble()
     var decodeQuickModel = false
 
-
-    constructor(featureSet: FeatureSet, labelCount: Int) :
-            this(featureSet, labelCount, FloatArray(featureSet.size() * labelCount))
-
-    override fun featureSet() = featureSet
-
+    /**
+     * 集束搜索的宽度，每个位置只保留得分最高的beamSize个标签参与转移计算。
+     * 0或者不小于标签数量时使用精确的viterbi
+     */
+    var beamSize = 0
 
     override fun makeSureParameter(featureId: Int) {
         if (featureId * labelCount >= parameter.size) {
@@ -52,15 +57,42 @@ open class PerceptronModel(
     /**
      * 单线程训练时调用.
      * 平均感知机
+     * @return 预测正确的标签数量
+     */
+    fun update(data: TrainSample, total: DoubleArray, timestamp: IntArray, current: Int): Int {
+        return update(data, total, timestamp, current, null)
+    }
+
+    /**
+     * 多线程共享同一份参数训练时调用.
+     * 平均感知机。解码时不加锁，更新参数时按照下标分段加锁。
+     * @param locks 分段锁，数量必须是2的幂。null表示单线程
+     * @return 预测正确的标签数量
      */
-    fun update(data: TrainSample, total: DoubleArray, timestamp: IntArray, current: Int) {
+    fun update(data: TrainSample, total: DoubleArray, timestamp: IntArray, current: Int, locks: Array<Any>?): Int {
+        return update(data, total, timestamp, current, locks, parameter)
+    }
+
+    /**
+     * 训练过程中参数数组不会被替换，调用方读取一次parameter后在一批样本中重复使用，
+     * 避免热循环中每次访问都读取volatile字段
+     * @param parameter 当前的参数数组，必须就是this.parameter
+     * @return 预测正确的标签数量
+     */
+    fun update(data: TrainSample, total: DoubleArray, timestamp: IntArray, current: Int, locks: Array<Any>?,
+               parameter: FloatArray): Int {
         val length = data.size
         val guessLabel = IntArray(length)
-        decode(data.featureMatrix, guessLabel)
+        decode(data.featureMatrix, guessLabel, parameter)
+        var right = 0
         for (i in 0 until length) {
+            if (guessLabel[i] == data.label[i]) {
+                right++
+            }
             val labels = featureToLabel(data, guessLabel, i)
-            updateParameter(labels.goldFeature, labels.predFeature, total, timestamp, current)
+            updateParameter(labels.goldFeature, labels.predFeature, total, timestamp, current, locks, parameter)
         }
+        return right
     }
 
     /**
@@ -68,13 +100,54 @@ open class PerceptronModel(
      * 结构化感知机
      */
     override fun update(data: TrainSample) {
+        update(data, parameter)
+    }
+
+    private fun update(data: TrainSample, parameter: FloatArray) {
         val length = data.size
         val guessLabel = IntArray(length)
-        decode(data.featureMatrix, guessLabel)
+        decode(data.featureMatrix, guessLabel, parameter)
         for (i in 0 until length) {
             val labels = featureToLabel(data, guessLabel, i)
-            updateOnline(labels.goldFeature, labels.predFeature)
+            updateOnline(labels.goldFeature, labels.predFeature, parameter)
+        }
+    }
+
+    /**
+     * 写时复制的在线学习。
+     * 在参数的副本上学习样本，完成后一次性替换参数引用。
+     * 解码线程不加锁，看到的要么是旧参数，要么是新参数。
+     */
+    @Synchronized
+    override fun updateCopyOnWrite(samples: List<TrainSample>) {
+        if (samples.isEmpty()) {
+            return
         }
+        var maxId = 0
+        for (sample in samples) {
+            for (vector in sample.featureMatrix) {
+                val buffer = vector.buffer
+                for (i in 0 until vector.size() - 1) {
+                    if (buffer[i] > maxId) {
+                        maxId = buffer[i]
+                    }
+                }
+            }
+        }
+
+        val old = parameter
+        val need = (maxId + 1) * labelCount
+        val copy = if (need > old.size) {
+            Arrays.copyOf(old, max(need, old.size + 2000 * labelCount))
+        } else {
+            Arrays.copyOf(old, old.size)
+        }
+
+        for (sample in samples) {
+            update(sample, copy)
+        }
+
+        parameter = copy
     }
 
     private fun featureToLabel(data: TrainSample, guessLabel: IntArray, i: Int): Labels {
@@ -95,15 +168,16 @@ open class PerceptronModel(
         return Labels(goldFeature, predFeature)
     }
 
-    private fun updateParameter(goldIndex: IntArray, predictIndex: IntArray, total: DoubleArray, timestamp: IntArray, current: Int): Boolean {
+    private fun updateParameter(goldIndex: IntArray, predictIndex: IntArray, total: DoubleArray, timestamp: IntArray, current: Int, locks: Array<Any>?,
+                                parameter: FloatArray): Boolean {
         if (goldIndex.contentEquals(predictIndex)) return false
         for (i in goldIndex.indices) {
             if (goldIndex[i] == predictIndex[i])
                 continue
             else {
-                record(goldIndex[i], 1f, total, timestamp, current)//当预测的标注和实际标注不一致时 先更新权重
+                record(goldIndex[i], 1f, total, timestamp, current, locks, parameter)//当预测的标注和实际标注不一致时 先更新权重
                 if (predictIndex[i] >= 0 && predictIndex[i] < parameter.size)
-                    record(predictIndex[i], -1f, total, timestamp, current)
+                    record(predictIndex[i], -1f, total, timestamp, current, locks, parameter)
                 else {
                     throw IllegalArgumentException("更新参数时传入了非法的下标")
                 }
@@ -112,7 +186,7 @@ open class PerceptronModel(
         return true
     }
 
-    private fun updateOnline(goldIndex: IntArray, predictIndex: IntArray) {
+    private fun updateOnline(goldIndex: IntArray, predictIndex: IntArray, parameter: FloatArray) {
         for (i in goldIndex.indices) {
 
             val xii = predictIndex[i]
@@ -129,188 +203,50 @@ open class PerceptronModel(
         }
     }
 
-    private fun record(index: Int, value: Float, total: DoubleArray, timestamp: IntArray, current: Int) {
-        val passed = current - timestamp[index]
-        total[index] += passed * parameter[index].toDouble() //权重乘以该纬度经历时间
-        parameter[index] += value
-        timestamp[index] = current
-    }
-
-
-    fun average(total: DoubleArray, timestamp: IntArray, current: Int) {
-        val cf = current.toFloat()
-        for (i in 0 until parameter.size) {
-            val pass = cf - timestamp[i].toFloat()
-            val totali = total[i].toFloat()
-            parameter[i] = (totali + pass * parameter[i]) / cf
-        }
-    }
-
-    /**
-     * 模型压缩
-     * @param ratio 压缩比，如0.2，那么就是去掉0.2的特征
-     */
-    override fun compress(ratio: Double, threshold: Double) {
-        if (ratio < 0 || ratio >= 1) {
-            throw IllegalArgumentException("压缩比必须介于 0 和 1 之间")
-        }
-
-        assert(featureSet.keys != null)
-
-        val k = if (ratio == 0.0) 0 else (ratio * featureSet.size()).toInt()
-
-        val featureList = featureSet.keys!!
-
-        fun score(id: Int): Float {
-            var s = 0f
-            for (i in id * labelCount until id * labelCount + labelCount) {
-                s += Math.abs(parameter[i])
-            }
-            return s
-        }
-
-        val filterSet = HashSet<Int>()
-        for (id in 0 until featureList.size) {
-            val s = score(id)
-            if (s < threshold) {
-                filterSet.add(id)
-            }
-        }
-
-        println("threshold filterd ${filterSet.size}")
-
-        //移除了很小的之后，还没有达到缩减的值
-        if (k > 0 && filterSet.size < k) {
-            val heap = TopIntMinK(k - filterSet.size)
-
-            println("let's filter top min ${k - filterSet.size}")
-
-            for (id in 0 until featureList.size) {
-                val s = score(id)
-                if (s >= threshold) {
-                    heap.push(id, s)
+    private fun record(index: Int, value: Float, total: DoubleArray, timestamp: IntArray, current: Int, locks: Array<Any>?,
+                       parameter: FloatArray) {
+        if (locks == null) {
+            val passed = current - timestamp[index]
+            total[index] += passed * parameter[index].toDouble() //权重乘以该纬度经历时间
+            parameter[index] += value
+            timestamp[index] = current
+        } else {
+            synchronized(locks[index and (locks.size - 1)]) {
+                // 多线程时，拿到较小时间戳的线程可能后更新，这时不再累计
+                val last = timestamp[index]
+                if (current > last) {
+                    total[index] += (current - last) * parameter[index].toDouble()
+                    timestamp[index] = current
                 }
+                parameter[index] += value
             }
-
-            val topMinResultIdSet = heap.result().map { it.first }.toSet()
-
-            filterSet.addAll(topMinResultIdSet)
         }
-
-        println("remove ${filterSet.size} feature,real compress ${String.format("%.3f", filterSet.size * 1.0f / featureList.size)}")
-
-
-        val newSize = featureList.size - filterSet.size
-        val newFeatureList = ArrayList<String>(newSize)
-        val newParameter = FloatArray(labelCount * newSize)
-
-        var cc = 0
-
-        featureList.forEachIndexed { index, s ->
-            if (index <= labelCount || !filterSet.contains(index)) {
-                // index<=labelCount 是特征构件是保留的和labelCount+1数量相等的特征，需要保留
-                newFeatureList += s
-                System.arraycopy(parameter, index * labelCount, newParameter, cc * labelCount, labelCount)
-                cc++
-            }
-        }
-
-        parameter = newParameter
-        this.featureSet = FeatureSet(DoubleArrayTrie(newFeatureList), newFeatureList)
-
-//        featureSetSize = this.featureSet.size()
-//        parameterSize = parameter.size
-
     }
 
-    override fun save(dir: File) {
-        dir.mkdirs()
-        File(dir, "parameter.bin").outputStream().buffered().use {
-            val dout = DataOutputStream(it)
-            dout.writeInt(labelCount)
-            dout.writeInt(parameter.size)
-            parameter.forEach { w -> dout.writeFloat(w) }
-
-            dout.flush()
-        }
 
-        featureSet.save(File(dir, "feature.dat"), File(dir, "feature.txt"))
+    fun average(total: DoubleArray, timestamp: IntArray, current: Int) {
+        average(total, timestamp, current, 0, parameter.size)
     }
 
-    companion object {
-
-        fun load(parameterBin: InputStream, featureBin: InputStream, featureDat: Boolean): PerceptronModel {
-
-            return if (featureDat) {
-                load(parameterBin, featureBin, null)
-            } else {
-                load(parameterBin, null, featureBin)
-            }
-        }
-
-        fun load(parameterFile: File, featureBin: File?, featureText: File?): PerceptronModel {
-            return load(parameterFile.inputStream().buffered(),
-                    featureBin?.inputStream()?.buffered(),
-                    featureText?.inputStream()?.buffered()
-            )
-        }
-
-        fun load(dir: File): PerceptronModel {
-            fun loadIfExit(fname: String): File? {
-                val f = File(dir, fname)
-                return if (f.exists()) {
-                    f
-                } else {
-                    null
-                }
-            }
-
-            return load(
-                    File(dir, "parameter.bin"),
-                    loadIfExit("feature.dat"),
-                    loadIfExit("feature.txt")
-            )
-        }
-
-        fun load(parameterBin: InputStream, featureBin: InputStream?, featureText: InputStream?): PerceptronModel {
-
-            var labelCount = 0
-            var parameter = FloatArray(0)
-            parameterBin.use { x ->
-                val input = DataInputStream(x)
-                labelCount = input.readInt()
-
-                val pSize = input.readInt()
-                parameter = FloatArray(pSize)
-                for (i in 0 until pSize) {
-                    parameter[i] = input.readFloat()
-                }
-            }
-
-            val fs = if (featureBin != null) {
-                if (featureText != null) {
-                    FeatureSet.read(featureBin, featureText)
-                } else {
-                    FeatureSet.read(featureBin)
-                }
-            } else {
-                if (featureText != null) {
-                    FeatureSet.read(featureText)
-                } else {
-                    throw RuntimeException()
-                }
-            }
-
-            return PerceptronModel(fs, labelCount, parameter)
+    /**
+     * 对参数的 [from,to) 区间进行平均，多线程时可以分段并行
+     */
+    fun average(total: DoubleArray, timestamp: IntArray, current: Int, from: Int, to: Int) {
+        val cf = current.toFloat()
+        val parameter = this.parameter
+        for (i in from until to) {
+            val pass = cf - timestamp[i].toFloat()
+            val totali = total[i].toFloat()
+            parameter[i] = (totali + pass * parameter[i]) / cf
         }
     }
 
-
     //private val transBaseIndex = (0 until labelCount).map { it * labelCount }.toTypedArray()
 
-    private fun decodeQuick(featureSequence: List<IntArrayList>, guessLabel: IntArray) {
+    private fun decodeQuick(featureSequence: List<IntArrayList>, guessLabel: IntArray, parameter: FloatArray) {
 
         var index = 0
+        val limit = parameter.size / labelCount
 
         for (feature in featureSequence) {
 
@@ -325,7 +261,9 @@ open class PerceptronModel(
                 var score = 0.0
 
                 for (i in 0 until sizeM1) {
-                    score += parameter[buffer[i] * labelCount + label]
+                    if (buffer[i] < limit) {
+                        score += parameter[buffer[i] * labelCount + label]
+                    }
                 }
 
                 if (score > maxScore) {
@@ -343,10 +281,20 @@ open class PerceptronModel(
      * viterbi
      */
     override fun decode(featureSequence: List<IntArrayList>, guessLabel: IntArray) {
+        // 只读取一次参数引用，在线学习替换参数时，本次解码仍然使用同一份参数
+        decode(featureSequence, guessLabel, parameter)
+    }
+
+    private fun decode(featureSequence: List<IntArrayList>, guessLabel: IntArray, parameter: FloatArray) {
 
         //快速模式，不考虑转移，只适用于词性标注类型的任务
         if (decodeQuickModel) {
-            decodeQuick(featureSequence, guessLabel)
+            decodeQuick(featureSequence, guessLabel, parameter)
+            return
+        }
+
+        if (beamSize in 1 until labelCount) {
+            decodeBeam(featureSequence, guessLabel, parameter, beamSize)
             return
         }
 
@@ -367,7 +315,7 @@ open class PerceptronModel(
         val bosBase = bos * labelSize
         for (j in 0 until labelCount) {
             preMatrix[j] = j
-            val score = scoreBase(firstFeature, j) + parameter[bosBase + j]
+            val score = scoreBase(firstFeature, j, parameter) + parameter[bosBase + j]
             scoreMLast[j] = score
         }
 
@@ -381,7 +329,7 @@ open class PerceptronModel(
 
                 var maxScore = MaxScore
 
-                val baseScore = scoreBase(allFeature, curLabel)
+                val baseScore = scoreBase(allFeature, curLabel, parameter)
 
                 for (preLabel in 0 until labelCount) {
 
@@ -424,14 +372,129 @@ open class PerceptronModel(
 
     }
 
-    private fun scoreBase(featureVector: IntArrayList, currentTag: Int): Double {
+    /**
+     * 集束搜索。前一个位置只有得分最高的beam个标签参与转移计算，
+     * 复杂度从 O(n·L²) 降为 O(n·L·beam)
+     */
+    private fun decodeBeam(featureSequence: List<IntArrayList>, guessLabel: IntArray, parameter: FloatArray, beam: Int) {
+        val sentenceLength = featureSequence.size
+        val labelSize = labelCount
+
+        val preMatrix = IntArray(sentenceLength * labelSize)
+
+        var scoreMLast = DoubleArray(labelSize)
+        var scoreMNow = DoubleArray(labelSize)
+
+        // 前一个位置保留的标签，小顶堆
+        val heap = IntArray(beam)
+
+        val firstFeature = featureSequence[0]
+        val bosBase = labelCount * labelSize
+        for (j in 0 until labelCount) {
+            preMatrix[j] = j
+            scoreMLast[j] = scoreBase(firstFeature, j, parameter) + parameter[bosBase + j]
+        }
+        var heapSize = topK(scoreMLast, heap, beam)
+
+        for (i in 1 until sentenceLength) {
+
+            val allFeature = featureSequence[i]
+            val base = i * labelSize
+
+            for (curLabel in 0 until labelCount) {
+                var maxScore = MaxScore
+                var maxPre = heap[0]
+                for (k in 0 until heapSize) {
+                    val preLabel = heap[k]
+                    val curScore = scoreMLast[preLabel] + parameter[preLabel * labelSize + curLabel]
+                    if (curScore > maxScore) {
+                        maxScore = curScore
+                        maxPre = preLabel
+                    }
+                }
+                preMatrix[base + curLabel] = maxPre
+                scoreMNow[curLabel] = maxScore + scoreBase(allFeature, curLabel, parameter)
+            }
+
+            val temp = scoreMLast
+            scoreMLast = scoreMNow
+            scoreMNow = temp
+
+            heapSize = topK(scoreMLast, heap, beam)
+        }
+
+        var maxIndex = 0
+        var maxScore = scoreMLast[0]
+        for (index in 1 until labelCount) {
+            val x = scoreMLast[index]
+            if (maxScore < x) {
+                maxIndex = index
+                maxScore = x
+            }
+        }
+
+        var k = (sentenceLength - 1) * labelCount
+        for (i in sentenceLength - 1 downTo 0) {
+            guessLabel[i] = maxIndex
+            maxIndex = preMatrix[k + maxIndex]
+            k -= labelCount
+        }
+    }
+
+    /**
+     * 用小顶堆选出得分最高的k个标签，保存在heap中
+     * @return 堆的大小
+     */
+    private fun topK(scores: DoubleArray, heap: IntArray, k: Int): Int {
+        var size = 0
+        for (label in 0 until scores.size) {
+            if (size < k) {
+                // 上浮
+                var child = size++
+                while (child > 0) {
+                    val parent = (child - 1) shr 1
+                    if (scores[heap[parent]] <= scores[label]) {
+                        break
+                    }
+                    heap[child] = heap[parent]
+                    child = parent
+                }
+                heap[child] = label
+            } else if (scores[label] > scores[heap[0]]) {
+                // 替换堆顶后下沉
+                var parent = 0
+                while (true) {
+                    var child = parent * 2 + 1
+                    if (child >= size) {
+                        break
+                    }
+                    if (child + 1 < size && scores[heap[child + 1]] < scores[heap[child]]) {
+                        child++
+                    }
+                    if (scores[label] <= scores[heap[child]]) {
+                        break
+                    }
+                    heap[parent] = heap[child]
+                    parent = child
+                }
+                heap[parent] = label
+            }
+        }
+        return size
+    }
+
+    private fun scoreBase(featureVector: IntArrayList, currentTag: Int, parameter: FloatArray): Double {
 
         var score = 0.0
 
         val buffer = featureVector.buffer
+        val limit = parameter.size / labelCount
         for (i in 0 until featureVector.size() - 1) {
             val index = buffer[i]
-            score += parameter[index * labelCount + currentTag]
+            // 并发在线学习时，新分配的特征ID可能还没有对应的参数
+            if (index < limit) {
+                score += parameter[index * labelCount + currentTag]
+            }
         }
 
         return score
@@ -440,46 +503,290 @@ open class PerceptronModel(
 }
 
 
+/**
+ * 感知机模型
+ */
+open class PerceptronModel(
+        private var featureSet: FeatureSet,
+        labelCount: Int,
+        parameter: FloatArray
+) : BasePerceptronModel(labelCount, parameter) {
+
+    constructor(featureSet: FeatureSet, labelCount: Int) :
+            this(featureSet, labelCount, FloatArray(featureSet.size() * labelCount))
+
+    override fun featureSet(): FeatureSet = featureSet
+
+    /**
+     * 模型压缩
+     *
+     * 并行计算每个特征的得分(各标签权重绝对值之和)，删除的特征记录在BitSet中。
+     * 然后按字典序流式遍历保留的特征，依次复制参数行，最后重建DAT。
+     * 没有feature.txt的模型从DAT中还原特征字符串。
+     *
+     * @param ratio 压缩比，如0.2，那么就是去掉0.2的特征
+     * @param threshold 得分小于threshold的特征一定被删除
+     */
+    override fun compress(ratio: Double, threshold: Double) {
+        if (ratio < 0 || ratio >= 1) {
+            throw IllegalArgumentException("压缩比必须介于 0 和 1 之间")
+        }
+
+        val t1 = System.currentTimeMillis()
+
+        val parameter = this.parameter
+        val featureCount = parameter.size / labelCount
+
+        // 前 labelCount+1 个是转移特征，需要保留
+        val reserved = labelCount + 1
+
+        val scores = FloatArray(featureCount)
+        IntStream.range(0, featureCount).parallel().forEach { id ->
+            var s = 0f
+            for (i in id * labelCount until id * labelCount + labelCount) {
+                s += Math.abs(parameter[i])
+            }
+            scores[id] = s
+        }
+
+        val removed = BitSet(featureCount)
+        var removedCount = 0
+        for (id in reserved until featureCount) {
+            if (scores[id] < threshold) {
+                removed.set(id)
+                removedCount++
+            }
+        }
+
+        val k = if (ratio == 0.0) 0 else (ratio * featureCount).toInt()
+
+        //移除了很小的之后，还没有达到缩减的值
+        if (k > removedCount && featureCount > reserved + removedCount) {
+            val need = Math.min(k - removedCount, featureCount - reserved - removedCount)
+
+            // 剩余特征的得分排序，找到第need小的得分
+            val rest = FloatArray(featureCount - reserved - removedCount)
+            var p = 0
+            for (id in reserved until featureCount) {
+                if (!removed.get(id)) {
+                    rest[p++] = scores[id]
+                }
+            }
+            Arrays.parallelSort(rest)
+            val bound = rest[need - 1]
+
+            var count = 0
+            for (id in reserved until featureCount) {
+                if (!removed.get(id) && scores[id] < bound) {
+                    removed.set(id)
+                    count++
+                }
+            }
+            // 和边界得分相同的特征，删除到够数为止
+            var id = reserved
+            while (count < need && id < featureCount) {
+                if (!removed.get(id) && scores[id] == bound) {
+                    removed.set(id)
+                    count++
+                }
+                id++
+            }
+            removedCount += count
+        }
+
+        val newSize = featureCount - removedCount
+        val newFeatureList = ArrayList<String>(newSize)
+        val newParameter = FloatArray(labelCount * newSize)
+
+        var cc = 0
+        featureSet.forEachSortedKey { key, id ->
+            // 在线学习分配了ID但是还没有参数的特征直接丢弃
+            if (id < featureCount && !removed.get(id)) {
+                newFeatureList += key
+                System.arraycopy(parameter, id * labelCount, newParameter, cc * labelCount, labelCount)
+                cc++
+            }
+        }
+
+        this.featureSet = FeatureSet(DoubleArrayTrie(newFeatureList), newFeatureList)
+        this.parameter = if (cc == newSize) newParameter else Arrays.copyOf(newParameter, cc * labelCount)
+
+        logger.info("remove $removedCount feature,real compress ${String.format("%.3f", removedCount * 1.0f / featureCount)}, " +
+                "use ${System.currentTimeMillis() - t1} ms")
+    }
+
+    override fun save(dir: File) {
+        dir.mkdirs()
+        File(dir, "parameter.bin").outputStream().buffered().use {
+            val dout = DataOutputStream(it)
+            dout.writeInt(labelCount)
+            dout.writeInt(parameter.size)
+            parameter.forEach { w -> dout.writeFloat(w) }
+
+            dout.flush()
+        }
+
+        featureSet.save(File(dir, "feature.dat"), File(dir, "feature.txt"))
+    }
+
+    companion object {
+
+        private val logger = InternalLoggerFactory.getInstance(PerceptronModel::class.java)
+
+        fun load(parameterBin: InputStream, featureBin: InputStream, featureDat: Boolean): PerceptronModel {
+
+            return if (featureDat) {
+                load(parameterBin, featureBin, null)
+            } else {
+                load(parameterBin, null, featureBin)
+            }
+        }
+
+        fun load(parameterFile: File, featureBin: File?, featureText: File?): PerceptronModel {
+            return load(parameterFile.inputStream().buffered(),
+                    featureBin?.inputStream()?.buffered(),
+                    featureText?.inputStream()?.buffered()
+            )
+        }
+
+        fun load(dir: File): PerceptronModel {
+            fun loadIfExit(fname: String): File? {
+                val f = File(dir, fname)
+                return if (f.exists()) {
+                    f
+                } else {
+                    null
+                }
+            }
+
+            return load(
+                    File(dir, "parameter.bin"),
+                    loadIfExit("feature.dat"),
+                    loadIfExit("feature.txt")
+            )
+        }
+
+        fun load(parameterBin: InputStream, featureBin: InputStream?, featureText: InputStream?): PerceptronModel {
+
+            var labelCount = 0
+            var parameter = FloatArray(0)
+            parameterBin.use { x ->
+                val input = DataInputStream(x)
+                labelCount = input.readInt()
+
+                val pSize = input.readInt()
+                parameter = FloatArray(pSize)
+                for (i in 0 until pSize) {
+                    parameter[i] = input.readFloat()
+                }
+            }
+
+            val fs = if (featureBin != null) {
+                if (featureText != null) {
+                    FeatureSet.read(featureBin, featureText)
+                } else {
+                    FeatureSet.read(featureBin)
+                }
+            } else {
+                if (featureText != null) {
+                    FeatureSet.read(featureText)
+                } else {
+                    throw RuntimeException()
+                }
+            }
+
+            return PerceptronModel(fs, labelCount, parameter)
+        }
+    }
+}
+
+
 /**
  * 通用感知机训练器
- * @param featureSet 特征集合
  * @param labelCount 标签的数量
- * @param trainSource 训练样例列表
+ * @param trainSource 训练样例来源，可以是内存中的列表或者磁盘上的TrainSampleFile
  * @param evaluateScript 评估运行器
  * @param maxIter 迭代轮数
  * @param decodeQuickModel_ 是否启用快速解码(词性标注时启用)
+ * @param featureSet 特征集合，训练DAT特征模型时使用
+ * @param hasher 哈希特征空间，训练哈希特征模型时使用
  */
-class PerceptronTrainer(
-        private val featureSet: FeatureSet,
+class PerceptronTrainer private constructor(
         private val labelCount: Int,
-        private val trainSource: List<TrainSample>,
+        private val trainSource: TrainSampleSource,
         private val evaluateScript: EvaluateRunner,
         private val maxIter: Int,
-        private val decodeQuickModel_: Boolean) {
+        private val decodeQuickModel_: Boolean,
+        private val featureSet: FeatureSet?,
+        private val hasher: FeatureHasher?) {
+
+    /**
+     * 训练基于FeatureSet的模型
+     * @param featureSet 特征集合
+     */
+    constructor(featureSet: FeatureSet,
+                labelCount: Int,
+                trainSource: TrainSampleSource,
+                evaluateScript: EvaluateRunner,
+                maxIter: Int,
+                decodeQuickModel_: Boolean) :
+            this(labelCount, trainSource, evaluateScript, maxIter, decodeQuickModel_, featureSet, null)
+
+    constructor(featureSet: FeatureSet,
+                labelCount: Int,
+                trainSource: List<TrainSample>,
+                evaluateScript: EvaluateRunner,
+                maxIter: Int,
+                decodeQuickModel_: Boolean) :
+            this(featureSet, labelCount, ListTrainSampleSource(trainSource), evaluateScript, maxIter, decodeQuickModel_)
 
-    private fun buildPerceptronModel(featureSet: FeatureSet, labelCount: Int): PerceptronModel {
-        return PerceptronModel(
-                featureSet, labelCount
-        ).apply {
-            this.decodeQuickModel = decodeQuickModel_
+    /**
+     * 训练哈希特征模型。TrainSample中的特征ID需要由同一个hasher产生。
+     * @param hasher 哈希特征空间
+     */
+    constructor(hasher: FeatureHasher,
+                trainSource: TrainSampleSource,
+                evaluateScript: EvaluateRunner,
+                maxIter: Int,
+                decodeQuickModel_: Boolean) :
+            this(hasher.labelCount, trainSource, evaluateScript, maxIter, decodeQuickModel_, null, hasher)
+
+    constructor(hasher: FeatureHasher,
+                trainSource: List<TrainSample>,
+                evaluateScript: EvaluateRunner,
+                maxIter: Int,
+                decodeQuickModel_: Boolean) :
+            this(hasher, ListTrainSampleSource(trainSource), evaluateScript, maxIter, decodeQuickModel_)
+
+    private fun parameterSize(): Int {
+        return if (hasher != null) {
+            hasher.size() * labelCount
+        } else {
+            featureSet!!.size() * labelCount
         }
     }
 
-    private fun buildPerceptronModel(featureSet: FeatureSet, labelCount: Int, parameter: FloatArray): PerceptronModel {
-        return PerceptronModel(
-                featureSet, labelCount, parameter
-        ).apply {
-            this.decodeQuickModel = decodeQuickModel_
+    private fun buildPerceptronModel(): BasePerceptronModel {
+        return buildPerceptronModel(FloatArray(parameterSize()))
+    }
+
+    private fun buildPerceptronModel(parameter: FloatArray): BasePerceptronModel {
+        val model = if (hasher != null) {
+            HashPerceptronModel(hasher, parameter)
+        } else {
+            PerceptronModel(featureSet!!, labelCount, parameter)
         }
+        model.decodeQuickModel = decodeQuickModel_
+        return model
     }
 
     /**
      * 默认多线程训练。
-     * @param threadNumber 线程数。threadNumber=1 时平均感知机
+     * @param threadNumber 线程数。threadNumber=1 时单线程训练，多线程时所有线程共享同一份参数(Hogwild)
      */
     @JvmOverloads
     fun train(threadNumber: Int = Runtime.getRuntime().availableProcessors() - 1): Perceptron {
-        return if (threadNumber == 1) {
+        return if (threadNumber <= 1) {
             trainOneThread()
         } else {
             trainParallel(threadNumber)
@@ -490,9 +797,7 @@ class PerceptronTrainer(
      * 单线程训练
      */
     private fun trainOneThread(): Perceptron {
-        val model = buildPerceptronModel(
-                featureSet, labelCount
-        )
+        val model = buildPerceptronModel()
 
         //应该是权重的总和 最后要平均？
         val total = DoubleArray(model.parameter.size)
@@ -506,27 +811,32 @@ class PerceptronTrainer(
 
             System.out.print("Process 0%")
             var per = 0
-            trainSource.forEach {
+            var tokens = 0L
+            var correct = 0L
+            val sampleSize = trainSource.size()
+            trainSource.epoch(k).forEach {
                 current++
 
-                model.update(it, total, timestamp, current)
+                correct += model.update(it, total, timestamp, current)
+                tokens += it.size
 
                 per++
 
                 if (per % 5000 == 0) {
-                    System.out.print("\rProcess ${"%.2f".format((per * 100.0 / trainSource.size))}%")
+                    System.out.print("\rProcess ${"%.2f".format((per * 100.0 / sampleSize))}%")
                 }
             }
             System.out.print("\r")
             val t2 = System.currentTimeMillis()
 
-            println("train use ${t2 - t1} ms\n")
+            val stat = IterationStat(k, maxIter, per, tokens, correct, t2 - t1, 1)
+            println("$stat\n")
 
             // 备份参数
             val back = Arrays.copyOf(model.parameter, model.parameter.size)
             model.average(total, timestamp, current)
             // 运行评估
-            evaluateScript.run(k, model)
+            evaluateScript.run(stat, model)
             model.parameter = back
         }
 
@@ -535,82 +845,132 @@ class PerceptronTrainer(
         return model
     }
 
+    /**
+     * 多线程训练。
+     *
+     * 所有线程共享同一份参数、累计权重和时间戳，解码时不加锁，
+     * 更新参数时按照参数下标分段加锁，只锁住很短的 record 过程。
+     * 样本按照小批次动态分配给线程，线程之间负载均衡。
+     * 样本迭代器加锁后按批次领取，所以磁盘上的样本同样适用。
+     * 平均感知机的时间戳使用全局的原子计数器。
+     */
     private fun trainParallel(threadNumber: Int): Perceptron {
-        // val size = featureSet.size() * labelCount
-        val modelArray = Array(threadNumber) {
-            buildPerceptronModel(featureSet, labelCount)
-        }
-
-        val executor = Executors.newFixedThreadPool(threadNumber)
-
-        val parts = trainSource.chunked((trainSource.size * 1.0 / threadNumber).toInt() + 1)
+        val model = buildPerceptronModel()
 
-        for (k in 1..maxIter) {
-            println("#ITER $k/$maxIter")
-            val t1 = System.currentTimeMillis()
-
-            var countDownLatch = CountDownLatch(threadNumber)
-            for (s in 0 until threadNumber) {
-                executor.submit {
-                    try {
-                        val list = parts[s]
-                        var count = 0
+        val total = DoubleArray(model.parameter.size)
+        val timestamp = IntArray(model.parameter.size)
+        val current = AtomicInteger(0)
 
-                        if (s == 0) {
-                            System.out.print("Process 0%")
-                        }
+        val locks = Array<Any>(lockStripes) { Any() }
 
-                        list.forEach { d ->
-                            modelArray[s].update(d)
-                            count++
+        val executor = Executors.newFixedThreadPool(threadNumber)
 
-                            if (s == 0 && count % 5000 == 0) {
-                                System.out.print("\rProcess ${"%.2f".format((count * 100.0 / list.size))}%")
+        try {
+            for (k in 1..maxIter) {
+                println("\n#ITER $k/$maxIter")
+                val t1 = System.currentTimeMillis()
+
+                val samples = trainSource.epoch(k)
+                val sampleSize = trainSource.size()
+                val done = AtomicInteger(0)
+                val tokens = AtomicLong(0)
+                val correct = AtomicLong(0)
+                val error = AtomicReference<Throwable>()
+
+                System.out.print("Process 0%")
+
+                val countDownLatch = CountDownLatch(threadNumber)
+                for (s in 0 until threadNumber) {
+                    executor.submit {
+                        try {
+                            var localTokens = 0L
+                            var localCorrect = 0L
+                            val batch = ArrayList<TrainSample>(batchSize)
+                            while (error.get() == null) {
+                                batch.clear()
+                                synchronized(samples) {
+                                    while (batch.size < batchSize && samples.hasNext()) {
+                                        batch += samples.next()
+                                    }
+                                }
+                                if (batch.isEmpty()) {
+                                    break
+                                }
+                                // 训练时不替换参数数组，每个批次只读取一次volatile字段
+                                val parameter = model.parameter
+                                for (sample in batch) {
+                                    localCorrect += model.update(sample, total, timestamp, current.incrementAndGet(), locks, parameter)
+                                    localTokens += sample.size
+                                }
+
+                                val count = done.addAndGet(batch.size)
+                                if (count / 5000 != (count - batch.size) / 5000) {
+                                    System.out.print("\rProcess ${"%.2f".format((count * 100.0 / sampleSize))}%")
+                                }
                             }
+                            tokens.addAndGet(localTokens)
+                            correct.addAndGet(localCorrect)
+                        } catch (e: Throwable) {
+                            error.compareAndSet(null, e)
+                        } finally {
+                            countDownLatch.countDown()
                         }
-
-                        if (s == 0) {
-                            System.out.print("\r")
-                        }
-
-                    } finally {
-                        countDownLatch.countDown()
                     }
                 }
-            }
-            countDownLatch.await()
-
-            //把第二个开始的模型的参数全部和第一个平均
-            val first = modelArray.first().parameter
-            for (i in 1 until modelArray.size) {
-                val the = modelArray[i].parameter
-                for (j in 0 until first.size) {
-                    first[j] += the[j]
-                }
-            }
-
-            for (j in 0 until first.size) {
-                first[j] = first[j] / modelArray.size
-            }
+                countDownLatch.await()
+                System.out.print("\r")
 
+                error.get()?.let { throw RuntimeException(it) }
 
-            val t2 = System.currentTimeMillis()
+                val t2 = System.currentTimeMillis()
 
-            println("use ${t2 - t1} ms\n")
-            evaluateScript.run(k, modelArray.first())
+                val stat = IterationStat(k, maxIter, done.get(), tokens.get(), correct.get(), t2 - t1, threadNumber)
+                println("$stat\n")
 
+                // 备份参数
+                val back = Arrays.copyOf(model.parameter, model.parameter.size)
+                averageParallel(model, total, timestamp, current.get(), executor, threadNumber)
+                // 运行评估
+                evaluateScript.run(stat, model)
+                model.parameter = back
+            }
 
+            averageParallel(model, total, timestamp, current.get(), executor, threadNumber)
+        } finally {
+            executor.shutdownNow()
         }
 
-        executor.shutdownNow()
+        return model
+    }
 
+    /**
+     * 把参数分段，多线程平均
+     */
+    private fun averageParallel(model: BasePerceptronModel, total: DoubleArray, timestamp: IntArray, current: Int,
+                                executor: ExecutorService, threadNumber: Int) {
+        val size = model.parameter.size
+        val step = size / threadNumber + 1
+        val futures = (0 until threadNumber).map { s ->
+            executor.submit {
+                val from = Math.min(size, s * step)
+                val to = Math.min(size, from + step)
+                model.average(total, timestamp, current, from, to)
+            }
+        }
+        futures.forEach { it.get() }
+    }
+
+    companion object {
 
-        return buildPerceptronModel(
-                featureSet,
-                labelCount,
-                modelArray.first().parameter
-        )
+        /**
+         * 多线程训练时每次领取的样本数量
+         */
+        private const val batchSize = 64
 
+        /**
+         * 更新参数时分段锁的数量，必须是2的幂
+         */
+        private const val lockStripes = 4096
     }
 }
 
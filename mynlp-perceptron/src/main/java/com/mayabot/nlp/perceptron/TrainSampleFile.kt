@@ -0,0 +1,426 @@
+package com.mayabot.nlp.perceptron
+
+import com.carrotsearch.hppc.IntArrayList
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.*
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * 保存在磁盘上的训练样本，用于语料库大到无法全部放进内存的场景。
+ *
+ * 一个目录下有多个 part-N.bin 文件，每个文件由若干个数据块组成，文件末尾是块索引。
+ * 每个样本的格式(都是varint编码)：
+ * ```
+ * 字数 n
+ * n 个标签
+ * n 个特征向量: 长度 m, m 个 (特征ID+1)
+ * ```
+ *
+ * 每一轮迭代时打乱数据块的顺序，每次读取 poolBlocks 个块到内存中再打乱样本顺序，
+ * 所以内存中最多只有 poolBlocks * blockSamples 个样本，和语料库的大小无关。
+ *
+ * @param dir 样本目录
+ * @param shuffle 是否每一轮打乱顺序
+ * @param poolBlocks 打乱顺序时同时读入内存的块数量
+ *
+ * @author jimichan
+ */
+class TrainSampleFile @JvmOverloads constructor(
+        val dir: File,
+        private val shuffle: Boolean = true,
+        private val poolBlocks: Int = 16,
+        private val seed: Long = 0) : TrainSampleSource, Closeable {
+
+    private class Block(val part: Int, val offset: Long, val length: Int, val count: Int)
+
+    private val channels: List<FileChannel>
+
+    private val blocks = ArrayList<Block>()
+
+    private val size: Int
+
+    init {
+        val parts = partFiles(dir)
+        if (parts.isEmpty()) {
+            throw IOException("$dir 中没有训练样本文件")
+        }
+        channels = parts.map { RandomAccessFile(it, "r").channel }
+
+        channels.forEachIndexed { part, channel ->
+            val fileSize = channel.size()
+            val footer = ByteBuffer.allocate(FOOTER_SIZE)
+            readFully(channel, footer, fileSize - FOOTER_SIZE)
+            footer.flip()
+            val indexOffset = footer.long
+            val blockCount = footer.int
+            if (footer.int != MAGIC) {
+                throw IOException("${parts[part]} 不是训练样本文件")
+            }
+
+            val index = ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE)
+            readFully(channel, index, indexOffset)
+            index.flip()
+            for (i in 0 until blockCount) {
+                blocks += Block(part, index.long, index.int, index.int)
+            }
+        }
+
+        size = blocks.sumBy { it.count }
+    }
+
+    override fun size() = size
+
+    override fun epoch(epoch: Int): Iterator<TrainSample> {
+        val order = ArrayList(blocks)
+        val random = Random(seed + epoch)
+        if (shuffle) {
+            Collections.shuffle(order, random)
+        }
+        return SampleIterator(order, random)
+    }
+
+    override fun close() {
+        channels.forEach { it.close() }
+    }
+
+    private inner class SampleIterator(private val order: List<Block>, private val random: Random) : Iterator<TrainSample> {
+
+        private var nextBlock = 0
+
+        private val pool = ArrayList<TrainSample>()
+
+        private var poolIndex = 0
+
+        private var buffer = ByteBuffer.allocate(1024 * 64)
+
+        override fun hasNext(): Boolean {
+            if (poolIndex < pool.size) {
+                return true
+            }
+            fill()
+            return poolIndex < pool.size
+        }
+
+        override fun next(): TrainSample {
+            if (!hasNext()) {
+                throw NoSuchElementException()
+            }
+            return pool[poolIndex++]
+        }
+
+        private fun fill() {
+            pool.clear()
+            poolIndex = 0
+            val to = Math.min(order.size, nextBlock + (if (shuffle) poolBlocks else 1))
+            while (nextBlock < to) {
+                val block = order[nextBlock++]
+                if (buffer.capacity() < block.length) {
+                    buffer = ByteBuffer.allocate(block.length)
+                }
+                buffer.clear()
+                buffer.limit(block.length)
+                readFully(channels[block.part], buffer, block.offset)
+                buffer.flip()
+                for (i in 0 until block.count) {
+                    pool += readSample(buffer)
+                }
+            }
+            if (shuffle) {
+                Collections.shuffle(pool, random)
+            }
+        }
+    }
+
+    companion object {
+
+        private const val MAGIC = 0x54534d50
+
+        private const val FOOTER_SIZE = 16
+
+        private const val INDEX_ENTRY_SIZE = 16
+
+        /**
+         * 写入样本时每次分配给线程的行数
+         */
+        private const val BATCH_SIZE = 512
+
+        private val END = ArrayList<String>()
+
+        private fun partFiles(dir: File): List<File> {
+            return (dir.listFiles() ?: emptyArray())
+                    .filter { it.isFile && it.name.startsWith("part-") && it.name.endsWith(".bin") }
+                    .sortedBy { it.name }
+        }
+
+        private fun readFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+            var p = position
+            while (buffer.hasRemaining()) {
+                val n = channel.read(buffer, p)
+                if (n < 0) {
+                    throw IOException("训练样本文件不完整")
+                }
+                p += n
+            }
+        }
+
+        private fun readVarint(buffer: ByteBuffer): Int {
+            var result = 0
+            var shift = 0
+            while (true) {
+                val b = buffer.get().toInt()
+                result = result or ((b and 0x7F) shl shift)
+                if (b and 0x80 == 0) {
+                    return result
+                }
+                shift += 7
+            }
+        }
+
+        private fun readSample(buffer: ByteBuffer): TrainSample {
+            val n = readVarint(buffer)
+            val label = IntArray(n)
+            for (i in 0 until n) {
+                label[i] = readVarint(buffer)
+            }
+            val matrix = ArrayList<IntArrayList>(n)
+            for (i in 0 until n) {
+                val m = readVarint(buffer)
+                val vector = IntArrayList(m)
+                for (j in 0 until m) {
+                    vector.add(readVarint(buffer) - 1)
+                }
+                matrix += vector
+            }
+            return TrainSample(matrix, label)
+        }
+
+        /**
+         * 多线程把语料库转换为磁盘上的训练样本。
+         * 在调用线程中按顺序读取语料，每 BATCH_SIZE 行为一批分配给空闲的线程，
+         * 所以只有一个语料文件时也能用满所有线程。每个线程写自己的 part 文件。
+         *
+         * @param dir 输出目录，原有的 part 文件会被删除
+         * @param inputs 语料文件
+         * @param threadNumber 线程数
+         * @param converter 把一行语料转换为样本，通过第二个参数输出。需要是线程安全的
+         * @return 样本数量
+         */
+        @JvmStatic
+        fun write(dir: File, inputs: List<File>, threadNumber: Int,
+                  converter: (String, (TrainSample) -> Unit) -> Unit): Int {
+            dir.mkdirs()
+            partFiles(dir).forEach { it.delete() }
+
+            val t1 = System.currentTimeMillis()
+            val threads = Math.max(1, threadNumber)
+            val queue = ArrayBlockingQueue<List<String>>(threads * 4)
+            val total = AtomicInteger(0)
+            val error = AtomicReference<Throwable>()
+            val executor = Executors.newFixedThreadPool(threads)
+            val latch = CountDownLatch(threads)
+
+            for (s in 0 until threads) {
+                executor.submit {
+                    try {
+                        // 打开文件失败也要继续消费队列，直到收到END
+                        val writer = try {
+                            Writer(File(dir, "part-%05d.bin".format(s)))
+                        } catch (e: Throwable) {
+                            error.compareAndSet(null, e)
+                            null
+                        }
+                        try {
+                            while (true) {
+                                val batch = queue.take()
+                                if (batch === END) {
+                                    break
+                                }
+                                // 出错以后继续消费队列，避免读取线程阻塞
+                                if (writer == null || error.get() != null) {
+                                    continue
+                                }
+                                try {
+                                    batch.forEach { line -> converter(line) { writer.write(it) } }
+                                } catch (e: Throwable) {
+                                    error.compareAndSet(null, e)
+                                }
+                            }
+                        } finally {
+                            if (writer != null) {
+                                writer.close()
+                                total.addAndGet(writer.count)
+                            }
+                        }
+                    } catch (e: Throwable) {
+                        error.compareAndSet(null, e)
+                    } finally {
+                        latch.countDown()
+                    }
+                }
+            }
+
+            // 出错或者写入线程都退出以后返回false，不再继续读取语料
+            fun offer(batch: List<String>): Boolean {
+                while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                    if (error.get() != null) {
+                        return false
+                    }
+                    if (latch.count == 0L) {
+                        error.compareAndSet(null, IllegalStateException("写入线程已经全部退出"))
+                        return false
+                    }
+                }
+                return true
+            }
+
+            try {
+                var batch = ArrayList<String>(BATCH_SIZE)
+                for (file in inputs) {
+                    file.useLines { lines ->
+                        for (line in lines) {
+                            if (line.isNotBlank()) {
+                                batch.add(line)
+                                if (batch.size == BATCH_SIZE) {
+                                    if (!offer(batch)) {
+                                        break
+                                    }
+                                    batch = ArrayList(BATCH_SIZE)
+                                }
+                            }
+                        }
+                    }
+                    if (error.get() != null) {
+                        break
+                    }
+                }
+                if (batch.isNotEmpty() && error.get() == null) {
+                    offer(batch)
+                }
+            } catch (e: Throwable) {
+                // 让写入线程跳过剩下的批次
+                error.compareAndSet(null, e)
+                throw e
+            } finally {
+                // 只给还活着的线程发送END，已经退出的线程不会再消费队列
+                var ends = threads
+                while (ends > 0 && latch.count > 0) {
+                    if (queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                        ends--
+                    }
+                }
+                latch.await()
+                executor.shutdownNow()
+            }
+
+            error.get()?.let { throw RuntimeException(it) }
+
+            println("Write ${total.get()} samples to $dir, use ${System.currentTimeMillis() - t1} ms")
+
+            return total.get()
+        }
+    }
+
+    /**
+     * 样本写入器，不是线程安全的
+     */
+    class Writer @JvmOverloads constructor(file: File, private val blockSamples: Int = 1024) : Closeable {
+
+        private val channel = RandomAccessFile(file, "rw").channel
+
+        private var block = ByteArray(1024 * 64)
+
+        private var blockLength = 0
+
+        private var blockCount = 0
+
+        private var offset = 0L
+
+        private val index = ArrayList<LongArray>()
+
+        /**
+         * 写入的样本数量
+         */
+        var count = 0
+            private set
+
+        init {
+            channel.truncate(0)
+        }
+
+        fun write(sample: TrainSample) {
+            val n = sample.size
+            writeVarint(n)
+            for (i in 0 until n) {
+                writeVarint(sample.label[i])
+            }
+            for (i in 0 until n) {
+                val vector = sample.featureMatrix[i]
+                val m = vector.size()
+                writeVarint(m)
+                for (j in 0 until m) {
+                    writeVarint(vector[j] + 1)
+                }
+            }
+            blockCount++
+            count++
+            if (blockCount >= blockSamples) {
+                flushBlock()
+            }
+        }
+
+        private fun writeVarint(value: Int) {
+            if (blockLength + 5 > block.size) {
+                block = Arrays.copyOf(block, block.size * 2)
+            }
+            var v = value
+            while (v and 0x7F.inv() != 0) {
+                block[blockLength++] = ((v and 0x7F) or 0x80).toByte()
+                v = v ushr 7
+            }
+            block[blockLength++] = v.toByte()
+        }
+
+        private fun flushBlock() {
+            if (blockCount == 0) {
+                return
+            }
+            writeFully(ByteBuffer.wrap(block, 0, blockLength))
+            index += longArrayOf(offset, blockLength.toLong(), blockCount.toLong())
+            offset += blockLength
+            blockLength = 0
+            blockCount = 0
+        }
+
+        private fun writeFully(buffer: ByteBuffer) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer)
+            }
+        }
+
+        override fun close() {
+            flushBlock()
+            val tail = ByteBuffer.allocate(index.size * INDEX_ENTRY_SIZE + FOOTER_SIZE)
+            index.forEach {
+                tail.putLong(it[0])
+                tail.putInt(it[1].toInt())
+                tail.putInt(it[2].toInt())
+            }
+            tail.putLong(offset)
+            tail.putInt(index.size)
+            tail.putInt(MAGIC)
+            tail.flip()
+            writeFully(tail)
+            channel.close()
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.mayabot.nlp.perceptron
+
+/**
+ * 训练样本的来源。
+ *
+ * 训练器每一轮迭代调用一次 epoch 获取本轮的样本，
+ * 样本可以全部在内存中，也可以从磁盘流式读取。
+ */
+interface TrainSampleSource {
+
+    /**
+     * 样本的数量
+     */
+    fun size(): Int
+
+    /**
+     * 第 epoch 轮迭代的样本。返回的迭代器不是线程安全的，多线程读取时需要外部同步。
+     * @param epoch 从1开始
+     */
+    fun epoch(epoch: Int): Iterator<TrainSample>
+}
+
+/**
+ * 内存中的样本列表，每一轮按照原有顺序迭代
+ */
+class ListTrainSampleSource(val list: List<TrainSample>) : TrainSampleSource {
+
+    override fun size() = list.size
+
+    override fun epoch(epoch: Int): Iterator<TrainSample> = list.iterator()
+}
@@ -17,8 +17,11 @@
 package com.mayabot.nlp.pinyin;
 
 import com.google.common.primitives.Ints;
+import com.mayabot.nlp.MynlpEnv;
 import com.mayabot.nlp.collection.ahocorasick.AhoCoraickDoubleArrayTrieBuilder;
 import com.mayabot.nlp.collection.ahocorasick.AhoCorasickDoubleArrayTrie;
+import com.mayabot.nlp.collection.ahocorasick.AhoCorasickDoubleArrayTrieCache;
+import com.mayabot.nlp.collection.ahocorasick.MatchKind;
 import com.mayabot.nlp.logging.InternalLogger;
 import com.mayabot.nlp.logging.InternalLoggerFactory;
 import com.mayabot.nlp.pinyin.model.Pinyin;
@@ -47,35 +50,52 @@ public abstract class BasePinyinDictionary {
 
     private TreeMap<String, Pinyin[]> system;
 
-    public BasePinyinDictionary() {
+    private final MynlpEnv env;
+
+    public BasePinyinDictionary(MynlpEnv env) {
+        this.env = env;
     }
 
+    /**
+     * 重新构建自动机。
+     * 没有自定义拼音时，自动机来自缓存，缓存只依赖系统词典的版本
+     */
     public void rebuild() {
 
         long t1 = System.currentTimeMillis();
-        if (system == null) {
-            system = load();
-        }
-        TreeMap<String, Pinyin[]> map = new TreeMap<>();
         if (customPinyin != null && !customPinyin.getMap().isEmpty()) {
-            map.putAll(system);
+            TreeMap<String, Pinyin[]> map = new TreeMap<>(system());
 
-            final TreeMap<String, Pinyin[]> map2 = map;
             customPinyin.getMap().forEach((key, value) -> {
-                map2.put(key, parse(value));
+                map.put(key, parse(value));
             });
+
+            AhoCoraickDoubleArrayTrieBuilder<Pinyin[]> builder = new AhoCoraickDoubleArrayTrieBuilder<>();
+            this.trie = builder.build(map);
         } else {
-            map = system;
+            this.trie = AhoCorasickDoubleArrayTrieCache.restore(env,
+                    getClass().getSimpleName(), sourceVersion(), this::system,
+                    BasePinyinDictionary::encode, BasePinyinDictionary::decode);
         }
-        AhoCoraickDoubleArrayTrieBuilder<Pinyin[]> builder = new AhoCoraickDoubleArrayTrieBuilder<>();
-        this.trie = builder.build(map);
         long t2 = System.currentTimeMillis();
 
         logger.info("Pinyin Dictionary rebuild use time {} ms", t2 - t1);
     }
 
+    private TreeMap<String, Pinyin[]> system() {
+        if (system == null) {
+            system = load();
+        }
+        return system;
+    }
+
     abstract TreeMap<String, Pinyin[]> load();
 
+    /**
+     * @return 系统词典的版本，词典内容变化时版本也要变化
+     */
+    abstract String sourceVersion();
+
     /**
      * 转化为拼音
      *
@@ -92,24 +112,19 @@ public abstract class BasePinyinDictionary {
      * @return
      */
     protected List<Pinyin> segLongest(char[] charArray) {
-        final Pinyin[][] wordNet = new Pinyin[charArray.length][];
-
-        trie.parseText(charArray, (begin, end, value) -> {
-            int length = end - begin;
-            if (wordNet[begin] == null || length > wordNet[begin].length) {
-                wordNet[begin] = length == 1 ? new Pinyin[]{value[0]} : value;
-            }
-        });
         List<Pinyin> pinyinList = new ArrayList<>(charArray.length);
-        for (int offset = 0; offset < wordNet.length; ) {
-            if (wordNet[offset] == null) {
+        trie.parseText(charArray, MatchKind.LEFTMOST_LONGEST, (begin, end, value) -> {
+            for (int i = pinyinList.size(); i < begin; i++) {
                 pinyinList.add(Pinyin.none5);
-                ++offset;
-                continue;
             }
-            Collections.addAll(pinyinList, wordNet[offset]);
-
-            offset += wordNet[offset].length;
+            if (end - begin == 1) {
+                pinyinList.add(value[0]);
+            } else {
+                Collections.addAll(pinyinList, value);
+            }
+        });
+        for (int i = pinyinList.size(); i < charArray.length; i++) {
+            pinyinList.add(Pinyin.none5);
         }
         return pinyinList;
     }
@@ -126,6 +141,25 @@ public abstract class BasePinyinDictionary {
         }
     }
 
+    /**
+     * 缓存中每个拼音保存为一个字符，值是拼音的ordinal
+     */
+    static String encode(Pinyin[] pinyins) {
+        char[] chars = new char[pinyins.length];
+        for (int i = 0; i < pinyins.length; i++) {
+            chars[i] = (char) pinyins[i].ordinal();
+        }
+        return new String(chars);
+    }
+
+    static Pinyin[] decode(String text) {
+        Pinyin[] pinyins = new Pinyin[text.length()];
+        for (int i = 0; i < pinyins.length; i++) {
+            pinyins[i] = pinyinByOrdinal[text.charAt(i)];
+        }
+        return pinyins;
+    }
+
     public static Pinyin[] read(DataInput in) {
         try {
             String line = in.readUTF();
@@ -16,10 +16,12 @@
 
 package com.mayabot.nlp.pinyin;
 
+import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.mayabot.nlp.MynlpEnv;
 import com.mayabot.nlp.SettingItem;
+import com.mayabot.nlp.collection.ahocorasick.AhoCorasickDoubleArrayTrieCache;
 import com.mayabot.nlp.pinyin.model.Pinyin;
 import com.mayabot.nlp.resources.NlpResource;
 import com.mayabot.nlp.utils.CharSourceLineReader;
@@ -49,13 +51,20 @@ public class PinyinDictionary extends BasePinyinDictionary {
 
     @Inject
     public PinyinDictionary(MynlpEnv mynlp) {
-        super();
+        super(mynlp);
         this.mynlp = mynlp;
 
         rebuild();
 
     }
 
+    @Override
+    String sourceVersion() {
+        // 缓存中保存的是拼音的ordinal
+        return AhoCorasickDoubleArrayTrieCache.sourceVersion(Joiner.on(",").join(Pinyin.values()),
+                mynlp.loadResource(pinyinSetting), mynlp.loadResource(pinyinExtDicSetting));
+    }
+
     @Override
     TreeMap<String, Pinyin[]> load() {
         List<NlpResource> list = Lists.newArrayList();
@@ -54,6 +54,17 @@ public interface MynlpTokenizer {
         token(text.toCharArray(), consumer);
     }
 
+    /**
+     * 只输出词的位置、长度和词性，不创建WordTerm和字符串。
+     * 词的内容可以从text中按位置读取，text会被字符规范化处理修改。
+     *
+     * @param text     分词的文本
+     * @param consumer 词位置的消费者
+     */
+    default void tokenOffset(char[] text, WordOffsetConsumer consumer) {
+        token(text, term -> consumer.accept(term.getOffset(), term.word.length(), term.getNature()));
+    }
+
 
     /**
      * 便捷方法。不适用于超大文本
@@ -15,7 +15,9 @@
  */
 package com.mayabot.nlp.segment;
 
+import com.mayabot.nlp.segment.crf.tokenizer.CrfTokenizerBuilder;
 import com.mayabot.nlp.segment.tokenizer.BigramTokenizerBuilder;
+import com.mayabot.nlp.segment.tokenizer.PerceptronTokenizerBuilder;
 
 /**
  * 各种版本的Tokenizer的静态工厂
@@ -32,12 +34,23 @@ public class MynlpTokenizers {
         return new BigramTokenizerBuilder();
     }
 
+    public static MynlpTokenizer perceptronTokenizer() {
+        return new PerceptronTokenizerBuilder().build();
+    }
+
+    public static PerceptronTokenizerBuilder perceptronTokenizerBuilder() {
+        return new PerceptronTokenizerBuilder();
+    }
+
+    /**
+     * 没有CRF模型资源时退回到感知机分词模型
+     */
     public static MynlpTokenizer crfTokenizer() {
-        return new BigramTokenizerBuilder().build();
+        return new CrfTokenizerBuilder().build();
     }
 
-    public static BigramTokenizerBuilder crfTokenizerBuilder() {
-        return new BigramTokenizerBuilder();
+    public static CrfTokenizerBuilder crfTokenizerBuilder() {
+        return new CrfTokenizerBuilder();
     }
 
 }
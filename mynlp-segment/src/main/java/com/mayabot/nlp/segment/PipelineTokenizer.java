@@ -22,6 +22,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.mayabot.nlp.segment.common.VertexHelper;
 import com.mayabot.nlp.segment.wordnet.BestPathAlgorithm;
+import com.mayabot.nlp.segment.wordnet.KBestPath;
+import com.mayabot.nlp.segment.wordnet.KBestPathAlgorithm;
 import com.mayabot.nlp.segment.wordnet.Wordnet;
 import com.mayabot.nlp.segment.wordnet.Wordpath;
 import com.mayabot.nlp.utils.Characters;
@@ -80,11 +82,7 @@ public class PipelineTokenizer implements MynlpTokenizer {
     @Override
     public void token(char[] text, Consumer<WordTerm> consumer) {
 
-        if (charNormalizes != null) {
-            for (CharNormalize normalize : charNormalizes) {
-                normalize.normal(text);
-            }
-        }
+        normalize(text);
 
         // 处理为空的特殊情况
         if (text.length == 0) {
@@ -103,6 +101,87 @@ public class PipelineTokenizer implements MynlpTokenizer {
             return;
         }
 
+        Wordpath wordPath = selectPath(text);
+
+        collector.collect(wordPath.getWordnet(), wordPath, consumer);
+    }
+
+    /**
+     * 通过WordTermCollector输出词的位置，和token的结果一致。
+     * SentenceCollector直接遍历最优路径，不创建WordTerm和字符串。
+     */
+    @Override
+    public void tokenOffset(char[] text, WordOffsetConsumer consumer) {
+
+        normalize(text);
+
+        if (text.length == 0) {
+            return;
+        }
+
+        if (text.length == 1 && StringUtils.isWhiteSpace(text[0])) {
+            consumer.accept(0, 1, Nature.w);
+            return;
+        }
+
+        Wordpath wordPath = selectPath(text);
+
+        collector.collectOffset(wordPath.getWordnet(), wordPath, consumer);
+    }
+
+    private void normalize(char[] text) {
+        if (charNormalizes != null) {
+            for (CharNormalize normalize : charNormalizes) {
+                normalize.normal(text);
+            }
+        }
+    }
+
+    /**
+     * 返回词图中得分最好的k种切分，用于查询改写等需要多个候选切分的场景。
+     * 只计算一次词图，结果是词图上的原始路径，没有经过WordpathProcessor处理。
+     *
+     * @param text 文本，会被归一化
+     * @param k    切分的数量
+     * @return 按得分从好到差排列
+     */
+    public List<KBestPath> nbest(char[] text, int k) {
+        if (!(bestPathAlgorithm instanceof KBestPathAlgorithm)) {
+            throw new UnsupportedOperationException(
+                    bestPathAlgorithm.getClass().getSimpleName() + " not support k-best path");
+        }
+
+        normalize(text);
+
+        if (text.length == 0) {
+            return Lists.newArrayList();
+        }
+
+        return ((KBestPathAlgorithm) bestPathAlgorithm).selectK(buildWordnet(text), k);
+    }
+
+    /**
+     * 构建wordnet，选出最优路径并经过所有的处理器
+     */
+    private Wordpath selectPath(char[] text) {
+        final Wordnet wordnet = buildWordnet(text);
+
+        //选择一个路径出来
+        Wordpath wordPath = bestPathAlgorithm.select(wordnet);
+
+        for (WordpathProcessor processor : pipeline) {
+            if (processor.isEnabled()) {
+                wordPath = processor.process(wordPath);
+            }
+        }
+
+        return wordPath;
+    }
+
+    /**
+     * 构建wordnet并填充节点
+     */
+    private Wordnet buildWordnet(char[] text) {
         //构建一个空的Wordnet对象
         final Wordnet wordnet = new Wordnet(text);
         //wordnet.setBestPathAlgorithm(bestPathAlgorithm);
@@ -119,16 +198,7 @@ public class PipelineTokenizer implements MynlpTokenizer {
 
 //        System.out.println(wordnet.toMoreString());
 
-        //选择一个路径出来
-        Wordpath wordPath = bestPathAlgorithm.select(wordnet);
-
-        for (WordpathProcessor processor : pipeline) {
-            if (processor.isEnabled()) {
-                wordPath = processor.process(wordPath);
-            }
-        }
-
-        collector.collect(wordnet, wordPath, consumer);
+        return wordnet;
     }
 
 
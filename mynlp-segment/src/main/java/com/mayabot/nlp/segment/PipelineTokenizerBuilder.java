@@ -26,7 +26,9 @@ import com.mayabot.nlp.segment.wordnet.BestPathAlgorithm;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 /**
@@ -72,6 +74,11 @@ public class PipelineTokenizerBuilder implements MynlpTokenizerBuilder {
      */
     private WordTermCollector termCollector;
 
+    /**
+     * 代替Guice创建的组件对象
+     */
+    private Map<Class<?>, Object> components = new HashMap<>();
+
     /**
      * 默认构造函数
      */
@@ -96,7 +103,7 @@ public class PipelineTokenizerBuilder implements MynlpTokenizerBuilder {
 
         // 3.termCollector
         if (termCollector == null) {
-            termCollector = mynlp.getInstance(SentenceCollector.class);
+            termCollector = instance(SentenceCollector.class);
         }
 
         // 4
@@ -172,6 +179,28 @@ public class PipelineTokenizerBuilder implements MynlpTokenizerBuilder {
         return this;
     }
 
+    /**
+     * 指定某个组件类使用的对象，之后通过类添加这个组件时不再由Guice创建。
+     * 例如给不同租户的分词器使用各自的自定义词典处理器，其他组件仍然共享。
+     *
+     * @param clazz     组件类
+     * @param component 组件对象
+     * @param <T>
+     * @return self
+     */
+    public <T> PipelineTokenizerBuilder setComponent(Class<T> clazz, T component) {
+        components.put(clazz, component);
+        return this;
+    }
+
+    private <T> T instance(Class<T> clazz) {
+        Object component = components.get(clazz);
+        if (component != null) {
+            return clazz.cast(component);
+        }
+        return mynlp.getInstance(clazz);
+    }
+
     /**
      * 关闭组件
      *
@@ -202,7 +231,7 @@ public class PipelineTokenizerBuilder implements MynlpTokenizerBuilder {
      * @return self
      */
     public PipelineTokenizerBuilder addCharNormalize(Class<? extends CharNormalize> charNormalizeClass) {
-        this.charNormalizes.add(mynlp.getInstance(charNormalizeClass));
+        this.charNormalizes.add(instance(charNormalizeClass));
         return this;
     }
 
@@ -246,7 +275,7 @@ public class PipelineTokenizerBuilder implements MynlpTokenizerBuilder {
      * @return
      */
     public PipelineTokenizerBuilder setBestPathComputer(Class<? extends BestPathAlgorithm> clazz) {
-        this.bestPathAlgorithm = mynlp.getInstance(clazz);
+        this.bestPathAlgorithm = instance(clazz);
         return this;
     }
 
@@ -294,7 +323,7 @@ public class PipelineTokenizerBuilder implements MynlpTokenizerBuilder {
      * @return
      */
     public PipelineTokenizerBuilder addProcessor(Class<? extends WordpathProcessor> clazz) {
-        pipeLine.add(mynlp.getInstance(clazz));
+        pipeLine.add(instance(clazz));
         Collections.sort(pipeLine);
         return this;
     }
@@ -325,7 +354,7 @@ public class PipelineTokenizerBuilder implements MynlpTokenizerBuilder {
     public PipelineTokenizerBuilder addWordSplitAlgorithm(Class<? extends WordSplitAlgorithm>... initializers) {
 
         for (Class<? extends WordSplitAlgorithm> clazz : initializers) {
-            this.wordSplitAlgorithm.add(mynlp.getInstance(clazz));
+            this.wordSplitAlgorithm.add(instance(clazz));
         }
         Collections.sort(wordSplitAlgorithm);
         return this;
@@ -349,7 +378,7 @@ public class PipelineTokenizerBuilder implements MynlpTokenizerBuilder {
      * @return
      */
     public PipelineTokenizerBuilder setTermCollector(Class<? extends WordTermCollector> termCollectorClass) {
-        this.termCollector = mynlp.getInstance(termCollectorClass);
+        this.termCollector = instance(termCollectorClass);
         return this;
     }
 
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mayabot.nlp.segment;
+
+/**
+ * 只接收词的位置、长度和词性的消费者。
+ * 配合 {@link MynlpTokenizer#tokenOffset(char[], WordOffsetConsumer)} 使用，分词时不需要为每个词创建WordTerm和字符串。
+ *
+ * @author jimichan
+ */
+@FunctionalInterface
+public interface WordOffsetConsumer {
+
+    /**
+     * @param offset 词在文本中的起始位置
+     * @param length 词的长度
+     * @param nature 词性，没有词性分析时可能为null
+     */
+    void accept(int offset, int length, Nature nature);
+}
@@ -40,4 +40,16 @@ public interface WordTermCollector {
      */
     void collect(Wordnet wordnet, Wordpath wordPath, Consumer<WordTerm> consumer);
 
+    /**
+     * 收集分词结果的位置。默认通过collect生成WordTerm再取出位置，
+     * 不需要子词等额外结构的收集器可以覆盖这个方法，避免创建WordTerm和字符串。
+     *
+     * @param wordnet  词图
+     * @param wordPath 最后的WordPath路径
+     * @param consumer 接受词位置的消费者
+     */
+    default void collectOffset(Wordnet wordnet, Wordpath wordPath, WordOffsetConsumer consumer) {
+        collect(wordnet, wordPath, term -> consumer.accept(term.getOffset(), term.length(), term.getNature()));
+    }
+
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mayabot.nlp.segment.common;
+
+/**
+ * 接收分词结果中每个词的起始位置和长度，不需要创建字符串。
+ *
+ * @author jimichan
+ */
+@FunctionalInterface
+public interface WordSpanConsumer {
+
+    /**
+     * @param offset 词在文本中的起始位置
+     * @param length 词的长度
+     */
+    void accept(int offset, int length);
+}
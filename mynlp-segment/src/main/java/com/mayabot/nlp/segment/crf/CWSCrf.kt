@@ -16,11 +16,11 @@
 package com.mayabot.nlp.segment.crf
 
 import com.carrotsearch.hppc.IntArrayList
+import com.mayabot.nlp.perceptron.DecodeBuffer
 import com.mayabot.nlp.perceptron.FeatureSet
 import com.mayabot.nlp.perceptron.Perceptron
 import com.mayabot.nlp.perceptron.PerceptronModel
-import com.mayabot.nlp.segment.crf.FeatureTemplateGroup.Companion.BOS
-import com.mayabot.nlp.segment.crf.FeatureTemplateGroup.Companion.EOS
+import com.mayabot.nlp.segment.common.WordSpanConsumer
 import com.mayabot.nlp.utils.CharNormUtils
 import java.io.File
 import java.io.InputStream
@@ -59,6 +59,11 @@ class CWSCrf(val model: Perceptron, val labelList: Array<String>, val featureTem
         E_ID = e_id
     }
 
+    /**
+     * 解码缓冲区，每个线程一份
+     */
+    private val buffers = ThreadLocal.withInitial { DecodeBuffer() }
+
     fun decodeToWordList(sentence: String): List<String> {
         val result = ArrayList<String>()
         val decode = decode(sentence.toCharArray(), true)
@@ -85,12 +90,63 @@ class CWSCrf(val model: Perceptron, val labelList: Array<String>, val featureTem
             CharNormUtils.convert(sentence)
         }
 
-        val buffer = StringBuilder()
-        val featureList = ArrayList<IntArrayList>(sentence.size)
-        for (i in 0 until sentence.size) {
-            featureList += CWSCrfFeature.extractFeatureVector(sentence, i, model.featureSet(), featureTemplateGroup, buffer)
+        return model.decode(extractFeatures(sentence, buffers.get()))
+    }
+
+    /**
+     * 对已经规范化的字符数组分词，依次回调每个词的起始位置和长度，不创建字符串。
+     * 特征向量和标签数组在线程内复用，用于分词器的Pipeline。
+     */
+    fun decodeWords(sentence: CharArray, consumer: WordSpanConsumer) {
+        val size = sentence.size
+        if (size == 0) {
+            return
+        }
+
+        val buffer = buffers.get()
+        val labels = buffer.labels(size)
+        model.decode(extractFeatures(sentence, buffer), labels)
+
+        var p = 0
+        for (i in 0 until size) {
+            val f = labels[i]
+            if (f == S_ID || f == E_ID) {
+                consumer.accept(p, i + 1 - p)
+                p = i + 1
+            }
+        }
+
+        if (p < size) {
+            consumer.accept(p, size - p)
         }
-        return model.decode(featureList)
+    }
+
+    private fun extractFeatures(sentence: CharArray, buffer: DecodeBuffer): List<IntArrayList> {
+        val templates = compiledTemplates()
+        val out = buffer.ints(sentence.size * templates.size)
+        templates.extractAll(sentence, out)
+
+        val featureList = buffer.features(sentence.size)
+        templates.toVectors(out, sentence.size, featureList)
+        return featureList
+    }
+
+    /**
+     * 加载时编译的特征模板
+     */
+    @Volatile
+    private var compiled = CompiledFeatureTemplateGroup(featureTemplateGroup, model.requireFeatureSet())
+
+    /**
+     * 模型压缩等操作替换了FeatureSet之后，重新编译特征模板
+     */
+    private fun compiledTemplates(): CompiledFeatureTemplateGroup {
+        val current = compiled
+        val featureSet = model.requireFeatureSet()
+        if (current.featureSet === featureSet) {
+            return current
+        }
+        return CompiledFeatureTemplateGroup(featureTemplateGroup, featureSet).also { compiled = it }
     }
 
     companion object {
@@ -135,13 +191,18 @@ class CWSCrf(val model: Perceptron, val labelList: Array<String>, val featureTem
 object CWSCrfFeature {
 
     fun extractFeatureVector(sentence: CharArray, position: Int, features: FeatureSet, featureTemplateGroup: FeatureTemplateGroup, sbFeature: StringBuilder): IntArrayList {
-        val vector = IntArrayList(featureTemplateGroup.size + 1)
+        return extractFeatureVector(sentence, position, features, featureTemplateGroup, sbFeature, IntArrayList(featureTemplateGroup.size + 1))
+    }
 
+    /**
+     * 特征写入调用方提供的vector，解码时复用
+     */
+    fun extractFeatureVector(sentence: CharArray, position: Int, features: FeatureSet, featureTemplateGroup: FeatureTemplateGroup, sbFeature: StringBuilder, vector: IntArrayList): IntArrayList {
         sbFeature.clear()
 
         for (ft in featureTemplateGroup.list) {
 
-            extFeature(sentence, position, sbFeature, ft)
+            ft.appendTo(sentence, position, sbFeature)
 
             val id = features.featureId(sbFeature)
             if (id != -1) vector.add(id)
@@ -153,21 +214,4 @@ object CWSCrfFeature {
 
         return vector
     }
-
-    private fun extFeature(sentence: CharArray, position: Int, sbFeature: StringBuilder, ft: FeatureTemplate) {
-        val senLen = sentence.size
-        for (x in ft.list) {
-            val type = x.type
-            if (type == FeatureTemplateElementType.String) {
-                sbFeature.append(x.value)
-            } else {
-                val offset = x.offset + position
-                when {
-                    offset < 0 -> sbFeature.append(BOS[-(offset + 1)])
-                    offset >= senLen -> sbFeature.append(EOS[offset - senLen])
-                    else -> sbFeature.append(sentence[offset])
-                }
-            }
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.segment.crf
+
+import com.carrotsearch.hppc.IntArrayList
+import com.mayabot.nlp.perceptron.FeatureSet
+import com.mayabot.nlp.segment.WordTerm
+import com.mayabot.nlp.segment.crf.FeatureTemplateGroup.Companion.BOS
+import com.mayabot.nlp.segment.crf.FeatureTemplateGroup.Companion.EOS
+
+/**
+ * 编译后的特征模板。
+ *
+ * 解释执行模板时，每个位置都要把各个部分拼接到StringBuilder中，再到DAT中查询完整的字符串。
+ * 编译后直接在DAT上逐段转移状态：开头的固定字符串在编译时就走完，
+ * 之后每一段只做状态转移，某一段不存在时立即返回，不需要拼接字符串。
+ *
+ * 绑定在一个FeatureSet上，FeatureSet变化后(例如模型压缩)需要重新编译。
+ *
+ * @author jimichan
+ */
+class CompiledFeatureTemplate(val template: FeatureTemplate, private val featureSet: FeatureSet) {
+
+    /**
+     * 走完开头固定字符串之后的状态，-1表示DAT中没有这个前缀
+     */
+    private val startState: Int
+
+    /**
+     * 剩余的每一段。constants[i]不为null时是固定字符串，否则是offsets[i]、cols[i]指定的列
+     */
+    private val constants: Array<String?>
+    private val offsets: IntArray
+    private val cols: IntArray
+
+    init {
+        // 合并相邻的固定字符串
+        val merged = ArrayList<FeatureTemplateElement>()
+        for (x in template.list) {
+            val last = merged.lastOrNull()
+            if (x.type == FeatureTemplateElementType.String && last != null && last.type == FeatureTemplateElementType.String) {
+                merged[merged.size - 1] = FeatureTemplateElement(last.value + x.value)
+            } else {
+                merged.add(x)
+            }
+        }
+
+        var state = featureSet.rootState()
+        var from = 0
+        while (from < merged.size && merged[from].type == FeatureTemplateElementType.String) {
+            state = featureSet.transition(state, merged[from].value)
+            from++
+        }
+        startState = state
+
+        val rest = merged.subList(from, merged.size)
+        constants = Array(rest.size) { if (rest[it].type == FeatureTemplateElementType.String) rest[it].value else null }
+        offsets = IntArray(rest.size) { rest[it].offset }
+        cols = IntArray(rest.size) { rest[it].col }
+    }
+
+    /**
+     * 查询位置position的特征ID
+     * @param sb 在线学习新增了特征时，用来拼接特征字符串，可以为null
+     * @return -1表示特征不存在
+     */
+    fun featureId(sentence: CharArray, position: Int, sb: StringBuilder?): Int {
+        val senLen = sentence.size
+        var state = startState
+        var i = 0
+        while (i < constants.size && state >= 0) {
+            val constant = constants[i]
+            state = if (constant != null) {
+                featureSet.transition(state, constant)
+            } else {
+                val offset = offsets[i] + position
+                when {
+                    offset < 0 -> featureSet.transition(state, BOS[-(offset + 1)])
+                    offset >= senLen -> featureSet.transition(state, EOS[offset - senLen])
+                    else -> featureSet.transition(state, sentence[offset])
+                }
+            }
+            i++
+        }
+
+        val id = featureSet.output(state)
+        if (id < 0 && sb != null) {
+            sb.setLength(0)
+            template.appendTo(sentence, position, sb)
+            return featureSet.featureId(sb)
+        }
+        return id
+    }
+
+    /**
+     * 查询位置position的特征ID，第0列是词，其他列是词性
+     * @param sb 在线学习新增了特征时，用来拼接特征字符串，可以为null
+     * @return -1表示特征不存在
+     */
+    fun featureId(sentence: List<WordTerm>, position: Int, sb: StringBuilder?): Int {
+        val senLen = sentence.size
+        var state = startState
+        var i = 0
+        while (i < constants.size && state >= 0) {
+            val constant = constants[i]
+            state = if (constant != null) {
+                featureSet.transition(state, constant)
+            } else {
+                val offset = offsets[i] + position
+                when {
+                    offset < 0 -> featureSet.transition(state, BOS[-(offset + 1)])
+                    offset >= senLen -> featureSet.transition(state, EOS[offset - senLen])
+                    cols[i] == 0 -> featureSet.transition(state, sentence[offset].word)
+                    else -> featureSet.transition(state, sentence[offset].natureString)
+                }
+            }
+            i++
+        }
+
+        val id = featureSet.output(state)
+        if (id < 0 && sb != null) {
+            sb.setLength(0)
+            template.appendTo(sentence, position, sb)
+            return featureSet.featureId(sb)
+        }
+        return id
+    }
+}
+
+/**
+ * 编译后的特征模板组，在模型加载时编译一次
+ *
+ * @author jimichan
+ */
+class CompiledFeatureTemplateGroup(val group: FeatureTemplateGroup, val featureSet: FeatureSet) {
+
+    private val templates = group.list.map { CompiledFeatureTemplate(it, featureSet) }.toTypedArray()
+
+    val size = templates.size
+
+    /**
+     * 一次抽取整个句子的特征。
+     * 按模板逐个处理所有位置，out[i * size + t] 是位置i第t个模板的特征ID，-1表示不存在。
+     * @param out 长度不小于 sentence.size * size
+     */
+    fun extractAll(sentence: CharArray, out: IntArray) {
+        val sb = if (featureSet.extMap.isEmpty()) null else StringBuilder()
+        for (t in 0 until size) {
+            val template = templates[t]
+            var k = t
+            for (i in 0 until sentence.size) {
+                out[k] = template.featureId(sentence, i, sb)
+                k += size
+            }
+        }
+    }
+
+    /**
+     * 一次抽取整个句子的特征，第0列是词，其他列是词性
+     * @param out 长度不小于 sentence.size * size
+     */
+    fun extractAll(sentence: List<WordTerm>, out: IntArray) {
+        val sb = if (featureSet.extMap.isEmpty()) null else StringBuilder()
+        for (t in 0 until size) {
+            val template = templates[t]
+            var k = t
+            for (i in 0 until sentence.size) {
+                out[k] = template.featureId(sentence, i, sb)
+                k += size
+            }
+        }
+    }
+
+    /**
+     * 把extractAll的结果转换为特征向量，和解释执行时的特征向量一致，最后一位是转移特征的占位
+     * @param length 句子长度
+     * @param featureList 长度为length的特征向量列表，向量需要是空的
+     */
+    fun toVectors(out: IntArray, length: Int, featureList: List<IntArrayList>) {
+        var k = 0
+        for (i in 0 until length) {
+            val vector = featureList[i]
+            for (t in 0 until size) {
+                val id = out[k++]
+                if (id != -1) {
+                    vector.add(id)
+                }
+            }
+            vector.add(0)
+        }
+    }
+}
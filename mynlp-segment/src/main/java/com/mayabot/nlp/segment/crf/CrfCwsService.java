@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mayabot.nlp.segment.crf;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.mayabot.nlp.MynlpEnv;
+import com.mayabot.nlp.logging.InternalLogger;
+import com.mayabot.nlp.logging.InternalLoggerFactory;
+import com.mayabot.nlp.perceptron.FeatureSet;
+import com.mayabot.nlp.resources.NlpResource;
+import com.mayabot.nlp.segment.common.WordSpanConsumer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * CRF分词服务。
+ * <p>
+ * CRF模型资源是可选的，放在 crf-cws 目录下，包含 parameter.bin、feature.txt、label.txt、featureTemplate.txt。
+ * 可以由CRF++的文本模型通过ConvertCrfText2PerceptronModel转换得到。
+ * 没有找到模型或者模型文件不完整时 {@link #isAvailable()} 返回false。
+ *
+ * @author jimichan
+ */
+@Singleton
+public class CrfCwsService {
+
+    static InternalLogger logger = InternalLoggerFactory.getInstance(CrfCwsService.class);
+
+    private CWSCrf crf;
+
+    @Inject
+    public CrfCwsService(MynlpEnv mynlp) throws Exception {
+        NlpResource parameterResource = mynlp.loadResource("crf-cws/parameter.bin");
+
+        if (parameterResource == null) {
+            logger.info("Not found crf-cws/parameter.bin, CRF model is disabled");
+            return;
+        }
+
+        NlpResource featureResource = mynlp.loadResource("crf-cws/feature.txt");
+        NlpResource labelResource = mynlp.loadResource("crf-cws/label.txt");
+        NlpResource templateResource = mynlp.loadResource("crf-cws/featureTemplate.txt");
+
+        // 模型文件不完整时和没有模型一样处理
+        String missing = featureResource == null ? "feature.txt"
+                : labelResource == null ? "label.txt"
+                : templateResource == null ? "featureTemplate.txt" : null;
+        if (missing != null) {
+            logger.warn("Not found crf-cws/" + missing + ", CRF model is disabled");
+            return;
+        }
+
+        File featureDatFile = new File(mynlp.getCacheDir(), featureResource.hash() + ".crf-cws.dat");
+        if (!featureDatFile.exists()) {
+            // 先写临时文件再改名，其他进程不会读到写了一半的缓存
+            File temp = new File(mynlp.getCacheDir(), featureDatFile.getName() + "." + System.nanoTime() + ".tmp");
+            try {
+                FeatureSet featureSet = FeatureSet.readFromText(new BufferedInputStream(featureResource.openInputStream()));
+                featureSet.save(temp, null);
+                Files.move(temp.toPath(), featureDatFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temp.delete();
+            }
+        }
+
+        try (InputStream parameterBin = new BufferedInputStream(parameterResource.openInputStream());
+             InputStream featureBin = new BufferedInputStream(new FileInputStream(featureDatFile));
+             InputStream labelText = new BufferedInputStream(labelResource.openInputStream());
+             InputStream featureTemplate = new BufferedInputStream(templateResource.openInputStream())) {
+            this.crf = CWSCrf.load(parameterBin, featureBin, labelText, featureTemplate);
+        }
+    }
+
+    /**
+     * 是否存在CRF模型
+     */
+    public boolean isAvailable() {
+        return crf != null;
+    }
+
+    /**
+     * 对已经规范化的字符数组分词，依次回调每个词的位置和长度，不创建字符串
+     *
+     * @param text     规范化后的字符数组
+     * @param consumer 词的位置和长度
+     */
+    public void splitWord(char[] text, WordSpanConsumer consumer) {
+        crf.decodeWords(text, consumer);
+    }
+
+    public CWSCrf getCrf() {
+        return crf;
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.mayabot.nlp.segment.crf
 
+import com.mayabot.nlp.segment.WordTerm
 import java.util.regex.Pattern
 
 /**
@@ -71,6 +72,44 @@ class FeatureTemplate(template: String) {
         list.add(first)
     }
 
+    /**
+     * 解释执行模板，把位置position的特征字符串追加到sb中
+     */
+    fun appendTo(sentence: CharArray, position: Int, sb: StringBuilder) {
+        val senLen = sentence.size
+        for (x in list) {
+            if (x.type == FeatureTemplateElementType.String) {
+                sb.append(x.value)
+            } else {
+                val offset = x.offset + position
+                when {
+                    offset < 0 -> sb.append(FeatureTemplateGroup.BOS[-(offset + 1)])
+                    offset >= senLen -> sb.append(FeatureTemplateGroup.EOS[offset - senLen])
+                    else -> sb.append(sentence[offset])
+                }
+            }
+        }
+    }
+
+    /**
+     * 解释执行模板，第0列是词，其他列是词性
+     */
+    fun appendTo(sentence: List<WordTerm>, position: Int, sb: StringBuilder) {
+        val senLen = sentence.size
+        for (x in list) {
+            if (x.type == FeatureTemplateElementType.String) {
+                sb.append(x.value)
+            } else {
+                val offset = x.offset + position
+                when {
+                    offset < 0 -> sb.append(FeatureTemplateGroup.BOS[-(offset + 1)])
+                    offset >= senLen -> sb.append(FeatureTemplateGroup.EOS[offset - senLen])
+                    else -> sb.append(if (x.col == 0) sentence[offset].word else sentence[offset].natureString)
+                }
+            }
+        }
+    }
+
     override fun toString(): String {
         return list.joinToString(separator = "")
     }
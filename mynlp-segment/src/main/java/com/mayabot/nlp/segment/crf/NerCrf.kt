@@ -16,12 +16,11 @@
 package com.mayabot.nlp.segment.crf
 
 import com.carrotsearch.hppc.IntArrayList
+import com.mayabot.nlp.perceptron.DecodeBuffer
 import com.mayabot.nlp.perceptron.FeatureSet
 import com.mayabot.nlp.perceptron.Perceptron
 import com.mayabot.nlp.perceptron.PerceptronModel
 import com.mayabot.nlp.segment.WordTerm
-import com.mayabot.nlp.segment.crf.FeatureTemplateGroup.Companion.BOS
-import com.mayabot.nlp.segment.crf.FeatureTemplateGroup.Companion.EOS
 import java.io.File
 import java.io.InputStream
 import java.util.*
@@ -31,17 +30,32 @@ import java.util.*
  */
 class NerCrf(val model: Perceptron, val labels: Array<String>, val featureTemplateGroup: FeatureTemplateGroup) {
 
-    val featureSet = model.featureSet()
+    val featureSet = model.requireFeatureSet()
 
-    fun decode(sentence: List<WordTerm>) {
+    /**
+     * 加载时编译的特征模板
+     */
+    private val templates = CompiledFeatureTemplateGroup(featureTemplateGroup, featureSet)
 
-        val buffer = StringBuilder()
-        val featureList = ArrayList<IntArrayList>(sentence.size)
-        for (i in 0 until sentence.size) {
-            featureList += NerCrfFeature.extractFeatureVector(sentence, i, featureSet, featureTemplateGroup, buffer)
+    /**
+     * 解码缓冲区，每个线程一份
+     */
+    private val buffers = ThreadLocal.withInitial { DecodeBuffer() }
+
+    fun decode(sentence: List<WordTerm>) {
+        if (sentence.isEmpty()) {
+            return
         }
 
-        val result = model.decode(featureList)
+        val buffer = buffers.get()
+        val out = buffer.ints(sentence.size * templates.size)
+        templates.extractAll(sentence, out)
+
+        val featureList = buffer.features(sentence.size)
+        templates.toVectors(out, sentence.size, featureList)
+
+        val result = buffer.labels(sentence.size)
+        model.decode(featureList, result)
 
         for (i in 0 until sentence.size) {
             sentence[i].customFlag = labels[result[i]]
@@ -98,7 +112,7 @@ object NerCrfFeature {
 
         for (ft in featureTemplateGroup.list) {
 
-            extFeature(sentence, position, sbFeature, ft)
+            ft.appendTo(sentence, position, sbFeature)
 
             val id = features.featureId(sbFeature)
             if (id != -1) vector.add(id)
@@ -110,24 +124,4 @@ object NerCrfFeature {
 
         return vector
     }
-
-    private fun extFeature(sentence: List<WordTerm>, position: Int, sbFeature: StringBuilder, ft: FeatureTemplate) {
-        val senLen = sentence.size
-        for (x in ft.list) {
-            val type = x.type
-            if (type == FeatureTemplateElementType.String) {
-                sbFeature.append(x.value)
-            } else {
-                val offset = x.offset + position
-                val col = x.col
-                when {
-                    offset < 0 -> sbFeature.append(BOS[-(offset + 1)])
-                    offset >= senLen -> sbFeature.append(EOS[offset - senLen])
-                    else -> sbFeature.append(
-                            if (col == 0) sentence[offset].word else sentence[offset].natureString
-                    )
-                }
-            }
-        }
-    }
-}
\ No newline at end of file
+}
@@ -1,40 +1,36 @@
-//package com.mayabot.nlp.segment.crf.tokenizer;
-//
-//import com.mayabot.nlp.segment.PipelineTokenizerBuilder;
-//import com.mayabot.nlp.segment.crf.tokenizer.CrfBaseSegmentInitializer;
-//import com.mayabot.nlp.segment.tokenizer.BaseTokenizerBuilder;
-//import com.mayabot.nlp.segment.tokenizer.bestpath.ViterbiBestPathAlgorithm;
-//import com.mayabot.nlp.segment.tokenizer.collector.SentenceCollector;
-//import com.mayabot.nlp.segment.tokenizer.xprocessor.CommonSplitAlgorithm;
-//import com.mayabot.nlp.segment.tokenizer.xprocessor.CommonRuleWordpathProcessor;
-//import com.mayabot.nlp.segment.tokenizer.xprocessor.CustomDictionaryProcessor;
-//import com.mayabot.nlp.segment.tokenizer.xprocessor.TimeSplitAlgorithm;
-//
-//public class CrfTokenizerBuilder extends BaseTokenizerBuilder {
-//
-//
-//    @Override
-//    protected void setUp(PipelineTokenizerBuilder builder) {
-//
-//        //wordnet初始化填充
-//        builder.addWordSplitAlgorithm(
-//                CrfBaseSegmentInitializer.class,
-//                CommonSplitAlgorithm.class,
-//                TimeSplitAlgorithm.class
-//        );
-//
-//        //最优路径算法w
-//        builder.setBestPathComputer(ViterbiBestPathAlgorithm.class);
-//
-//
-//        // Pipeline处理器
-//        builder.addProcessor(CustomDictionaryProcessor.class);
-//        builder.addProcessor(CommonRuleWordpathProcessor.class);
-//
-//
-//        builder.setTermCollector(new SentenceCollector());
-//
-//
-//    }
-//
-//}
+package com.mayabot.nlp.segment.crf.tokenizer;
+
+import com.mayabot.nlp.Mynlps;
+import com.mayabot.nlp.logging.InternalLogger;
+import com.mayabot.nlp.logging.InternalLoggerFactory;
+import com.mayabot.nlp.segment.WordSplitAlgorithm;
+import com.mayabot.nlp.segment.crf.CrfCwsService;
+import com.mayabot.nlp.segment.tokenizer.PerceptronTokenizerBuilder;
+import com.mayabot.nlp.segment.tokenizer.splitalgorithm.PerceptronSegmentAlgorithm;
+
+/**
+ * 基于CRF模型的分词器。
+ * <p>
+ * CRF模型是可选资源，没有找到模型时退回到感知机分词模型。
+ *
+ * @author jimichan
+ */
+public class CrfTokenizerBuilder extends PerceptronTokenizerBuilder {
+
+    static InternalLogger logger = InternalLoggerFactory.getInstance(CrfTokenizerBuilder.class);
+
+    public static CrfTokenizerBuilder builder() {
+        return new CrfTokenizerBuilder();
+    }
+
+    @Override
+    protected Class<? extends WordSplitAlgorithm> segmentAlgorithm() {
+        if (Mynlps.getInstance(CrfCwsService.class).isAvailable()) {
+            return CrfBaseSegmentInitializer.class;
+        }
+
+        logger.warn("Not found CRF model, use perceptron model instead");
+        return PerceptronSegmentAlgorithm.class;
+    }
+
+}
@@ -1,8 +1,11 @@
 package com.mayabot.nlp.segment.crf.utils
 
-import com.mayabot.nlp.perceptron.FeatureSet
-import java.io.DataOutputStream
-import java.io.File
+import com.carrotsearch.hppc.IntArrayList
+import com.mayabot.nlp.collection.dat.DoubleArrayTrie
+import java.io.*
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.*
 
 /**
  * 一个把CRF++输出的文本模型，转换为感知机使用的模型文件.
@@ -11,152 +14,346 @@ import java.io.File
  * 2.参数数组，增加了一个长度为labelSize的空白。
  * 前一段为labelSize*labelSize的长度，载入的是标签转移信息。
  * 后面增加了一个段空白前一段为labelSize。再后面是每个特征对应的各个标签的概率信息
+ *
+ * 文本模型可能有几个GB，转换过程是流式的，内存中不保存完整的模型：
+ * 1. 第一遍读取特征，每 runSize 个特征排序后写入一个临时文件，然后多路归并，
+ *    边归并边写 feature.txt，同时记录每个特征的新ID。
+ * 2. 用紧凑的字符数组保存有序的特征构建DAT，写入 feature.dat。
+ * 3. 第二遍读取权重，按新ID直接写到内存映射的 parameter.bin 中。
  */
 object ConvertCrfText2PerceptronModel {
 
     @JvmStatic
     fun main(args: Array<String>) {
         convert(File("data.work/crf/model_c5_f5.txt"), File("data.work/crf/model"))
-
-        val fs = FeatureSet.readFromText(File("data.work/crf/model/feature.txt").inputStream().buffered())
-        fs.save(File("data.work/crf/model/feature.dat"), null)
     }
 
     /**
      * 转换CRF++的txt文本格式.转换为感知机模型的格式
+     * @param runSize 每个临时文件中的特征数量，决定第一遍读取时的内存占用
      */
-    fun convert(txtModel: File, outputDir: File) {
-
-        val labelWriter = File(outputDir, "label.txt").bufferedWriter()
-        val featureTemplate = File(outputDir, "featureTemplate.txt").bufferedWriter()
-
+    @JvmOverloads
+    fun convert(txtModel: File, outputDir: File, runSize: Int = 2_000_000) {
 
-        outputDir.mkdir()
+        outputDir.mkdirs()
 
-        var reader = txtModel.bufferedReader()
+        val t1 = System.currentTimeMillis()
 
+        val tempDir = File(outputDir, "convert-tmp")
+        tempDir.mkdirs()
 
-        println("Version ${reader.readLine()}")
-        println("${reader.readLine()}")
+        try {
+            val header = readFeatures(txtModel, outputDir, tempDir, runSize)
 
-        val maxid = Integer.parseInt(reader.readLine().substring("maxid:".length).trim({ it <= ' ' }))
+            val featureCount = header.featureCount
+            val labelSize = header.labelSize
 
-        println("${reader.readLine()}")
+            // 每个特征的新ID，前 labelSize+1 个是转移特征
+            val newIds = IntArray(featureCount)
+            val keys = mergeRuns(header.runs, labelSize, newIds, File(outputDir, "feature.txt"))
 
-        //read bank
-        reader.readLine()
+            println("Build DAT with ${keys.size} features")
+            val dat = DoubleArrayTrie(keys)
+            DataOutputStream(File(outputDir, "feature.dat").outputStream().buffered()).use {
+                dat.write(it)
+            }
 
-        var labelSize = 0
-        var line = reader.readLine()
-        while (line.isNotEmpty()) {
-            labelWriter.write(line)
-            labelWriter.write("\n")
-            line = reader.readLine()
-            labelSize++
+            writeParameter(txtModel, header, newIds, File(outputDir, "parameter.bin"))
+        } finally {
+            tempDir.deleteRecursively()
         }
 
-        // FeatureTemplate
-        line = reader.readLine()
-        while (line != "B") {
+        println("Convert done, use time ${(System.currentTimeMillis() - t1) / 1000} s")
+    }
 
-            featureTemplate.write(line)
-            featureTemplate.write("\n")
-            line = reader.readLine()
-        }
+    private class Header(
+            val labelSize: Int,
+            /**
+             * 权重之前的行数，第二遍读取时跳过
+             */
+            val skipLines: Long,
+            val featureCount: Int,
+            val runs: List<File>)
 
-        // read bank
-        reader.readLine()
-        // 0 B
-        reader.readLine()
+    /**
+     * 第一遍：读取标签、模板和特征。特征排序后分批写入临时文件
+     */
+    private fun readFeatures(txtModel: File, outputDir: File, tempDir: File, runSize: Int): Header {
+        txtModel.bufferedReader().use { reader ->
+            var lineCount = 0L
+            fun next(): String {
+                lineCount++
+                return reader.readLine() ?: throw IllegalStateException("模型文件不完整")
+            }
 
-        val parameterWriter = DataOutputStream(File(outputDir, "parameter.bin").outputStream().buffered())
+            println("Version ${next()}")
+            println(next())
 
-        val featureMap = HashMap<String, Int>()
-        //features
-        var count2 = 0
-        for (i in 0..labelSize) {
-            featureMap["\u0000\u0001BL=$i"] = count2++
-        }
+            val maxid = Integer.parseInt(next().substring("maxid:".length).trim { it <= ' ' })
 
-        line = reader.readLine()
+            println(next())
 
+            //read bank
+            next()
 
-        while (line.isNotEmpty()) {
-            val f = line.split(" ")[1]
-            // U09:天/桥 转换为 天/桥:U09
+            var labelSize = 0
+            File(outputDir, "label.txt").bufferedWriter().use { labelWriter ->
+                var line = next()
+                while (line.isNotEmpty()) {
+                    labelWriter.write(line)
+                    labelWriter.write("\n")
+                    line = next()
+                    labelSize++
+                }
+            }
 
-            val ii = f.indexOf(":")
-            val part1 = f.substring(0, ii)
-            val part2 = f.substring(ii + 1, f.length)
-            val change2 = part2 + ":" + part1
+            // FeatureTemplate
+            File(outputDir, "featureTemplate.txt").bufferedWriter().use { featureTemplate ->
+                var line = next()
+                while (line != "B") {
+                    featureTemplate.write(line)
+                    featureTemplate.write("\n")
+                    line = next()
+                }
+            }
 
-            featureMap[change2] = count2++
+            // read bank
+            next()
+            // 0 B
+            next()
+
+            val runs = ArrayList<File>()
+            val keys = ArrayList<String>(Math.min(runSize, 1 shl 20))
+            val oldIds = IntArrayList(Math.min(runSize, 1 shl 20))
+
+            // 转移特征占用前 labelSize+1 个位置
+            var count = labelSize + 1
+            val progress = Progress("Read features")
+
+            var line = next()
+            while (line.isNotEmpty()) {
+                val sp = line.indexOf(' ')
+                val id = line.substring(0, sp).toLong()
+                if (id != labelSize.toLong() * labelSize + (count - labelSize - 1).toLong() * labelSize) {
+                    throw IllegalStateException("只支持一个B模板和Unigram特征 : $line")
+                }
+
+                // U09:天/桥 转换为 天/桥:U09 把U09后置，有利于构建DAT
+                val f = line.substring(sp + 1)
+                val ii = f.indexOf(":")
+                keys.add(f.substring(ii + 1) + ":" + f.substring(0, ii))
+                oldIds.add(count++)
+
+                if (keys.size >= runSize) {
+                    runs += writeRun(tempDir, runs.size, keys, oldIds)
+                }
+                progress.step()
+
+                line = next()
+            }
+            if (keys.isNotEmpty()) {
+                runs += writeRun(tempDir, runs.size, keys, oldIds)
+            }
+            progress.done()
 
-            //把U09后置，有利于构建DAT
+            if ((count - 1).toLong() * labelSize != maxid.toLong()) {
+                throw IllegalStateException("特征数量和maxid不一致")
+            }
 
-            line = reader.readLine()
+            return Header(labelSize, lineCount, count, runs)
         }
+    }
 
+    private fun writeRun(tempDir: File, index: Int, keys: ArrayList<String>, oldIds: IntArrayList): File {
+        val order = (0 until keys.size).sortedWith(Comparator { a, b -> keys[a].compareTo(keys[b]) })
 
-        labelWriter.close()
-        featureTemplate.close()
+        val file = File(tempDir, "run-$index.bin")
+        DataOutputStream(file.outputStream().buffered(1 shl 16)).use { out ->
+            out.writeInt(order.size)
+            for (i in order) {
+                out.writeUTF(keys[i])
+                out.writeInt(oldIds[i])
+            }
+        }
 
+        keys.clear()
+        oldIds.clear()
+        return file
+    }
 
-        var parameterArray = FloatArray(maxid + labelSize)
-        var p = 0
-//        parameterWriter.writeInt(labelSize)
-//        parameterWriter.writeInt(maxid + labelSize)
-//        //参数
-        for (i in 0 until labelSize * labelSize) {
-            val line = reader.readLine()!!
-            val weight = line.toFloat()
-            parameterArray[p++] = weight
-        }
-//     //这里会多一个Lable,但是用不到
-        for (i in 0 until labelSize) {
-            parameterArray[p++] = 0f
-        }
+    private class RunReader(file: File) : Closeable {
+        private val input = DataInputStream(file.inputStream().buffered(1 shl 16))
+        private var remain = input.readInt()
 
-        line = reader.readLine()
-        while (line != null && line.isNotEmpty()) {
-            val weight = line!!.toFloat()
-            parameterArray[p++] = weight
+        var key = ""
+        var oldId = 0
 
-            line = reader.readLine()
+        fun next(): Boolean {
+            if (remain == 0) {
+                return false
+            }
+            remain--
+            key = input.readUTF()
+            oldId = input.readInt()
+            return true
         }
 
+        override fun close() = input.close()
+    }
 
-        val sortedFatureList = featureMap.keys.sorted()
-        val featureWriter = File(outputDir, "feature.txt").bufferedWriter()
-        for (x in sortedFatureList) {
-            featureWriter.append(x)
-            featureWriter.append("\n")
+    /**
+     * 多路归并临时文件，按字典序写出 feature.txt，并确定每个特征的新ID
+     * @return 有序的全部特征
+     */
+    private fun mergeRuns(runs: List<File>, labelSize: Int, newIds: IntArray, featureText: File): PackedStringList {
+        val keys = PackedStringList(newIds.size)
+
+        val readers = runs.map { RunReader(it) }
+        try {
+            val heap = PriorityQueue<RunReader>(Math.max(1, readers.size), Comparator { a, b -> a.key.compareTo(b.key) })
+            readers.forEach { if (it.next()) heap.add(it) }
+
+            featureText.bufferedWriter().use { writer ->
+                fun add(key: String) {
+                    keys.append(key)
+                    writer.write(key)
+                    writer.write("\n")
+                }
+
+                // 转移特征排在最前面，参数的位置不变
+                Array(labelSize + 1) { "\u0000\u0001BL=$it" }.sorted().forEach { add(it) }
+                for (i in 0..labelSize) {
+                    newIds[i] = i
+                }
+
+                val progress = Progress("Merge features")
+                while (heap.isNotEmpty()) {
+                    val reader = heap.poll()
+                    newIds[reader.oldId] = keys.size
+                    add(reader.key)
+                    if (reader.next()) {
+                        heap.add(reader)
+                    }
+                    progress.step()
+                }
+                progress.done()
+            }
+        } finally {
+            readers.forEach { it.close() }
         }
 
-        featureWriter.close()
+        return keys
+    }
 
-        //调整顺序
-        var parameterArray2 = FloatArray(parameterArray.size)
+    /**
+     * 第二遍：读取权重，按新ID写入 parameter.bin
+     */
+    private fun writeParameter(txtModel: File, header: Header, newIds: IntArray, parameterFile: File) {
+        val labelSize = header.labelSize
+        val featureCount = header.featureCount
+        val rowBytes = labelSize * 4L
+
+        parameterFile.delete()
+        RandomAccessFile(parameterFile, "rw").use { raf ->
+            raf.setLength(8 + rowBytes * featureCount)
+            raf.writeInt(labelSize)
+            raf.writeInt(featureCount * labelSize)
+
+            val channel = raf.channel
+
+            // 每个映射段包含整数行，一行不会跨越两个映射段
+            val rowsPerSegment = (Int.MAX_VALUE / rowBytes).toInt()
+            val segments = ArrayList<MappedByteBuffer>()
+            var row = 0L
+            while (row < featureCount) {
+                val rows = Math.min(rowsPerSegment.toLong(), featureCount - row)
+                segments += channel.map(FileChannel.MapMode.READ_WRITE, 8 + row * rowBytes, rows * rowBytes)
+                row += rows
+            }
 
+            fun put(rowId: Int, label: Int, weight: Float) {
+                val segment = segments[rowId / rowsPerSegment]
+                segment.putFloat(((rowId % rowsPerSegment) * rowBytes + label * 4).toInt(), weight)
+            }
 
-        var newid = -1
-        for (f in sortedFatureList) {
-            val oldId = featureMap[f]!!
-            newid++
+            txtModel.bufferedReader().use { reader ->
+                for (i in 0 until header.skipLines) {
+                    reader.readLine()
+                }
+
+                val progress = Progress("Write weights")
+
+                // 标签转移，BOS这一行保持为0
+                for (i in 0 until labelSize * labelSize) {
+                    put(i / labelSize, i % labelSize, reader.readLine()!!.toFloat())
+                }
+
+                for (oldId in labelSize + 1 until featureCount) {
+                    val newId = newIds[oldId]
+                    for (label in 0 until labelSize) {
+                        put(newId, label, reader.readLine()!!.toFloat())
+                    }
+                    progress.step()
+                }
+                progress.done()
+            }
+
+            segments.forEach { it.force() }
+        }
+    }
 
-            for (i in 0 until labelSize) {
-                parameterArray2[newid * labelSize + i] = parameterArray[oldId * labelSize + i]
+    /**
+     * 定时输出进度和吞吐量
+     */
+    private class Progress(val name: String) {
+        private val start = System.currentTimeMillis()
+        private var last = start
+        private var count = 0L
+
+        fun step() {
+            count++
+            if (count and 0xFFFF == 0L) {
+                val now = System.currentTimeMillis()
+                if (now - last >= 5000) {
+                    last = now
+                    println("$name $count, ${count * 1000 / Math.max(1, now - start)}/s")
+                }
             }
         }
 
+        fun done() {
+            val use = System.currentTimeMillis() - start
+            println("$name $count done, use time $use ms, ${count * 1000 / Math.max(1, use)}/s")
+        }
+    }
+
+    /**
+     * 把所有特征保存在一个字符数组中，比逐个保存String节省大量内存。
+     * 只用于构建DAT，get时才创建String
+     */
+    private class PackedStringList(expectedSize: Int) : AbstractList<String>() {
+        private var chars = CharArray(Math.max(16, expectedSize) * 8)
+        private var offsets = IntArray(expectedSize + 1)
+        private var count = 0
+
+        fun append(key: String) {
+            if (count + 1 >= offsets.size) {
+                offsets = offsets.copyOf(offsets.size * 2)
+            }
+            val from = offsets[count]
+            val to = from + key.length
+            if (to > chars.size) {
+                chars = chars.copyOf(Math.max(to, chars.size + (chars.size shr 1)))
+            }
+            key.toCharArray(chars, from, 0, key.length)
+            offsets[++count] = to
+        }
 
-        parameterWriter.writeInt(labelSize)
-        parameterWriter.writeInt(parameterArray2.size)
-        for (x in parameterArray2) {
-            parameterWriter.writeFloat(x)
+        override fun get(index: Int): String {
+            return String(chars, offsets[index], offsets[index + 1] - offsets[index])
         }
 
-        reader.close()
-        parameterWriter.close()
+        override val size: Int
+            get() = count
     }
-}
\ No newline at end of file
+}
@@ -16,7 +16,9 @@
 package com.mayabot.nlp.segment.dictionary;
 
 import com.google.inject.ImplementedBy;
+import com.mayabot.nlp.collection.dat.DATMapMatcher;
 import com.mayabot.nlp.collection.dat.DoubleArrayTrieMap;
+import com.mayabot.nlp.segment.common.WordSpanConsumer;
 import com.mayabot.nlp.segment.dictionary.custom.DefaultCustomDictionary;
 
 /**
@@ -30,4 +32,21 @@ public interface CustomDictionary {
 
     DoubleArrayTrieMap<Integer> getTrie();
 
+    /**
+     * 查找文本中所有的自定义词，按起点、再按长度从小到大回调
+     *
+     * @param text     文本
+     * @param consumer 接收每个词的起点和长度
+     */
+    default void match(char[] text, WordSpanConsumer consumer) {
+        DoubleArrayTrieMap<Integer> dat = getTrie();
+        if (dat == null) {
+            return;
+        }
+        DATMapMatcher<Integer> matcher = dat.match(text, 0);
+        while (matcher.next()) {
+            consumer.accept(matcher.getBegin(), matcher.getLength());
+        }
+    }
+
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.segment.dictionary.core;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.mayabot.nlp.MynlpEnv;
+import com.mayabot.nlp.SettingItem;
+import com.mayabot.nlp.collection.dat.DoubleArrayTrieSuggester;
+import com.mayabot.nlp.resources.NlpResouceExternalizable;
+import com.mayabot.nlp.resources.NlpResource;
+import com.mayabot.nlp.utils.CharSourceLineReader;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 基于核心词典的前缀补全，按照词频返回以前缀开头的词。
+ * <p>
+ * 每个前缀的结果在构建时已经算好，查询不需要遍历子树。构建好的结果通过NlpResouceExternalizable缓存。
+ *
+ * @author jimichan
+ */
+@Singleton
+public class CoreDictionarySuggester extends NlpResouceExternalizable {
+
+    /**
+     * 每个前缀最多保留的词数
+     */
+    public static final SettingItem<Integer> topKSetting = SettingItem.intSetting("suggest.top.k", 10);
+
+    private final String path = "dictionary/CoreDict.txt";
+
+    private final int k;
+
+    private DoubleArrayTrieSuggester suggester;
+
+    @Inject
+    public CoreDictionarySuggester(MynlpEnv mynlp) throws Exception {
+        Integer k = mynlp.getSettings().get(topKSetting);
+        this.k = k == null || k <= 0 ? 10 : k;
+
+        this.restore(mynlp);
+    }
+
+    @Override
+    public void loadFromSource(MynlpEnv mynlp) throws Exception {
+        NlpResource dictResource = mynlp.loadResource(path);
+
+        TreeMap<String, Integer> map = new TreeMap<>();
+
+        try (CharSourceLineReader reader = dictResource.openLineReader()) {
+            while (reader.hasNext()) {
+                String line = reader.next();
+
+                String[] param = line.split("\\s");
+
+                map.put(param[0], Integer.valueOf(param[1]));
+            }
+        }
+
+        if (map.isEmpty()) {
+            throw new RuntimeException("not found core dict file ");
+        }
+
+        List<String> keys = new ArrayList<>(map.size());
+        int[] freq = new int[map.size()];
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            freq[keys.size()] = entry.getValue();
+            keys.add(entry.getKey());
+        }
+
+        this.suggester = new DoubleArrayTrieSuggester(keys, freq, k);
+    }
+
+    @Override
+    public String sourceVersion(MynlpEnv mynlp) {
+        return Hashing.md5().newHasher().
+                putString(mynlp.loadResource(path).hash(), Charsets.UTF_8).
+                putString("v1", Charsets.UTF_8).
+                putInt(k)
+                .hash().toString()
+                .substring(0, 5);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        suggester.write(out);
+        out.flush();
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        this.suggester = new DoubleArrayTrieSuggester(in);
+    }
+
+    /**
+     * @param prefix 前缀
+     * @return 以prefix开头、词频最高的K个词
+     */
+    public List<String> suggest(String prefix) {
+        return suggester.suggest(prefix);
+    }
+
+    /**
+     * @param prefix 前缀
+     * @param limit  最多返回的数量，不超过K
+     * @return 以prefix开头、词频最高的词
+     */
+    public List<String> suggest(String prefix, int limit) {
+        return suggester.suggest(prefix, limit);
+    }
+
+    /**
+     * @param word 词
+     * @return 词频，不存在返回0
+     */
+    public int getFrequency(String word) {
+        int index = suggester.indexOf(word);
+        return index < 0 ? 0 : suggester.frequency(index);
+    }
+}
@@ -22,22 +22,35 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.mayabot.nlp.MynlpEnv;
 import com.mayabot.nlp.SettingItem;
+import com.mayabot.nlp.collection.bintrie.ConcurrentBinTrie;
+import com.mayabot.nlp.collection.dat.DATMapMatcher;
 import com.mayabot.nlp.collection.dat.DoubleArrayTrieMap;
 import com.mayabot.nlp.logging.InternalLogger;
 import com.mayabot.nlp.logging.InternalLoggerFactory;
 import com.mayabot.nlp.resources.NlpResouceExternalizable;
 import com.mayabot.nlp.resources.NlpResource;
+import com.mayabot.nlp.segment.common.WordSpanConsumer;
 import com.mayabot.nlp.segment.dictionary.CustomDictionary;
 import com.mayabot.nlp.utils.CharSourceLineReader;
 
 import java.io.*;
-import java.util.List;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 用户自定义词典
  * 缓存用户的自定义词典，查询出
+ * <p>
+ * 支持热加载：reload重新读取词典资源并构建新的DAT，构建完成后一次性替换引用。
+ * 使用者每次只读取一次getTrie()，正在进行的分词始终使用同一份DAT。
+ * 设置 custom.dictionary.watch.seconds 后，后台线程定时检查资源的修改时间，变化时自动重新加载。
+ * <p>
+ * 支持运行时增删词：addWord、removeWord 写入一个读操作无锁的Trie(overlay)，删除的词记录为FALSE。
+ * 查询时overlay覆盖DAT中的结果。overlay中的词数达到 custom.dictionary.overlay.threshold 后，
+ * 后台线程把overlay合并进一个新的DAT(compact)。合并期间的修改写入新的overlay，不会阻塞分词和写入。
+ * 所有运行时修改都记录在edits中，同一个词只保留最后一次修改，reload时在词典资源之上重新应用，合并也不会丢失。
  *
  * @author jimichan
  */
@@ -46,18 +59,72 @@ public class DefaultCustomDictionary extends NlpResouceExternalizable implements
 
     static InternalLogger logger = InternalLoggerFactory.getInstance(DefaultCustomDictionary.class);
 
-    private DoubleArrayTrieMap<Integer> dat;
+    private volatile State state = new State(null, null, new ConcurrentBinTrie<>());
+
+    /**
+     * 保护state的切换和edits
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * 所有的运行时修改，重新加载词典资源后再次应用。按词去重，大小不超过修改过的词数
+     */
+    private final LinkedHashMap<String, Boolean> edits = new LinkedHashMap<>();
+
+    private int overlayThreshold = 10000;
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
 
     private List<String> resourceUrls;
 
     private boolean isNormalization = false;
 
+    private final MynlpEnv mynlp;
+
+    /**
+     * 上次加载时各个资源的修改时间
+     */
+    private volatile long[] lastModified;
+
+    private ScheduledExecutorService reloader;
+
+    private ScheduledFuture<?> watching;
+
+    private final AtomicInteger reloadCount = new AtomicInteger();
+
+    private final AtomicInteger reloadFailCount = new AtomicInteger();
+
+    private volatile long lastReloadMillis = -1;
+
+    private final AtomicInteger compactCount = new AtomicInteger();
+
+    private volatile long lastCompactMillis = -1;
+
     public static final SettingItem<String> dictPathSetting = SettingItem.string(
             "custom.dictionary.path", "dictionary/CustomDictionary.txt");
 
+    /**
+     * 检查词典资源是否修改的间隔秒数，0表示不检查
+     */
+    public static final SettingItem<Integer> watchSecondsSetting = SettingItem.intSetting(
+            "custom.dictionary.watch.seconds", 0);
+
+    /**
+     * overlay中的词数达到这个数量后合并进DAT
+     */
+    public static final SettingItem<Integer> overlayThresholdSetting = SettingItem.intSetting(
+            "custom.dictionary.overlay.threshold", 10000);
+
     @Inject
     public DefaultCustomDictionary(MynlpEnv mynlp) throws Exception {
 
+        this.mynlp = mynlp;
+
+        Integer threshold = mynlp.getSettings().get(overlayThresholdSetting);
+        if (threshold != null && threshold > 0) {
+            this.overlayThreshold = threshold;
+        }
+
         List<String> resourceUrls = mynlp.getSettings().getAsList(dictPathSetting);
 
         if (resourceUrls == null || resourceUrls.isEmpty()) {
@@ -66,7 +133,312 @@ public class DefaultCustomDictionary extends NlpResouceExternalizable implements
 
         this.resourceUrls = resourceUrls;
 
+        this.lastModified = currentModified();
+
         this.restore(mynlp);
+
+        Integer watchSeconds = mynlp.getSettings().get(watchSecondsSetting);
+        if (watchSeconds != null && watchSeconds > 0) {
+            startWatch(watchSeconds);
+        }
+    }
+
+    /**
+     * 重新读取词典资源并构建DAT，完成后替换当前的DAT。
+     * 构建期间正在进行的分词仍然使用旧的DAT。运行时的增删(包括已经合并的)会重新应用到新的DAT上
+     *
+     * @throws IOException 读取失败时保留旧的DAT
+     */
+    public synchronized void reload() throws IOException {
+        if (resourceUrls == null) {
+            return;
+        }
+
+        long t1 = System.currentTimeMillis();
+
+        long[] modified = currentModified();
+        TreeMap<String, Integer> map = readSource();
+
+        Map<String, Boolean> snapshot;
+        synchronized (writeLock) {
+            freeze();
+            snapshot = new LinkedHashMap<>(edits);
+        }
+        snapshot.forEach((word, add) -> apply(map, word, add));
+
+        publish(map.isEmpty() ? null : new DoubleArrayTrieMap<>(map));
+        this.lastModified = modified;
+
+        lastReloadMillis = System.currentTimeMillis() - t1;
+        reloadCount.incrementAndGet();
+
+        logger.info("Custom dictionary reload " + getEntryCount() + " words, use time " + lastReloadMillis + " ms");
+    }
+
+    /**
+     * 在后台线程中重新加载。失败时记录日志并计入失败次数，异常通过返回的Future抛出
+     */
+    public Future<?> reloadAsync() {
+        return reloader().submit(() -> {
+            try {
+                reload();
+            } catch (Throwable e) {
+                reloadFailCount.incrementAndGet();
+                logger.error("Custom dictionary reload error", e);
+                throw e;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 运行时增加一个词，立即对之后的分词生效
+     */
+    public void addWord(String word) {
+        edit(word, Boolean.TRUE);
+    }
+
+    /**
+     * 运行时删除一个词，词典资源和之前加入的词都可以删除
+     */
+    public void removeWord(String word) {
+        edit(word, Boolean.FALSE);
+    }
+
+    private void edit(String word, Boolean add) {
+        if (word == null || word.isEmpty()) {
+            return;
+        }
+        if (isNormalization) {
+            word = normalizationString(word);
+        }
+
+        int size;
+        synchronized (writeLock) {
+            State state = this.state;
+            state.active.put(word, add);
+            edits.put(word, add);
+            size = state.active.size();
+        }
+
+        if (size >= overlayThreshold && compacting.compareAndSet(false, true)) {
+            reloader().submit(() -> {
+                try {
+                    compact();
+                } catch (Throwable e) {
+                    logger.error("Custom dictionary compact error", e);
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * 把overlay中的词合并进一个新的DAT。
+     * 合并期间的修改写入新的overlay，合并完成后才替换DAT。合并过的修改仍然保留在edits中，reload时重新应用
+     */
+    public synchronized void compact() {
+        long t1 = System.currentTimeMillis();
+
+        State frozen;
+        synchronized (writeLock) {
+            if (state.active.isEmpty()) {
+                return;
+            }
+            frozen = freeze();
+        }
+
+        TreeMap<String, Integer> map = new TreeMap<>();
+        DoubleArrayTrieMap<Integer> dat = frozen.dat;
+        if (dat != null) {
+            for (String key : dat.keys()) {
+                map.put(key, dat.get(key));
+            }
+        }
+        frozen.frozen.forEach((word, add) -> apply(map, word, add));
+
+        DoubleArrayTrieMap<Integer> merged = map.isEmpty() ? null : new DoubleArrayTrieMap<>(map);
+        publish(merged);
+
+        lastCompactMillis = System.currentTimeMillis() - t1;
+        compactCount.incrementAndGet();
+
+        logger.info("Custom dictionary compact " + getEntryCount() + " words, use time " + lastCompactMillis + " ms");
+    }
+
+    /**
+     * 冻结当前的overlay，之后的修改写入新的overlay。调用者持有writeLock
+     */
+    private State freeze() {
+        State current = this.state;
+        State frozen = new State(current.dat, current.active, new ConcurrentBinTrie<>());
+        this.state = frozen;
+        return frozen;
+    }
+
+    /**
+     * 用新的DAT替换当前DAT和冻结的overlay
+     */
+    private void publish(DoubleArrayTrieMap<Integer> dat) {
+        synchronized (writeLock) {
+            this.state = new State(dat, null, state.active);
+        }
+    }
+
+    private static void apply(TreeMap<String, Integer> map, String word, Boolean add) {
+        if (add) {
+            map.put(word, 1000);
+        } else {
+            map.remove(word);
+        }
+    }
+
+    @Override
+    public void match(char[] text, WordSpanConsumer consumer) {
+        State state = this.state;
+        DoubleArrayTrieMap<Integer> dat = state.dat;
+
+        if (state.frozen == null && state.active.isEmpty()) {
+            if (dat != null) {
+                DATMapMatcher<Integer> matcher = dat.match(text, 0);
+                while (matcher.next()) {
+                    consumer.accept(matcher.getBegin(), matcher.getLength());
+                }
+            }
+            return;
+        }
+
+        DATMapMatcher<Integer> matcher = dat == null ? null : dat.match(text, 0);
+        boolean hasNext = matcher != null && matcher.next();
+
+        Lengths lengths = new Lengths(state, text);
+
+        for (int offset = 0; offset < text.length; offset++) {
+            lengths.count = 0;
+
+            while (hasNext && matcher.getBegin() == offset) {
+                int length = matcher.getLength();
+                if (state.overlay(text, offset, length) != Boolean.FALSE) {
+                    lengths.add(length);
+                }
+                hasNext = matcher.next();
+            }
+
+            int datCount = lengths.count;
+            if (state.frozen != null) {
+                state.frozen.match(text, offset, lengths);
+            }
+            state.active.match(text, offset, lengths);
+
+            if (lengths.count > datCount) {
+                Arrays.sort(lengths.array, 0, lengths.count);
+            }
+            for (int i = 0; i < lengths.count; i++) {
+                consumer.accept(offset, lengths.array[i]);
+            }
+        }
+    }
+
+    /**
+     * 开始定时检查词典资源的修改时间，变化时在后台线程中重新加载
+     *
+     * @param seconds 检查间隔秒数
+     */
+    public synchronized void startWatch(long seconds) {
+        if (watching != null) {
+            return;
+        }
+        watching = reloader().scheduleWithFixedDelay(this::reloadIfModified, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopWatch() {
+        if (watching != null) {
+            watching.cancel(false);
+            watching = null;
+        }
+    }
+
+    private void reloadIfModified() {
+        try {
+            if (!Arrays.equals(currentModified(), lastModified)) {
+                reload();
+            }
+        } catch (Throwable e) {
+            reloadFailCount.incrementAndGet();
+            logger.error("Custom dictionary reload error", e);
+        }
+    }
+
+    private synchronized ScheduledExecutorService reloader() {
+        if (reloader == null) {
+            reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "custom-dictionary-reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return reloader;
+    }
+
+    private long[] currentModified() {
+        long[] modified = new long[resourceUrls.size()];
+        for (int i = 0; i < modified.length; i++) {
+            NlpResource resource = mynlp.loadResource(resourceUrls.get(i));
+            modified[i] = resource == null ? -1 : resource.lastModified();
+        }
+        return modified;
+    }
+
+    /**
+     * @return 当前词典中词的数量
+     */
+    public int getEntryCount() {
+        DoubleArrayTrieMap<Integer> dat = state.dat;
+        return dat == null ? 0 : dat.size();
+    }
+
+    /**
+     * @return 还没有合并进DAT的增删词数量
+     */
+    public int getOverlaySize() {
+        State state = this.state;
+        return state.active.size() + (state.frozen == null ? 0 : state.frozen.size());
+    }
+
+    /**
+     * @return overlay合并进DAT的次数
+     */
+    public int getCompactCount() {
+        return compactCount.get();
+    }
+
+    /**
+     * @return 最近一次合并的耗时，-1表示还没有合并过
+     */
+    public long getLastCompactMillis() {
+        return lastCompactMillis;
+    }
+
+    /**
+     * @return 成功重新加载的次数
+     */
+    public int getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * @return 自动重新加载和reloadAsync失败的次数
+     */
+    public int getReloadFailCount() {
+        return reloadFailCount.get();
+    }
+
+    /**
+     * @return 最近一次重新加载的耗时，-1表示还没有重新加载过
+     */
+    public long getLastReloadMillis() {
+        return lastReloadMillis;
     }
 
     /**
@@ -91,7 +463,8 @@ public class DefaultCustomDictionary extends NlpResouceExternalizable implements
             set.add(resource.hash());
         }
 
-        String hash = Hashing.md5().hashString(set.toString(), Charsets.UTF_8).toString();
+        // 缓存文件开头有是否为空的标记，和没有标记的旧缓存区分开
+        String hash = Hashing.md5().hashString("v2" + set, Charsets.UTF_8).toString();
 
         return hash.substring(0, 6);
     }
@@ -104,11 +477,21 @@ public class DefaultCustomDictionary extends NlpResouceExternalizable implements
      */
     @Override
     public void loadFromSource(MynlpEnv mynlp) throws Exception {
+        TreeMap<String, Integer> map = readSource();
+        publish(map.isEmpty() ? null : new DoubleArrayTrieMap<>(map));
+    }
+
+    private TreeMap<String, Integer> readSource() throws IOException {
         TreeMap<String, Integer> map = new TreeMap<>();
 
         for (String url : resourceUrls) {
             NlpResource resource = mynlp.loadResource(url);
 
+            if (resource == null) {
+                logger.warn("Not found resource " + url);
+                continue;
+            }
+
             try (CharSourceLineReader reader = resource.openLineReader()) {
                 while (reader.hasNext()) {
                     String line = reader.next();
@@ -126,11 +509,7 @@ public class DefaultCustomDictionary extends NlpResouceExternalizable implements
         }
 
 
-        if (map.isEmpty()) {
-            return;
-        }
-
-        dat = new DoubleArrayTrieMap<>(map);
+        return map;
     }
 
     /**
@@ -149,7 +528,12 @@ public class DefaultCustomDictionary extends NlpResouceExternalizable implements
      */
     @Override
     public void writeExternal(ObjectOutput out) throws IOException {
-        this.dat.save(out, DefaultCustomDictionary::writeInt);
+        // 资源都不存在或者为空时没有DAT，只写一个空的标记
+        DoubleArrayTrieMap<Integer> dat = this.state.dat;
+        out.writeBoolean(dat != null);
+        if (dat != null) {
+            dat.save(out, DefaultCustomDictionary::writeInt);
+        }
     }
 
     static void writeInt(Integer integer, DataOutput out) {
@@ -180,11 +564,11 @@ public class DefaultCustomDictionary extends NlpResouceExternalizable implements
      *                                restored cannot be found.
      */
     @Override
-    public void readExternal(ObjectInput in) {
-        try {
-            this.dat = new DoubleArrayTrieMap<Integer>(in, DefaultCustomDictionary::readInt);
-        } catch (IOException e) {
-            e.printStackTrace();
+    public void readExternal(ObjectInput in) throws IOException {
+        if (in.readBoolean()) {
+            publish(new DoubleArrayTrieMap<Integer>(in, DefaultCustomDictionary::readInt));
+        } else {
+            publish(null);
         }
     }
 
@@ -192,8 +576,88 @@ public class DefaultCustomDictionary extends NlpResouceExternalizable implements
         return text.toLowerCase();
     }
 
+    /**
+     * @return 词典资源构建的DAT，不包含还在overlay中的增删
+     */
     @Override
     public DoubleArrayTrieMap<Integer> getTrie() {
-        return dat;
+        return state.dat;
+    }
+
+    /**
+     * 收集同一个起点的词长。overlay中的词只在最终结果为加入且DAT中没有时才收集
+     */
+    private static final class Lengths implements ConcurrentBinTrie.EntryConsumer<Boolean> {
+
+        final State state;
+
+        final char[] text;
+
+        int[] array = new int[8];
+
+        int count;
+
+        Lengths(State state, char[] text) {
+            this.state = state;
+            this.text = text;
+        }
+
+        void add(int length) {
+            if (count == array.length) {
+                array = Arrays.copyOf(array, count * 2);
+            }
+            array[count++] = length;
+        }
+
+        @Override
+        public void accept(int offset, int length, Boolean add) {
+            if (add && state.overlay(text, offset, length) == Boolean.TRUE && !contains(length)) {
+                add(length);
+            }
+        }
+
+        private boolean contains(int length) {
+            for (int i = 0; i < count; i++) {
+                if (array[i] == length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 一个不可变的词典版本。查询时依次看active、frozen，最后才是DAT
+     */
+    private static final class State {
+
+        final DoubleArrayTrieMap<Integer> dat;
+
+        /**
+         * 正在合并进DAT的overlay，没有合并时为null
+         */
+        final ConcurrentBinTrie<Boolean> frozen;
+
+        /**
+         * 接收新修改的overlay
+         */
+        final ConcurrentBinTrie<Boolean> active;
+
+        State(DoubleArrayTrieMap<Integer> dat, ConcurrentBinTrie<Boolean> frozen, ConcurrentBinTrie<Boolean> active) {
+            this.dat = dat;
+            this.frozen = frozen;
+            this.active = active;
+        }
+
+        /**
+         * @return overlay中的结果，TRUE为加入，FALSE为删除，null表示以DAT为准
+         */
+        Boolean overlay(char[] text, int offset, int length) {
+            Boolean value = active.get(text, offset, length);
+            if (value == null && frozen != null) {
+                value = frozen.get(text, offset, length);
+            }
+            return value;
+        }
     }
 }
@@ -18,6 +18,7 @@ package com.mayabot.nlp.segment.perceptron
 import com.carrotsearch.hppc.IntArrayList
 import com.google.common.base.Splitter
 import com.mayabot.nlp.perceptron.*
+import com.mayabot.nlp.segment.common.WordSpanConsumer
 import com.mayabot.nlp.segment.perceptron.CWSPerceptron.Companion.B
 import com.mayabot.nlp.segment.perceptron.CWSPerceptron.Companion.E
 import com.mayabot.nlp.segment.perceptron.CWSPerceptron.Companion.M
@@ -29,12 +30,20 @@ import com.mayabot.nlp.utils.CharNormUtils
 import java.io.File
 import java.io.InputStream
 import java.util.function.Consumer
+import java.util.function.ToLongFunction
 
 /**
  * 用B M E S进行分词的感知机模型
  */
 class CWSPerceptron(val model: Perceptron) {
 
+    init {
+        // 哈希特征的模型直接计算特征ID，其他模型需要特征集合
+        if (model !is HashPerceptronModel) {
+            model.requireFeatureSet()
+        }
+    }
+
     /**
      * 保存分词模型
      */
@@ -47,18 +56,63 @@ class CWSPerceptron(val model: Perceptron) {
         model.compress(ratio, threshold)
     }
 
+    /**
+     * 后台学习线程，第一次调用learnAsync时启动
+     */
+    private val learnerLazy = lazy {
+        OnlineLearner<String>(model) { toLearnSample(it) }
+    }
+
+    private val learner by learnerLazy
+
     /**
      * 在线学习一个句子
      * 句子 词用空格分开
+     *
+     * 写时复制更新参数，可以和解码并发执行
      */
     fun learn(sentence: String) {
+        model.updateCopyOnWrite(listOf(toLearnSample(sentence)))
+    }
 
-        val id = forOnlineLearn(sentence, model.featureSet())
-        model.makeSureParameter(id)
-        val sample = sentenceToSample(sentence, model.featureSet())
-        model.update(sample)
+    /**
+     * 把句子放入后台学习队列，立即返回
+     * @return false 表示队列已满，句子被丢弃
+     */
+    fun learnAsync(sentence: String): Boolean {
+        return learner.offer(sentence)
     }
 
+    /**
+     * 等待learnAsync提交的句子全部学习完成
+     */
+    fun awaitLearned() {
+        learner.flush()
+    }
+
+    /**
+     * @return learnAsync提交的句子中学习失败被丢弃的数量
+     */
+    fun learnFailedCount(): Long {
+        return if (learnerLazy.isInitialized()) learner.failedCount else 0
+    }
+
+    private fun toLearnSample(sentence: String): TrainSample {
+        if (model is HashPerceptronModel) {
+            // 哈希特征不需要登记新特征
+            return sentenceToSample(sentence, model.hasher)
+        }
+
+        val featureSet = model.requireFeatureSet()
+        forOnlineLearn(sentence, featureSet)
+        return sentenceToSample(sentence, featureSet)
+    }
+
+    /**
+     * 解码缓冲区，每个线程一份
+     */
+    private val buffers = ThreadLocal.withInitial { DecodeBuffer() }
+
     fun decodeToWordList(sentence: String): List<String> {
         val result = ArrayList<String>()
         val decode = decode(sentence.toCharArray(), true)
@@ -84,13 +138,64 @@ class CWSPerceptron(val model: Perceptron) {
             CharNormUtils.convert(sentence)
         }
 
-        val buffer = StringBuilder()
+        return model.decode(extractFeatures(sentence, buffers.get()))
+    }
 
-        val featureList = ArrayList<IntArrayList>(sentence.size)
-        for (i in 0 until sentence.size) {
-            featureList += CWSPerceptronFeature.extractFeatureVector(sentence, sentence.size, i, model.featureSet(), buffer)
+    /**
+     * 对已经规范化的字符数组分词，依次回调每个词的起始位置和长度，不创建字符串。
+     * 特征向量和标签数组在线程内复用，用于分词器的Pipeline。
+     */
+    fun decodeWords(sentence: CharArray, consumer: WordSpanConsumer) {
+        val size = sentence.size
+        if (size == 0) {
+            return
+        }
+
+        val buffer = buffers.get()
+        val labels = buffer.labels(size)
+        model.decode(extractFeatures(sentence, buffer), labels)
+
+        var p = 0
+        for (i in 0 until size) {
+            val f = labels[i]
+            if (f == S || f == E) {
+                consumer.accept(p, i + 1 - p)
+                p = i + 1
+            }
+        }
+
+        if (p < size) {
+            consumer.accept(p, size - p)
         }
-        return model.decode(featureList)
+    }
+
+    private fun extractFeatures(sentence: CharArray, buffer: DecodeBuffer): List<IntArrayList> {
+        val size = sentence.size
+        val featureList = buffer.features(size)
+
+        if (model is HashPerceptronModel) {
+            val hasher = model.hasher
+            for (i in 0 until size) {
+                CWSPerceptronFeature.extractFeatureVector(sentence, size, i, hasher, featureList[i])
+            }
+        } else {
+            val featureSet = model.requireFeatureSet()
+            for (i in 0 until size) {
+                CWSPerceptronFeature.extractFeatureVector(sentence, size, i, featureSet, buffer.stringBuilder, featureList[i])
+            }
+        }
+        return featureList
+    }
+
+    /**
+     * 转换为哈希特征的模型
+     * @param bucketBits 权重表大小为 2^bucketBits
+     */
+    fun toHashModel(bucketBits: Int): CWSPerceptron {
+        val dat = model as? PerceptronModel
+                ?: throw UnsupportedOperationException("${model.javaClass.simpleName} can not convert to hash model")
+        return CWSPerceptron(HashPerceptronModel.convert(dat, bucketBits,
+                ToLongFunction { CWSPerceptronFeature.hashOfFeature(it) }))
     }
 
     companion object {
@@ -112,6 +217,9 @@ class CWSPerceptron(val model: Perceptron) {
 
         @JvmStatic
         fun load(dir: File): CWSPerceptron {
+            if (File(dir, "hash.bin").exists()) {
+                return CWSPerceptron(HashPerceptronModel.load(dir))
+            }
             return load(File(dir, "parameter.bin").inputStream().buffered(),
                     File(dir, "feature.dat").inputStream().buffered())
         }
@@ -126,8 +234,13 @@ object CWSPerceptronFeature {
     private const val CHAR_END = '\u0002'
 
     fun extractFeatureVector(sentence: CharArray, size: Int, position: Int, features: FeatureSet, buffer: StringBuilder): IntArrayList {
-        val vector = IntArrayList(8)
+        return extractFeatureVector(sentence, size, position, features, buffer, IntArrayList(8))
+    }
 
+    /**
+     * 特征写入调用方提供的vector，解码时复用
+     */
+    fun extractFeatureVector(sentence: CharArray, size: Int, position: Int, features: FeatureSet, buffer: StringBuilder, vector: IntArrayList): IntArrayList {
         buffer.clear()
 
 
@@ -150,6 +263,45 @@ object CWSPerceptronFeature {
         return vector
     }
 
+    /**
+     * 哈希特征版本，模板和字符串版本一一对应，不需要拼接字符串
+     */
+    fun extractFeatureVector(sentence: CharArray, size: Int, position: Int, hasher: FeatureHasher): IntArrayList {
+        return extractFeatureVector(sentence, size, position, hasher, IntArrayList(8))
+    }
+
+    fun extractFeatureVector(sentence: CharArray, size: Int, position: Int, hasher: FeatureHasher, vector: IntArrayList): IntArrayList {
+        val pre2Char = if (position >= 2) sentence[position - 2] else CHAR_BEGIN
+        val preChar = if (position >= 1) sentence[position - 1] else CHAR_BEGIN
+        val curChar = sentence[position]
+        val nextChar = if (position < size - 1) sentence[position + 1] else CHAR_END
+        val next2Char = if (position < size - 2) sentence[position + 2] else CHAR_END
+
+        vector.add(hasher.featureId(FeatureHasher.hash(1, preChar)))
+        vector.add(hasher.featureId(FeatureHasher.hash(2, curChar)))
+        vector.add(hasher.featureId(FeatureHasher.hash(3, nextChar)))
+
+        vector.add(hasher.featureId(FeatureHasher.hash(4, pre2Char, preChar)))
+        vector.add(hasher.featureId(FeatureHasher.hash(5, preChar, curChar)))
+        vector.add(hasher.featureId(FeatureHasher.hash(6, curChar, nextChar)))
+        vector.add(hasher.featureId(FeatureHasher.hash(7, nextChar, next2Char)))
+
+        vector.add(0)
+        return vector
+    }
+
+    /**
+     * 把字符串形式的特征转换为哈希值，用于把DAT模型转换为哈希模型。
+     * "X1" 为单字特征，"X/Y4" 为双字特征。
+     */
+    fun hashOfFeature(feature: String): Long {
+        return when (feature.length) {
+            2 -> FeatureHasher.hash(feature[1] - '0', feature[0])
+            4 -> FeatureHasher.hash(feature[3] - '0', feature[0], feature[2])
+            else -> Long.MIN_VALUE
+        }
+    }
+
     private fun addFeature(features: FeatureSet, vector: IntArrayList, stringBuilder: StringBuilder, vararg parts: Any) {
         for (x in parts) {
             stringBuilder.append(x)
@@ -212,9 +364,22 @@ object CWSPerceptronSample {
      * 一个用空格分隔的句子.
      */
     fun sentenceToSample(lineInput: String, featureSet: FeatureSet): TrainSample {
-
         val buffer = StringBuilder()
+        return sentenceToSample(lineInput) { juzi, len, i ->
+            CWSPerceptronFeature.extractFeatureVector(juzi, len, i, featureSet, buffer)
+        }
+    }
+
+    /**
+     * 把一个句子，变化为哈希特征的TrainSample
+     */
+    fun sentenceToSample(lineInput: String, hasher: FeatureHasher): TrainSample {
+        return sentenceToSample(lineInput) { juzi, len, i ->
+            CWSPerceptronFeature.extractFeatureVector(juzi, len, i, hasher)
+        }
+    }
 
+    private inline fun sentenceToSample(lineInput: String, extractor: (CharArray, Int, Int) -> IntArrayList): TrainSample {
         val line = CharNormUtils.convert(lineInput)
         val juzi = CharArray(line.length)
         val split = BooleanArray(line.length)
@@ -233,7 +398,7 @@ object CWSPerceptronSample {
 
         var from = 0
         for (i in 0 until len) {
-            val vec = CWSPerceptronFeature.extractFeatureVector(juzi, len, i, featureSet, buffer)
+            val vec = extractor(juzi, len, i)
             list.add(vec)
 
             if (split[i]) {
@@ -265,6 +430,22 @@ class CWSPerceptronTrainer {
 
     lateinit var featureSet: FeatureSet
 
+    /**
+     * 构建FeatureSet时，出现次数少于这个值的特征被删除
+     */
+    var minFeatureFrequency = 1
+
+    /**
+     * 中间迭代评估时使用的验证集比例，最后一轮总是使用完整的验证集
+     */
+    var evaluateSampleRatio = 1.0
+
+    private fun evaluateRunner(evaluateSample: List<String>): EvaluateRunner {
+        return SubsampleEvaluateRunner(evaluateSample, evaluateSampleRatio) { list, model ->
+            CWSEvaluate.evaluate(list, CWSPerceptron(model))
+        }
+    }
+
 //    init {
 //        workDir.mkdirs()
 //    }
@@ -296,15 +477,75 @@ class CWSPerceptronTrainer {
         println("Start train ...")
 
         val trainer = PerceptronTrainer(featureSet, tagList.size, sampleList,
-                EvaluateRunner { k, it ->
-                    CWSEvaluate.evaluate(evaluateSample, CWSPerceptron(it))
-                }, maxIter, false)
+                evaluateRunner(evaluateSample), maxIter, false)
 
         return CWSPerceptron(trainer.train(threadNumber))
 
     }
 
+    /**
+     * 训练哈希特征的分词模型，不需要预先构建FeatureSet。
+     * @param bucketBits 权重表大小为 2^bucketBits
+     */
+    fun trainHash(trainFileDir: File, evaluateFile: File, maxIter: Int, threadNumber: Int, bucketBits: Int): CWSPerceptron {
+
+        val allFiles = trainFileDir.allFiles()
+
+        val hasher = FeatureHasher(tagList.size, bucketBits)
+
+        println("Hash Bucket Size ${hasher.bucketSize}")
+
+        val sampleList = loadSamples(allFiles) { CWSPerceptronSample.sentenceToSample(it, hasher) }
+
+        //验证集合
+        val evaluateSample = evaluateFile.allFiles().flatMap { it.readLines() }.map { CharNormUtils.convert(it) }
+
+        println("Start train ...")
+
+        val trainer = PerceptronTrainer(hasher, sampleList,
+                evaluateRunner(evaluateSample), maxIter, false)
+
+        return CWSPerceptron(trainer.train(threadNumber))
+    }
+
+    /**
+     * 语料库太大无法全部放入内存时使用。
+     * 样本先多线程写入workDir中的磁盘文件，每一轮迭代从磁盘流式读取并打乱顺序。
+     * @param workDir 存放训练样本的目录
+     */
+    fun trainStreaming(trainFileDir: File, evaluateFile: File, maxIter: Int, threadNumber: Int, workDir: File): CWSPerceptron {
+
+        val allFiles = trainFileDir.allFiles()
+
+        prepareFeatureSet(allFiles)
+
+        println("FeatureSet Size ${featureSet.size()}")
+
+        val sampleDir = File(workDir, "samples")
+        TrainSampleFile.write(sampleDir, allFiles, threadNumber) { line, out ->
+            out(CWSPerceptronSample.sentenceToSample(line.trim(), featureSet))
+        }
+
+        //验证集合
+        val evaluateSample = evaluateFile.allFiles().flatMap { it.readLines() }.map { CharNormUtils.convert(it) }
+
+        println("Start train ...")
+
+        return TrainSampleFile(sampleDir).use { samples ->
+            println("Sample Size ${samples.size()}")
+
+            val trainer = PerceptronTrainer(featureSet, tagList.size, samples,
+                    evaluateRunner(evaluateSample), maxIter, false)
+
+            CWSPerceptron(trainer.train(threadNumber))
+        }
+    }
+
     private fun loadSamples(allFiles: List<File>): List<TrainSample> {
+        return loadSamples(allFiles) { CWSPerceptronSample.sentenceToSample(it, featureSet) }
+    }
+
+    private fun loadSamples(allFiles: List<File>, toSample: (String) -> TrainSample): List<TrainSample> {
         //统计有多少样本
         var sampleSize = 0
 
@@ -322,7 +563,7 @@ class CWSPerceptronTrainer {
             file.useLines { lines ->
                 lines.forEach { line ->
                     if (line.isNotBlank()) {
-                        sampleList += CWSPerceptronSample.sentenceToSample(line.trim(), featureSet)
+                        sampleList += toSample(line.trim())
                     }
                 }
             }
@@ -338,32 +579,24 @@ class CWSPerceptronTrainer {
     fun prepareFeatureSet(files: List<File>) {
         println("开始构建FeatureSet")
         val t1 = System.currentTimeMillis()
-        val builder = DATFeatureSetBuilder(4)
-        val fit = Consumer<String> { f ->
-            builder.put(f)
-        }
-        files.forEach { dictFile ->
-            println(dictFile.absolutePath)
-            val lines = dictFile.readLines()
-
-            lines.forEach { line ->
-                val out = CharArray(line.length)
-                var p = 0
-                CharNormUtils.convert(line).forEach { c ->
-                    if (c != ' ' && !c.isWhitespace()) {
-                        out[p++] = c
-                    }
+        val builder = ParallelFeatureSetBuilder(4)
+        builder.count(files) { line, fit ->
+            val out = CharArray(line.length)
+            var p = 0
+            CharNormUtils.convert(line).forEach { c ->
+                if (c != ' ' && !c.isWhitespace()) {
+                    out[p++] = c
                 }
-                val len = p
+            }
+            val len = p
 
 
-                for (i in 0 until len) {
-                    CWSPerceptronFeature.extractFeature(out, len, i, fit)
-                }
+            for (i in 0 until len) {
+                CWSPerceptronFeature.extractFeature(out, len, i, fit)
             }
         }
 
-        featureSet = builder.build()
+        featureSet = builder.build(minFeatureFrequency)
 
         println("FeatureSet构建完成,用时${System.currentTimeMillis() - t1} ms")
     }
@@ -377,11 +610,9 @@ object CWSEvaluate {
     召回率 = 正确识别的个体总数 / 测试集中存在的个体总数
     F值 = 正确率 * 召回率 * 2 / (正确率 + 召回率)
      */
-    fun evaluate(evaluateSample: List<String>, segmenter: CWSPerceptron): DoubleArray {
-        // int goldTotal = 0, predTotal = 0, correct = 0;
-        var goldTotal = 0
-        var predTotal = 0
-        var correct = 0
+    @JvmOverloads
+    fun evaluate(evaluateSample: List<String>, segmenter: CWSPerceptron,
+                 threadNumber: Int = ParallelEvaluator.defaultThreadNumber): DoubleArray {
 
         val splitter = Splitter.on(" ").omitEmptyStrings().trimResults()
 
@@ -389,50 +620,11 @@ object CWSEvaluate {
 
         val t1 = System.currentTimeMillis()
 
-        var count = 0
-        for (line in evaluateSample) {
-            val wordArray = splitter.splitToList(CharNormUtils.convert(line))
-            goldTotal += wordArray.size
-
-            val text = wordArray.joinToString(separator = "")
-            val predArray = segmenter.decodeToWordList(text)
-            predTotal += predArray.size
-
-            var goldIndex = 0
-            var predIndex = 0
-            var goldLen = 0
-            var predLen = 0
-
-            while (goldIndex < wordArray.size && predIndex < predArray.size) {
-                if (goldLen == predLen) {
-                    if (wordArray[goldIndex] == predArray[predIndex]) {
-                        correct++
-                        goldLen += wordArray[goldIndex].length
-                        predLen += wordArray[goldIndex].length
-                        goldIndex++
-                        predIndex++
-                    } else {
-                        goldLen += wordArray[goldIndex].length
-                        predLen += predArray[predIndex].length
-                        goldIndex++
-                        predIndex++
-                    }
-                } else if (goldLen < predLen) {
-                    goldLen += wordArray[goldIndex].length
-                    goldIndex++
-                } else {
-                    predLen += predArray[predIndex].length
-                    predIndex++
-                }
-            }
-
-            count++
-
-            if (count % 2000 == 0) {
-                System.out.print("\rEvaluating ${"%.2f".format(count * 100.0 / evaluateSample.size)}%")
-            }
-
-        }
+        // goldTotal, predTotal, correct
+        val counter = ParallelEvaluator.evaluate(evaluateSample, threadNumber,
+                { IntArray(3) },
+                { line, count -> evaluate(splitter.splitToList(CharNormUtils.convert(line)), segmenter, count) },
+                { a, b -> for (i in 0 until 3) a[i] += b[i] })
 
         fun prf(goldTotal: Int, predTotal: Int, correct: Int): DoubleArray {
             val precision = correct * 100.0 / predTotal
@@ -444,7 +636,7 @@ object CWSEvaluate {
             return performance
         }
 
-        val result = prf(goldTotal, predTotal, correct)
+        val result = prf(counter[0], counter[1], counter[2])
 
         System.out.print("\r")
 
@@ -455,4 +647,40 @@ object CWSEvaluate {
 
         return result
     }
+
+    private fun evaluate(wordArray: List<String>, segmenter: CWSPerceptron, counter: IntArray) {
+        counter[0] += wordArray.size
+
+        val text = wordArray.joinToString(separator = "")
+        val predArray = segmenter.decodeToWordList(text)
+        counter[1] += predArray.size
+
+        var goldIndex = 0
+        var predIndex = 0
+        var goldLen = 0
+        var predLen = 0
+
+        while (goldIndex < wordArray.size && predIndex < predArray.size) {
+            if (goldLen == predLen) {
+                if (wordArray[goldIndex] == predArray[predIndex]) {
+                    counter[2]++
+                    goldLen += wordArray[goldIndex].length
+                    predLen += wordArray[goldIndex].length
+                    goldIndex++
+                    predIndex++
+                } else {
+                    goldLen += wordArray[goldIndex].length
+                    predLen += predArray[predIndex].length
+                    goldIndex++
+                    predIndex++
+                }
+            } else if (goldLen < predLen) {
+                goldLen += wordArray[goldIndex].length
+                goldIndex++
+            } else {
+                predLen += predArray[predIndex].length
+                predIndex++
+            }
+        }
+    }
 }
@@ -13,11 +13,56 @@ import java.io.File
 import java.io.InputStream
 import java.util.*
 import java.util.function.Consumer
+import java.util.stream.IntStream
 import kotlin.collections.ArrayList
 
 class NERPerceptron(val model: Perceptron, private val labels: List<String>) {
 
-    private val featureSet = model.featureSet()
+    private val featureSet = model.requireFeatureSet()
+
+    private val buffers = ThreadLocal.withInitial { DecodeBuffer() }
+
+    /**
+     * 分窗口解码，结果保存在WordTerm的customFlag字段里面。
+     *
+     * 在句子级的标点处把词序列切分为多个窗口，每个窗口单独做Viterbi，
+     * 窗口边缘的特征仍然使用完整序列的上下文。
+     * 词的数量不少于parallelThreshold时，多个窗口并行解码。
+     */
+    @JvmOverloads
+    fun decodeWindows(sentence: List<WordTerm>, parallelThreshold: Int = PARALLEL_THRESHOLD) {
+        val windows = splitWindows(sentence)
+        val count = windows.size / 2
+
+        if (count > 1 && sentence.size >= parallelThreshold) {
+            IntStream.range(0, count).parallel().forEach { w ->
+                decodeRange(sentence, windows[w * 2], windows[w * 2 + 1])
+            }
+        } else {
+            for (w in 0 until count) {
+                decodeRange(sentence, windows[w * 2], windows[w * 2 + 1])
+            }
+        }
+    }
+
+    /**
+     * 解码[from,to)范围内的词，使用线程本地的缓冲区
+     */
+    private fun decodeRange(sentence: List<WordTerm>, from: Int, to: Int) {
+        val buffer = buffers.get()
+        val length = to - from
+        val featureList = buffer.features(length)
+        for (i in from until to) {
+            NERPerceptronFeature.extractFeatureVector(sentence, i, featureSet, buffer.stringBuilder, featureList[i - from])
+        }
+
+        val result = buffer.labels(length)
+        model.decode(featureList, result)
+
+        for (i in from until to) {
+            sentence[i].customFlag = labels[result[i - from]]
+        }
+    }
 
 
     /**
@@ -57,6 +102,38 @@ class NERPerceptron(val model: Perceptron, private val labels: List<String>) {
 
     companion object {
 
+        /**
+         * 词的数量达到这个值时并行解码各个窗口
+         */
+        const val PARALLEL_THRESHOLD = 512
+
+        /**
+         * 切分窗口的标点。括号、顿号等可能出现在机构名中间，不作为边界
+         */
+        private const val BOUNDARY = ",，。!！?？;；"
+
+        /**
+         * 在边界标点之后切分
+         * @return 依次为每个窗口的[from,to)
+         */
+        @JvmStatic
+        fun splitWindows(sentence: List<WordTerm>): IntArray {
+            val size = sentence.size
+            val windows = IntArrayList()
+            var from = 0
+            for (i in 0 until size) {
+                val word = sentence[i].word
+                if (word.length == 1 && BOUNDARY.indexOf(word[0]) >= 0) {
+                    windows.add(from, i + 1)
+                    from = i + 1
+                }
+            }
+            if (from < size) {
+                windows.add(from, size)
+            }
+            return windows.toArray()
+        }
+
         /**
          * 加载NER模型
          */
@@ -97,6 +174,13 @@ object NERPerceptronFeature {
     private const val E = "_E_"
 
     fun extractFeatureVector(sentence: List<WordTerm>, position: Int, features: FeatureSet, buffer: java.lang.StringBuilder): IntArrayList {
+        return extractFeatureVector(sentence, position, features, buffer, IntArrayList(15))
+    }
+
+    /**
+     * 把特征写入已经清空的vector，用于复用缓冲区
+     */
+    fun extractFeatureVector(sentence: List<WordTerm>, position: Int, features: FeatureSet, buffer: java.lang.StringBuilder, vector: IntArrayList): IntArrayList {
 
         buffer.clear()
 
@@ -142,9 +226,6 @@ object NERPerceptronFeature {
             next2Pos = x.natureString
         }
 
-        val vector = IntArrayList(15)
-
-
         addFeature(features, vector, buffer, pre2Word, '1')
         addFeature(features, vector, buffer, preWord, '2')
         addFeature(features, vector, buffer, curWord, '3')
@@ -256,6 +337,27 @@ class NERPerceptronTrainer(val targetPos: Set<String>) {
 
     lateinit var featureSet: FeatureSet
 
+    /**
+     * 构建FeatureSet时，出现次数少于这个值的特征被删除
+     */
+    var minFeatureFrequency = 1
+
+    /**
+     * 中间迭代评估时使用的验证集比例，最后一轮总是使用完整的验证集
+     */
+    var evaluateSampleRatio = 1.0
+
+    /**
+     * 训练完成后在验证集上对比这些集束宽度的准确率和速度，0表示精确的viterbi。默认不对比
+     */
+    var beamReportSizes = IntArray(0)
+
+    private fun evaluateRunner(evaluateList: List<String>, labelList: List<String>): EvaluateRunner {
+        return SubsampleEvaluateRunner(evaluateList, evaluateSampleRatio) { list, model ->
+            NEREvaluateUtils.evaluateNER(NERPerceptron(model, labelList), list, targetPos)
+        }
+    }
+
     /**
      * 保存 label->labelId
      */
@@ -296,10 +398,7 @@ class NERPerceptronTrainer(val targetPos: Set<String>) {
                 featureSet,
                 labelMap.size,
                 sampleList,
-                EvaluateRunner { k, model ->
-                    val ner = NERPerceptron(model, labelList)
-                    NEREvaluateUtils.evaluateNER(ner, evaluateList, targetPos)
-                },
+                evaluateRunner(evaluateList, labelList),
                 maxIter, false)
 
         val model = trainer.train(threadNumber)
@@ -309,9 +408,61 @@ class NERPerceptronTrainer(val targetPos: Set<String>) {
 
         NEREvaluateUtils.evaluateNER(ner, evaluateList, targetPos)
 
+        beamReport(model, evaluateList, labelList)
+
         return ner
     }
 
+    /**
+     * 语料库太大无法全部放入内存时使用。
+     * 样本先多线程写入workDir中的磁盘文件，每一轮迭代从磁盘流式读取并打乱顺序。
+     * @param workDir 存放训练样本的目录
+     */
+    fun trainStreaming(trainFiles: File,
+                       evaluate: File,
+                       maxIter: Int,
+                       threadNumber: Int,
+                       workDir: File): NERPerceptron {
+
+        val labelList = ArrayList<String>(labelMap.keys.sorted())
+
+        val allFiles = trainFiles.allFiles()
+
+        prepareFeatureSet(allFiles, labelList.size)
+
+        println("Feature Set Size ${featureSet.size()}")
+
+        val sampleDir = File(workDir, "samples")
+        NerSamples(targetPos, labelMap, featureSet).writeSample(allFiles, sampleDir, threadNumber)
+
+        val evaluateList = evaluate.allFiles().flatMap { it.readLines() }
+
+        println("Start Train ... ")
+
+        val model = TrainSampleFile(sampleDir).use { samples ->
+            PerceptronTrainer(
+                    featureSet,
+                    labelMap.size,
+                    samples,
+                    evaluateRunner(evaluateList, labelList),
+                    maxIter, false).train(threadNumber)
+        }
+
+        val ner = NERPerceptron(model, labelList)
+
+        NEREvaluateUtils.evaluateNER(ner, evaluateList, targetPos)
+
+        beamReport(model, evaluateList, labelList)
+
+        return ner
+    }
+
+
+    private fun beamReport(model: Perceptron, evaluateList: List<String>, labelList: List<String>) {
+        if (beamReportSizes.isNotEmpty() && model is BasePerceptronModel) {
+            EvaluateRunner.beamReport(evaluateRunner(evaluateList, labelList), model, *beamReportSizes)
+        }
+    }
 
     /**
      * 制作FeatureSet。
@@ -321,32 +472,22 @@ class NERPerceptronTrainer(val targetPos: Set<String>) {
         println("开始构建NER FeatureSet")
         val t1 = System.currentTimeMillis()
 
-        val builder = DATFeatureSetBuilder(labelCount)
-        val fit = Consumer<String> { f ->
-            builder.put(f)
-        }
+        val builder = ParallelFeatureSetBuilder(labelCount)
 
-        corposFiles
-                .forEach { file ->
-                    println(file.absolutePath)
+        builder.count(corposFiles) { line, fit ->
+            val flatWords = line.parseToFlatWords()
 
-                    file.useLines { lines ->
-                        lines.forEach { line ->
-                            val flatWords = line.parseToFlatWords()
-
-                            flatWords.forEach { w ->
-                                w.word = CharNormUtils.convert(w.word)
-                            }
-                            for (i in 0 until flatWords.size) {
-                                NERPerceptronFeature.extractFeature(flatWords, i, fit)
-                            }
-                        }
-                    }
-                }
+            flatWords.forEach { w ->
+                w.word = CharNormUtils.convert(w.word)
+            }
+            for (i in 0 until flatWords.size) {
+                NERPerceptronFeature.extractFeature(flatWords, i, fit)
+            }
+        }
 
         println("Start build featureSet ...")
 
-        featureSet = builder.build()
+        featureSet = builder.build(minFeatureFrequency)
 
         println("FeatureSet 构建完成,用时${System.currentTimeMillis() - t1}ms")
     }
@@ -372,24 +513,42 @@ class NerSamples(val targetPos: Set<String>, val labelMap: Map<String, Int>, val
 
         // 解析语料库为数字化TrainSample
         files.forEach { file ->
-            file.useLines { lines ->
-                lines.forEach { line ->
-                    val words = line.parseToWords()
-                    words.forEach {
-                        if (it.hasSub()) {
-                            it.subWord.forEach { w -> w.word = CharNormUtils.convert(w.word) }
-                        } else {
-                            it.word = CharNormUtils.convert(it.word)
-                        }
+            fileToSample(file) { sampleList += it }
+        }
 
-                    }
+        return sampleList
+    }
 
-                    sampleList += sentenceToSample(words)
-                }
+    /**
+     * 多线程把语料库转换为磁盘上的训练样本，训练时流式读取
+     * @param dir 输出目录
+     */
+    fun writeSample(files: List<File>, dir: File, threadNumber: Int): Int {
+        return TrainSampleFile.write(dir, files, threadNumber) { line, out ->
+            out(lineToSample(line))
+        }
+    }
+
+    private fun fileToSample(file: File, out: (TrainSample) -> Unit) {
+        file.useLines { lines ->
+            lines.forEach { line ->
+                out(lineToSample(line))
             }
         }
+    }
 
-        return sampleList
+    private fun lineToSample(line: String): TrainSample {
+        val words = line.parseToWords()
+        words.forEach {
+            if (it.hasSub()) {
+                it.subWord.forEach { w -> w.word = CharNormUtils.convert(w.word) }
+            } else {
+                it.word = CharNormUtils.convert(it.word)
+            }
+
+        }
+
+        return sentenceToSample(words)
     }
 
     /**
@@ -463,50 +622,29 @@ object NEREvaluateUtils {
         return term
     }
 
+    @JvmOverloads
     fun evaluateNER(recognizer: NERPerceptron,
                     evaluateData: List<String>,
-                    targetPos: Set<String>): Map<String, DoubleArray> {
-        val scores = TreeMap<String, DoubleArray>()
+                    targetPos: Set<String>,
+                    threadNumber: Int = ParallelEvaluator.defaultThreadNumber): Map<String, DoubleArray> {
+
+        val t1 = System.currentTimeMillis()
+
+        // 每个类型的 [识别出的总数, 实体总数, 正确识别数]
+        val scores = ParallelEvaluator.evaluate(evaluateData, threadNumber,
+                { TreeMap<String, DoubleArray>() },
+                { line, counter -> evaluateNER(recognizer, line, targetPos, counter) },
+                { a, b ->
+                    b.forEach { type, s ->
+                        val x = a.getOrPut(type) { doubleArrayOf(0.0, 0.0, 0.0) }
+                        for (i in 0 until 3) x[i] += s[i]
+                    }
+                })
+
         val avg = doubleArrayOf(0.0, 0.0, 0.0)
+        scores.values.forEach { s -> for (i in 0 until 3) avg[i] += s[i] }
         scores["avg."] = avg
-        for (line in evaluateData) {
-            val sentence = line.parseToWords()
-
-            //CharNorm
-            sentence.forEach { if (it.hasSub()) it.subWord.forEach { x -> x.word = CharNormUtils.convert(x.word) } else it.word = CharNormUtils.convert(it.word) }
-
-            val sentenceWordTerm = convert(sentence, targetPos)
-
-            recognizer.decode(sentenceWordTerm)
-            val nerResult = sentenceWordTerm.map { it.customFlag }
-            val pred = combineNER(nerResult)
-            val gold = combineNER(sentenceWordTerm.map { it.customFlag }.toList())
-            for (p in pred) {
-                val type = p.split("\t".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()[2]
-                var s: DoubleArray? = scores[type]
-                if (s == null) {
-                    s = doubleArrayOf(0.0, 0.0, 0.0)
-                    scores[type] = s
-                }
-                if (gold.contains(p)) {
-                    ++s[2] // 正确识别该类命名实体数
-                    ++avg[2]
-                }
-                ++s[0] // 识别出该类命名实体总数
-                ++avg[0]
-            }
 
-            for (g in gold) {
-                val type = g.split("\t".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()[2]
-                var s: DoubleArray? = scores[type]
-                if (s == null) {
-                    s = doubleArrayOf(0.0, 0.0, 0.0)
-                    scores[type] = s
-                }
-                ++s[1] // 该类命名实体总数
-                ++avg[1]
-            }
-        }
         for (s in scores.values) {
             if (s[2] == 0.0) {
                 s[0] = 0.0
@@ -518,10 +656,48 @@ object NEREvaluateUtils {
             s[2] = 2.0 * s[0] * s[1] / (s[0] + s[1])
         }
 
+        System.out.print("\r")
         printNERScore(scores)
+        println("Evaluate use time ${System.currentTimeMillis() - t1} ms")
         return scores
     }
 
+    private fun evaluateNER(recognizer: NERPerceptron,
+                            line: String,
+                            targetPos: Set<String>,
+                            scores: MutableMap<String, DoubleArray>) {
+        val sentence = line.parseToWords()
+
+        //CharNorm
+        sentence.forEach { if (it.hasSub()) it.subWord.forEach { x -> x.word = CharNormUtils.convert(x.word) } else it.word = CharNormUtils.convert(it.word) }
+
+        val sentenceWordTerm = convert(sentence, targetPos)
+        if (sentenceWordTerm.isEmpty()) {
+            return
+        }
+
+        // decode会覆盖customFlag，先取出标准答案
+        val gold = combineNER(sentenceWordTerm.map { it.customFlag })
+
+        recognizer.decode(sentenceWordTerm)
+        val pred = combineNER(sentenceWordTerm.map { it.customFlag })
+
+        for (p in pred) {
+            val type = p.substring(p.lastIndexOf('\t') + 1)
+            val s = scores.getOrPut(type) { doubleArrayOf(0.0, 0.0, 0.0) }
+            if (gold.contains(p)) {
+                ++s[2] // 正确识别该类命名实体数
+            }
+            ++s[0] // 识别出该类命名实体总数
+        }
+
+        for (g in gold) {
+            val type = g.substring(g.lastIndexOf('\t') + 1)
+            val s = scores.getOrPut(type) { doubleArrayOf(0.0, 0.0, 0.0) }
+            ++s[1] // 该类命名实体总数
+        }
+    }
+
     fun printNERScore(scores: Map<String, DoubleArray>) {
         System.out.printf("%4s\t%6s\t%6s\t%6s\n", "NER", "P", "R", "F1")
         for ((type, s) in scores) {
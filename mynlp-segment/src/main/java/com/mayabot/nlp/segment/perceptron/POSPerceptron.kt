@@ -1,6 +1,8 @@
 package com.mayabot.nlp.segment.perceptron
 
 import com.carrotsearch.hppc.IntArrayList
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
 import com.mayabot.nlp.perceptron.*
 import com.mayabot.nlp.segment.Nature
 import com.mayabot.nlp.segment.perceptron.POSPerceptronFeature.extractFeature
@@ -15,17 +17,69 @@ import java.util.function.Function
 
 /**
  * 词性分析感知机
+ *
+ * 快速解码模式下，一个词的词性只和前一个词、当前词、后一个词的特征有关。
+ * 当前词和它的前后缀特征在各个标签上的得分之和按词缓存，
+ * 标注时每个词只需要再加上前后两个上下文特征的得分。
  */
 class POSPerceptron(val model: Perceptron, val labelList: Array<String>) {
 
-    private val featureSet = model.featureSet()
+    init {
+        // 压缩会替换特征集合，使用时每次重新读取，这里只检查模型有特征集合
+        model.requireFeatureSet()
+    }
 
-    val parameter = (model as PerceptronModel).parameter
+    /**
+     * 当前的参数。在线学习和压缩会替换参数数组，每次使用时重新读取
+     */
+    val parameter: FloatArray
+        get() = (model as BasePerceptronModel).parameter
 
     val natureList = labelList.map { Nature.parse(it) }.toTypedArray()
 
+    /**
+     * 缓存的词的数量上限
+     */
+    var wordCacheSize = DEFAULT_WORD_CACHE_SIZE
+        set(value) {
+            field = value
+            scoreCache = null
+        }
+
+    @Volatile
+    private var scoreCache: ScoreCache? = null
+
+    /**
+     * 一个词的缓存
+     * @param scores 当前词和前后缀特征在每个标签上的得分之和
+     * @param asPrev 作为前一个词时的特征ID
+     * @param asNext 作为后一个词时的特征ID
+     */
+    private class WordScore(val scores: DoubleArray, val asPrev: Int, val asNext: Int)
+
+    /**
+     * 和一份参数绑定的缓存。在线学习或者压缩替换参数后，整个缓存作废
+     */
+    private class ScoreCache(val parameter: FloatArray, val featureSet: FeatureSet, maxSize: Long) {
+        val words: Cache<String, WordScore> = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .build()
+
+        val begin: Int
+
+        val end: Int
+
+        init {
+            val buffer = java.lang.StringBuilder()
+            begin = POSPerceptronFeature.prevFeatureId(null, featureSet, buffer)
+            end = POSPerceptronFeature.nextFeatureId(null, featureSet, buffer)
+        }
+    }
+
     fun decodeToPos(sentence: List<String>): List<String> {
 
+        val featureSet = model.requireFeatureSet()
         val featureList = ArrayList<IntArrayList>(sentence.size)
         val buffer = java.lang.StringBuilder()
         for (i in 0 until sentence.size) {
@@ -38,12 +92,22 @@ class POSPerceptron(val model: Perceptron, val labelList: Array<String>) {
     }
 
     fun decode(sentence: List<String>): List<Nature> {
-        val buffer = java.lang.StringBuilder()
+        return decode(sentence, POSPerceptronFeature.s2s)
+    }
+
+    fun <T> decode(sentence: List<T>, sink: Function<T, String>): List<Nature> {
+
+        if (model is BasePerceptronModel && model.decodeQuickModel && wordCacheSize > 0) {
+            return decodeCached(sentence, sink)
+        }
+
         val size = sentence.size
+        val featureSet = model.requireFeatureSet()
+        val buffer = java.lang.StringBuilder()
         val featureList = ArrayList<IntArrayList>(size)
 
         for (i in 0 until size) {
-            featureList += extractFeatureVector(sentence, size, i, featureSet, buffer)
+            featureList += extractFeatureVector2(sentence, size, i, featureSet, sink, buffer)
         }
 
         val result = model.decode(featureList)
@@ -51,27 +115,103 @@ class POSPerceptron(val model: Perceptron, val labelList: Array<String>) {
         return result.map { natureList[it] }
     }
 
-    fun <T> decode(sentence: List<T>, sink: Function<T, String>): List<Nature> {
+
+    /**
+     * 使用词的得分缓存解码，结果和decodeQuick一致
+     */
+    private fun <T> decodeCached(sentence: List<T>, sink: Function<T, String>): List<Nature> {
+        val cache = scoreCache()
+        val parameter = cache.parameter
+        val labelSize = labelList.size
+        val limit = parameter.size / labelSize
 
         val size = sentence.size
-        val buffer = java.lang.StringBuilder()
-        val featureList = ArrayList<IntArrayList>(size)
+        val words = arrayOfNulls<WordScore>(size)
+        for (i in 0 until size) {
+            words[i] = wordScore(cache, sink.apply(sentence[i]))
+        }
 
+        val result = ArrayList<Nature>(size)
         for (i in 0 until size) {
-            featureList += extractFeatureVector2(sentence, size, i, featureSet, sink, buffer)
+            val scores = words[i]!!.scores
+            val prev = if (i > 0) words[i - 1]!!.asPrev else cache.begin
+            val next = if (i < size - 1) words[i + 1]!!.asNext else cache.end
+            val prevBase = if (prev in 0 until limit) prev * labelSize else -1
+            val nextBase = if (next in 0 until limit) next * labelSize else -1
+
+            var maxIndex = 0
+            var maxScore = Integer.MIN_VALUE.toDouble()
+            for (label in 0 until labelSize) {
+                var score = scores[label]
+                if (prevBase >= 0) {
+                    score += parameter[prevBase + label]
+                }
+                if (nextBase >= 0) {
+                    score += parameter[nextBase + label]
+                }
+                if (score > maxScore) {
+                    maxIndex = label
+                    maxScore = score
+                }
+            }
+            result.add(natureList[maxIndex])
         }
 
-        val result = model.decode(featureList)
+        return result
+    }
 
-        return result.map { natureList[it] }
+    private fun scoreCache(): ScoreCache {
+        val parameter = this.parameter
+        val cache = scoreCache
+        if (cache != null && cache.parameter === parameter) {
+            return cache
+        }
+        val fresh = ScoreCache(parameter, model.requireFeatureSet(), wordCacheSize)
+        scoreCache = fresh
+        return fresh
     }
 
+    private fun wordScore(cache: ScoreCache, word: String): WordScore {
+        val cached = cache.words.getIfPresent(word)
+        if (cached != null) {
+            return cached
+        }
+
+        val featureSet = cache.featureSet
+        val parameter = cache.parameter
+        val labelSize = labelList.size
+        val limit = parameter.size / labelSize
+
+        val buffer = java.lang.StringBuilder()
+        val vector = IntArrayList(8)
+        POSPerceptronFeature.addWordFeatures(word, featureSet, vector, buffer)
+
+        val scores = DoubleArray(labelSize)
+        val ids = vector.buffer
+        for (j in 0 until vector.size()) {
+            val id = ids[j]
+            if (id < limit) {
+                val base = id * labelSize
+                for (label in 0 until labelSize) {
+                    scores[label] += parameter[base + label]
+                }
+            }
+        }
+
+        val score = WordScore(scores,
+                POSPerceptronFeature.prevFeatureId(word, featureSet, buffer),
+                POSPerceptronFeature.nextFeatureId(word, featureSet, buffer))
+        cache.words.put(word, score)
+        return score
+    }
 
     /**
      * 特殊情况，只是查询一个词的词性
      */
     fun decode(word: String): Nature {
         val labelSize = labelList.size
+        val featureSet = model.requireFeatureSet()
+        val parameter = this.parameter
         val buffer = java.lang.StringBuilder()
         val vector = POSPerceptronFeature.extractFeatureVector(listOf(word), 1, 0, featureSet, buffer)
         val vectorBuffer = vector.buffer
@@ -117,6 +257,8 @@ class POSPerceptron(val model: Perceptron, val labelList: Array<String>) {
 
     companion object {
 
+        const val DEFAULT_WORD_CACHE_SIZE = 50_000L
+
         /**
          * 加载NER模型
          */
@@ -230,39 +372,91 @@ object POSPerceptronFeature {
         val vector = IntArrayList(11)
         buffer.clear()
 
-        var preWord = if (position > 0) sink.apply(sentence[position - 1]) else CHAR_BEGIN
+        val preWord = if (position > 0) sink.apply(sentence[position - 1]) else null
         val curWord = sink.apply(sentence[position])
-        var nextWord = if (position < size - 1) sink.apply(sentence[position + 1]) else CHAR_END
+        val nextWord = if (position < size - 1) sink.apply(sentence[position + 1]) else null
 
-        if (nextWord.length == 1) {
-            val c = nextWord[0]
-            val isP = Characters.isPunctuation(c)
-            if (isP || c == ' ') {
-                // 我认为标点符号和词性无关
-                nextWord = "XPU"
-            }
+        val pre = prevFeatureId(preWord, features, buffer)
+        if (pre >= 0) {
+            vector.add(pre)
         }
 
-        if (preWord.length == 1) {
-            val c = preWord[0]
+        //让同一个特征出现两次。我认为这个特征比较重要
+        val id = features.featureId(curWord)
+        if (id >= 0) {
+            vector.add(id)
+            vector.add(id)
+        }
+
+        val next = nextFeatureId(nextWord, features, buffer)
+        if (next >= 0) {
+            vector.add(next)
+        }
+
+        addAffixFeatures(curWord, features, vector, buffer)
+
+//
+//        //最后一列保留给特征向量使用
+        vector.add(0)
+
+        return vector
+    }
+
+    /**
+     * 标点符号和空格统一为XPU
+     */
+    private fun contextWord(word: String): String {
+        if (word.length == 1) {
+            val c = word[0]
             val isP = Characters.isPunctuation(c)
             if (isP || c == ' ') {
                 // 我认为标点符号和词性无关
-                preWord = "XPU"
+                return "XPU"
             }
         }
+        return word
+    }
 
-        addFeature(features, vector, buffer, preWord, '☺')
+    /**
+     * word作为前一个词时的特征ID
+     * @param word null表示句首
+     */
+    @JvmStatic
+    fun prevFeatureId(word: String?, features: FeatureSet, buffer: java.lang.StringBuilder): Int {
+        buffer.clear()
+        buffer.append(if (word == null) CHAR_BEGIN else contextWord(word)).append('☺')
+        val id = features.featureId(buffer)
+        buffer.clear()
+        return id
+    }
 
-        //让同一个特征出现两次。我认为这个特征比较重要
+    /**
+     * word作为后一个词时的特征ID
+     * @param word null表示句尾
+     */
+    @JvmStatic
+    fun nextFeatureId(word: String?, features: FeatureSet, buffer: java.lang.StringBuilder): Int {
+        buffer.clear()
+        buffer.append(if (word == null) CHAR_END else contextWord(word)).append('♂')
+        val id = features.featureId(buffer)
+        buffer.clear()
+        return id
+    }
+
+    /**
+     * 只和当前词有关的特征：当前词(两次)和前后缀。不包含上下文特征和最后的占位
+     */
+    @JvmStatic
+    fun addWordFeatures(curWord: String, features: FeatureSet, vector: IntArrayList, buffer: java.lang.StringBuilder) {
         val id = features.featureId(curWord)
         if (id >= 0) {
             vector.add(id)
             vector.add(id)
         }
+        addAffixFeatures(curWord, features, vector, buffer)
+    }
 
-        addFeature(features, vector, buffer, nextWord, '♂')
-
+    private fun addAffixFeatures(curWord: String, features: FeatureSet, vector: IntArrayList, buffer: java.lang.StringBuilder) {
         val length = curWord.length
 
         // prefix
@@ -290,13 +484,6 @@ object POSPerceptronFeature {
                 }
             }
         }
-
-
-//
-//        //最后一列保留给特征向量使用
-        vector.add(0)
-
-        return vector
     }
 
     private fun addFeature(features: FeatureSet, vector: IntArrayList, stringBuilder: StringBuilder, vararg parts: Any) {
@@ -320,6 +507,11 @@ class POSPerceptronTrainer {
 
     lateinit var featureSet: FeatureSet
 
+    /**
+     * 构建FeatureSet时，出现次数少于这个值的特征被删除
+     */
+    var minFeatureFrequency = 1
+
     /**
      * 保存 词性->词性ID
      */
@@ -451,27 +643,19 @@ class POSPerceptronTrainer {
         println("开始构建POS FeatureSet")
         val t1 = System.currentTimeMillis()
 
-        val builder = DATFeatureSetBuilder(labelMap.size)
-        val fit = Consumer<String> { f ->
-            builder.put(f)
-        }
+        val builder = ParallelFeatureSetBuilder(labelMap.size)
 
-        corposFiles.forEach { file ->
-            println(file.absolutePath)
-            file.useLines { lines ->
-                lines.forEach { line ->
-                    val flatWords = line.parseToFlatWords()
-                    val words = flatWords.map { CharNormUtils.convert(it.word) }.filter { it.isNotEmpty() }
-                    for (i in 0 until words.size) {
-                        extractFeature(words, words.size, i, fit)
-                    }
-                }
+        builder.count(corposFiles) { line, fit ->
+            val flatWords = line.parseToFlatWords()
+            val words = flatWords.map { CharNormUtils.convert(it.word) }.filter { it.isNotEmpty() }
+            for (i in 0 until words.size) {
+                extractFeature(words, words.size, i, fit)
             }
         }
 
         println("Start build featureSet ...")
 
-        this.featureSet = builder.build()
+        this.featureSet = builder.build(minFeatureFrequency)
 
         println("FeatureSet构建完成,用时${System.currentTimeMillis() - t1}ms")
     }
@@ -482,32 +666,28 @@ class POSPerceptronTrainer {
 /**
  * 词性评估
  */
-class POSEvaluateRunner(private val sampleList: List<TrainSample>) : EvaluateRunner {
+class POSEvaluateRunner @JvmOverloads constructor(
+        private val sampleList: List<TrainSample>,
+        private val threadNumber: Int = ParallelEvaluator.defaultThreadNumber) : EvaluateRunner {
 
     override fun run(k: Int, model: Perceptron) {
 
-        var total = 0.0
-        var right = 0.0
-//        var targetSampleSize = sampleList.size
-//        var count = 0
-//        System.out.print("Evaluating 0%")
-        sampleList.forEach { sample ->
-            // 抽样10%进行验证
-//                count++
-            total += sample.label.size
-            val result = model.decode(sample.featureMatrix)
-            for (x in 0 until result.size) {
-                if (sample.label[x] == result[x]) {
-                    right++
-                }
-            }
-//                if (count % 2000 == 0) {
-//                    System.out.print("\rEvaluating ${"%.2f".format(count * 100.0 / targetSampleSize)}%")
-//
-//                }
-        }
+        // total, right
+        val counter = ParallelEvaluator.evaluate(sampleList, threadNumber,
+                { LongArray(2) },
+                { sample, count ->
+                    count[0] += sample.label.size
+                    val result = model.decode(sample.featureMatrix)
+                    for (x in 0 until result.size) {
+                        if (sample.label[x] == result[x]) {
+                            count[1]++
+                        }
+                    }
+                },
+                { a, b -> a[0] += b[0]; a[1] += b[1] })
 
-        System.out.println("P = ${"%.3f".format((right / total))}\n")
+        System.out.print("\r")
+        System.out.println("P = ${"%.3f".format((counter[1].toDouble() / counter[0]))}\n")
     }
 
-}
\ No newline at end of file
+}
@@ -7,6 +7,7 @@ import com.mayabot.nlp.logging.InternalLogger;
 import com.mayabot.nlp.logging.InternalLoggerFactory;
 import com.mayabot.nlp.perceptron.FeatureSet;
 import com.mayabot.nlp.resources.NlpResource;
+import com.mayabot.nlp.segment.common.WordSpanConsumer;
 import com.mayabot.nlp.utils.CharNormUtils;
 
 import java.io.BufferedInputStream;
@@ -56,4 +57,18 @@ public class PerceptronCwsService {
         List<String> strings = perceptron.decodeToWordList(sentence);
         return strings;
     }
+
+    /**
+     * 对已经规范化的字符数组分词，依次回调每个词的位置和长度，不创建字符串
+     *
+     * @param text     规范化后的字符数组
+     * @param consumer 词的位置和长度
+     */
+    public void splitWord(char[] text, WordSpanConsumer consumer) {
+        perceptron.decodeWords(text, consumer);
+    }
+
+    public CWSPerceptron getPerceptron() {
+        return perceptron;
+    }
 }
@@ -5,8 +5,10 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.mayabot.nlp.MynlpEnv;
 import com.mayabot.nlp.Mynlps;
+import com.mayabot.nlp.SettingItem;
 import com.mayabot.nlp.logging.InternalLogger;
 import com.mayabot.nlp.logging.InternalLoggerFactory;
+import com.mayabot.nlp.perceptron.BasePerceptronModel;
 import com.mayabot.nlp.perceptron.FeatureSet;
 import com.mayabot.nlp.perceptron.solution.ner.NERPerceptron;
 import com.mayabot.nlp.resources.NlpResource;
@@ -17,6 +19,7 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @Singleton
@@ -27,6 +30,11 @@ public class PerceptronNerService {
 
     static InternalLogger logger = InternalLoggerFactory.getInstance(PerceptronNerService.class);
 
+    /**
+     * NER解码的集束宽度，0表示精确的viterbi
+     */
+    public static final SettingItem<Integer> beamSizeSetting = SettingItem.intSetting("ner.beam.size", 0);
+
     @Inject
     public PerceptronNerService(MynlpEnv mynlp,
                                 PerceptronPosService posService
@@ -57,14 +65,39 @@ public class PerceptronNerService {
                 new BufferedInputStream(parameterResource.openInputStream()),
                 new BufferedInputStream(new FileInputStream(featureDatFile)),
                 new BufferedInputStream(labelResource.openInputStream()));
+
+        setBeamSize(mynlp.getSettings().get(beamSizeSetting));
     }
 
     /**
-     * 返回双层嵌套结构的句子列表
+     * 设置集束搜索的宽度
+     *
+     * @param beamSize 0表示精确的viterbi
+     */
+    public void setBeamSize(int beamSize) {
+        if (perceptron.getModel() instanceof BasePerceptronModel) {
+            ((BasePerceptronModel) perceptron.getModel()).setBeamSize(beamSize);
+        }
+    }
+
+    /**
+     * 返回双层嵌套结构的句子列表，原文按照WordTerm的offset还原
      * @param list
      * @return
      */
     public static List<WordTerm> toNerComposite(List<WordTerm> list) {
+        return toNerComposite(null, list);
+    }
+
+    /**
+     * 返回双层嵌套结构的句子列表。
+     * 组合词按照子词的offset直接从原文中截取，不再逐个拼接子词
+     *
+     * @param text 原文，为null时按照WordTerm的offset还原一次
+     * @param list
+     * @return
+     */
+    public static List<WordTerm> toNerComposite(String text, List<WordTerm> list) {
 
         boolean findLab = false;
         for (WordTerm x : list) {
@@ -77,72 +110,116 @@ public class PerceptronNerService {
             return list;
         }
 
+        if (text == null) {
+            text = rebuildText(list);
+        }
 
         List<WordTerm> result = new ArrayList<>(list.size());
-        List<WordTerm> temp = null;
 
+        // 当前实体的第一个词
+        int from = -1;
         String nerPOS = null;
-        for (WordTerm word : list) {
+        for (int i = 0; i < list.size(); i++) {
+            WordTerm word = list.get(i);
             String label = word.getCustomFlag();
 
             if ("O".equals(label) || "S".equals(label)) {
-                if (temp != null) {
-
-                    StringBuilder bigName = new StringBuilder();
-                    for (WordTerm w : temp) {
-                        bigName.append(w.word);
-                    }
-                    WordTerm group = new WordTerm(bigName.toString(), Nature.valueOf(nerPOS));
-                    group.setOffset(temp.get(0).getOffset());
-                    group.setSubword(temp);
-                    temp = null;
+                if (from != -1) {
+                    result.add(composite(text, list, from, i, nerPOS));
+                    from = -1;
                     nerPOS = null;
-
-                    result.add(group);
                 }
                 result.add(word);
             } else {
                 //B M E
-                if (temp == null) {
-                    temp = new ArrayList<>();
+                if (from == -1) {
+                    from = i;
                     //B-nt
                     nerPOS = label.substring(2);
                 }
-                temp.add(word);
+            }
+        }
+
+        if (from != -1) {
+            result.add(composite(text, list, from, list.size(), nerPOS));
+        }
+
+        return result;
+    }
 
+    /**
+     * 按照offset把词放回原来的位置，词之间的空隙用空格填充。
+     * 有offset为负数或者词重叠时返回null，组合词改为拼接子词
+     */
+    static String rebuildText(List<WordTerm> list) {
+        int length = 0;
+        for (WordTerm w : list) {
+            if (w.getOffset() < length) {
+                return null;
             }
+            length = w.getOffset() + w.length();
+        }
+        char[] chars = new char[length];
+        Arrays.fill(chars, ' ');
+        for (WordTerm w : list) {
+            w.word.getChars(0, w.length(), chars, w.getOffset());
+        }
+        return new String(chars);
+    }
+
+    private static WordTerm composite(String text, List<WordTerm> list, int from, int to, String nerPOS) {
+        List<WordTerm> subword = new ArrayList<>(list.subList(from, to));
+
+        WordTerm first = subword.get(0);
+        WordTerm last = subword.get(subword.size() - 1);
+        int begin = first.getOffset();
+        int end = last.getOffset() + last.length();
+
+        int length = 0;
+        for (WordTerm w : subword) {
+            length += w.length();
         }
 
-        if (temp != null) {
-            StringBuilder bigName = new StringBuilder();
-            for (WordTerm w : temp) {
+        String name;
+        if (text != null && begin >= 0 && end <= text.length() && end - begin == length) {
+            name = text.substring(begin, end);
+        } else {
+            StringBuilder bigName = new StringBuilder(length);
+            for (WordTerm w : subword) {
                 bigName.append(w.word);
             }
-            WordTerm group = new WordTerm(bigName.toString(), Nature.valueOf(nerPOS));
-            group.setSubword(temp);
-            temp = null;
-            nerPOS = null;
-
-            result.add(group);
+            name = bigName.toString();
         }
 
-        return result;
+        WordTerm group = new WordTerm(name, Nature.valueOf(nerPOS), begin);
+        group.setSubword(subword);
+        return group;
     }
 
     /**
-     * 要求WordTerm已经词性填充完成
+     * 要求WordTerm已经词性填充完成，原文按照WordTerm的offset还原
      *
      * @param list
      */
     public List<WordTerm> ner(List<WordTerm> list, boolean pos) {
+        return ner(null, list, pos);
+    }
+
+    /**
+     * 要求WordTerm已经词性填充完成
+     *
+     * @param text 分词的原文，WordTerm的offset指向原文
+     * @param list
+     */
+    public List<WordTerm> ner(String text, List<WordTerm> list, boolean pos) {
 
         if (pos) {
             posService.posFromTerm(list);
         }
 
-        perceptron.decode(list);
+        perceptron.decodeWindows(list);
 
-        return toNerComposite(list);
+        return toNerComposite(text, list);
     }
 
     /**
@@ -153,11 +230,13 @@ public class PerceptronNerService {
      */
     public List<WordTerm> ner(List<String> list) {
         List<WordTerm> list2 = Lists.newArrayListWithCapacity(list.size());
+        int offset = 0;
         for (String w : list) {
-            list2.add(new WordTerm(w, Nature.x));
+            list2.add(new WordTerm(w, Nature.x, offset));
+            offset += w.length();
         }
 
-        return ner(list2, true);
+        return ner(String.join("", list), list2, true);
     }
 
 
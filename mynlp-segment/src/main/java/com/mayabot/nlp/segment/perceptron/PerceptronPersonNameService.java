@@ -49,6 +49,11 @@ public class PerceptronPersonNameService {
                 new BufferedInputStream(parameterResource.openInputStream()),
                 new BufferedInputStream(new FileInputStream(featureDatFile)));
 
+        // 有语料统计的字符表时优先使用，否则使用从模型推断的字符表
+        NlpResource gateResource = mynlp.loadResource("nr-ner/gate.txt");
+        if (gateResource != null) {
+            this.perceptron.setGate(PersonNameGate.load(gateResource.openInputStream()));
+        }
     }
 
     public List<PersonName> findName(String sentence) {
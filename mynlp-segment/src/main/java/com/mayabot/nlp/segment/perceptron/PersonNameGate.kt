@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.segment.perceptron
+
+import com.mayabot.nlp.logging.InternalLoggerFactory
+import com.mayabot.nlp.perceptron.PerceptronModel
+import java.io.File
+import java.io.InputStream
+import java.util.*
+
+/**
+ * 人名识别的预过滤。
+ *
+ * 记录可能作为姓(人名第一个字)和名(人名其余的字)的字符。
+ * 只有"姓+名"相邻出现的位置才可能是人名，感知机只需要在这些位置附近的窗口中解码，
+ * 大部分不包含人名的句子可以完全跳过解码。
+ *
+ * 字符表来自训练语料(B标签的字为姓，M、E标签的字为名)，
+ * 没有语料时也可以从模型参数中推断。
+ *
+ * @author jimichan
+ */
+class PersonNameGate(
+        private val surname: BitSet,
+        private val given: BitSet) {
+
+    fun isSurname(c: Char) = surname.get(c.toInt())
+
+    fun isGiven(c: Char) = given.get(c.toInt())
+
+    /**
+     * position开始的两个字可能是一个人名的开头
+     */
+    fun maybeNameAt(sentence: CharArray, position: Int): Boolean {
+        return position + 1 < sentence.size
+                && surname.get(sentence[position].toInt())
+                && given.get(sentence[position + 1].toInt())
+    }
+
+    /**
+     * 计算需要解码的窗口，相互重叠的窗口会合并
+     * @return 依次为窗口的[from,to)，空数组表示句子中没有人名
+     */
+    fun windows(sentence: CharArray): IntArray {
+        var result: IntArray? = null
+        var count = 0
+        var lastTo = -1
+        for (i in 0 until sentence.size - 1) {
+            if (!maybeNameAt(sentence, i)) {
+                continue
+            }
+            val from = Math.max(0, i - CONTEXT)
+            val to = Math.min(sentence.size, i + MAX_NAME_LENGTH + CONTEXT)
+            if (count > 0 && from <= lastTo) {
+                result!![count - 1] = to
+            } else {
+                if (result == null) {
+                    result = IntArray(8)
+                } else if (count + 2 > result.size) {
+                    result = result.copyOf(result.size * 2)
+                }
+                result[count++] = from
+                result[count++] = to
+            }
+            lastTo = to
+        }
+        return if (result == null) EMPTY else result.copyOf(count)
+    }
+
+    /**
+     * 在线学习新的人名时，把人名的字加入字符表
+     */
+    @Synchronized
+    fun addName(name: String) {
+        if (name.length < 2) {
+            return
+        }
+        surname.set(name[0].toInt())
+        for (i in 1 until name.length) {
+            given.set(name[i].toInt())
+        }
+    }
+
+    fun save(file: File) {
+        file.bufferedWriter().use {
+            it.write(chars(surname))
+            it.write("\n")
+            it.write(chars(given))
+            it.write("\n")
+        }
+    }
+
+    companion object {
+
+        private val logger = InternalLoggerFactory.getInstance(PersonNameGate::class.java)
+
+        /**
+         * 人名最长的字数
+         */
+        const val MAX_NAME_LENGTH = 4
+
+        /**
+         * 窗口在候选人名前后额外包含的字数，和特征模板的上下文范围相当
+         */
+        const val CONTEXT = 3
+
+        private val EMPTY = IntArray(0)
+
+        private fun chars(set: BitSet): String {
+            val sb = StringBuilder()
+            var i = set.nextSetBit(0)
+            while (i >= 0) {
+                sb.append(i.toChar())
+                i = set.nextSetBit(i + 1)
+            }
+            return sb.toString()
+        }
+
+        private fun bits(chars: String): BitSet {
+            val set = BitSet(0x10000)
+            chars.forEach { set.set(it.toInt()) }
+            return set
+        }
+
+        /**
+         * 读取save保存的字符表。第一行是姓，第二行是名
+         */
+        @JvmStatic
+        fun load(input: InputStream): PersonNameGate {
+            val lines = input.bufferedReader().use { it.readLines() }
+            return PersonNameGate(bits(lines.getOrElse(0) { "" }), bits(lines.getOrElse(1) { "" }))
+        }
+
+        @JvmStatic
+        fun load(file: File) = load(file.inputStream())
+
+        /**
+         * 从人名训练语料中统计字符表
+         *
+         * 记﹍者﹍王B﹍黎E 这样的格式
+         * @param minCount 出现次数少于minCount的字不计入
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun build(files: List<File>, minCount: Int = 1): PersonNameGate {
+            val surnameCount = IntArray(0x10000)
+            val givenCount = IntArray(0x10000)
+            files.forEach { file ->
+                file.useLines { lines ->
+                    lines.filter { it.isNotBlank() }.forEach { line ->
+                        line.split("﹍").forEach { item ->
+                            if (item.length >= 2) {
+                                when (item[1]) {
+                                    'B' -> surnameCount[item[0].toInt()]++
+                                    'M', 'E' -> givenCount[item[0].toInt()]++
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            val surname = BitSet(0x10000)
+            val given = BitSet(0x10000)
+            for (c in 0 until 0x10000) {
+                if (surnameCount[c] >= minCount) {
+                    surname.set(c)
+                }
+                if (givenCount[c] >= minCount) {
+                    given.set(c)
+                }
+            }
+            logger.info("PersonNameGate surname ${surname.cardinality()} given ${given.cardinality()}")
+            return PersonNameGate(surname, given)
+        }
+
+        /**
+         * 没有训练语料时，从模型的单字特征推断字符表。
+         * 当前字特征(X2)在B标签上权重为正的字是姓，在M或E标签上权重为正的字是名
+         */
+        @JvmStatic
+        fun fromModel(model: PerceptronModel): PersonNameGate {
+            val featureSet = model.featureSet()
+            val parameter = model.parameter
+            val labelCount = model.labelCount
+            val surname = BitSet(0x10000)
+            val given = BitSet(0x10000)
+            val buffer = StringBuilder()
+            for (c in 0 until 0x10000) {
+                buffer.setLength(0)
+                buffer.append(c.toChar()).append('2')
+                val id = featureSet.featureId(buffer)
+                if (id < 0 || (id + 1) * labelCount > parameter.size) {
+                    continue
+                }
+                val base = id * labelCount
+                if (parameter[base + PersonNamePerceptron.B] > 0) {
+                    surname.set(c)
+                }
+                if (parameter[base + PersonNamePerceptron.M] > 0 || parameter[base + PersonNamePerceptron.E] > 0) {
+                    given.set(c)
+                }
+            }
+            return PersonNameGate(surname, given)
+        }
+    }
+}
@@ -29,6 +29,7 @@ import java.io.File
 import java.io.InputStream
 import java.util.*
 import java.util.function.Consumer
+import java.util.function.ToLongFunction
 import kotlin.collections.ArrayList
 
 
@@ -42,12 +43,25 @@ data class PersonName(val name: String, val offset: Int)
  */
 class PersonNamePerceptron(val model: Perceptron) {
 
+    init {
+        // 哈希特征的模型直接计算特征ID，其他模型需要特征集合
+        if (model !is HashPerceptronModel) {
+            model.requireFeatureSet()
+        }
+    }
+
+    /**
+     * 人名预过滤。不为null时只在可能包含人名的窗口中解码
+     */
+    var gate: PersonNameGate? = null
+
     /**
      * 保存分词模型
      */
     fun save(dir: File) {
         dir.mkdirs()
         model.save(dir)
+        gate?.save(File(dir, "gate.txt"))
     }
 
     fun compress(ratio: Double, threshold: Double) {
@@ -63,39 +77,128 @@ class PersonNamePerceptron(val model: Perceptron) {
      *
      */
     fun learn(sentence: String) {
-        val id = forOnlineLearn(sentence, model.featureSet())
-        model.makeSureParameter(id)
-        val sample = sentenceToSample(sentence, model.featureSet())
-        model.update(sample)
+        model.updateCopyOnWrite(listOf(toLearnSample(sentence)))
+    }
+
+    /**
+     * 后台学习线程，第一次调用learnAsync时启动
+     */
+    private val learnerLazy = lazy {
+        OnlineLearner<String>(model) { toLearnSample(it) }
+    }
+
+    private val learner by learnerLazy
+
+    /**
+     * 把人名样例放入后台学习队列，立即返回
+     * @return false 表示队列已满，样例被丢弃
+     */
+    fun learnAsync(sentence: String): Boolean {
+        return learner.offer(sentence)
+    }
+
+    /**
+     * 等待learnAsync提交的样例全部学习完成
+     */
+    fun awaitLearned() {
+        learner.flush()
+    }
+
+    /**
+     * @return learnAsync提交的样例中学习失败被丢弃的数量
+     */
+    fun learnFailedCount(): Long {
+        return if (learnerLazy.isInitialized()) learner.failedCount else 0
+    }
+
+    private fun toLearnSample(sentence: String): TrainSample {
+        gate?.let { gate ->
+            sentence.split(" ").filter { it.length > 1 }.forEach { gate.addName(CharNormUtils.convert(it)) }
+        }
+        if (model is HashPerceptronModel) {
+            return sentenceToSample(sentence, model.hasher)
+        }
+        val featureSet = model.requireFeatureSet()
+        forOnlineLearn(sentence, featureSet)
+        return sentenceToSample(sentence, featureSet)
     }
 
     /**
      * 计算返回人名
      */
     fun findPersonName(sentence: CharArray): List<PersonName> {
+        return findPersonName(sentence, gate)
+    }
+
+    /**
+     * 计算返回人名
+     * @param gate 为null时对整个句子解码
+     */
+    fun findPersonName(sentence: CharArray, gate: PersonNameGate?): List<PersonName> {
         val result = ArrayList<PersonName>()
-        val decode = decode(sentence, false)
 
+        if (gate == null) {
+            collectNames(sentence, 0, decode(sentence, false), result)
+            return result
+        }
+
+        val windows = gate.windows(sentence)
+        var w = 0
+        while (w < windows.size) {
+            val from = windows[w]
+            val to = windows[w + 1]
+            collectNames(sentence, from, decode(sentence, from, to), result)
+            w += 2
+        }
+
+        return result
+    }
+
+    /**
+     * 从解码结果中提取人名
+     * @param from 标签序列在句子中的起始位置
+     */
+    private fun collectNames(sentence: CharArray, from: Int, decode: IntArray, result: MutableList<PersonName>) {
         var p = -1
         for (i in 0 until decode.size) {
             val f = decode[i]
             when (f) {
                 B -> p = i
                 E -> if (p != -1) {
-                    val name = String(sentence, p, i - p + 1)
-                    val offset = p
-                    if (offset == 0 && name.length == sentence.size && name.length > 3) {
+                    val offset = from + p
+                    val length = i - p + 1
+                    if (offset == 0 && length == sentence.size && length > 3) {
 
                     } else {
-                        result += PersonName(name, offset)
+                        result += PersonName(String(sentence, offset, length), offset)
                     }
                     p = -1
                 }
                 O -> p = -1
             }
         }
+    }
 
-        return result
+    /**
+     * 只解码句子中[from,to)的部分，特征仍然使用完整句子的上下文
+     */
+    private fun decode(sentence: CharArray, from: Int, to: Int): IntArray {
+        val featureList = ArrayList<IntArrayList>(to - from)
+
+        if (model is HashPerceptronModel) {
+            val hasher = model.hasher
+            for (i in from until to) {
+                featureList += extractFeatureVector(sentence, sentence.size, i, hasher)
+            }
+        } else {
+            val buffer = StringBuilder()
+            val featureSet = model.requireFeatureSet()
+            for (i in from until to) {
+                featureList += extractFeatureVector(sentence, sentence.size, i, featureSet, buffer)
+            }
+        }
+
+        return model.decode(featureList)
     }
 
     fun decode(sentence: CharArray, convert: Boolean): IntArray {
@@ -104,17 +207,35 @@ class PersonNamePerceptron(val model: Perceptron) {
             CharNormUtils.convert(sentence)
         }
 
-        val buffer = StringBuilder()
-
         val featureList = ArrayList<IntArrayList>(sentence.size)
 
-        for (i in 0 until sentence.size) {
-            featureList += extractFeatureVector(sentence, sentence.size, i, model.featureSet(), buffer)
+        if (model is HashPerceptronModel) {
+            val hasher = model.hasher
+            for (i in 0 until sentence.size) {
+                featureList += extractFeatureVector(sentence, sentence.size, i, hasher)
+            }
+        } else {
+            val buffer = StringBuilder()
+            val featureSet = model.requireFeatureSet()
+            for (i in 0 until sentence.size) {
+                featureList += extractFeatureVector(sentence, sentence.size, i, featureSet, buffer)
+            }
         }
 
         return model.decode(featureList)
     }
 
+    /**
+     * 转换为哈希特征的模型
+     * @param bucketBits 权重表大小为 2^bucketBits
+     */
+    fun toHashModel(bucketBits: Int): PersonNamePerceptron {
+        val dat = model as? PerceptronModel
+                ?: throw UnsupportedOperationException("${model.javaClass.simpleName} can not convert to hash model")
+        return PersonNamePerceptron(HashPerceptronModel.convert(dat, bucketBits,
+                ToLongFunction { NRPerceptronFeature.hashOfFeature(it) }))
+    }
+
 
     companion object {
 
@@ -143,16 +264,30 @@ class PersonNamePerceptron(val model: Perceptron) {
         }
 
 
+        /**
+         * 加载模型，预过滤的字符表从模型参数中推断
+         */
         @JvmStatic
         fun load(parameterBin: InputStream, featureBin: InputStream): PersonNamePerceptron {
             val model = PerceptronModel.load(parameterBin, featureBin, true)
-            return PersonNamePerceptron(model)
+            val perceptron = PersonNamePerceptron(model)
+            perceptron.gate = PersonNameGate.fromModel(model)
+            return perceptron
         }
 
         @JvmStatic
         fun load(dir: File): PersonNamePerceptron {
-            return load(File(dir, "parameter.bin").inputStream().buffered(),
-                    File(dir, "feature.dat").inputStream().buffered())
+            val perceptron = if (File(dir, "hash.bin").exists()) {
+                PersonNamePerceptron(HashPerceptronModel.load(dir))
+            } else {
+                load(File(dir, "parameter.bin").inputStream().buffered(),
+                        File(dir, "feature.dat").inputStream().buffered())
+            }
+            val gateFile = File(dir, "gate.txt")
+            if (gateFile.exists()) {
+                perceptron.gate = PersonNameGate.load(gateFile)
+            }
+            return perceptron
         }
 
     }
@@ -254,6 +389,40 @@ object NRPerceptronSample {
         return TrainSample(list, tagList)
     }
 
+    /**
+     * 在线学习的句子转换为哈希特征的TrainSample
+     *
+     * 演 员 陈汝烨 在 京 表 演 成 功
+     */
+    fun sentenceToSample(text: String, hasher: FeatureHasher): TrainSample {
+        val juzi = CharArray(text.length)
+        val tags = IntArray(text.length)
+        var len = 0
+        text.split(" ").filter { it.isNotEmpty() }.forEach { word ->
+            val chars = CharNormUtils.convert(word)
+            if (chars.length == 1) {
+                juzi[len] = chars[0]
+                tags[len++] = PersonNamePerceptron.O
+            } else {
+                for (i in 0 until chars.length) {
+                    juzi[len] = chars[i]
+                    tags[len++] = when (i) {
+                        0 -> PersonNamePerceptron.B
+                        chars.length - 1 -> PersonNamePerceptron.E
+                        else -> PersonNamePerceptron.M
+                    }
+                }
+            }
+        }
+
+        val list = mutableListOf<IntArrayList>()
+        for (i in 0 until len) {
+            list.add(extractFeatureVector(juzi, len, i, hasher))
+        }
+
+        return TrainSample(list, tags.copyOf(len))
+    }
+
 }
 
 /**
@@ -263,6 +432,16 @@ class NRPerceptronTrainer {
 
     lateinit var featureSet: FeatureSet
 
+    /**
+     * 构建FeatureSet时，出现次数少于这个值的特征被删除
+     */
+    var minFeatureFrequency = 1
+
+    /**
+     * 中间迭代评估时使用的验证集比例，最后一轮总是使用完整的验证集
+     */
+    var evaluateSampleRatio = 1.0
+
 
     fun train(trainFileDir: File, evaluateFile: File, maxIter: Int, threadNumber: Int): PersonNamePerceptron {
 
@@ -284,16 +463,20 @@ class NRPerceptronTrainer {
         println("Start train ...")
 
         val trainer = PerceptronTrainer(featureSet, tagList.size, sampleList,
-                EvaluateRunner { k, it ->
+                SubsampleEvaluateRunner(evaluateSample, evaluateSampleRatio) { list, it ->
                     val model = PersonNamePerceptron(it)
 //                    if (k in setOf(18, 17,104,106,117,108,45,74,33,46,47,48)) {
 //                        model.save(File("data.work/nr-$k"))
 //                    }
-                    NREvaluate.evaluate(evaluateSample, model)
+                    NREvaluate.evaluate(list, model)
                 }, maxIter, false)
 
-        return PersonNamePerceptron(trainer.train(threadNumber))
+        val perceptron = PersonNamePerceptron(trainer.train(threadNumber))
+        perceptron.gate = PersonNameGate.build(allFiles)
 
+        NREvaluate.gateRecall(evaluateSample, perceptron)
+
+        return perceptron
     }
 
 
@@ -304,27 +487,18 @@ class NRPerceptronTrainer {
     private fun prepareFeatureSet(files: List<File>) {
         println("开始构建FeatureSet")
         val t1 = System.currentTimeMillis()
-        val builder = DATFeatureSetBuilder(tagList.size)
-
-        val fit = Consumer<String> { f ->
-            builder.put(f)
-        }
-
-        files.forEach { dictFile ->
-            println(dictFile.absolutePath)
-            val lines = dictFile.readLines()
-
-            lines.forEach { line ->
-                val juzi = sample2Juzi(line)
-                val len = juzi.length
-                var chars = juzi.toCharArray()
-                for (i in 0 until len) {
-                    extractFeature(chars, len, i, fit)
-                }
+        val builder = ParallelFeatureSetBuilder(tagList.size)
+
+        builder.count(files) { line, fit ->
+            val juzi = sample2Juzi(line)
+            val len = juzi.length
+            var chars = juzi.toCharArray()
+            for (i in 0 until len) {
+                extractFeature(chars, len, i, fit)
             }
         }
 
-        featureSet = builder.build()
+        featureSet = builder.build(minFeatureFrequency)
         println("FeatureSet构建完成,用时${System.currentTimeMillis() - t1} ms")
     }
 
@@ -372,48 +546,66 @@ object NREvaluate {
     data class EvaluateSample(val juzi: String, val goldNames: List<PersonName>)
 
     /**
-    正确率 = 正确识别的个体总数 / 识别出的个体总数
-    召回率 = 正确识别的个体总数 / 测试集中存在的个体总数
-    F值 = 正确率 * 召回率 * 2 / (正确率 + 召回率)
+     * 预过滤的召回率：以不过滤时解码出的人名为准，过滤后还能找到的比例。
+     * 同时输出两者的耗时
+     *
+     * @return 召回率，和evaluate一样是百分数。没有预过滤或者没有人名时为100
      */
-    fun evaluate(evaluateSample: List<EvaluateSample>, segmenter: PersonNamePerceptron): DoubleArray {
+    fun gateRecall(evaluateSample: List<EvaluateSample>, model: PersonNamePerceptron): Double {
+        val gate = model.gate ?: return 100.0
 
-        //样本名字总数
-        var goldTotal = 0
+        val sentences = evaluateSample.map { it.juzi.toCharArray() }
+
+        val t1 = System.currentTimeMillis()
+        val full = sentences.map { model.findPersonName(it, null) }
+        val t2 = System.currentTimeMillis()
+        val gated = sentences.map { model.findPersonName(it, gate) }
+        val t3 = System.currentTimeMillis()
+
+        var total = 0
+        var found = 0
+        for (i in 0 until sentences.size) {
+            total += full[i].size
+            found += full[i].count { gated[i].contains(it) }
+        }
+        val skipped = sentences.count { gate.windows(it).isEmpty() }
 
-        // 预测出来多少个名字
-        var predTotal = 0
+        val recall = if (total == 0) 100.0 else found * 100.0 / total
+        println("Gate recall %.2f , skipped sentences %d/%d , full %d ms , gated %d ms".format(
+                recall, skipped, sentences.size, t2 - t1, t3 - t2))
+        return recall
+    }
 
-        //正确的数量
-        var correct = 0
+    /**
+    正确率 = 正确识别的个体总数 / 识别出的个体总数
+    召回率 = 正确识别的个体总数 / 测试集中存在的个体总数
+    F值 = 正确率 * 召回率 * 2 / (正确率 + 召回率)
+     */
+    @JvmOverloads
+    fun evaluate(evaluateSample: List<EvaluateSample>, segmenter: PersonNamePerceptron,
+                 threadNumber: Int = ParallelEvaluator.defaultThreadNumber): DoubleArray {
 
         val t1 = System.currentTimeMillis()
 
-        for (ex in evaluateSample) {
-            val text = ex.juzi
-            val goldNames = ex.goldNames
-            val predNames = segmenter.findPersonName(text.toCharArray())
-            goldTotal += goldNames.size
-
-            predTotal += predNames.size
+        // 样本名字总数, 预测出来多少个名字, 正确的数量
+        val counter = ParallelEvaluator.evaluate(evaluateSample, threadNumber,
+                { IntArray(3) },
+                { ex, count ->
+                    val goldNames = ex.goldNames
+                    val predNames = segmenter.findPersonName(ex.juzi.toCharArray())
+                    count[0] += goldNames.size
+                    count[1] += predNames.size
+                    for (x in predNames) {
+                        if (goldNames.contains(x)) {
+                            count[2]++
+                        }
+                    }
+                },
+                { a, b -> for (i in 0 until 3) a[i] += b[i] })
 
-            for (x in predNames) {
-                if (goldNames.contains(x)) {
-                    correct++
-                } else {
-//                    println(text)
-//                    println("错误的人名"+x)
-                }
-            }
-//            for (x in goldNames) {
-//                if (predNames.contains(x)) {
-//                    //correct++
-//                }else{
-//                    println(text)
-//                    println("没事别的人名"+x)
-//                }
-//            }
-        }
+        val goldTotal = counter[0]
+        val predTotal = counter[1]
+        val correct = counter[2]
 
         fun prf(goldTotal: Int, predTotal: Int, correct: Int): DoubleArray {
             val precision = correct * 100.0 / predTotal
@@ -468,6 +660,42 @@ object NRPerceptronFeature {
         return vector
     }
 
+    /**
+     * 哈希特征版本，模板和字符串版本一一对应
+     */
+    fun extractFeatureVector(sentence: CharArray, size: Int, position: Int, hasher: FeatureHasher): IntArrayList {
+        val vector = IntArrayList(8)
+
+        val pre2Char = if (position >= 2) sentence[position - 2] else CHAR_BEGIN
+        val preChar = if (position >= 1) sentence[position - 1] else CHAR_BEGIN
+        val curChar = sentence[position]
+        val nextChar = if (position < size - 1) sentence[position + 1] else CHAR_END
+        val next2Char = if (position < size - 2) sentence[position + 2] else CHAR_END
+
+        vector.add(hasher.featureId(FeatureHasher.hash(1, preChar)))
+        vector.add(hasher.featureId(FeatureHasher.hash(2, curChar)))
+        vector.add(hasher.featureId(FeatureHasher.hash(3, nextChar)))
+
+        vector.add(hasher.featureId(FeatureHasher.hash(4, pre2Char, preChar)))
+        vector.add(hasher.featureId(FeatureHasher.hash(5, preChar, curChar)))
+        vector.add(hasher.featureId(FeatureHasher.hash(6, curChar, nextChar)))
+        vector.add(hasher.featureId(FeatureHasher.hash(7, nextChar, next2Char)))
+
+        vector.add(0)
+        return vector
+    }
+
+    /**
+     * 把字符串形式的特征转换为哈希值。"X1" 为单字特征，"X/Y4" 为双字特征。
+     */
+    fun hashOfFeature(feature: String): Long {
+        return when (feature.length) {
+            2 -> FeatureHasher.hash(feature[1] - '0', feature[0])
+            4 -> FeatureHasher.hash(feature[3] - '0', feature[0], feature[2])
+            else -> Long.MIN_VALUE
+        }
+    }
+
     private fun addFeature(features: FeatureSet, vector: IntArrayList, stringBuilder: StringBuilder, vararg parts: Any) {
         for (x in parts) {
             stringBuilder.append(x)
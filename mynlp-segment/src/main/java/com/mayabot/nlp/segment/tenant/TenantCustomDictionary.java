@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.segment.tenant;
+
+import com.mayabot.nlp.collection.dat.DoubleArrayTrieMap;
+import com.mayabot.nlp.segment.common.WordSpanConsumer;
+import com.mayabot.nlp.segment.dictionary.CustomDictionary;
+
+import java.util.Arrays;
+
+/**
+ * 租户的自定义词典叠加在共享的自定义词典之上，两个词典中的词都会被查询到。
+ * getTrie只返回租户自己的DAT。
+ *
+ * @author jimichan
+ */
+class TenantCustomDictionary implements CustomDictionary {
+
+    private final CustomDictionary tenant;
+
+    private final CustomDictionary shared;
+
+    TenantCustomDictionary(CustomDictionary tenant, CustomDictionary shared) {
+        this.tenant = tenant;
+        this.shared = shared;
+    }
+
+    @Override
+    public DoubleArrayTrieMap<Integer> getTrie() {
+        return tenant.getTrie();
+    }
+
+    @Override
+    public void match(char[] text, WordSpanConsumer consumer) {
+        Spans spans = new Spans();
+        shared.match(text, spans);
+        int sharedCount = spans.count;
+        tenant.match(text, spans);
+
+        // 两个词典各自按起点、长度有序，合并以后排序并去掉两边都有的词
+        if (sharedCount > 0 && spans.count > sharedCount) {
+            Arrays.sort(spans.array, 0, spans.count);
+        }
+        long last = -1;
+        for (int i = 0; i < spans.count; i++) {
+            long span = spans.array[i];
+            if (span != last) {
+                consumer.accept((int) (span >>> 32), (int) span);
+                last = span;
+            }
+        }
+    }
+
+    /**
+     * 起点放在高32位，长度放在低32位，排序后就是先按起点再按长度
+     */
+    private static final class Spans implements WordSpanConsumer {
+
+        long[] array = new long[16];
+
+        int count;
+
+        @Override
+        public void accept(int offset, int length) {
+            if (count == array.length) {
+                array = Arrays.copyOf(array, count * 2);
+            }
+            array[count++] = ((long) offset << 32) | length;
+        }
+    }
+}
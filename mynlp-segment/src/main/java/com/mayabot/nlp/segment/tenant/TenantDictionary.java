@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.segment.tenant;
+
+import com.mayabot.nlp.MynlpEnv;
+import com.mayabot.nlp.resources.NlpResource;
+import com.mayabot.nlp.segment.dictionary.CorrectionDictionary;
+import com.mayabot.nlp.segment.dictionary.CorrectionWord;
+import com.mayabot.nlp.segment.dictionary.CustomDictionary;
+import com.mayabot.nlp.segment.dictionary.correction.MemCorrectionDictionary;
+import com.mayabot.nlp.segment.dictionary.custom.MemCustomDictionary;
+import com.mayabot.nlp.utils.CharSourceLineReader;
+
+import java.io.IOException;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * 一个租户自己的词典：自定义词典和纠错词典，都可以为null。
+ * 核心词典、Bigram等只读资源由所有租户共享，不在这里。
+ *
+ * @author jimichan
+ */
+public class TenantDictionary {
+
+    private static final Pattern TENANT_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final String tenant;
+
+    private final CustomDictionary customDictionary;
+
+    private final CorrectionDictionary correctionDictionary;
+
+    public TenantDictionary(String tenant, CustomDictionary customDictionary, CorrectionDictionary correctionDictionary) {
+        this.tenant = tenant;
+        this.customDictionary = customDictionary;
+        this.correctionDictionary = correctionDictionary;
+    }
+
+    /**
+     * 从资源中加载租户词典。
+     * 自定义词典为 {dir}/{tenant}/custom.txt，纠错词典为 {dir}/{tenant}/correction.txt，
+     * 格式和全局的词典相同，资源不存在时对应的词典为null
+     *
+     * @param env    资源环境
+     * @param dir    租户词典的根目录
+     * @param tenant 租户，只能包含字母、数字、下划线和减号
+     * @return TenantDictionary
+     * @throws IOException
+     * @throws IllegalArgumentException 租户不合法，避免通过 ../ 等读取租户目录以外的资源
+     */
+    public static TenantDictionary load(MynlpEnv env, String dir, String tenant) throws IOException {
+        checkTenant(tenant);
+
+        String base = dir + "/" + tenant + "/";
+
+        TreeMap<String, Integer> custom = new TreeMap<>();
+        NlpResource resource = env.loadResource(base + "custom.txt");
+        if (resource != null) {
+            try (CharSourceLineReader reader = resource.openLineReader()) {
+                while (reader.hasNext()) {
+                    String word = reader.next().split("\\s")[0];
+                    if (!word.isEmpty()) {
+                        custom.put(word, 1000);
+                    }
+                }
+            }
+        }
+
+        TreeMap<String, CorrectionWord> correction = new TreeMap<>();
+        resource = env.loadResource(base + "correction.txt");
+        if (resource != null) {
+            try (CharSourceLineReader reader = resource.openLineReader()) {
+                while (reader.hasNext()) {
+                    CorrectionWord word = CorrectionWord.parse(reader.next());
+                    correction.put(word.path, word);
+                }
+            }
+        }
+
+        return new TenantDictionary(tenant,
+                custom.isEmpty() ? null : new MemCustomDictionary(custom),
+                correction.isEmpty() ? null : new MemCorrectionDictionary(correction));
+    }
+
+    /**
+     * 检查租户是否只包含字母、数字、下划线和减号
+     *
+     * @param tenant 租户
+     * @throws IllegalArgumentException 租户不合法
+     */
+    public static void checkTenant(String tenant) {
+        if (tenant == null || !TENANT_PATTERN.matcher(tenant).matches()) {
+            throw new IllegalArgumentException("Illegal tenant " + tenant);
+        }
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public CustomDictionary getCustomDictionary() {
+        return customDictionary;
+    }
+
+    public CorrectionDictionary getCorrectionDictionary() {
+        return correctionDictionary;
+    }
+}
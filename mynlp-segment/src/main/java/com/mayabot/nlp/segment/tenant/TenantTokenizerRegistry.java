@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mayabot.nlp.segment.tenant;
+
+import com.google.common.cache.*;
+import com.mayabot.nlp.Mynlps;
+import com.mayabot.nlp.logging.InternalLogger;
+import com.mayabot.nlp.logging.InternalLoggerFactory;
+import com.mayabot.nlp.segment.MynlpTokenizer;
+import com.mayabot.nlp.segment.PipelineTokenizerBuilder;
+import com.mayabot.nlp.segment.dictionary.CorrectionDictionary;
+import com.mayabot.nlp.segment.dictionary.CustomDictionary;
+import com.mayabot.nlp.segment.dictionary.correction.MemCorrectionDictionary;
+import com.mayabot.nlp.segment.dictionary.custom.MemCustomDictionary;
+import com.mayabot.nlp.segment.tokenizer.xprocessor.CorrectionWordpathProcessor;
+import com.mayabot.nlp.segment.tokenizer.xprocessor.CustomDictionaryProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * 多租户分词器。
+ * <p>
+ * 所有租户共享同一个Mynlp中的核心词典、Bigram和模型等只读资源，
+ * 每个租户只额外持有自己的自定义词典和纠错词典(DAT)，以及对应的两个处理器。
+ * 租户的词典叠加在共享的自定义词典和纠错词典之上，全局的词对所有租户仍然有效。
+ * 租户的分词器在第一次使用时创建，超过 maxTenants 个租户时按LRU淘汰最久没有使用的租户，
+ * 被淘汰的租户再次使用时重新加载词典。
+ *
+ * <pre>
+ * TenantTokenizerRegistry registry = new TenantTokenizerRegistry(MynlpTokenizers::coreTokenizerBuilder, 100);
+ * registry.getTokenizer("shop-a").tokenToStringList("...");
+ * </pre>
+ *
+ * @author jimichan
+ */
+public class TenantTokenizerRegistry {
+
+    static InternalLogger logger = InternalLoggerFactory.getInstance(TenantTokenizerRegistry.class);
+
+    /**
+     * 默认的租户词典目录
+     */
+    public static final String DEFAULT_DIR = "dictionary/tenant";
+
+    /**
+     * 加载租户词典
+     */
+    @FunctionalInterface
+    public interface Loader {
+        TenantDictionary load(String tenant) throws Exception;
+    }
+
+    private final Supplier<? extends PipelineTokenizerBuilder> builder;
+
+    private final Loader loader;
+
+    private final CustomDictionary sharedCustomDictionary;
+
+    private final CorrectionDictionary sharedCorrectionDictionary;
+
+    private final LoadingCache<String, MynlpTokenizer> tokenizers;
+
+    /**
+     * @param builder                    创建分词器Builder，每个租户调用一次
+     * @param loader                     加载租户词典
+     * @param sharedCustomDictionary     所有租户共享的自定义词典，可以为null
+     * @param sharedCorrectionDictionary 所有租户共享的纠错词典，可以为null
+     * @param maxTenants                 同时保留的租户数量
+     */
+    public TenantTokenizerRegistry(Supplier<? extends PipelineTokenizerBuilder> builder, Loader loader,
+                                   CustomDictionary sharedCustomDictionary,
+                                   CorrectionDictionary sharedCorrectionDictionary,
+                                   int maxTenants) {
+        this.builder = builder;
+        this.loader = loader;
+        this.sharedCustomDictionary = sharedCustomDictionary == null ? new MemCustomDictionary() : sharedCustomDictionary;
+        this.sharedCorrectionDictionary = sharedCorrectionDictionary == null ? new MemCorrectionDictionary() : sharedCorrectionDictionary;
+        this.tokenizers = CacheBuilder.newBuilder()
+                .maximumSize(maxTenants)
+                .recordStats()
+                .removalListener((RemovalListener<String, MynlpTokenizer>) notification -> {
+                    if (notification.wasEvicted()) {
+                        logger.info("Evict tenant " + notification.getKey());
+                    }
+                })
+                .build(new CacheLoader<String, MynlpTokenizer>() {
+                    @Override
+                    public MynlpTokenizer load(String tenant) throws Exception {
+                        return create(tenant);
+                    }
+                });
+    }
+
+    /**
+     * 共享Mynlp中的自定义词典和纠错词典
+     *
+     * @param builder    创建分词器Builder，每个租户调用一次
+     * @param loader     加载租户词典
+     * @param maxTenants 同时保留的租户数量
+     */
+    public TenantTokenizerRegistry(Supplier<? extends PipelineTokenizerBuilder> builder, Loader loader, int maxTenants) {
+        this(builder, loader,
+                Mynlps.get().getInstance(CustomDictionary.class),
+                Mynlps.get().getInstance(CorrectionDictionary.class),
+                maxTenants);
+    }
+
+    /**
+     * 从 {@link #DEFAULT_DIR} 下加载租户词典
+     */
+    public TenantTokenizerRegistry(Supplier<? extends PipelineTokenizerBuilder> builder, int maxTenants) {
+        this(builder, tenant -> TenantDictionary.load(Mynlps.get().getEnv(), DEFAULT_DIR, tenant), maxTenants);
+    }
+
+    private MynlpTokenizer create(String tenant) throws Exception {
+        long t1 = System.currentTimeMillis();
+
+        TenantDictionary dictionary = loader.load(tenant);
+
+        PipelineTokenizerBuilder b = builder.get();
+
+        CustomDictionary custom = dictionary.getCustomDictionary();
+        b.setComponent(CustomDictionaryProcessor.class, new CustomDictionaryProcessor(
+                custom == null ? sharedCustomDictionary : new TenantCustomDictionary(custom, sharedCustomDictionary)));
+
+        // 先用共享的纠错词典，租户的纠错在之后应用
+        List<CorrectionDictionary> corrections = new ArrayList<>(2);
+        corrections.add(sharedCorrectionDictionary);
+        if (dictionary.getCorrectionDictionary() != null) {
+            corrections.add(dictionary.getCorrectionDictionary());
+        }
+        b.setComponent(CorrectionWordpathProcessor.class, new CorrectionWordpathProcessor(corrections));
+
+        MynlpTokenizer tokenizer = b.build();
+
+        logger.info("Load tenant " + tenant + " use time " + (System.currentTimeMillis() - t1) + " ms");
+
+        return tokenizer;
+    }
+
+    /**
+     * 返回租户的分词器，不存在时加载
+     *
+     * @param tenant 租户
+     * @return MynlpTokenizer
+     */
+    public MynlpTokenizer getTokenizer(String tenant) {
+        try {
+            return tokenizers.get(tenant);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Load tenant " + tenant + " error", e.getCause());
+        }
+    }
+
+    /**
+     * 租户的词典修改后调用，下次使用时重新加载
+     */
+    public void invalidate(String tenant) {
+        tokenizers.invalidate(tenant);
+    }
+
+    /**
+     * @return 当前保留的租户数量
+     */
+    public long getActiveTenantCount() {
+        return tokenizers.size();
+    }
+
+    /**
+     * @return 因为LRU被淘汰的租户次数
+     */
+    public long getEvictionCount() {
+        return tokenizers.stats().evictionCount();
+    }
+
+    /**
+     * @return 加载租户词典的次数
+     */
+    public long getLoadCount() {
+        return tokenizers.stats().loadCount();
+    }
+}
@@ -0,0 +1,81 @@
+package com.mayabot.nlp.segment.tokenizer;
+
+import com.mayabot.nlp.segment.WordSplitAlgorithm;
+import com.mayabot.nlp.segment.tokenizer.bestpath.LongpathBestPathAlgorithm;
+import com.mayabot.nlp.segment.tokenizer.splitalgorithm.PerceptronSegmentAlgorithm;
+import com.mayabot.nlp.segment.tokenizer.xprocessor.CommonRuleWordpathProcessor;
+import com.mayabot.nlp.segment.tokenizer.xprocessor.CustomDictionaryProcessor;
+import com.mayabot.nlp.segment.tokenizer.xprocessor.PosPerceptronProcessor;
+
+/**
+ * 基于感知机分词模型的分词器.
+ * <p>
+ * 模型的结果直接写入wordnet，每个位置只有一个词，所以用最长路径算法取出结果。
+ * 之后和其他分词器一样经过自定义词典、规则合并和词性分析。
+ *
+ * @author jimichan
+ */
+public class PerceptronTokenizerBuilder extends BaseTokenizerBuilder {
+
+    public static PerceptronTokenizerBuilder builder() {
+        return new PerceptronTokenizerBuilder();
+    }
+
+    private boolean pos = true;
+
+    private boolean email = false;
+
+    /**
+     * 填充wordnet的切词算法，子类可以替换为其他模型
+     */
+    protected Class<? extends WordSplitAlgorithm> segmentAlgorithm() {
+        return PerceptronSegmentAlgorithm.class;
+    }
+
+    @Override
+    protected void setUp() {
+
+        //最优路径算法
+        this.setBestPathComputer(LongpathBestPathAlgorithm.class);
+
+        //切词算法
+        this.addWordSplitAlgorithm(segmentAlgorithm());
+
+        // Pipeline处理器
+        this.addProcessor(CustomDictionaryProcessor.class);
+
+        //一些通用模式识别的处理
+        this.addProcessor(CommonRuleWordpathProcessor.class);
+
+        if (pos) {
+            addProcessor(PosPerceptronProcessor.class);
+        }
+
+        config(CommonRuleWordpathProcessor.class, x -> {
+            x.setEnableEmail(email);
+        });
+    }
+
+    /**
+     * 词性分析开关
+     *
+     * @param pos
+     * @return
+     */
+    @Override
+    public PerceptronTokenizerBuilder setPos(boolean pos) {
+        this.pos = pos;
+        return this;
+    }
+
+    /**
+     * email识别开关
+     *
+     * @param email
+     * @return
+     */
+    public PerceptronTokenizerBuilder setEmail(boolean email) {
+        this.email = email;
+        return this;
+    }
+}
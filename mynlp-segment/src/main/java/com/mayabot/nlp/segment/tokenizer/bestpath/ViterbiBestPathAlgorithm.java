@@ -23,13 +23,17 @@ import com.mayabot.nlp.segment.dictionary.core.CoreBiGramTableDictionary;
 import com.mayabot.nlp.segment.dictionary.core.CoreDictionary;
 import com.mayabot.nlp.segment.wordnet.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * 基于核心词典的bi词之前的共出现的次数，采用viterbi选择出一个概率最大的path
  * 是权重越小越好 距离越短
  * @author jimichan
  */
 @Singleton
-public class ViterbiBestPathAlgorithm implements BestPathAlgorithm {
+public class ViterbiBestPathAlgorithm implements KBestPathAlgorithm {
 
     protected CoreBiGramTableDictionary coreBiGramTableDictionary;
 
@@ -79,6 +83,14 @@ public class ViterbiBestPathAlgorithm implements BestPathAlgorithm {
      */
     @Override
     public Wordpath select(Wordnet wordnet) {
+        viterbi(wordnet);
+        return buildPath(wordnet);
+    }
+
+    /**
+     * 前向计算每个节点从开始节点出发的最小权重和前驱节点
+     */
+    protected void viterbi(Wordnet wordnet) {
 
 //        System.out.println(wordnet.toMoreString());
 
@@ -122,8 +134,168 @@ public class ViterbiBestPathAlgorithm implements BestPathAlgorithm {
 //        System.out.println("-----------");
 //
 //        System.out.println(wordnet.toMoreString());
+    }
 
-        return buildPath(wordnet);
+    /**
+     * K-best路径。
+     * 先做一遍viterbi，节点的weight就是从开始节点到它的最小权重，
+     * 然后从结束节点向前做A*搜索，weight作为精确的启发值，路径按照总权重从小到大依次出队。
+     * 边的权重和viterbi使用同一个calculateWeight。
+     * <p>
+     * 搜索状态保存在基本类型数组中，每条结果路径只保存词长数组。
+     */
+    @Override
+    public List<KBestPath> selectK(Wordnet wordnet, int k) {
+        viterbi(wordnet);
+
+        final int charSize = wordnet.getCharSizeLength();
+        final Vertex begin = wordnet.getBeginRow().first();
+        final Vertex end = wordnet.getEndRow().first();
+
+        List<KBestPath> result = new ArrayList<>(k);
+        if (k <= 0 || end.from == null) {
+            return result;
+        }
+
+        // endsAt[p] 在p位置结束的可达节点，也就是p行节点的前驱
+        Vertex[][] endsAt = new Vertex[charSize + 1][];
+        int[] endsCount = new int[charSize + 1];
+        endsAt[0] = new Vertex[]{begin};
+        endsCount[0] = 1;
+        for (int i = 0; i < charSize; i++) {
+            for (Vertex node = wordnet.row(i).first(); node != null; node = node.next()) {
+                if (node.from == null) {
+                    continue;
+                }
+                int p = i + node.length;
+                Vertex[] list = endsAt[p];
+                if (list == null) {
+                    endsAt[p] = list = new Vertex[4];
+                } else if (endsCount[p] == list.length) {
+                    endsAt[p] = list = Arrays.copyOf(list, list.length * 2);
+                }
+                list[endsCount[p]++] = node;
+            }
+        }
+
+        SearchStates states = new SearchStates();
+        states.push(end, 0, -1, end.weight);
+
+        while (states.heapSize > 0 && result.size() < k) {
+            int s = states.pop();
+            Vertex vertex = states.vertex[s];
+
+            if (vertex == begin) {
+                result.add(states.toPath(s, begin, end));
+                continue;
+            }
+
+            // 结束节点的行号是charSize
+            int row = vertex == end ? charSize : vertex.offset();
+            Vertex[] preList = endsAt[row];
+            double g = states.cost[s];
+            for (int j = 0; j < endsCount[row]; j++) {
+                Vertex pre = preList[j];
+                double cost = g + calculateWeight(pre, vertex);
+                states.push(pre, cost, s, pre.weight + cost);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * A*搜索的状态。每个状态是一条从结束节点向前的部分路径，用父状态下标串联。
+     * 优先队列是按总权重排序的二叉堆，只保存状态下标
+     */
+    private static class SearchStates {
+
+        Vertex[] vertex = new Vertex[64];
+
+        /**
+         * 从这个节点到结束节点的权重
+         */
+        double[] cost = new double[64];
+
+        double[] priority = new double[64];
+
+        int[] parent = new int[64];
+
+        int size = 0;
+
+        int[] heap = new int[64];
+
+        int heapSize = 0;
+
+        void push(Vertex v, double g, int parentState, double f) {
+            if (size == vertex.length) {
+                int n = size * 2;
+                vertex = Arrays.copyOf(vertex, n);
+                cost = Arrays.copyOf(cost, n);
+                priority = Arrays.copyOf(priority, n);
+                parent = Arrays.copyOf(parent, n);
+            }
+            int s = size++;
+            vertex[s] = v;
+            cost[s] = g;
+            priority[s] = f;
+            parent[s] = parentState;
+
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, heapSize * 2);
+            }
+            int child = heapSize++;
+            while (child > 0) {
+                int up = (child - 1) >> 1;
+                if (priority[heap[up]] <= f) {
+                    break;
+                }
+                heap[child] = heap[up];
+                child = up;
+            }
+            heap[child] = s;
+        }
+
+        int pop() {
+            int top = heap[0];
+            int last = heap[--heapSize];
+            if (heapSize > 0) {
+                double f = priority[last];
+                int p = 0;
+                while (true) {
+                    int child = p * 2 + 1;
+                    if (child >= heapSize) {
+                        break;
+                    }
+                    if (child + 1 < heapSize && priority[heap[child + 1]] < priority[heap[child]]) {
+                        child++;
+                    }
+                    if (f <= priority[heap[child]]) {
+                        break;
+                    }
+                    heap[p] = heap[child];
+                    p = child;
+                }
+                heap[p] = last;
+            }
+            return top;
+        }
+
+        /**
+         * 从开始节点的状态沿着父状态走到结束节点，得到词长序列
+         */
+        KBestPath toPath(int s, Vertex begin, Vertex end) {
+            int count = 0;
+            for (int x = parent[s]; x >= 0 && vertex[x] != end; x = parent[x]) {
+                count++;
+            }
+            int[] lengths = new int[count];
+            int i = 0;
+            for (int x = parent[s]; x >= 0 && vertex[x] != end; x = parent[x]) {
+                lengths[i++] = vertex[x].length;
+            }
+            return new KBestPath(lengths, cost[s]);
+        }
     }
 
 
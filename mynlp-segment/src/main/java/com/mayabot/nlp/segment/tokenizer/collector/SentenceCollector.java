@@ -1,5 +1,6 @@
 package com.mayabot.nlp.segment.tokenizer.collector;
 
+import com.mayabot.nlp.segment.WordOffsetConsumer;
 import com.mayabot.nlp.segment.WordTerm;
 import com.mayabot.nlp.segment.WordTermCollector;
 import com.mayabot.nlp.segment.wordnet.Vertex;
@@ -35,4 +36,26 @@ public class SentenceCollector implements WordTermCollector {
         }
     }
 
+    /**
+     * 和collect的输出一致，直接从词图的字符数组判断空白，不创建WordTerm和字符串
+     */
+    @Override
+    public void collectOffset(Wordnet wordnet, Wordpath wordPath, WordOffsetConsumer consumer) {
+
+        char[] text = wordnet.getCharArray();
+
+        Iterator<Vertex> vertexIterator = wordPath.iteratorVertex();
+
+        while (vertexIterator.hasNext()) {
+            Vertex vertex = vertexIterator.next();
+            int offset = vertex.offset();
+
+            if (StringUtils.isWhiteSpace(text[offset])) {
+                continue;
+            }
+
+            consumer.accept(offset, vertex.length, vertex.nature);
+        }
+    }
+
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mayabot.nlp.segment.tokenizer.splitalgorithm;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.mayabot.nlp.segment.WordSplitAlgorithm;
+import com.mayabot.nlp.segment.common.BaseSegmentComponent;
+import com.mayabot.nlp.segment.dictionary.core.CoreDictionary;
+import com.mayabot.nlp.segment.perceptron.PerceptronCwsService;
+import com.mayabot.nlp.segment.wordnet.Vertex;
+import com.mayabot.nlp.segment.wordnet.Wordnet;
+
+/**
+ * 基于感知机分词模型的切词算法。
+ * <p>
+ * 直接对wordnet中的字符数组解码，每个词只放入一个节点，不创建中间的字符串。
+ * 在核心词典中的词带上wordId和词频，方便后面的处理器使用。
+ *
+ * @author jimichan
+ */
+@Singleton
+public class PerceptronSegmentAlgorithm extends BaseSegmentComponent implements WordSplitAlgorithm {
+
+    private final PerceptronCwsService cwsService;
+
+    private final CoreDictionary coreDictionary;
+
+    @Inject
+    public PerceptronSegmentAlgorithm(PerceptronCwsService cwsService, CoreDictionary coreDictionary) {
+        this.cwsService = cwsService;
+        this.coreDictionary = coreDictionary;
+        setOrder(Integer.MIN_VALUE);
+    }
+
+    @Override
+    public void fill(Wordnet wordnet) {
+        char[] text = wordnet.getCharArray();
+
+        cwsService.splitWord(text, (offset, length) -> {
+            int wordId = coreDictionary.indexOf(text, offset, length);
+            if (wordId >= 0) {
+                wordnet.put(offset, new Vertex(length, wordId, coreDictionary.get(wordId)));
+            } else {
+                wordnet.put(offset, length).freq = 1;
+            }
+        });
+    }
+}
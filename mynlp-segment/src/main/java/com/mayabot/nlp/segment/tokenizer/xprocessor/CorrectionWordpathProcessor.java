@@ -27,6 +27,10 @@ import com.mayabot.nlp.segment.dictionary.CorrectionDictionary;
 import com.mayabot.nlp.segment.dictionary.CorrectionWord;
 import com.mayabot.nlp.segment.wordnet.Wordpath;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * 自定分词纠错。
  * 放在最后一步
@@ -42,23 +46,36 @@ import com.mayabot.nlp.segment.wordnet.Wordpath;
 @Singleton
 public class CorrectionWordpathProcessor extends BaseSegmentComponent implements WordpathProcessor {
 
-    private final CorrectionDictionary dictionary;
+    private final List<CorrectionDictionary> dictionaries;
 
     @Inject
     public CorrectionWordpathProcessor(
             CorrectionDictionary dictionary) {
-        this.dictionary = dictionary;
+        this.dictionaries = Collections.singletonList(dictionary);
+        setOrder(SegmentComponentOrder.LASTEST);
+    }
+
+    /**
+     * 按顺序使用多个纠错词典，例如多租户时先用共享的纠错词典，再用租户自己的
+     */
+    public CorrectionWordpathProcessor(List<CorrectionDictionary> dictionaries) {
+        this.dictionaries = new ArrayList<>(dictionaries);
         setOrder(SegmentComponentOrder.LASTEST);
     }
 
 
     @Override
     public Wordpath process(Wordpath wordPath) {
+        for (CorrectionDictionary dictionary : dictionaries) {
+            correct(wordPath, dictionary.getTrie());
+        }
+        return wordPath;
+    }
 
-        DoubleArrayTrieMap<CorrectionWord> dat = dictionary.getTrie();
+    private void correct(Wordpath wordPath, DoubleArrayTrieMap<CorrectionWord> dat) {
 
         if (dat == null) {
-            return wordPath;
+            return;
         }
 
         DATMapMatcher<CorrectionWord> datSearch
@@ -83,10 +100,9 @@ public class CorrectionWordpathProcessor extends BaseSegmentComponent implements
             }
 
         }
-
-
-        return wordPath;
     }
 
-
+    public List<CorrectionDictionary> getDictionaries() {
+        return Collections.unmodifiableList(dictionaries);
+    }
 }
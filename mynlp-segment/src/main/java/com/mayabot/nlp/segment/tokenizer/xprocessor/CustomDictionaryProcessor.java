@@ -16,11 +16,7 @@
 
 package com.mayabot.nlp.segment.tokenizer.xprocessor;
 
-import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
-import com.mayabot.nlp.Mynlps;
-import com.mayabot.nlp.collection.dat.DATMapMatcher;
-import com.mayabot.nlp.collection.dat.DoubleArrayTrieMap;
 import com.mayabot.nlp.segment.SegmentComponentOrder;
 import com.mayabot.nlp.segment.WordpathProcessor;
 import com.mayabot.nlp.segment.common.BaseSegmentComponent;
@@ -49,45 +45,32 @@ public class CustomDictionaryProcessor extends BaseSegmentComponent implements W
         this.setOrder(SegmentComponentOrder.DEFAULT);
     }
 
+    /**
+     * 不需要核心词典，多租户时每个租户的处理器都用这个构造函数创建
+     */
     public CustomDictionaryProcessor(CustomDictionary dictionary) {
-        this(dictionary, Mynlps.getInstance(CoreDictionary.class));
+        this.dictionary = dictionary;
+        this.setOrder(SegmentComponentOrder.DEFAULT);
     }
 
     @Override
     public Wordpath process(Wordpath wordPath) {
 
-        DoubleArrayTrieMap<Integer> dat = dictionary.getTrie();
-
-        if (dat == null) {
-            return wordPath;
-        }
-
         Wordnet wordnet = wordPath.getWordnet();
         char[] text = wordnet.getCharArray();
 
-        for (DoubleArrayTrieMap<Integer> d : ImmutableList.of(dat)) {
-            if (d == null) {
-                continue;
-            }
-
-            DATMapMatcher<Integer> datSearch = d.match(text, 0);
-
-            while (datSearch.next()) {
-                int offset = datSearch.getBegin();
-                int length = datSearch.getLength();
-
-                boolean willCutOtherWords = wordPath.willCutOtherWords(offset, length);
-
-                if (!willCutOtherWords) {
-                    if (wordnet.getVertex(offset, length) == null) {
-                        wordPath.combine(offset, length);
-                    } else {
-                        // 也就是自定义词典里面包含了重复的词汇
-                    }
+        dictionary.match(text, (offset, length) -> {
+            boolean willCutOtherWords = wordPath.willCutOtherWords(offset, length);
 
+            if (!willCutOtherWords) {
+                if (wordnet.getVertex(offset, length) == null) {
+                    wordPath.combine(offset, length);
+                } else {
+                    // 也就是自定义词典里面包含了重复的词汇
                 }
+
             }
-        }
+        });
 
         return wordPath;
     }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mayabot.nlp.segment.wordnet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * K-best算法选出的一条路径，只记录每个词的长度和路径的权重
+ *
+ * @author jimichan
+ */
+public class KBestPath {
+
+    private final int[] lengths;
+
+    private final double weight;
+
+    public KBestPath(int[] lengths, double weight) {
+        this.lengths = lengths;
+        this.weight = weight;
+    }
+
+    /**
+     * 路径的权重，越小越好
+     */
+    public double getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return 词的数量
+     */
+    public int size() {
+        return lengths.length;
+    }
+
+    /**
+     * @return 第index个词的长度
+     */
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * 转换为Wordpath，可以继续交给WordpathProcessor处理
+     */
+    public Wordpath toWordpath(Wordnet wordnet) {
+        Wordpath wordpath = new Wordpath(wordnet);
+        int offset = 0;
+        for (int length : lengths) {
+            wordpath.combine(offset, length);
+            offset += length;
+        }
+        return wordpath;
+    }
+
+    public List<String> toWords(char[] text) {
+        List<String> words = new ArrayList<>(lengths.length);
+        int offset = 0;
+        for (int length : lengths) {
+            words.add(new String(text, offset, length));
+            offset += length;
+        }
+        return words;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lengths.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(lengths[i]);
+        }
+        return sb.append(" : ").append(weight).toString();
+    }
+}
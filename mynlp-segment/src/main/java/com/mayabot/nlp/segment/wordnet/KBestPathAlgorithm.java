@@ -0,0 +1,37 @@
+/*
+ * Copyright 2018 mayabot.com authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mayabot.nlp.segment.wordnet;
+
+import java.util.List;
+
+/**
+ * 可以从词图中选择前K条路径的算法
+ *
+ * @author jimichan
+ */
+public interface KBestPathAlgorithm extends BestPathAlgorithm {
+
+    /**
+     * 从词图网络中选择得分最好的K条从头到尾的路径，按照得分从好到差排列
+     *
+     * @param wordnet 输入词图
+     * @param k       路径数量
+     * @return 不超过k条路径
+     */
+    List<KBestPath> selectK(Wordnet wordnet, int k);
+
+}
@@ -0,0 +1,111 @@
+package com.mayabot.nlp.segment;
+
+import com.google.common.collect.Lists;
+import com.mayabot.nlp.segment.common.BaseSegmentComponent;
+import com.mayabot.nlp.segment.tokenizer.bestpath.LongpathBestPathAlgorithm;
+import com.mayabot.nlp.segment.tokenizer.collector.SentenceCollector;
+import com.mayabot.nlp.segment.tokenizer.collector.SentenceIndexWordCollector;
+import com.mayabot.nlp.segment.wordnet.Wordnet;
+import com.mayabot.nlp.segment.wordnet.Wordpath;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * tokenOffset 和 token 输出的位置必须一致
+ */
+public class TokenOffsetTest {
+
+    private static final String[] WORDS = {"中华人民共和国", "中华", "华人", "人民", "共和国", "共和", "成立", "万岁"};
+
+    /**
+     * 把词表中的词都放入词图，不需要核心词典
+     */
+    static class WordListSplitAlgorithm extends BaseSegmentComponent implements WordSplitAlgorithm {
+        @Override
+        public void fill(Wordnet wordnet) {
+            char[] text = wordnet.getCharArray();
+            for (int i = 0; i < text.length; i++) {
+                for (String word : WORDS) {
+                    if (i + word.length() <= text.length && word.equals(new String(text, i, word.length()))) {
+                        wordnet.put(i, word.length()).nature = Nature.n;
+                    }
+                }
+            }
+        }
+    }
+
+    static class NothingProcessor extends BaseSegmentComponent implements WordpathProcessor {
+        @Override
+        public Wordpath process(Wordpath wordPath) {
+            return wordPath;
+        }
+    }
+
+    private static PipelineTokenizer tokenizer(WordTermCollector collector) {
+        return new PipelineTokenizer(
+                Lists.newArrayList(new WordListSplitAlgorithm()),
+                new WordpathProcessor[]{new NothingProcessor()},
+                new LongpathBestPathAlgorithm(),
+                collector,
+                Collections.emptyList());
+    }
+
+    private static List<String> token(PipelineTokenizer tokenizer, String text) {
+        List<String> list = new ArrayList<>();
+        tokenizer.token(text.toCharArray(), term ->
+                list.add(term.getOffset() + ":" + term.length() + ":" + term.getNature()));
+        return list;
+    }
+
+    private static List<String> tokenOffset(PipelineTokenizer tokenizer, String text) {
+        List<String> list = new ArrayList<>();
+        tokenizer.tokenOffset(text.toCharArray(), (offset, length, nature) ->
+                list.add(offset + ":" + length + ":" + nature));
+        return list;
+    }
+
+    private static String randomText(Random random) {
+        String[] parts = {"中华人民共和国", "成立", "万岁", "华人", "人民", "的", " ", "\t", "a", "，"};
+        StringBuilder sb = new StringBuilder();
+        int n = 1 + random.nextInt(10);
+        for (int i = 0; i < n; i++) {
+            sb.append(parts[random.nextInt(parts.length)]);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testSameAsToken() {
+        List<WordTermCollector> collectors = Lists.newArrayList(
+                new SentenceCollector(),
+                new SentenceIndexWordCollector(),
+                // 只输出长度大于1的词，没有覆盖collectOffset
+                (wordnet, wordPath, consumer) -> new SentenceCollector().collect(wordnet, wordPath, term -> {
+                    if (term.length() > 1) {
+                        consumer.accept(term);
+                    }
+                }));
+
+        Random random = new Random(11);
+        for (WordTermCollector collector : collectors) {
+            PipelineTokenizer tokenizer = tokenizer(collector);
+            for (int i = 0; i < 500; i++) {
+                String text = randomText(random);
+                Assert.assertEquals(text, token(tokenizer, text), tokenOffset(tokenizer, text));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexCollector() {
+        PipelineTokenizer tokenizer = tokenizer(new SentenceIndexWordCollector());
+        List<String> list = tokenOffset(tokenizer, "中华人民共和国 成立");
+        Assert.assertEquals(Lists.newArrayList(
+                "0:7:n", "0:2:n", "1:2:n", "2:2:n", "4:2:n", "4:3:n", "8:2:n"), list);
+    }
+}
@@ -0,0 +1,150 @@
+package com.mayabot.nlp.segment.crf;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.mayabot.nlp.collection.dat.DoubleArrayTrie;
+import com.mayabot.nlp.perceptron.FeatureSet;
+import com.mayabot.nlp.segment.Nature;
+import com.mayabot.nlp.segment.WordTerm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 编译后的特征模板和解释执行的结果必须完全一致
+ */
+public class CompiledFeatureTemplateTest {
+
+    List<String> templates = Arrays.asList(
+            "U00:%x[-2,0]",
+            "U01:%x[-1,0]",
+            "U02:%x[0,0]",
+            "U03:%x[1,0]",
+            "U04:%x[2,0]",
+            "U05:%x[-2,0]/%x[-1,0]",
+            "U06:%x[-1,0]/%x[0,0]",
+            "U07:%x[0,0]/%x[1,0]",
+            "U08:%x[1,0]/%x[2,0]",
+            "U09:%x[-1,0]/%x[1,0]",
+            "U10:%x[0,1]/%x[1,1]",
+            "%x[0,0]-%x[-1,1]:U11"
+    );
+
+    String[] sentences = (
+            "商品和服务\n" +
+                    "心肌细胞是心脏泵血的动力来源\n" +
+                    "结婚的和尚未结婚的\n" +
+                    "他说的确实在理\n" +
+                    "研究生命起源\n" +
+                    "a").split("\n");
+
+    /**
+     * 用解释执行的方式生成特征，每隔一个放入FeatureSet，这样也能覆盖查询不到的情况
+     */
+    private FeatureSet featureSet(FeatureTemplateGroup group, boolean words) {
+        TreeSet<String> all = new TreeSet<>();
+        StringBuilder sb = new StringBuilder();
+        for (String sentence : sentences) {
+            for (int i = 0; i < sentence.length(); i++) {
+                for (FeatureTemplate ft : group.getList()) {
+                    sb.setLength(0);
+                    if (words) {
+                        ft.appendTo(toTerms(sentence), i, sb);
+                    } else {
+                        ft.appendTo(sentence.toCharArray(), i, sb);
+                    }
+                    all.add(sb.toString());
+                }
+            }
+        }
+
+        List<String> keys = new ArrayList<>();
+        int i = 0;
+        for (String key : all) {
+            if (i++ % 2 == 0) {
+                keys.add(key);
+            }
+        }
+        return new FeatureSet(new DoubleArrayTrie(keys), keys);
+    }
+
+    private List<WordTerm> toTerms(String sentence) {
+        Nature[] natures = Nature.values();
+        List<WordTerm> terms = new ArrayList<>();
+        for (int i = 0; i < sentence.length(); i++) {
+            terms.add(new WordTerm(sentence.substring(i, Math.min(i + 2, sentence.length())), natures[i % natures.length]));
+        }
+        return terms;
+    }
+
+    private List<IntArrayList> compiled(CompiledFeatureTemplateGroup group, int length, IntArrayCallback callback) {
+        int[] out = new int[length * group.getSize()];
+        callback.extract(out);
+        List<IntArrayList> result = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            result.add(new IntArrayList());
+        }
+        group.toVectors(out, length, result);
+        return result;
+    }
+
+    interface IntArrayCallback {
+        void extract(int[] out);
+    }
+
+    private void assertSame(List<IntArrayList> expect, List<IntArrayList> actual) {
+        Assert.assertEquals(expect.size(), actual.size());
+        for (int i = 0; i < expect.size(); i++) {
+            Assert.assertArrayEquals(expect.get(i).toArray(), actual.get(i).toArray());
+        }
+    }
+
+    @Test
+    public void testChars() {
+        FeatureTemplateGroup group = new FeatureTemplateGroup(templates);
+        FeatureSet featureSet = featureSet(group, false);
+
+        check(group, featureSet);
+
+        // 在线学习新增的特征不在DAT中
+        featureSet.newExtId("是:U02");
+        featureSet.newExtId("心/肌:U07");
+        check(group, featureSet);
+    }
+
+    private void check(FeatureTemplateGroup group, FeatureSet featureSet) {
+        CompiledFeatureTemplateGroup compiled = new CompiledFeatureTemplateGroup(group, featureSet);
+        StringBuilder sb = new StringBuilder();
+
+        for (String sentence : sentences) {
+            char[] chars = sentence.toCharArray();
+            List<IntArrayList> expect = new ArrayList<>();
+            for (int i = 0; i < chars.length; i++) {
+                expect.add(CWSCrfFeature.INSTANCE.extractFeatureVector(chars, i, featureSet, group, sb));
+            }
+
+            assertSame(expect, compiled(compiled, chars.length, out -> compiled.extractAll(chars, out)));
+        }
+    }
+
+    @Test
+    public void testWordTerms() {
+        FeatureTemplateGroup group = new FeatureTemplateGroup(templates);
+        FeatureSet featureSet = featureSet(group, true);
+        CompiledFeatureTemplateGroup compiled = new CompiledFeatureTemplateGroup(group, featureSet);
+        StringBuilder sb = new StringBuilder();
+
+        for (String sentence : sentences) {
+            List<WordTerm> terms = toTerms(sentence);
+            List<IntArrayList> expect = new ArrayList<>();
+            for (int i = 0; i < terms.size(); i++) {
+                expect.add(NerCrfFeature.INSTANCE.extractFeatureVector(terms, i, featureSet, group, sb));
+            }
+
+            assertSame(expect, compiled(compiled, terms.size(), out -> compiled.extractAll(terms, out)));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.mayabot.nlp.segment.crf;
+
+import com.google.common.io.Files;
+import com.mayabot.nlp.perceptron.FeatureSet;
+import com.mayabot.nlp.segment.crf.utils.ConvertCrfText2PerceptronModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 流式转换的结果必须和原来在内存中转换的结果完全一样
+ */
+public class ConvertCrfText2PerceptronModelTest {
+
+    private static final List<String> labels = Arrays.asList("B", "E", "M", "S");
+
+    private static final List<String> templates = Arrays.asList("U00:%x[-1,0]", "U01:%x[0,0]", "U02:%x[-1,0]/%x[0,0]");
+
+    /**
+     * CRF++中的特征顺序，转换后按照 天/桥:U09 的形式重新排序
+     */
+    private static final List<String> features = Arrays.asList(
+            "U00:_B-1", "U00:中", "U00:国", "U00:人",
+            "U01:中", "U01:国", "U01:人", "U01:民",
+            "U02:_B-1/中", "U02:中/国", "U02:国/人", "U02:人/民");
+
+    private File dir;
+
+    private File txtModel;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDir();
+        txtModel = new File(dir, "model.txt");
+
+        int labelSize = labels.size();
+        List<String> lines = new ArrayList<>();
+        lines.add("version: 100");
+        lines.add("cost-factor: 1");
+        lines.add("maxid: " + (labelSize * labelSize + features.size() * labelSize));
+        lines.add("xsize: 1");
+        lines.add("");
+        lines.addAll(labels);
+        lines.add("");
+        lines.addAll(templates);
+        lines.add("B");
+        lines.add("");
+        lines.add("0 B");
+        for (int i = 0; i < features.size(); i++) {
+            lines.add((labelSize * labelSize + i * labelSize) + " " + features.get(i));
+        }
+        lines.add("");
+        Random random = new Random(3);
+        for (int i = 0; i < labelSize * labelSize + features.size() * labelSize; i++) {
+            lines.add(String.valueOf((random.nextInt(20001) - 10000) / 1000.0));
+        }
+        Files.asCharSink(txtModel, StandardCharsets.UTF_8).writeLines(lines);
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(dir);
+    }
+
+    /**
+     * 原来的转换方式：全部读入内存，特征排序后调整参数的顺序
+     */
+    private static Object[] legacyConvert(File txtModel) throws IOException {
+        List<String> lines = Files.asCharSource(txtModel, StandardCharsets.UTF_8).readLines();
+        Iterator<String> it = lines.iterator();
+        it.next();
+        it.next();
+        int maxid = Integer.parseInt(it.next().substring("maxid:".length()).trim());
+        it.next();
+        it.next();
+
+        int labelSize = 0;
+        while (!it.next().isEmpty()) {
+            labelSize++;
+        }
+        while (!it.next().equals("B")) {
+            // 跳过特征模板
+        }
+        it.next();
+        it.next();
+
+        Map<String, Integer> featureMap = new HashMap<>();
+        int count = 0;
+        for (int i = 0; i <= labelSize; i++) {
+            featureMap.put("\u0000\u0001BL=" + i, count++);
+        }
+        String line = it.next();
+        while (!line.isEmpty()) {
+            String f = line.split(" ")[1];
+            int ii = f.indexOf(":");
+            featureMap.put(f.substring(ii + 1) + ":" + f.substring(0, ii), count++);
+            line = it.next();
+        }
+
+        float[] parameter = new float[maxid + labelSize];
+        int p = 0;
+        for (int i = 0; i < labelSize * labelSize; i++) {
+            parameter[p++] = Float.parseFloat(it.next());
+        }
+        p += labelSize;
+        while (it.hasNext()) {
+            line = it.next();
+            if (line.isEmpty()) {
+                break;
+            }
+            parameter[p++] = Float.parseFloat(line);
+        }
+
+        List<String> sorted = new ArrayList<>(featureMap.keySet());
+        Collections.sort(sorted);
+
+        float[] parameter2 = new float[parameter.length];
+        for (int newId = 0; newId < sorted.size(); newId++) {
+            int oldId = featureMap.get(sorted.get(newId));
+            System.arraycopy(parameter, oldId * labelSize, parameter2, newId * labelSize, labelSize);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(labelSize);
+            out.writeInt(parameter2.length);
+            for (float x : parameter2) {
+                out.writeFloat(x);
+            }
+        }
+        return new Object[]{sorted, bytes.toByteArray()};
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSameAsLegacy() throws IOException {
+        Object[] legacy = legacyConvert(txtModel);
+        List<String> expectedFeatures = (List<String>) legacy[0];
+        byte[] expectedParameter = (byte[]) legacy[1];
+
+        // 1个特征一个临时文件，多路归并；全部特征放在一个临时文件中
+        for (int runSize : new int[]{1, 5, 2_000_000}) {
+            File out = new File(dir, "model-" + runSize);
+            ConvertCrfText2PerceptronModel.INSTANCE.convert(txtModel, out, runSize);
+
+            Assert.assertEquals(labels, Files.asCharSource(new File(out, "label.txt"), StandardCharsets.UTF_8).readLines());
+            Assert.assertEquals(templates, Files.asCharSource(new File(out, "featureTemplate.txt"), StandardCharsets.UTF_8).readLines());
+
+            List<String> featureText = Files.asCharSource(new File(out, "feature.txt"), StandardCharsets.UTF_8).readLines();
+            Assert.assertEquals(expectedFeatures, featureText);
+            Assert.assertArrayEquals(expectedParameter, Files.toByteArray(new File(out, "parameter.bin")));
+
+            FeatureSet featureSet = FeatureSet.read(new FileInputStream(new File(out, "feature.dat")));
+            for (int id = 0; id < expectedFeatures.size(); id++) {
+                Assert.assertEquals(expectedFeatures.get(id), id, featureSet.featureId(expectedFeatures.get(id)));
+            }
+
+            Assert.assertFalse(new File(out, "convert-tmp").exists());
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,277 @@
+package com.mayabot.nlp.segment.dictionary;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.mayabot.nlp.MynlpEnv;
+import com.mayabot.nlp.Settings;
+import com.mayabot.nlp.resources.FileNlpResourceFactory;
+import com.mayabot.nlp.segment.dictionary.custom.DefaultCustomDictionary;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DefaultCustomDictionaryTest {
+
+    private File dir;
+
+    private File dict;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDir();
+        dict = new File(dir, "custom.txt");
+        write("七项全能", "苹果手机");
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(dir);
+    }
+
+    private MynlpEnv env(String... settings) {
+        Settings s = Settings.createEmpty().put(DefaultCustomDictionary.dictPathSetting, "custom.txt");
+        for (int i = 0; i < settings.length; i += 2) {
+            s.put(settings[i], settings[i + 1]);
+        }
+        File cache = new File(dir, "cache");
+        cache.mkdirs();
+        return new MynlpEnv(dir, cache, ImmutableList.of(new FileNlpResourceFactory(dir)), s);
+    }
+
+    private void write(String... words) throws IOException {
+        Files.asCharSink(dict, StandardCharsets.UTF_8).writeLines(Arrays.asList(words));
+    }
+
+    @Test
+    public void testReloadAsync() throws Exception {
+        DefaultCustomDictionary dictionary = new DefaultCustomDictionary(env());
+        Assert.assertNotNull(dictionary.getTrie().get("七项全能"));
+
+        write("七项全能", "苹果手机", "华为手机");
+        dictionary.reloadAsync().get();
+        Assert.assertNotNull(dictionary.getTrie().get("华为手机"));
+        Assert.assertEquals(1, dictionary.getReloadCount());
+        Assert.assertEquals(0, dictionary.getReloadFailCount());
+
+        // 资源变成目录，读取失败，保留原来的词典
+        dict.delete();
+        dict.mkdirs();
+        try {
+            dictionary.reloadAsync().get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertNotNull(e.getCause());
+        }
+        Assert.assertEquals(1, dictionary.getReloadFailCount());
+        Assert.assertEquals(1, dictionary.getReloadCount());
+        Assert.assertNotNull(dictionary.getTrie().get("华为手机"));
+    }
+
+    @Test
+    public void testMissingResource() throws Exception {
+        MynlpEnv env = env(DefaultCustomDictionary.dictPathSetting.getKey(), "missing.txt");
+
+        // 没有DAT也能写入缓存
+        DefaultCustomDictionary dictionary = new DefaultCustomDictionary(env);
+        Assert.assertNull(dictionary.getTrie());
+        Assert.assertEquals(0, dictionary.getEntryCount());
+        Assert.assertTrue(words(dictionary, "七项全能").isEmpty());
+        File[] caches = new File(dir, "cache").listFiles();
+        Assert.assertEquals(1, caches.length);
+
+        // 第二次从空的缓存中恢复
+        DefaultCustomDictionary restored = new DefaultCustomDictionary(env);
+        Assert.assertNull(restored.getTrie());
+        restored.addWord("华为手机");
+        Assert.assertEquals(Arrays.asList("华为手机"), words(restored, "苹果手机华为手机"));
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        DefaultCustomDictionary dictionary = new DefaultCustomDictionary(env());
+        dictionary.startWatch(1);
+        try {
+            Thread.sleep(1500);
+            // 资源没有修改，不会重新加载
+            Assert.assertEquals(0, dictionary.getReloadCount());
+
+            write("七项全能", "苹果手机", "华为手机");
+            dict.setLastModified(dict.lastModified() + 2000);
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (dictionary.getReloadCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(1, dictionary.getReloadCount());
+            Assert.assertEquals(0, dictionary.getReloadFailCount());
+            Assert.assertNotNull(dictionary.getTrie().get("华为手机"));
+        } finally {
+            dictionary.stopWatch();
+        }
+    }
+
+    private static List<String> words(DefaultCustomDictionary dictionary, String text) {
+        List<String> list = new ArrayList<>();
+        dictionary.match(text.toCharArray(), (offset, length) -> list.add(text.substring(offset, offset + length)));
+        return list;
+    }
+
+    @Test
+    public void testOverlay() throws Exception {
+        DefaultCustomDictionary dictionary = new DefaultCustomDictionary(env());
+        String text = "七项全能苹果手机华为手机";
+
+        Assert.assertEquals(Arrays.asList("七项全能", "苹果手机"), words(dictionary, text));
+
+        dictionary.addWord("华为手机");
+        dictionary.addWord("苹果");
+        dictionary.removeWord("七项全能");
+        Assert.assertEquals(Arrays.asList("苹果", "苹果手机", "华为手机"), words(dictionary, text));
+        Assert.assertEquals(3, dictionary.getOverlaySize());
+        // overlay中的修改还没有合并进DAT
+        Assert.assertNotNull(dictionary.getTrie().get("七项全能"));
+        Assert.assertNull(dictionary.getTrie().get("华为手机"));
+
+        // 同一个词再次修改，后一次为准
+        dictionary.addWord("七项全能");
+        dictionary.removeWord("苹果");
+        Assert.assertEquals(Arrays.asList("七项全能", "苹果手机", "华为手机"), words(dictionary, text));
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        DefaultCustomDictionary dictionary = new DefaultCustomDictionary(env());
+        String text = "七项全能苹果手机华为手机";
+
+        dictionary.addWord("华为手机");
+        dictionary.removeWord("七项全能");
+        dictionary.compact();
+
+        Assert.assertEquals(1, dictionary.getCompactCount());
+        Assert.assertEquals(0, dictionary.getOverlaySize());
+        Assert.assertNull(dictionary.getTrie().get("七项全能"));
+        Assert.assertNotNull(dictionary.getTrie().get("华为手机"));
+        Assert.assertEquals(Arrays.asList("苹果手机", "华为手机"), words(dictionary, text));
+
+        // 合并过的修改和还没有合并的修改，reload以后都重新应用
+        dictionary.addWord("小米手机");
+        dictionary.reload();
+        Assert.assertNull(dictionary.getTrie().get("七项全能"));
+        Assert.assertNotNull(dictionary.getTrie().get("华为手机"));
+        Assert.assertNotNull(dictionary.getTrie().get("小米手机"));
+        Assert.assertEquals(Arrays.asList("苹果手机", "华为手机"), words(dictionary, text));
+    }
+
+    @Test
+    public void testReloadAfterCompact() throws Exception {
+        DefaultCustomDictionary dictionary = new DefaultCustomDictionary(env());
+        String text = "七项全能苹果手机华为手机";
+
+        dictionary.addWord("华为手机");
+        dictionary.compact();
+
+        // 词典资源变化以后重新加载，运行时加入的词还在
+        write("七项全能", "苹果手机", "小米手机");
+        dictionary.reload();
+        Assert.assertNotNull(dictionary.getTrie().get("华为手机"));
+        Assert.assertNotNull(dictionary.getTrie().get("小米手机"));
+        Assert.assertEquals(Arrays.asList("七项全能", "苹果手机", "华为手机"), words(dictionary, text));
+
+        // 同一个词多次修改只记录最后一次，合并多次以后仍然以最后一次为准
+        dictionary.removeWord("华为手机");
+        dictionary.compact();
+        dictionary.addWord("华为手机");
+        dictionary.compact();
+        dictionary.removeWord("华为手机");
+        dictionary.compact();
+        dictionary.reload();
+        Assert.assertNull(dictionary.getTrie().get("华为手机"));
+        Assert.assertEquals(Arrays.asList("七项全能", "苹果手机"), words(dictionary, text));
+    }
+
+    @Test
+    public void testCompactThreshold() throws Exception {
+        DefaultCustomDictionary dictionary = new DefaultCustomDictionary(
+                env(DefaultCustomDictionary.overlayThresholdSetting.getKey(), "8"));
+
+        for (int i = 0; i < 8; i++) {
+            dictionary.addWord("新词" + i);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dictionary.getCompactCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(1, dictionary.getCompactCount());
+        for (int i = 0; i < 8; i++) {
+            Assert.assertNotNull(dictionary.getTrie().get("新词" + i));
+        }
+    }
+
+    @Test
+    public void testReadDuringCompact() throws Exception {
+        DefaultCustomDictionary dictionary = new DefaultCustomDictionary(
+                env(DefaultCustomDictionary.overlayThresholdSetting.getKey(), "16"));
+        dictionary.addWord("华为手机");
+        dictionary.removeWord("七项全能");
+        String text = "七项全能苹果手机华为手机";
+        List<String> expected = Arrays.asList("苹果手机", "华为手机");
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Object> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            Thread thread = new Thread(() -> {
+                while (!stop.get()) {
+                    List<String> words = words(dictionary, text);
+                    if (!words.equals(expected)) {
+                        failure.compareAndSet(null, words);
+                    }
+                }
+            });
+            thread.start();
+            readers.add(thread);
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            dictionary.addWord("新词" + i);
+            if (i % 500 == 0) {
+                dictionary.compact();
+            }
+        }
+        dictionary.compact();
+
+        stop.set(true);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+
+        Assert.assertNull(failure.get());
+        Assert.assertTrue(dictionary.getCompactCount() > 1);
+        Assert.assertEquals(expected, words(dictionary, text));
+        for (int i = 0; i < 2000; i++) {
+            Assert.assertTrue(words(dictionary, "新词" + i).contains("新词" + i));
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
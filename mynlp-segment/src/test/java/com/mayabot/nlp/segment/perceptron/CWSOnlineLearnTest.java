@@ -0,0 +1,106 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.google.common.io.Files;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 后台在线学习和解码线程同时运行
+ */
+public class CWSOnlineLearnTest {
+
+    private static final List<String> corpus = Arrays.asList(
+            "我们 正在 努力 解决 这个 问题",
+            "一旦 修好 我们 会 通知 你们",
+            "对于 由此 造成 的 不便 我们 深表 歉意",
+            "美国 哈佛 大学 医学院 近日 宣布",
+            "这 一 消息 震惊 全球 学术界",
+            "中国 南沙 和 西沙 群岛 远离 国际 航道",
+            "每年 各国 船只 能够 在 南海 安全 通行",
+            "科研 人员 靠 造假 可能 一时 得意",
+            "他 在 心肌 上 动 的 心机 终 被 揭穿",
+            "我们 将 继续 保持 更新");
+
+    private static final List<String> texts = Arrays.asList(
+            "我们正在努力解决这个问题",
+            "美国哈佛大学医学院近日宣布这一消息",
+            "中国船只能够在南海安全通行",
+            "量子纠缠态实验取得突破");
+
+    @Test
+    public void testLearnAsyncWhileDecoding() throws Exception {
+        File dir = Files.createTempDir();
+        try {
+            File train = new File(dir, "train.txt");
+            Files.asCharSink(train, StandardCharsets.UTF_8).writeLines(corpus);
+            CWSPerceptron cws = new CWSPerceptronTrainer().train(train, train, 3, 1);
+
+            // 包含没有见过的字，学习时登记新特征
+            String learned = "量子纠缠态 实验 取得 突破";
+            List<String> expected = Arrays.asList(learned.split(" "));
+            Assert.assertNotEquals(expected, cws.decodeToWordList("量子纠缠态实验取得突破"));
+
+            AtomicBoolean stop = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            AtomicInteger decoded = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        while (!stop.get()) {
+                            for (String text : texts) {
+                                List<String> words = cws.decodeToWordList(text);
+                                if (!String.join("", words).equals(text)) {
+                                    throw new IllegalStateException(text + " " + words);
+                                }
+                                decoded.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+
+            for (int i = 0; i < 50; i++) {
+                Assert.assertTrue(cws.learnAsync(learned));
+                Thread.sleep(2);
+            }
+            cws.awaitLearned();
+
+            stop.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            Assert.assertNull(failure.get());
+            Assert.assertTrue(decoded.get() > 0);
+            Assert.assertEquals(0, cws.learnFailedCount());
+            Assert.assertEquals(expected, cws.decodeToWordList("量子纠缠态实验取得突破"));
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,74 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.google.common.io.Files;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 多线程共享参数训练得到的平均感知机，准确率和单线程训练相当
+ */
+public class CWSParallelTrainTest {
+
+    private static final List<String> corpus = Arrays.asList(
+            "我们 正在 努力 解决 这个 问题",
+            "一旦 修好 我们 会 通知 你们",
+            "对于 由此 造成 的 不便 我们 深表 歉意",
+            "美国 哈佛 大学 医学院 近日 宣布",
+            "这 一 消息 震惊 全球 学术界",
+            "中国 南沙 和 西沙 群岛 远离 国际 航道",
+            "每年 各国 船只 能够 在 南海 安全 通行",
+            "科研 人员 靠 造假 可能 一时 得意",
+            "他 在 心肌 上 动 的 心机 终 被 揭穿",
+            "我们 将 继续 保持 更新");
+
+    private static final List<String> evaluate = Arrays.asList(
+            "我们 正在 解决 问题",
+            "美国 大学 近日 宣布 这 一 消息",
+            "各国 船只 能够 安全 通行",
+            "科研 人员 将 继续 努力");
+
+    @Test
+    public void testSameAccuracy() throws IOException {
+        File dir = Files.createTempDir();
+        try {
+            // 样本数超过多个批次，多个线程同时更新参数
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                lines.addAll(corpus);
+            }
+            Collections.shuffle(lines, new Random(11));
+            File train = new File(dir, "train.txt");
+            Files.asCharSink(train, StandardCharsets.UTF_8).writeLines(lines);
+
+            CWSPerceptron single = new CWSPerceptronTrainer().train(train, train, 3, 1);
+            CWSPerceptron parallel = new CWSPerceptronTrainer().train(train, train, 3, 4);
+
+            double[] singleTrain = CWSEvaluate.INSTANCE.evaluate(corpus, single, 1);
+            double[] parallelTrain = CWSEvaluate.INSTANCE.evaluate(corpus, parallel, 1);
+            Assert.assertTrue(parallelTrain[2] > 95);
+            Assert.assertEquals(singleTrain[2], parallelTrain[2], 3);
+
+            // 没有见过的句子样本很少，线程交错不同时结果有波动，只要求不明显低于单线程
+            double[] singleEvaluate = CWSEvaluate.INSTANCE.evaluate(evaluate, single, 1);
+            double[] parallelEvaluate = CWSEvaluate.INSTANCE.evaluate(evaluate, parallel, 1);
+            Assert.assertTrue(parallelEvaluate[2] > singleEvaluate[2] - 10);
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -34,6 +34,18 @@ object CWSPerceptronTest {
         //单线程 正确率(P) 96.64 , 召回率(R) 96.32 , F1 96.48
     }
 
+    fun trainHash() {
+        val trainFile = File("data.work/corpus.segment/backoff2005/msr_training.txt")
+        val evaluateFile = File("data.work/corpus.segment/backoff2005/msr_test_gold.txt")
+
+        val cws = CWSPerceptronTrainer().trainHash(trainFile, evaluateFile, 5, 1, 22)
+        cws.save(File("data.work/pcws/model-hash"))
+
+        // 已有的DAT模型转换为哈希模型
+        val converted = CWSPerceptron.load(File("data.work/pcws/model-hanlp-compress")).toHashModel(22)
+        CWSEvaluate.evaluate(evaluateFile.readLines(), converted)
+    }
+
     fun test() {
         val model = PerceptronModel.load(File("data.work/pcws/model-hanlp-compress"))
 
@@ -0,0 +1,86 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.google.common.io.Files;
+import com.mayabot.nlp.perceptron.HashPerceptronModel;
+import com.mayabot.nlp.perceptron.solution.ner.NERPerceptron;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+public class HashPerceptronModelTest {
+
+    private static final List<String> corpus = Arrays.asList(
+            "我们 正在 努力 解决 这个 问题",
+            "一旦 修好 我们 会 通知 你们",
+            "对于 由此 造成 的 不便 我们 深表 歉意",
+            "美国 哈佛 大学 医学院 近日 宣布",
+            "这 一 消息 震惊 全球 学术界",
+            "中国 南沙 和 西沙 群岛 远离 国际 航道",
+            "每年 各国 船只 能够 在 南海 安全 通行",
+            "科研 人员 靠 造假 可能 一时 得意",
+            "他 在 心肌 上 动 的 心机 终 被 揭穿",
+            "我们 将 继续 保持 更新");
+
+    private static final List<String> texts = Arrays.asList(
+            "我们正在努力解决这个问题",
+            "美国哈佛大学医学院近日宣布这一消息",
+            "中国船只能够在南海安全通行",
+            "对于由此造成的不便我们深表歉意",
+            "科研人员靠造假可能一时得意");
+
+    @Test
+    public void testConvertDecodeSame() throws IOException {
+        File dir = Files.createTempDir();
+        try {
+            File train = new File(dir, "train.txt");
+            Files.asCharSink(train, StandardCharsets.UTF_8).writeLines(corpus);
+
+            CWSPerceptron cws = new CWSPerceptronTrainer().train(train, train, 3, 1);
+            CWSPerceptron hash = cws.toHashModel(20);
+            Assert.assertTrue(hash.getModel() instanceof HashPerceptronModel);
+            Assert.assertNull(hash.getModel().featureSet());
+
+            // 需要特征集合的模型在构造的时候就失败
+            try {
+                new NERPerceptron(hash.getModel(), Arrays.asList("B", "M", "E", "S"));
+                Assert.fail();
+            } catch (UnsupportedOperationException expected) {
+            }
+
+            for (String text : texts) {
+                Assert.assertEquals(cws.decodeToWordList(text), hash.decodeToWordList(text));
+            }
+
+            File modelDir = new File(dir, "hash");
+            hash.save(modelDir);
+            CWSPerceptron load = CWSPerceptron.load(modelDir);
+            Assert.assertTrue(load.getModel() instanceof HashPerceptronModel);
+            for (String text : texts) {
+                Assert.assertEquals(cws.decodeToWordList(text), load.decodeToWordList(text));
+            }
+
+            // 哈希模型的压缩只清零得分低的桶
+            load.compress(0.1, 0);
+            for (String text : texts) {
+                Assert.assertFalse(load.decodeToWordList(text).isEmpty());
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
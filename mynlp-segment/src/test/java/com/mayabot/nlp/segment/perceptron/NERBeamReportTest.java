@@ -0,0 +1,69 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.google.common.io.Files;
+import com.mayabot.nlp.perceptron.BasePerceptronModel;
+import com.mayabot.nlp.perceptron.EvaluateRunner;
+import com.mayabot.nlp.perceptron.solution.ner.NERPerceptron;
+import com.mayabot.nlp.perceptron.solution.ner.NERPerceptronTrainer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class NERBeamReportTest {
+
+    private static final List<String> corpus = Arrays.asList(
+            "[北京/ns 大学/n]nt 位于/v 北京/ns 海淀区/ns 。/w",
+            "[石景山/ns 热电厂/n]nt 今天/t 恢复/v 供电/vn 。/w",
+            "他/r 在/p [上海/ns 交通/n 大学/n]nt 读书/v ，/w 家/n 在/p 南京/ns 。/w",
+            "[中国/ns 银行/n]nt 在/p 广州/ns 开设/v 分行/n 。/w",
+            "代表团/n 从/p 天津/ns 出发/v ，/w 前往/v 杭州/ns 。/w",
+            "[清华/ns 大学/n]nt 和/c [北京/ns 大学/n]nt 签署/v 协议/n 。/w");
+
+    private NERPerceptron train(int... beamReportSizes) throws IOException {
+        File dir = Files.createTempDir();
+        try {
+            File train = new File(dir, "train.txt");
+            Files.asCharSink(train, StandardCharsets.UTF_8).writeLines(corpus);
+
+            NERPerceptronTrainer trainer = new NERPerceptronTrainer();
+            trainer.setBeamReportSizes(beamReportSizes);
+            return trainer.train(train, train, 3, 1);
+        } finally {
+            new File(dir, "train.txt").delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testTrainReportRestoresBeam() throws IOException {
+        NERPerceptron ner = train(0, 2, 4);
+        Assert.assertEquals(0, ((BasePerceptronModel) ner.getModel()).getBeamSize());
+    }
+
+    @Test
+    public void testBeamReport() throws IOException {
+        BasePerceptronModel model = (BasePerceptronModel) train().getModel();
+        model.setBeamSize(3);
+
+        List<Integer> seen = new ArrayList<>();
+        EvaluateRunner runner = (iter, perceptron) -> {
+            Assert.assertSame(model, perceptron);
+            seen.add(((BasePerceptronModel) perceptron).getBeamSize());
+        };
+
+        long[] times = EvaluateRunner.beamReport(runner, model, 0, 2, 4);
+
+        Assert.assertEquals(Arrays.asList(0, 2, 4), seen);
+        Assert.assertEquals(3, times.length);
+        for (long time : times) {
+            Assert.assertTrue(time >= 0);
+        }
+        Assert.assertEquals(3, model.getBeamSize());
+    }
+}
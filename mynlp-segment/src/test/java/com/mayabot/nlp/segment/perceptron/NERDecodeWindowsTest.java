@@ -0,0 +1,124 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.google.common.io.Files;
+import com.mayabot.nlp.perceptron.solution.ner.NERPerceptron;
+import com.mayabot.nlp.perceptron.solution.ner.NERPerceptronTrainer;
+import com.mayabot.nlp.segment.Nature;
+import com.mayabot.nlp.segment.WordTerm;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 分窗口解码和整句解码、并行和串行分支的结果一致
+ */
+public class NERDecodeWindowsTest {
+
+    private static final List<String> corpus = Arrays.asList(
+            "[北京/ns 大学/n]nt 位于/v 北京/ns 海淀区/ns 。/w",
+            "[石景山/ns 热电厂/n]nt 今天/t 恢复/v 供电/vn 。/w",
+            "他/r 在/p [上海/ns 交通/n 大学/n]nt 读书/v ，/w 家/n 在/p 南京/ns 。/w",
+            "[中国/ns 银行/n]nt 在/p 广州/ns 开设/v 分行/n 。/w",
+            "代表团/n 从/p 天津/ns 出发/v ，/w 前往/v 杭州/ns 。/w",
+            "[清华/ns 大学/n]nt 和/c [北京/ns 大学/n]nt 签署/v 协议/n 。/w");
+
+    private File dir;
+
+    private NERPerceptron ner;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDir();
+        File train = new File(dir, "train.txt");
+        Files.asCharSink(train, StandardCharsets.UTF_8).writeLines(corpus);
+        ner = new NERPerceptronTrainer().train(train, train, 2, 1);
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(dir);
+    }
+
+    /**
+     * 词/词性 空格分隔
+     */
+    private static List<WordTerm> sentence(String text) {
+        List<WordTerm> list = new ArrayList<>();
+        for (String item : text.split(" ")) {
+            int p = item.lastIndexOf('/');
+            list.add(new WordTerm(item.substring(0, p), Nature.parse(item.substring(p + 1))));
+        }
+        return list;
+    }
+
+    private static List<String> flags(List<WordTerm> sentence) {
+        List<String> list = new ArrayList<>();
+        for (WordTerm term : sentence) {
+            list.add(term.getCustomFlag());
+        }
+        return list;
+    }
+
+    @Test
+    public void testNoBoundarySameAsDecode() {
+        String text = "他/r 在/p 北京/ns 大学/n 读书/v 家/n 在/p 上海/ns 前往/v 中国/ns 银行/n";
+
+        List<WordTerm> whole = sentence(text);
+        Assert.assertEquals(2, NERPerceptron.splitWindows(whole).length);
+        ner.decode(whole);
+
+        for (int threshold : new int[]{1, NERPerceptron.PARALLEL_THRESHOLD}) {
+            List<WordTerm> windowed = sentence(text);
+            ner.decodeWindows(windowed, threshold);
+            Assert.assertEquals(flags(whole), flags(windowed));
+        }
+        Assert.assertTrue(flags(whole).contains("B-nt"));
+    }
+
+    @Test
+    public void testParallelSameAsSequential() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            for (String line : corpus) {
+                if (text.length() > 0) {
+                    text.append(' ');
+                }
+                text.append(line.replace("[", "").replaceAll("]n[st]", ""));
+            }
+        }
+
+        List<WordTerm> sequential = sentence(text.toString());
+        Assert.assertTrue(NERPerceptron.splitWindows(sequential).length > 2 * 10);
+        ner.decodeWindows(sequential, Integer.MAX_VALUE);
+
+        // 多次并行解码，线程本地的缓冲区复用时结果也不变
+        for (int round = 0; round < 5; round++) {
+            List<WordTerm> parallel = sentence(text.toString());
+            ner.decodeWindows(parallel, 1);
+            Assert.assertEquals(flags(sequential), flags(parallel));
+        }
+
+        // 默认阈值下同样的句子走串行分支
+        List<WordTerm> byDefault = sentence(text.toString());
+        ner.decodeWindows(byDefault);
+        Assert.assertEquals(flags(sequential), flags(byDefault));
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
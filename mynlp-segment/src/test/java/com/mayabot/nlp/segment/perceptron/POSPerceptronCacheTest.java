@@ -0,0 +1,120 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.google.common.io.Files;
+import com.mayabot.nlp.perceptron.BasePerceptronModel;
+import com.mayabot.nlp.segment.Nature;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 使用词得分缓存的解码结果必须和decodeQuick一样，替换参数后缓存作废
+ */
+public class POSPerceptronCacheTest {
+
+    private static final List<String> corpus = Arrays.asList(
+            "我们/r 正在/d 努力/a 解决/v 这个/r 问题/n 。/w",
+            "北京/ns 大学/n 位于/v 海淀区/ns 。/w",
+            "他/r 在/p 上海/ns 读书/v ，/w 家/n 在/p 南京/ns 。/w",
+            "中国/ns 银行/n 在/p 广州/ns 开设/v 分行/n 。/w",
+            "代表团/n 今天/t 从/p 天津/ns 出发/v 。/w",
+            "科研/n 人员/n 靠/p 造假/v 可能/v 一时/d 得意/a 。/w");
+
+    private static final List<List<String>> sentences = Arrays.asList(
+            Arrays.asList("我们", "在", "北京", "读书", "。"),
+            Arrays.asList("代表团", "今天", "解决", "问题"),
+            Arrays.asList("科研", "人员", "从", "杭州", "出发", "，", "前往", "重庆"),
+            Arrays.asList("没有见过的词"),
+            Arrays.asList("银行"));
+
+    private File dir;
+
+    private POSPerceptron cached;
+
+    private POSPerceptron quick;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDir();
+        File train = new File(dir, "train.txt");
+        Files.asCharSink(train, StandardCharsets.UTF_8).writeLines(corpus);
+        File modelDir = new File(dir, "model");
+        new POSPerceptronTrainer().train(train, train, 2, 1).save(modelDir);
+
+        cached = POSPerceptron.load(modelDir);
+
+        // 同一个模型，不使用缓存时走decodeQuick
+        quick = new POSPerceptron(cached.getModel(), cached.getLabelList());
+        quick.setWordCacheSize(0);
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(dir);
+    }
+
+    private void assertSameAsQuick() {
+        // 第二遍命中缓存
+        for (int round = 0; round < 2; round++) {
+            for (List<String> sentence : sentences) {
+                Assert.assertEquals(sentence.toString(), quick.decode(sentence), cached.decode(sentence));
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsDecodeQuick() {
+        Assert.assertTrue(((BasePerceptronModel) cached.getModel()).getDecodeQuickModel());
+        assertSameAsQuick();
+    }
+
+    @Test
+    public void testParameterSwap() {
+        BasePerceptronModel model = (BasePerceptronModel) cached.getModel();
+        assertSameAsQuick();
+
+        // 随机扰动以后的新参数
+        float[] perturbed = model.getParameter().clone();
+        Random random = new Random(5);
+        for (int i = 0; i < perturbed.length; i++) {
+            perturbed[i] += (random.nextFloat() - 0.5f) * 4;
+        }
+        model.setParameter(perturbed);
+        assertSameAsQuick();
+
+        // 所有特征都只支持一个标签，缓存没有作废的话结果不可能全部是这个标签
+        Nature[] natures = cached.getNatureList();
+        int labelSize = natures.length;
+        int target = Arrays.asList(natures).indexOf(Nature.nz);
+        Assert.assertNotEquals(Nature.nz, cached.decode(sentences.get(0)).get(0));
+
+        float[] biased = new float[model.getParameter().length];
+        for (int i = target; i < biased.length; i += labelSize) {
+            biased[i] = 1f;
+        }
+        model.setParameter(biased);
+        assertSameAsQuick();
+        for (List<String> sentence : sentences) {
+            for (Nature nature : cached.decode(sentence)) {
+                Assert.assertEquals(Nature.nz, nature);
+            }
+            Assert.assertEquals(Nature.nz, cached.decode(sentence.get(0)));
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
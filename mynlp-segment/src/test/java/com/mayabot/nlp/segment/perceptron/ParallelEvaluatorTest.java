@@ -0,0 +1,139 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.mayabot.nlp.perceptron.ParallelEvaluator;
+import com.mayabot.nlp.perceptron.solution.ner.NEREvaluateUtils;
+import com.mayabot.nlp.perceptron.solution.ner.NERPerceptron;
+import com.mayabot.nlp.perceptron.solution.ner.NERPerceptronTrainer;
+import kotlin.Unit;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 多线程评估的结果必须和单线程一样
+ */
+public class ParallelEvaluatorTest {
+
+    private static final List<String> cwsCorpus = Arrays.asList(
+            "我们 正在 努力 解决 这个 问题",
+            "一旦 修好 我们 会 通知 你们",
+            "对于 由此 造成 的 不便 我们 深表 歉意",
+            "美国 哈佛 大学 医学院 近日 宣布",
+            "这 一 消息 震惊 全球 学术界",
+            "中国 南沙 和 西沙 群岛 远离 国际 航道",
+            "每年 各国 船只 能够 在 南海 安全 通行",
+            "科研 人员 靠 造假 可能 一时 得意",
+            "他 在 心肌 上 动 的 心机 终 被 揭穿",
+            "我们 将 继续 保持 更新");
+
+    private static final List<String> nerCorpus = Arrays.asList(
+            "[北京/ns 大学/n]nt 位于/v 北京/ns 海淀区/ns 。/w",
+            "[石景山/ns 热电厂/n]nt 今天/t 恢复/v 供电/vn 。/w",
+            "他/r 在/p [上海/ns 交通/n 大学/n]nt 读书/v ，/w 家/n 在/p 南京/ns 。/w",
+            "[中国/ns 银行/n]nt 在/p 广州/ns 开设/v 分行/n 。/w",
+            "代表团/n 从/p 天津/ns 出发/v ，/w 前往/v 杭州/ns 。/w",
+            "[清华/ns 大学/n]nt 和/c [北京/ns 大学/n]nt 签署/v 协议/n 。/w");
+
+    /**
+     * 句子打乱后重复多次，样本数超过一个批次，走多线程的分支
+     */
+    private static List<String> repeat(List<String> lines, List<String> extra) {
+        List<String> list = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            list.addAll(lines);
+            list.add(extra.get(random.nextInt(extra.size())));
+        }
+        Collections.shuffle(list, random);
+        return list;
+    }
+
+    @Test
+    public void testCounter() {
+        List<Integer> samples = new ArrayList<>();
+        for (int i = 0; i < 3001; i++) {
+            samples.add(i);
+        }
+        for (int threads : new int[]{1, 3, 8}) {
+            long[] counter = ParallelEvaluator.evaluate(samples, threads,
+                    () -> new long[2],
+                    (sample, c) -> {
+                        c[0]++;
+                        c[1] += sample;
+                        return Unit.INSTANCE;
+                    },
+                    (a, b) -> {
+                        a[0] += b[0];
+                        a[1] += b[1];
+                        return Unit.INSTANCE;
+                    });
+            Assert.assertEquals(3001, counter[0]);
+            Assert.assertEquals(3000L * 3001 / 2, counter[1]);
+        }
+    }
+
+    @Test
+    public void testCWS() throws IOException {
+        File dir = Files.createTempDir();
+        try {
+            File train = new File(dir, "train.txt");
+            Files.asCharSink(train, StandardCharsets.UTF_8).writeLines(cwsCorpus);
+            CWSPerceptron cws = new CWSPerceptronTrainer().train(train, train, 2, 1);
+
+            List<String> samples = repeat(cwsCorpus, Arrays.asList(
+                    "科研人员 正在 努力", "美国 南海 大学", "我们 会 继续"));
+            double[] expected = CWSEvaluate.INSTANCE.evaluate(samples, cws, 1);
+            for (int threads : new int[]{2, 4}) {
+                Assert.assertArrayEquals(expected, CWSEvaluate.INSTANCE.evaluate(samples, cws, threads), 1e-9);
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void testNER() throws IOException {
+        File dir = Files.createTempDir();
+        try {
+            File train = new File(dir, "train.txt");
+            Files.asCharSink(train, StandardCharsets.UTF_8).writeLines(nerCorpus);
+            NERPerceptron ner = new NERPerceptronTrainer().train(train, train, 2, 1);
+
+            // 没有实体的句子和没有见过的实体，标准答案要在解码之前取出
+            List<String> samples = repeat(nerCorpus, Arrays.asList(
+                    "他/r 今天/t 读书/v 。/w",
+                    "[复旦/ns 大学/n]nt 位于/v 上海/ns 。/w",
+                    "代表团/n 前往/v 重庆/ns 。/w"));
+            Set<String> targetPos = Sets.newHashSet("ns", "nt");
+
+            Map<String, double[]> expected = NEREvaluateUtils.INSTANCE.evaluateNER(ner, samples, targetPos, 1);
+            Assert.assertTrue(expected.containsKey("nt"));
+            Assert.assertTrue(expected.containsKey("avg."));
+            for (int threads : new int[]{2, 4}) {
+                Map<String, double[]> actual = NEREvaluateUtils.INSTANCE.evaluateNER(ner, samples, targetPos, threads);
+                Assert.assertEquals(expected.keySet(), actual.keySet());
+                for (String type : expected.keySet()) {
+                    Assert.assertArrayEquals(type, expected.get(type), actual.get(type), 1e-9);
+                }
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,128 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.google.common.io.Files;
+import com.mayabot.nlp.perceptron.DATFeatureSetBuilder;
+import com.mayabot.nlp.perceptron.FeatureSet;
+import com.mayabot.nlp.perceptron.ParallelFeatureSetBuilder;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function2;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 多线程构建的特征集合必须和单线程的DATFeatureSetBuilder一样
+ */
+public class ParallelFeatureSetBuilderTest {
+
+    private static final int LABEL_COUNT = 4;
+
+    private File dir;
+
+    private List<File> files;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDir();
+        files = new ArrayList<>();
+
+        // 小字表让特征有各种频次
+        Random random = new Random(21);
+        for (int f = 0; f < 3; f++) {
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 1500; i++) {
+                StringBuilder line = new StringBuilder();
+                int n = 1 + random.nextInt(30);
+                for (int j = 0; j < n; j++) {
+                    line.append((char) ('一' + random.nextInt(60)));
+                    if (random.nextInt(4) == 0) {
+                        line.append(' ');
+                    }
+                }
+                lines.add(line.toString());
+                if (i % 100 == 0) {
+                    lines.add("");
+                }
+            }
+            File file = new File(dir, "corpus" + f + ".txt");
+            Files.asCharSink(file, StandardCharsets.UTF_8).writeLines(lines);
+            files.add(file);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(dir);
+    }
+
+    private static final Function2<String, Consumer<String>, Unit> EXTRACTOR = (line, fit) -> {
+        char[] out = line.replace(" ", "").toCharArray();
+        for (int i = 0; i < out.length; i++) {
+            CWSPerceptronFeature.INSTANCE.extractFeature(out, out.length, i, fit);
+        }
+        return Unit.INSTANCE;
+    };
+
+    /**
+     * 单线程计数，再把达到频次的特征放进DATFeatureSetBuilder
+     */
+    private FeatureSet sequential(int minFrequency) throws IOException {
+        Map<String, Integer> counter = new HashMap<>();
+        for (File file : files) {
+            for (String line : Files.asCharSource(file, StandardCharsets.UTF_8).readLines()) {
+                if (!line.trim().isEmpty()) {
+                    EXTRACTOR.invoke(line, feature -> counter.merge(feature, 1, Integer::sum));
+                }
+            }
+        }
+        DATFeatureSetBuilder builder = new DATFeatureSetBuilder(LABEL_COUNT);
+        counter.forEach((feature, count) -> {
+            if (count >= minFrequency) {
+                builder.put(feature);
+            }
+        });
+        return builder.build();
+    }
+
+    private FeatureSet parallel(int threads, int minFrequency) {
+        ParallelFeatureSetBuilder builder = new ParallelFeatureSetBuilder(LABEL_COUNT, threads);
+        builder.count(files, EXTRACTOR);
+        return builder.build(minFrequency);
+    }
+
+    @Test
+    public void testSameAsSequential() throws IOException {
+        for (int minFrequency : new int[]{1, 2, 5}) {
+            FeatureSet expected = sequential(minFrequency);
+            for (int threads : new int[]{1, 4}) {
+                FeatureSet actual = parallel(threads, minFrequency);
+
+                Assert.assertEquals(expected.getKeys(), actual.getKeys());
+                Assert.assertEquals(expected.size(), actual.size());
+                for (String key : expected.getKeys()) {
+                    Assert.assertEquals(key, expected.featureId(key), actual.featureId(key));
+                }
+            }
+        }
+
+        // 频次的限制确实删除了特征
+        Assert.assertTrue(sequential(5).size() < sequential(1).size());
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,161 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.google.common.io.Files;
+import com.mayabot.nlp.perceptron.FeatureSet;
+import com.mayabot.nlp.perceptron.PerceptronModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 压缩以后保留的特征参数不变，保存和加载以后特征ID一致
+ */
+public class PerceptronModelCompressTest {
+
+    private static final List<String> corpus = Arrays.asList(
+            "我们 正在 努力 解决 这个 问题",
+            "一旦 修好 我们 会 通知 你们",
+            "对于 由此 造成 的 不便 我们 深表 歉意",
+            "美国 哈佛 大学 医学院 近日 宣布",
+            "这 一 消息 震惊 全球 学术界",
+            "中国 南沙 和 西沙 群岛 远离 国际 航道",
+            "每年 各国 船只 能够 在 南海 安全 通行",
+            "科研 人员 靠 造假 可能 一时 得意",
+            "他 在 心肌 上 动 的 心机 终 被 揭穿",
+            "我们 将 继续 保持 更新");
+
+    private static final List<String> texts = Arrays.asList(
+            "我们正在努力解决这个问题",
+            "美国哈佛大学医学院近日宣布这一消息",
+            "中国船只能够在南海安全通行",
+            "对于由此造成的不便我们深表歉意",
+            "科研人员靠造假可能一时得意");
+
+    private File dir;
+
+    private File modelDir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDir();
+        File train = new File(dir, "train.txt");
+        Files.asCharSink(train, StandardCharsets.UTF_8).writeLines(corpus);
+        modelDir = new File(dir, "model");
+        new CWSPerceptronTrainer().train(train, train, 3, 1).save(modelDir);
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(dir);
+    }
+
+    private PerceptronModel load(File dir) {
+        return PerceptronModel.Companion.load(dir);
+    }
+
+    private static Map<String, float[]> rows(PerceptronModel model) {
+        Map<String, float[]> map = new HashMap<>();
+        int labelCount = model.getLabelCount();
+        float[] parameter = model.getParameter();
+        List<String> keys = model.featureSet().getKeys();
+        for (int id = 0; id < keys.size(); id++) {
+            map.put(keys.get(id), Arrays.copyOfRange(parameter, id * labelCount, id * labelCount + labelCount));
+        }
+        return map;
+    }
+
+    private static List<List<String>> decode(PerceptronModel model) {
+        CWSPerceptron cws = new CWSPerceptron(model);
+        List<List<String>> result = new ArrayList<>();
+        for (String text : texts) {
+            result.add(cws.decodeToWordList(text));
+        }
+        return result;
+    }
+
+    @Test
+    public void testKeptFeaturesDecodeSame() {
+        PerceptronModel original = load(modelDir);
+        PerceptronModel compressed = load(modelDir);
+        int before = compressed.featureSet().size();
+        compressed.compress(0.3, 0.01);
+        int after = compressed.featureSet().size();
+        Assert.assertTrue(after < before);
+
+        // 保留的特征参数不变
+        Map<String, float[]> originalRows = rows(original);
+        Map<String, float[]> compressedRows = rows(compressed);
+        Assert.assertEquals(after, compressedRows.size());
+        for (Map.Entry<String, float[]> entry : compressedRows.entrySet()) {
+            Assert.assertArrayEquals(entry.getKey(), originalRows.get(entry.getKey()), entry.getValue(), 0f);
+        }
+
+        // 原模型中被删除的特征参数清零，解码结果和压缩后的模型一样
+        FeatureSet featureSet = original.featureSet();
+        float[] parameter = original.getParameter();
+        int labelCount = original.getLabelCount();
+        for (String key : originalRows.keySet()) {
+            if (!compressedRows.containsKey(key)) {
+                int id = featureSet.featureId(key);
+                Arrays.fill(parameter, id * labelCount, id * labelCount + labelCount, 0f);
+            }
+        }
+        Assert.assertEquals(decode(original), decode(compressed));
+    }
+
+    @Test
+    public void testIdsWithAndWithoutText() {
+        PerceptronModel compressed = load(modelDir);
+        compressed.compress(0.5, 0);
+
+        File saved = new File(dir, "compressed");
+        compressed.save(saved);
+        PerceptronModel withText = load(saved);
+
+        File datOnly = new File(dir, "dat-only");
+        datOnly.mkdirs();
+        for (String name : new String[]{"parameter.bin", "feature.dat"}) {
+            new File(saved, name).renameTo(new File(datOnly, name));
+        }
+        PerceptronModel withoutText = load(datOnly);
+        Assert.assertNull(withoutText.featureSet().getKeys());
+
+        List<String> keys = compressed.featureSet().getKeys();
+        Assert.assertEquals(keys, withText.featureSet().getKeys());
+        for (int id = 0; id < keys.size(); id++) {
+            String key = keys.get(id);
+            Assert.assertEquals(key, id, compressed.featureSet().featureId(key));
+            Assert.assertEquals(key, id, withText.featureSet().featureId(key));
+            Assert.assertEquals(key, id, withoutText.featureSet().featureId(key));
+        }
+
+        // 没有特征文本时从DAT中还原的特征和ID也一样
+        List<String> restored = new ArrayList<>();
+        withoutText.featureSet().forEachSortedKey((key, id) -> {
+            Assert.assertEquals(key, restored.size(), (int) id);
+            restored.add(key);
+            return kotlin.Unit.INSTANCE;
+        });
+        Assert.assertEquals(keys, restored);
+
+        Assert.assertArrayEquals(compressed.getParameter(), withoutText.getParameter(), 0f);
+        Assert.assertEquals(decode(compressed), decode(withText));
+        Assert.assertEquals(decode(compressed), decode(withoutText));
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
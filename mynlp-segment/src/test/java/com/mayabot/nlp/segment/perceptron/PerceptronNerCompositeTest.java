@@ -0,0 +1,106 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.mayabot.nlp.segment.Nature;
+import com.mayabot.nlp.segment.WordTerm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class PerceptronNerCompositeTest {
+
+    private static final String[] LABELS = {"O", "S", "B-nt", "M-nt", "E-nt", "B-ns", "E-ns"};
+
+    /**
+     * 随机的词序列，gap为true时词之间随机留出空白，negative为true时offset都是-1
+     */
+    private static List<WordTerm> randomSentence(Random random, StringBuilder text, boolean gap, boolean negative) {
+        List<WordTerm> list = new ArrayList<>();
+        int n = 1 + random.nextInt(12);
+        for (int i = 0; i < n; i++) {
+            if (gap && random.nextInt(3) == 0) {
+                text.append(' ');
+            }
+            StringBuilder word = new StringBuilder();
+            int len = 1 + random.nextInt(3);
+            for (int j = 0; j < len; j++) {
+                word.append((char) ('一' + random.nextInt(200)));
+            }
+            WordTerm term = new WordTerm(word.toString(), Nature.n, negative ? -1 : text.length());
+            term.setCustomFlag(LABELS[random.nextInt(LABELS.length)]);
+            text.append(word);
+            list.add(term);
+        }
+        return list;
+    }
+
+    /**
+     * 原来的实现：组合词逐个拼接子词
+     */
+    private static List<WordTerm> concatComposite(List<WordTerm> list) {
+        List<WordTerm> result = new ArrayList<>();
+        int from = -1;
+        String nerPOS = null;
+        for (int i = 0; i <= list.size(); i++) {
+            String label = i < list.size() ? list.get(i).getCustomFlag() : "O";
+            if ("O".equals(label) || "S".equals(label)) {
+                if (from != -1) {
+                    StringBuilder name = new StringBuilder();
+                    for (int j = from; j < i; j++) {
+                        name.append(list.get(j).word);
+                    }
+                    WordTerm group = new WordTerm(name.toString(), Nature.valueOf(nerPOS), list.get(from).getOffset());
+                    group.setSubword(new ArrayList<>(list.subList(from, i)));
+                    result.add(group);
+                    from = -1;
+                }
+                if (i < list.size()) {
+                    result.add(list.get(i));
+                }
+            } else if (from == -1) {
+                from = i;
+                nerPOS = label.substring(2);
+            }
+        }
+        return result;
+    }
+
+    private static void assertSame(List<WordTerm> expected, List<WordTerm> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            WordTerm e = expected.get(i);
+            WordTerm a = actual.get(i);
+            Assert.assertEquals(e.word, a.word);
+            Assert.assertEquals(e.getOffset(), a.getOffset());
+            Assert.assertEquals(e.getNature(), a.getNature());
+            Assert.assertEquals(e.getSubword(), a.getSubword());
+        }
+    }
+
+    @Test
+    public void testSameAsConcat() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            StringBuilder text = new StringBuilder();
+            List<WordTerm> list = randomSentence(random, text, round % 2 == 1, round % 10 == 9);
+
+            List<WordTerm> expected = concatComposite(list);
+            assertSame(expected, PerceptronNerService.toNerComposite(list));
+            assertSame(expected, PerceptronNerService.toNerComposite(text.toString(), list));
+        }
+    }
+
+    @Test
+    public void testRebuildText() {
+        List<WordTerm> list = new ArrayList<>();
+        list.add(new WordTerm("上海", Nature.ns, 0));
+        list.add(new WordTerm("万行", Nature.nz, 3));
+        list.add(new WordTerm("公司", Nature.n, 5));
+        Assert.assertEquals("上海 万行公司", PerceptronNerService.rebuildText(list));
+
+        list.add(new WordTerm("注册", Nature.v, 6));
+        Assert.assertNull(PerceptronNerService.rebuildText(list));
+    }
+}
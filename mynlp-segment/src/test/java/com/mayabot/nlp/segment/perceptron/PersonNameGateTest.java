@@ -0,0 +1,178 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 人名预过滤的窗口、字符表的保存加载，以及预过滤以后识别的人名
+ */
+public class PersonNameGateTest {
+
+    private static final List<String> corpus = Arrays.asList(
+            "记O﹍者O﹍王B﹍小M﹍明E﹍报O﹍道O",
+            "今O﹍天O﹍李B﹍华E﹍来O﹍到O﹍北O﹍京O",
+            "演O﹍员O﹍赵B﹍敏E﹍在O﹍上O﹍海O﹍表O﹍演O",
+            "王B﹍芳E﹍和O﹍李B﹍明E﹍是O﹍同O﹍学O",
+            "我O﹍们O﹍见O﹍到O﹍了O﹍张B﹍小M﹍华E",
+            "记O﹍者O﹍李B﹍伟E﹍在O﹍北O﹍京O﹍报O﹍道O",
+            "今O﹍天O﹍王B﹍明E﹍和O﹍张B﹍芳E﹍来O﹍了O",
+            "这O﹍是O﹍一O﹍个O﹍好O﹍消O﹍息O");
+
+    private File dir;
+
+    private File train;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDir();
+        train = new File(dir, "train.txt");
+        Files.asCharSink(train, StandardCharsets.UTF_8).writeLines(corpus);
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(dir);
+    }
+
+    private static PersonNameGate gate(String surname, String given) {
+        BitSet s = new BitSet();
+        surname.chars().forEach(s::set);
+        BitSet g = new BitSet();
+        given.chars().forEach(g::set);
+        return new PersonNameGate(s, g);
+    }
+
+    /**
+     * 用'的'填充的句子，在指定位置放上"王明"
+     */
+    private static char[] sentence(int length, int... positions) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, '的');
+        for (int p : positions) {
+            chars[p] = '王';
+            chars[p + 1] = '明';
+        }
+        return chars;
+    }
+
+    @Test
+    public void testWindows() {
+        PersonNameGate gate = gate("王", "明");
+        int span = PersonNameGate.MAX_NAME_LENGTH + PersonNameGate.CONTEXT;
+
+        // 空句子、一个字的句子、没有候选人名的句子
+        Assert.assertArrayEquals(new int[0], gate.windows(new char[0]));
+        Assert.assertArrayEquals(new int[0], gate.windows("王".toCharArray()));
+        Assert.assertArrayEquals(new int[0], gate.windows("明王".toCharArray()));
+        Assert.assertArrayEquals(new int[0], gate.windows(sentence(20)));
+
+        // 句子的开头和结尾截断窗口
+        Assert.assertArrayEquals(new int[]{0, 2}, gate.windows("王明".toCharArray()));
+        Assert.assertArrayEquals(new int[]{0, span}, gate.windows(sentence(20, 0)));
+        Assert.assertArrayEquals(new int[]{18 - PersonNameGate.CONTEXT, 20}, gate.windows(sentence(20, 18)));
+
+        // 窗口相接或者重叠时合并，分开时各自一个窗口
+        Assert.assertArrayEquals(new int[]{0, span + 10}, gate.windows(sentence(30, 0, 10)));
+        Assert.assertArrayEquals(new int[]{0, span + 3}, gate.windows(sentence(30, 0, 3)));
+        Assert.assertArrayEquals(new int[]{0, span, 11 - PersonNameGate.CONTEXT, 11 + span},
+                gate.windows(sentence(30, 0, 11)));
+
+        // 超过初始容量的窗口数量
+        int[] positions = new int[6];
+        int[] expected = new int[12];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = 5 + i * 15;
+            expected[i * 2] = positions[i] - PersonNameGate.CONTEXT;
+            expected[i * 2 + 1] = positions[i] + span;
+        }
+        Assert.assertArrayEquals(expected, gate.windows(sentence(100, positions)));
+    }
+
+    @Test
+    public void testBuildSaveLoad() throws IOException {
+        PersonNameGate gate = PersonNameGate.build(Collections.singletonList(train));
+        Assert.assertTrue(gate.isSurname('王'));
+        Assert.assertTrue(gate.isSurname('张'));
+        Assert.assertTrue(gate.isGiven('小'));
+        Assert.assertTrue(gate.isGiven('芳'));
+        Assert.assertFalse(gate.isSurname('明'));
+        Assert.assertFalse(gate.isGiven('记'));
+
+        // 只出现一次的字被过滤
+        PersonNameGate frequent = PersonNameGate.build(Collections.singletonList(train), 2);
+        Assert.assertTrue(frequent.isSurname('王'));
+        Assert.assertTrue(frequent.isGiven('明'));
+        Assert.assertTrue(gate.isSurname('赵'));
+        Assert.assertFalse(frequent.isSurname('赵'));
+        Assert.assertTrue(gate.isGiven('敏'));
+        Assert.assertFalse(frequent.isGiven('敏'));
+
+        File file = new File(dir, "gate.txt");
+        gate.save(file);
+        PersonNameGate loaded = PersonNameGate.load(file);
+        for (int c = 0; c < 0x10000; c++) {
+            Assert.assertEquals(gate.isSurname((char) c), loaded.isSurname((char) c));
+            Assert.assertEquals(gate.isGiven((char) c), loaded.isGiven((char) c));
+        }
+
+        // 在线学习加入的字也能保存
+        loaded.addName("欧阳娜娜");
+        loaded.addName("欧");
+        Assert.assertTrue(loaded.isSurname('欧'));
+        Assert.assertTrue(loaded.isGiven('阳'));
+        Assert.assertTrue(loaded.isGiven('娜'));
+        loaded.save(file);
+        PersonNameGate reloaded = PersonNameGate.load(file);
+        Assert.assertTrue(reloaded.isSurname('欧'));
+        Assert.assertTrue(reloaded.isGiven('阳'));
+    }
+
+    @Test
+    public void testGatedSameAsFull() throws IOException {
+        PersonNamePerceptron perceptron = new NRPerceptronTrainer().train(train, train, 5, 1);
+        PersonNameGate gate = perceptron.getGate();
+        Assert.assertNotNull(gate);
+
+        List<String> texts = Arrays.asList(
+                "记者王小明在北京报道",
+                "今天我们见到了张伟和李华",
+                "这是一个好消息");
+        for (String text : texts) {
+            List<PersonName> full = perceptron.findPersonName(text.toCharArray(), null);
+            List<PersonName> gated = perceptron.findPersonName(text.toCharArray(), gate);
+            Assert.assertEquals(text, full, gated);
+        }
+
+        List<PersonName> names = perceptron.findPersonName("记者王小明在北京报道".toCharArray());
+        Assert.assertTrue(names.contains(new PersonName("王小明", 2)));
+        Assert.assertEquals(0, gate.windows("这是一个好消息".toCharArray()).length);
+
+        // 保存加载以后使用保存的字符表
+        File modelDir = new File(dir, "model");
+        perceptron.save(modelDir);
+        Assert.assertTrue(new File(modelDir, "gate.txt").exists());
+        PersonNamePerceptron loaded = PersonNamePerceptron.load(modelDir);
+        for (String text : texts) {
+            Assert.assertEquals(text, perceptron.findPersonName(text.toCharArray()),
+                    loaded.findPersonName(text.toCharArray()));
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
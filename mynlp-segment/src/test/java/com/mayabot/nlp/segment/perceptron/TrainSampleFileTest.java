@@ -0,0 +1,248 @@
+package com.mayabot.nlp.segment.perceptron;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.google.common.io.Files;
+import com.mayabot.nlp.perceptron.TrainSample;
+import com.mayabot.nlp.perceptron.TrainSampleFile;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function1;
+import kotlin.jvm.functions.Function2;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 样本写入磁盘再读出来，必须和原来的样本一样
+ */
+public class TrainSampleFileTest {
+
+    private File dir;
+
+    private List<String> corpus;
+
+    @Before
+    public void setUp() {
+        dir = Files.createTempDir();
+
+        // 一行是一个样本，每个字是 标签:特征,特征...
+        corpus = new ArrayList<>();
+        Random random = new Random(17);
+        int[] bounds = {0x7F, 0x3FFF, 0x1FFFFF, 0xFFFFFFF, Integer.MAX_VALUE - 1};
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder line = new StringBuilder();
+            int n = 1 + random.nextInt(8);
+            for (int j = 0; j < n; j++) {
+                if (j > 0) {
+                    line.append(' ');
+                }
+                line.append(random.nextInt(4)).append(':');
+                int m = random.nextInt(6);
+                for (int k = 0; k < m; k++) {
+                    if (k > 0) {
+                        line.append(',');
+                    }
+                    // 覆盖varint的各种长度，-1是不存在的特征
+                    int bound = bounds[random.nextInt(bounds.length)];
+                    line.append(random.nextInt(10) == 0 ? -1 : random.nextInt(bound + 1));
+                }
+            }
+            corpus.add(line.toString());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(dir);
+    }
+
+    private static TrainSample parse(String line) {
+        String[] words = line.split(" ");
+        int[] label = new int[words.length];
+        List<IntArrayList> matrix = new ArrayList<>();
+        for (int i = 0; i < words.length; i++) {
+            int p = words[i].indexOf(':');
+            label[i] = Integer.parseInt(words[i].substring(0, p));
+            IntArrayList vector = new IntArrayList();
+            if (p + 1 < words[i].length()) {
+                for (String f : words[i].substring(p + 1).split(",")) {
+                    vector.add(Integer.parseInt(f));
+                }
+            }
+            matrix.add(vector);
+        }
+        return new TrainSample(matrix, label);
+    }
+
+    private static String format(TrainSample sample) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < sample.getSize(); i++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            line.append(sample.getLabel()[i]).append(':');
+            IntArrayList vector = sample.getFeatureMatrix().get(i);
+            for (int k = 0; k < vector.size(); k++) {
+                if (k > 0) {
+                    line.append(',');
+                }
+                line.append(vector.get(k));
+            }
+        }
+        return line.toString();
+    }
+
+    private static final Function2<String, Function1<? super TrainSample, Unit>, Unit> CONVERTER = (line, out) -> {
+        out.invoke(parse(line));
+        return Unit.INSTANCE;
+    };
+
+    private List<File> inputs() throws IOException {
+        File in = new File(dir, "in");
+        in.mkdirs();
+        File a = new File(in, "a.txt");
+        File b = new File(in, "b.txt");
+        List<String> first = new ArrayList<>(corpus.subList(0, 1000));
+        first.add("");
+        first.add("   ");
+        Files.asCharSink(a, StandardCharsets.UTF_8).writeLines(first);
+        Files.asCharSink(b, StandardCharsets.UTF_8).writeLines(corpus.subList(1000, corpus.size()));
+        return Arrays.asList(a, b);
+    }
+
+    private static List<String> read(TrainSampleFile file, int epoch) {
+        List<String> list = new ArrayList<>();
+        Iterator<TrainSample> it = file.epoch(epoch);
+        while (it.hasNext()) {
+            list.add(format(it.next()));
+        }
+        return list;
+    }
+
+    private static List<String> sorted(List<String> list) {
+        List<String> copy = new ArrayList<>(list);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File out = new File(dir, "samples");
+        Assert.assertEquals(corpus.size(), TrainSampleFile.write(out, inputs(), 3, CONVERTER));
+
+        // 每个线程一个part文件
+        Assert.assertEquals(3, out.listFiles((d, name) -> name.startsWith("part-")).length);
+
+        try (TrainSampleFile file = new TrainSampleFile(out, false)) {
+            Assert.assertEquals(corpus.size(), file.size());
+            Assert.assertEquals(sorted(corpus), sorted(read(file, 0)));
+            // 不打乱的时候每一轮都一样
+            Assert.assertEquals(read(file, 0), read(file, 1));
+        }
+
+        try (TrainSampleFile file = new TrainSampleFile(out, true, 2, 5)) {
+            List<String> epoch0 = read(file, 0);
+            List<String> epoch1 = read(file, 1);
+            Assert.assertEquals(sorted(corpus), sorted(epoch0));
+            Assert.assertEquals(sorted(corpus), sorted(epoch1));
+            Assert.assertNotEquals(epoch0, epoch1);
+
+            // 相同的种子和轮次，顺序是确定的
+            try (TrainSampleFile other = new TrainSampleFile(out, true, 2, 5)) {
+                Assert.assertEquals(epoch0, read(other, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testSingleThreadKeepOrder() throws IOException {
+        File out = new File(dir, "samples");
+        // 旧的part文件会被删除
+        out.mkdirs();
+        Files.write(new byte[]{1, 2, 3}, new File(out, "part-00009.bin"));
+
+        Assert.assertEquals(corpus.size(), TrainSampleFile.write(out, inputs(), 1, CONVERTER));
+        try (TrainSampleFile file = new TrainSampleFile(out, false)) {
+            Assert.assertEquals(corpus, read(file, 0));
+        }
+    }
+
+    @Test
+    public void testSmallBlocks() throws IOException {
+        File out = new File(dir, "samples");
+        out.mkdirs();
+        // 两个part文件，块的大小不能整除样本数
+        try (TrainSampleFile.Writer a = new TrainSampleFile.Writer(new File(out, "part-00000.bin"), 7);
+             TrainSampleFile.Writer b = new TrainSampleFile.Writer(new File(out, "part-00001.bin"), 7)) {
+            for (int i = 0; i < corpus.size(); i++) {
+                (i < 100 ? a : b).write(parse(corpus.get(i)));
+            }
+        }
+
+        try (TrainSampleFile file = new TrainSampleFile(out, false)) {
+            Assert.assertEquals(corpus, read(file, 0));
+        }
+        try (TrainSampleFile file = new TrainSampleFile(out, true, 3, 0)) {
+            for (int epoch = 0; epoch < 3; epoch++) {
+                Assert.assertEquals(sorted(corpus), sorted(read(file, epoch)));
+            }
+        }
+    }
+
+    @Test
+    public void testConverterError() throws IOException {
+        List<File> inputs = inputs();
+        File out = new File(dir, "samples");
+        Function2<String, Function1<? super TrainSample, Unit>, Unit> converter = (line, sink) -> {
+            if (line.equals(corpus.get(1500))) {
+                throw new IllegalArgumentException(line);
+            }
+            return CONVERTER.invoke(line, sink);
+        };
+        try {
+            TrainSampleFile.write(out, inputs, 3, converter);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testWriterOpenError() throws IOException {
+        List<File> inputs = inputs();
+        File out = new File(dir, "samples");
+        // 和part文件同名的目录，线程打开文件失败
+        new File(out, "part-00001.bin").mkdirs();
+        try {
+            TrainSampleFile.write(out, inputs, 3, CONVERTER);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+
+        // 唯一的线程打开失败，批次数量超过队列的容量也不能阻塞
+        File single = new File(dir, "single");
+        new File(single, "part-00000.bin").mkdirs();
+        try {
+            TrainSampleFile.write(single, inputs, 1, CONVERTER);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,210 @@
+package com.mayabot.nlp.segment.tenant;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.mayabot.nlp.MynlpEnv;
+import com.mayabot.nlp.Settings;
+import com.mayabot.nlp.resources.FileNlpResourceFactory;
+import com.mayabot.nlp.segment.MynlpTokenizer;
+import com.mayabot.nlp.segment.PipelineTokenizerBuilder;
+import com.mayabot.nlp.segment.WordTerm;
+import com.mayabot.nlp.segment.dictionary.CorrectionDictionary;
+import com.mayabot.nlp.segment.dictionary.CustomDictionary;
+import com.mayabot.nlp.segment.dictionary.correction.MemCorrectionDictionary;
+import com.mayabot.nlp.segment.dictionary.custom.MemCustomDictionary;
+import com.mayabot.nlp.segment.tokenizer.xprocessor.CorrectionWordpathProcessor;
+import com.mayabot.nlp.segment.tokenizer.xprocessor.CustomDictionaryProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class TenantTokenizerRegistryTest {
+
+    private static final String TEXT = "苹果手机华为手机小米手机";
+
+    /**
+     * 只输出自定义词典中的词，不需要核心词典等资源
+     */
+    static class DictionaryTokenizerBuilder extends PipelineTokenizerBuilder {
+
+        private CustomDictionary dictionary;
+
+        @Override
+        public <T> PipelineTokenizerBuilder setComponent(Class<T> clazz, T component) {
+            if (component instanceof CustomDictionaryProcessor) {
+                dictionary = ((CustomDictionaryProcessor) component).getDictionary();
+            }
+            if (component instanceof CorrectionWordpathProcessor) {
+                corrections.add(((CorrectionWordpathProcessor) component).getDictionaries());
+            }
+            return super.setComponent(clazz, component);
+        }
+
+        @Override
+        public MynlpTokenizer build() {
+            CustomDictionary dictionary = this.dictionary;
+            return (text, consumer) -> dictionary.match(text, (offset, length) ->
+                    consumer.accept(new WordTerm(new String(text, offset, length), null, offset)));
+        }
+    }
+
+    private final Map<String, String[]> words = new HashMap<>();
+
+    private final Map<String, Integer> loads = new HashMap<>();
+
+    private static final List<List<CorrectionDictionary>> corrections = new ArrayList<>();
+
+    private final TreeMap<String, Integer> shared = new TreeMap<>();
+
+    private final MemCorrectionDictionary sharedCorrection = new MemCorrectionDictionary();
+
+    private TenantTokenizerRegistry registry(int maxTenants) {
+        words.put("a", new String[]{"苹果手机"});
+        words.put("b", new String[]{"华为手机"});
+        words.put("c", new String[]{"小米手机", "苹果手机"});
+
+        return new TenantTokenizerRegistry(DictionaryTokenizerBuilder::new, tenant -> {
+            loads.merge(tenant, 1, Integer::sum);
+            String[] list = words.get(tenant);
+            if (list == null) {
+                throw new IOException("not found tenant " + tenant);
+            }
+            if (list.length == 0) {
+                return new TenantDictionary(tenant, null, null);
+            }
+            TreeMap<String, Integer> map = new TreeMap<>();
+            for (String word : list) {
+                map.put(word, 1000);
+            }
+            return new TenantDictionary(tenant, new MemCustomDictionary(map), null);
+        }, new MemCustomDictionary(shared), sharedCorrection, maxTenants);
+    }
+
+    @Test
+    public void testSharedDictionary() {
+        shared.put("小米手机", 1000);
+        shared.put("苹果手机", 1000);
+        words.put("empty", new String[0]);
+        corrections.clear();
+        TenantTokenizerRegistry registry = registry(10);
+
+        // 全局的词对租户仍然有效，两边都有的词只输出一次
+        Assert.assertEquals(Arrays.asList("苹果手机", "小米手机"), registry.getTokenizer("a").tokenToStringList(TEXT));
+        Assert.assertEquals(Arrays.asList("苹果手机", "华为手机", "小米手机"), registry.getTokenizer("b").tokenToStringList(TEXT));
+        Assert.assertEquals(Arrays.asList("苹果手机", "小米手机"), registry.getTokenizer("c").tokenToStringList(TEXT));
+        // 没有自己的自定义词典的租户使用全局词典
+        Assert.assertEquals(Arrays.asList("苹果手机", "小米手机"), registry.getTokenizer("empty").tokenToStringList(TEXT));
+
+        // 纠错处理器先用共享的纠错词典
+        Assert.assertEquals(4, corrections.size());
+        for (List<CorrectionDictionary> list : corrections) {
+            Assert.assertSame(sharedCorrection, list.get(0));
+        }
+    }
+
+    @Test
+    public void testIsolation() {
+        TenantTokenizerRegistry registry = registry(10);
+
+        Assert.assertEquals(Collections.singletonList("苹果手机"), registry.getTokenizer("a").tokenToStringList(TEXT));
+        Assert.assertEquals(Collections.singletonList("华为手机"), registry.getTokenizer("b").tokenToStringList(TEXT));
+        Assert.assertEquals(Arrays.asList("苹果手机", "小米手机"), registry.getTokenizer("c").tokenToStringList(TEXT));
+
+        // 同一个租户复用分词器
+        Assert.assertSame(registry.getTokenizer("a"), registry.getTokenizer("a"));
+        Assert.assertEquals(3, registry.getLoadCount());
+        Assert.assertEquals(3, registry.getActiveTenantCount());
+
+        registry.invalidate("a");
+        Assert.assertEquals(Collections.singletonList("苹果手机"), registry.getTokenizer("a").tokenToStringList(TEXT));
+        Assert.assertEquals(2, (int) loads.get("a"));
+    }
+
+    @Test
+    public void testEviction() {
+        TenantTokenizerRegistry registry = registry(2);
+
+        registry.getTokenizer("a");
+        registry.getTokenizer("b");
+        registry.getTokenizer("a");
+        // 最久没有使用的是b
+        registry.getTokenizer("c");
+
+        Assert.assertEquals(2, registry.getActiveTenantCount());
+        Assert.assertEquals(1, registry.getEvictionCount());
+
+        registry.getTokenizer("a");
+        Assert.assertEquals(1, (int) loads.get("a"));
+
+        Assert.assertEquals(Collections.singletonList("华为手机"), registry.getTokenizer("b").tokenToStringList(TEXT));
+        Assert.assertEquals(2, (int) loads.get("b"));
+        Assert.assertEquals(2, registry.getEvictionCount());
+    }
+
+    @Test
+    public void testLoadError() {
+        TenantTokenizerRegistry registry = registry(10);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                registry.getTokenizer("missing");
+                Assert.fail();
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+
+        // 加载失败不缓存，每次都重新加载
+        Assert.assertEquals(2, (int) loads.get("missing"));
+        Assert.assertEquals(0, registry.getActiveTenantCount());
+        Assert.assertEquals(Collections.singletonList("苹果手机"), registry.getTokenizer("a").tokenToStringList(TEXT));
+    }
+
+    @Test
+    public void testLoadTenantDictionary() throws IOException {
+        File dir = Files.createTempDir();
+        try {
+            File tenantDir = new File(dir, "tenant/shop-a_1");
+            tenantDir.mkdirs();
+            Files.asCharSink(new File(tenantDir, "custom.txt"), StandardCharsets.UTF_8)
+                    .writeLines(Arrays.asList("苹果手机", "华为手机 nz"));
+            // 租户目录以外的词典
+            Files.asCharSink(new File(dir, "custom.txt"), StandardCharsets.UTF_8)
+                    .writeLines(Collections.singletonList("小米手机"));
+
+            MynlpEnv env = new MynlpEnv(dir, dir, ImmutableList.of(new FileNlpResourceFactory(dir)), Settings.createEmpty());
+
+            TenantDictionary dictionary = TenantDictionary.load(env, "tenant", "shop-a_1");
+            Assert.assertNotNull(dictionary.getCustomDictionary().getTrie().get("苹果手机"));
+            Assert.assertNotNull(dictionary.getCustomDictionary().getTrie().get("华为手机"));
+            Assert.assertNull(dictionary.getCorrectionDictionary());
+
+            Assert.assertNull(TenantDictionary.load(env, "tenant", "other").getCustomDictionary());
+
+            for (String tenant : Arrays.asList("..", "../tenant", "a/b", "a\\b", "", " a", "a.b", null)) {
+                try {
+                    TenantDictionary.load(env, "tenant/x", tenant);
+                    Assert.fail(tenant);
+                } catch (IllegalArgumentException e) {
+                    // ok
+                }
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,165 @@
+package com.mayabot.nlp.segment.tokenizer.bestpath;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.mayabot.nlp.MynlpEnv;
+import com.mayabot.nlp.Settings;
+import com.mayabot.nlp.resources.FileNlpResourceFactory;
+import com.mayabot.nlp.segment.common.VertexHelper;
+import com.mayabot.nlp.segment.dictionary.core.CoreBiGramTableDictionary;
+import com.mayabot.nlp.segment.dictionary.core.CoreDictionary;
+import com.mayabot.nlp.segment.wordnet.KBestPath;
+import com.mayabot.nlp.segment.wordnet.Vertex;
+import com.mayabot.nlp.segment.wordnet.Wordnet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 在小词图上穷举所有路径，检查selectK返回的前K条路径和顺序
+ */
+public class ViterbiKBestPathTest {
+
+    private static final String[] WORDS = {
+            "中华人民共和国", "中华", "华人", "人民", "共和国", "共和", "和国", "成立", "立了",
+            "中", "华", "人", "民", "共", "和", "国", "成", "立", "了"};
+
+    private File dir;
+
+    private CoreDictionary coreDictionary;
+
+    private ViterbiBestPathAlgorithm algorithm;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDir();
+        File dictDir = new File(dir, "dictionary");
+        dictDir.mkdirs();
+
+        Random random = new Random(3);
+        List<String> core = new ArrayList<>();
+        for (String word : WORDS) {
+            core.add(word + " " + (1 + random.nextInt(5000)));
+        }
+        Files.asCharSink(new File(dictDir, "CoreDict.txt"), StandardCharsets.UTF_8).writeLines(core);
+
+        List<String> bigram = new ArrayList<>();
+        for (String a : WORDS) {
+            bigram.add(a);
+            for (String b : WORDS) {
+                if (random.nextInt(3) == 0) {
+                    bigram.add("\t" + (1 + random.nextInt(300)) + " " + b + " ");
+                }
+            }
+        }
+        Files.asCharSink(new File(dictDir, "CoreDict.bigram.txt"), StandardCharsets.UTF_8).writeLines(bigram);
+
+        File cache = new File(dir, "cache");
+        cache.mkdirs();
+        MynlpEnv env = new MynlpEnv(dir, cache, ImmutableList.of(new FileNlpResourceFactory(dir)), Settings.createEmpty());
+
+        coreDictionary = new CoreDictionary(env);
+        algorithm = new ViterbiBestPathAlgorithm(new CoreBiGramTableDictionary(coreDictionary, env), coreDictionary);
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(dir);
+    }
+
+    private Wordnet wordnet(String text) {
+        char[] chars = text.toCharArray();
+        Wordnet wordnet = new Wordnet(chars);
+        wordnet.getBeginRow().put(VertexHelper.newBegin());
+        wordnet.getEndRow().put(VertexHelper.newEnd());
+        for (int i = 0; i < chars.length; i++) {
+            for (String word : WORDS) {
+                if (i + word.length() <= chars.length && word.equals(new String(chars, i, word.length()))) {
+                    int wordId = coreDictionary.indexOf(word);
+                    wordnet.put(i, new Vertex(word.length(), wordId, coreDictionary.get(wordId)));
+                }
+            }
+        }
+        return wordnet;
+    }
+
+    static class Path {
+        final List<Integer> lengths;
+        final double weight;
+
+        Path(List<Integer> lengths, double weight) {
+            this.lengths = lengths;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 深度优先穷举开始节点到结束节点的所有路径，边的权重和selectK一样用calculateWeight计算
+     */
+    private void enumerate(Wordnet wordnet, Vertex from, int offset, List<Integer> lengths,
+                           double weight, List<Path> result) {
+        if (offset == wordnet.getCharSizeLength()) {
+            Vertex end = wordnet.getEndRow().first();
+            result.add(new Path(new ArrayList<>(lengths), weight + algorithm.calculateWeight(from, end)));
+            return;
+        }
+        for (Vertex v = wordnet.row(offset).first(); v != null; v = v.next()) {
+            lengths.add(v.length);
+            enumerate(wordnet, v, offset + v.length, lengths, weight + algorithm.calculateWeight(from, v), result);
+            lengths.remove(lengths.size() - 1);
+        }
+    }
+
+    private static List<Integer> lengths(KBestPath path) {
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < path.size(); i++) {
+            list.add(path.length(i));
+        }
+        return list;
+    }
+
+    @Test
+    public void testSameAsEnumeration() {
+        for (String text : Arrays.asList("中华人民共和国成立了", "人民共和国", "中华人民", "成立了", "国")) {
+            Wordnet wordnet = wordnet(text);
+            List<Path> all = new ArrayList<>();
+            enumerate(wordnet, wordnet.getBeginRow().first(), 0, new ArrayList<>(), 0, all);
+            all.sort(Comparator.comparingDouble(p -> p.weight));
+
+            // 权重互不相同，顺序才是确定的
+            for (int i = 1; i < all.size(); i++) {
+                Assert.assertTrue(all.get(i).weight - all.get(i - 1).weight > 1e-9);
+            }
+
+            for (int k : new int[]{1, 2, 3, 5, all.size(), all.size() + 3}) {
+                List<KBestPath> top = algorithm.selectK(wordnet(text), k);
+
+                Assert.assertEquals(text, Math.min(k, all.size()), top.size());
+                for (int i = 0; i < top.size(); i++) {
+                    Assert.assertEquals(text, all.get(i).lengths, lengths(top.get(i)));
+                    Assert.assertEquals(text, all.get(i).weight, top.get(i).getWeight(), 1e-9);
+                }
+            }
+
+            // 第一条和viterbi的最优路径一样
+            Assert.assertEquals(algorithm.select(wordnet(text)).toString(),
+                    algorithm.selectK(wordnet(text), 1).get(0).toWordpath(wordnet(text)).toString());
+        }
+    }
+
+    private static void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -1,32 +1,38 @@
 package com.mayabot.nlp.transform;
 
-import com.mayabot.nlp.Mynlp;
-import com.mayabot.nlp.Mynlps;
-import com.mayabot.nlp.collection.ahocorasick.AhoCoraickDoubleArrayTrieBuilder;
+import com.mayabot.nlp.MynlpEnv;
 import com.mayabot.nlp.collection.ahocorasick.AhoCorasickDoubleArrayTrie;
+import com.mayabot.nlp.collection.ahocorasick.AhoCorasickDoubleArrayTrieCache;
+import com.mayabot.nlp.collection.ahocorasick.MatchKind;
+import com.mayabot.nlp.resources.NlpResource;
 import com.mayabot.nlp.utils.CharSourceLineReader;
 
 import java.io.IOException;
 import java.util.TreeMap;
+import java.util.function.Function;
 
 /**
  * 繁简体转换基础词典
+ * <p>
+ * 构建好的自动机缓存在cacheDir中，词典文件不变时启动直接读取缓存
  *
  * @author jimichan
  */
 public abstract class BaseTransformDictionary {
 
-    public abstract TreeMap<String, String> loadDictionary();
+    private final MynlpEnv env;
 
     AhoCorasickDoubleArrayTrie<String> trie;
 
-    TreeMap<String, String> loadFromResouce(String resourceName) {
-        TreeMap<String, String> treeMap = new TreeMap<>();
+    /**
+     * @return 词典的资源名称
+     */
+    public abstract String resourceName();
 
-        try {
+    public TreeMap<String, String> loadDictionary() {
+        TreeMap<String, String> treeMap = new TreeMap<>();
 
-            Mynlp mynlp = Mynlps.get();
-            CharSourceLineReader charSourceLineReader = mynlp.getEnv().loadResource(resourceName).openLineReader();
+        try (CharSourceLineReader charSourceLineReader = resource().openLineReader()) {
 
             charSourceLineReader.forEachRemaining(
                     line -> {
@@ -43,9 +49,19 @@ public abstract class BaseTransformDictionary {
         return treeMap;
     }
 
-    public BaseTransformDictionary() {
-        AhoCoraickDoubleArrayTrieBuilder<String> builder = new AhoCoraickDoubleArrayTrieBuilder<>();
-        trie = builder.build(loadDictionary());
+    public BaseTransformDictionary(MynlpEnv env) {
+        this.env = env;
+        trie = AhoCorasickDoubleArrayTrieCache.restore(env,
+                getClass().getSimpleName(), AhoCorasickDoubleArrayTrieCache.sourceVersion("", resource()),
+                this::loadDictionary, Function.identity(), Function.identity());
+    }
+
+    private NlpResource resource() {
+        NlpResource resource = env.loadResource(resourceName());
+        if (resource == null) {
+            throw new RuntimeException("Not found " + resourceName());
+        }
+        return resource;
     }
 
     public String transform(String text) {
@@ -53,26 +69,14 @@ public abstract class BaseTransformDictionary {
     }
 
     public String transform(char[] charArray) {
-
-        final String[] wordNet = new String[charArray.length];
-        final int[] lengthNet = new int[charArray.length];
-        trie.parseText(charArray, (begin, end, value) -> {
-            int length = end - begin;
-            if (length > lengthNet[begin]) {
-                wordNet[begin] = value;
-                lengthNet[begin] = length;
-            }
-        });
         StringBuilder sb = new StringBuilder(charArray.length);
-        for (int offset = 0; offset < wordNet.length; ) {
-            if (wordNet[offset] == null) {
-                sb.append(charArray[offset]);
-                ++offset;
-                continue;
-            }
-            sb.append(wordNet[offset]);
-            offset += lengthNet[offset];
-        }
+        int[] offset = new int[1];
+        trie.parseText(charArray, MatchKind.LEFTMOST_LONGEST, (begin, end, value) -> {
+            sb.append(charArray, offset[0], begin - offset[0]);
+            sb.append(value);
+            offset[0] = end;
+        });
+        sb.append(charArray, offset[0], charArray.length - offset[0]);
         return sb.toString();
     }
 }
@@ -1,7 +1,9 @@
 package com.mayabot.nlp.transform;
 
+import com.google.inject.Inject;
+import com.mayabot.nlp.MynlpEnv;
+
 import javax.inject.Singleton;
-import java.util.TreeMap;
 
 /**
  * 简体转繁体的词典
@@ -11,11 +13,13 @@ import java.util.TreeMap;
 @Singleton
 public class Simplified2Traditional extends BaseTransformDictionary {
 
-    public Simplified2Traditional() {
+    @Inject
+    public Simplified2Traditional(MynlpEnv env) {
+        super(env);
     }
 
     @Override
-    public TreeMap<String, String> loadDictionary() {
-        return loadFromResouce("ts/s2t.txt");
+    public String resourceName() {
+        return "ts/s2t.txt";
     }
 }
@@ -1,7 +1,9 @@
 package com.mayabot.nlp.transform;
 
+import com.google.inject.Inject;
+import com.mayabot.nlp.MynlpEnv;
+
 import javax.inject.Singleton;
-import java.util.TreeMap;
 
 /**
  * 繁体转简体的词典
@@ -11,11 +13,13 @@ import java.util.TreeMap;
 @Singleton
 public class Traditional2Simplified extends BaseTransformDictionary {
 
-    public Traditional2Simplified() {
+    @Inject
+    public Traditional2Simplified(MynlpEnv env) {
+        super(env);
     }
 
     @Override
-    public TreeMap<String, String> loadDictionary() {
-        return loadFromResouce("ts/t2s.txt");
+    public String resourceName() {
+        return "ts/t2s.txt";
     }
 }